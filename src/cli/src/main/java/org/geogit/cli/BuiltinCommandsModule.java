@@ -5,7 +5,9 @@
 package org.geogit.cli;
 
 import org.geogit.cli.plumbing.LsTree;
+import org.geogit.cli.plumbing.RebuildBloom;
 import org.geogit.cli.plumbing.RevParse;
+import org.geogit.cli.plumbing.RewriteObjects;
 import org.geogit.cli.porcelain.Add;
 import org.geogit.cli.porcelain.Branch;
 import org.geogit.cli.porcelain.Checkout;
@@ -52,6 +54,9 @@ import com.google.inject.AbstractModule;
  * @see Push
  * @see Pull
  * @see Fetch
+ * @see LsTree
+ * @see RebuildBloom
+ * @see RewriteObjects
  */
 public class BuiltinCommandsModule extends AbstractModule implements CLIModule {
 
@@ -79,6 +84,8 @@ public class BuiltinCommandsModule extends AbstractModule implements CLIModule {
         bind(Push.class);
         bind(Pull.class);
         bind(LsTree.class);
+        bind(RebuildBloom.class);
+        bind(RewriteObjects.class);
     }
 
 }
@@ -0,0 +1,44 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.cli.plumbing;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import org.geogit.api.plumbing.RebuildBloomFilters;
+import org.geogit.cli.AbstractCommand;
+import org.geogit.cli.GeogitCLI;
+
+import com.beust.jcommander.Parameters;
+
+/**
+ * Rebuilds the bloom filters the object databases use to tell missing objects apart without going
+ * to disk.
+ * <p>
+ * Usage:
+ * <ul>
+ * <li> {@code geogit rebuild-bloom}
+ * </ul>
+ * 
+ * @see RebuildBloomFilters
+ */
+@Parameters(commandNames = "rebuild-bloom", commandDescription = "Rebuild the object database bloom filters")
+public class RebuildBloom extends AbstractCommand {
+
+    /**
+     * Executes the rebuild-bloom command.
+     * 
+     * @param cli
+     * @see org.geogit.cli.AbstractCommand#runInternal(org.geogit.cli.GeogitCLI)
+     */
+    @Override
+    protected void runInternal(GeogitCLI cli) throws Exception {
+        checkState(cli.getGeogit() != null, "Not a geogit repository: " + cli.getPlatform().pwd());
+
+        cli.getGeogit().command(RebuildBloomFilters.class).call();
+        cli.getConsole().println("Bloom filters rebuilt.");
+        cli.getConsole().flush();
+    }
+}
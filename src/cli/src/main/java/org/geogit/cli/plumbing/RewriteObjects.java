@@ -0,0 +1,45 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.cli.plumbing;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import org.geogit.cli.AbstractCommand;
+import org.geogit.cli.GeogitCLI;
+
+import com.beust.jcommander.Parameters;
+
+/**
+ * Rewrites the objects reachable from the repository refs in the serialization format set by the
+ * {@code storage.serialization} config key, to be run after changing it.
+ * <p>
+ * Usage:
+ * <ul>
+ * <li> {@code geogit config storage.serialization datastream}
+ * <li> {@code geogit rewrite-objects}
+ * </ul>
+ *
+ * @see org.geogit.api.plumbing.RewriteObjects
+ */
+@Parameters(commandNames = "rewrite-objects", commandDescription = "Rewrite the repository objects in the configured serialization format")
+public class RewriteObjects extends AbstractCommand {
+
+    /**
+     * Executes the rewrite-objects command.
+     *
+     * @param cli
+     * @see org.geogit.cli.AbstractCommand#runInternal(org.geogit.cli.GeogitCLI)
+     */
+    @Override
+    protected void runInternal(GeogitCLI cli) throws Exception {
+        checkState(cli.getGeogit() != null, "Not a geogit repository: " + cli.getPlatform().pwd());
+
+        Long rewritten = cli.getGeogit().command(org.geogit.api.plumbing.RewriteObjects.class)
+                .call();
+        cli.getConsole().println(rewritten + " objects rewritten.");
+        cli.getConsole().flush();
+    }
+}
@@ -56,6 +56,8 @@ import com.google.common.collect.Lists;
  * <li> {@code geogit diff --cached <commit> [-- <path>...]}: compare the index with the given commit
  * <li> {@code geogit diff <commit1> <commit2> [-- <path>...]}: compare {@code commit1} with
  * {@code commit2}, where {@code commit1} is the eldest or left side of the diff.
+ * <li> {@code geogit diff --parallel <commit1> <commit2> [-- <path>...]}: same as above, diffing
+ * large trees on as many threads as set by the {@code diff.threads} config key
  * </ul>
  * 
  * @see DiffOp
@@ -75,6 +77,9 @@ public class Diff extends AbstractCommand implements CLICommand {
     @Parameter(names = "--raw", description = "List only summary changes for each feature")
     private boolean raw;
 
+    @Parameter(names = "--parallel", description = "When comparing two commits, diff large trees on as many threads as set by the diff.threads config key")
+    private boolean parallel;
+
     /**
      * Executes the diff command with the specified options.
      * 
@@ -95,6 +100,7 @@ public class Diff extends AbstractCommand implements CLICommand {
         String newVersion = resolveNewVersion();
 
         diff.setOldVersion(oldVersion).setNewVersion(newVersion).setCompareIndex(cached);
+        diff.setParallel(parallel);
 
         Iterator<DiffEntry> entries = diff.setProgressListener(cli.getProgressListener()).call();
 
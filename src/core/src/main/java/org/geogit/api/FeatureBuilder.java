@@ -11,7 +11,6 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.PropertyDescriptor;
 
-import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
@@ -59,12 +58,11 @@ public class FeatureBuilder {
     public Feature build(String id, RevFeature revFeature) {
         featureBuilder.reset();
         ImmutableList<PropertyDescriptor> descriptors = type.sortedDescriptors();
-        ImmutableList<Optional<Object>> values = revFeature.getValues();
-        Preconditions.checkState(descriptors.size() == values.size());
+        Preconditions.checkState(descriptors.size() == revFeature.size());
 
         for (int i = 0; i < descriptors.size(); i++) {
             PropertyDescriptor descriptor = descriptors.get(i);
-            Object value = values.get(i).orNull();
+            Object value = revFeature.get(i).orNull();
             featureBuilder.set(descriptor.getName(), value);
         }
 
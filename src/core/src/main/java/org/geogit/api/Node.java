@@ -4,11 +4,13 @@
  */
 package org.geogit.api;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import javax.annotation.Nullable;
 
 import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.NodePathStorageOrder;
 
 import com.google.common.base.Optional;
 
@@ -39,6 +41,13 @@ public class Node implements Comparable<Node> {
      */
     private ObjectId objectId;
 
+    /**
+     * Leading bytes of the hash of the name, computed on first use
+     */
+    private long pathHashPrefix;
+
+    private volatile boolean pathHashed;
+
     public Node(final String name, final ObjectId oid, final ObjectId metadataId,
             final RevObject.TYPE type) {
         if (name.contains(".") && type.equals(TYPE.TREE)) {
@@ -53,6 +62,18 @@ public class Node implements Comparable<Node> {
         this.type = type;
     }
 
+    /**
+     * Creates a tree node that holds the size of the tree it points to, so that the sizes of trees
+     * can be added up without loading their subtrees. Only these nodes hold a size, other nodes
+     * don't pay for the field.
+     * 
+     * @param treeSize the {@link RevTree#size() size} of the tree {@code treeId} identifies
+     */
+    public static Node tree(final String name, final ObjectId treeId, final ObjectId metadataId,
+            final long treeSize) {
+        return new SizedTree(name, treeId, metadataId, treeSize);
+    }
+
     public Optional<ObjectId> getMetadataId() {
         return Optional.fromNullable(metadataId);
     }
@@ -78,6 +99,41 @@ public class Node implements Comparable<Node> {
         return type;
     }
 
+    /**
+     * @return the {@link RevTree#size() size} of the tree this node points to, if this is a tree
+     *         node created with it, absent otherwise
+     */
+    public Optional<Long> getTreeSize() {
+        return Optional.absent();
+    }
+
+    static long checkTreeSize(final long treeSize) {
+        checkArgument(treeSize >= 0, "treeSize can't be negative");
+        return treeSize;
+    }
+
+    /**
+     * @return the first {@link NodePathStorageOrder#PREFIX_BYTES} bytes of the
+     *         {@link NodePathStorageOrder#pathHash(String) path hash} of this node's name, which
+     *         determine its storage order and bucket; computed once per node
+     */
+    public long getPathHashPrefix() {
+        if (!pathHashed) {
+            pathHashPrefix = NodePathStorageOrder.pathHashPrefix(name);
+            pathHashed = true;
+        }
+        return pathHashPrefix;
+    }
+
+    /**
+     * Sets the path hash prefix of a node read back from where it was stored along with it, so
+     * that its name isn't hashed again
+     */
+    void setPathHashPrefix(final long pathHashPrefix) {
+        this.pathHashPrefix = pathHashPrefix;
+        this.pathHashed = true;
+    }
+
     /**
      * Provides for natural ordering of {@code Node}, based on {@link #getName() name}
      */
@@ -113,4 +169,24 @@ public class Node implements Comparable<Node> {
                 .append(getObjectId()).append(']').toString();
     }
 
+    /**
+     * A tree node that holds the size of its tree.
+     * 
+     * @see Node#tree(String, ObjectId, ObjectId, long)
+     */
+    private static class SizedTree extends Node {
+
+        private final long treeSize;
+
+        SizedTree(String name, ObjectId treeId, ObjectId metadataId, long treeSize) {
+            super(name, treeId, metadataId, TYPE.TREE);
+            this.treeSize = checkTreeSize(treeSize);
+        }
+
+        @Override
+        public Optional<Long> getTreeSize() {
+            return Optional.of(Long.valueOf(treeSize));
+        }
+    }
+
 }
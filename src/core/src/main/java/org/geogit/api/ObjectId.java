@@ -1,205 +1,293 @@
-/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
- * This code is licensed under the LGPL 2.1 license, available at the root
- * application directory.
- */
-package org.geogit.api;
-
-import java.nio.charset.Charset;
-import java.util.Arrays;
-
-import com.google.common.base.Preconditions;
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashCodes;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
-
-/**
- * A {@link RevObject} identifier backed by a hash function (SHA1 for instance)
- */
-public final class ObjectId implements Comparable<ObjectId> {
-
-    /**
-     * ObjectId instance that represents a NULL id.
-     */
-    public static final ObjectId NULL;
-
-    /**
-     * Hash function to create object ids out of its contents (SHA-1)
-     */
-    public static final HashFunction HASH_FUNCTION;
-
-    private static final int NUM_BYTES;
-
-    private static int NUM_CHARS;
-    static {
-        HASH_FUNCTION = Hashing.sha1();
-
-        NUM_BYTES = HASH_FUNCTION.bits() / 8;
-
-        NUM_CHARS = 2 * NUM_BYTES;
-
-        NULL = new ObjectId(new byte[20]);
-    }
-
-    private final byte[] hashCode;
-
-    /**
-     * Constructs a new {@code NULL} object id.
-     */
-    public ObjectId() {
-        this.hashCode = NULL.hashCode;
-    }
-
-    /**
-     * Constructs a new object id with the given byte code.
-     * 
-     * @param raw the byte code to use
-     */
-    public ObjectId(byte[] raw) {
-        Preconditions.checkNotNull(raw);
-        Preconditions.checkArgument(raw.length == NUM_BYTES);
-        this.hashCode = raw.clone();
-    }
-
-    /**
-     * @return whether or not this object id represents the {@link #NULL} object id
-     */
-    public boolean isNull() {
-        return NULL.equals(this);
-    }
-
-    /**
-     * Determines if this object id is the same as the given object id.
-     * 
-     * @param o the object id to compare against
-     */
-    @Override
-    public boolean equals(Object o) {
-        if (o == this) {
-            return true;
-        }
-        if (!(o instanceof ObjectId)) {
-            return false;
-        }
-        return Arrays.equals(hashCode, ((ObjectId) o).hashCode);
-    }
-
-    /**
-     * @return a hash code based on the contents of the byte array.
-     */
-    @Override
-    public int hashCode() {
-        return Arrays.hashCode(hashCode);
-    }
-
-    /**
-     * @return a human friendly representation of this SHA1
-     * @see java.lang.Object#toString()
-     */
-    @Override
-    public String toString() {
-        return HashCodes.fromBytes(hashCode).toString();
-    }
-
-    /**
-     * Converts a {@code String} representation of a hash code into an {@code ObjectId}.
-     * 
-     * @param hash the string to convert
-     * @return the object id represented by its string form, this method is the inverse of
-     *         {@link #toString()}
-     */
-    public static ObjectId valueOf(final String hash) {
-        Preconditions.checkNotNull(hash);
-        Preconditions.checkArgument(hash.length() == NUM_CHARS, hash,
-                String.format("ObjectId.valueOf: Invalid hash string %s", hash));
-
-        // this is perhaps the worse way of doing this...
-
-        final byte[] raw = new byte[NUM_BYTES];
-        final int radix = 16;
-        for (int i = 0; i < NUM_BYTES; i++) {
-            raw[i] = (byte) Integer.parseInt(hash.substring(2 * i, 2 * i + 2), radix);
-        }
-        return new ObjectId(raw);
-    }
-
-    /**
-     * Converts a {@code String} representation of a byte code into a byte array.
-     * 
-     * @param hash the string to convert
-     * @return the byte array represented by its string form
-     */
-    public static byte[] toRaw(final String hash) {
-        Preconditions.checkNotNull(hash);
-        for (int i = 0; i < hash.length(); i++) {
-            char c = hash.charAt(i);
-            if (-1 == Character.digit(c, 16)) {
-                throw new IllegalArgumentException("At index " + i
-                        + ": partialId is not a valid hash subsequence '" + hash + "'");
-            }
-        }
-
-        final byte[] raw = new byte[hash.length() / 2];
-        final int radix = 16;
-        for (int i = 0; i < raw.length; i++) {
-            raw[i] = (byte) Integer.parseInt(hash.substring(2 * i, 2 * i + 2), radix);
-        }
-        return raw;
-    }
-
-    /**
-     * @see java.lang.Comparable#compareTo(java.lang.Object)
-     */
-    public int compareTo(final ObjectId o) {
-        byte[] left = this.hashCode;
-        byte[] right = o.hashCode;
-        return compare(left, right);
-    }
-
-    private static int compare(byte[] left, byte[] right) {
-        int c;
-        for (int i = 0; i < left.length; i++) {
-            c = left[i] - right[i];
-            if (c != 0) {
-                return c;
-            }
-        }
-        return 0;
-    }
-
-    /**
-     * @return a raw byte array of the hash code for this object id. Changes to the returned array
-     *         do not affect this object.
-     */
-    public byte[] getRawValue() {
-        return hashCode.clone();
-    }
-
-    /**
-     * Utility method to quickly hash a String and create an ObjectId out of the string SHA-1 hash.
-     * <p>
-     * Note this method is to hash a string, not to convert the string representation of an
-     * ObjectId. Use {@link #valueOf(String)} for that purpose.
-     * </p>
-     * 
-     * @param strToHash
-     * @return the {@code ObjectId} generated from the string
-     */
-    public static ObjectId forString(final String strToHash) {
-        Preconditions.checkNotNull(strToHash);
-        HashCode hashCode = HASH_FUNCTION.hashString(strToHash, Charset.forName("UTF-8"));
-        return new ObjectId(hashCode.asBytes());
-    }
-
-    /**
-     * Returns the value of this ObjectId's internal hash at the given index without having to go
-     * through {@link #getRawValue()} and hence create excessive defensive copies of the byte array.
-     * 
-     * @param index the index of the byte inside this objectid's internal hash to return
-     * @return the byte at the given index as an integer
-     */
-    public int byteN(int index) {
-        int b = this.hashCode[index] & 0xFF;
-        return b;
-    }
-}
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import java.nio.charset.Charset;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A {@link RevObject} identifier backed by a hash function (SHA1 for instance)
+ * <p>
+ * The 20 bytes hash is held in two {@code long}s and an {@code int} rather than in a byte array,
+ * saving an object per id and letting {@link #equals(Object)}, {@link #hashCode()} and
+ * {@link #compareTo(ObjectId)} work on whole words.
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+
+    /**
+     * ObjectId instance that represents a NULL id.
+     */
+    public static final ObjectId NULL;
+
+    /**
+     * Hash function to create object ids out of its contents (SHA-1)
+     */
+    public static final HashFunction HASH_FUNCTION;
+
+    private static final int NUM_BYTES;
+
+    private static int NUM_CHARS;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    static {
+        HASH_FUNCTION = Hashing.sha1();
+
+        NUM_BYTES = HASH_FUNCTION.bits() / 8;
+
+        NUM_CHARS = 2 * NUM_BYTES;
+
+        NULL = new ObjectId(0L, 0L, 0);
+    }
+
+    /**
+     * Bytes 0 to 7 of the hash, big endian
+     */
+    final long h1;
+
+    /**
+     * Bytes 8 to 15 of the hash, big endian
+     */
+    final long h2;
+
+    /**
+     * Bytes 16 to 19 of the hash, big endian
+     */
+    final int h3;
+
+    /**
+     * Constructs a new {@code NULL} object id.
+     */
+    public ObjectId() {
+        this(0L, 0L, 0);
+    }
+
+    /**
+     * Constructs a new object id with the given byte code.
+     * 
+     * @param raw the byte code to use
+     */
+    public ObjectId(byte[] raw) {
+        Preconditions.checkNotNull(raw);
+        Preconditions.checkArgument(raw.length == NUM_BYTES);
+        this.h1 = getLong(raw, 0);
+        this.h2 = getLong(raw, 8);
+        this.h3 = (int) getBytes(raw, 16, 4);
+    }
+
+    private ObjectId(final long h1, final long h2, final int h3) {
+        this.h1 = h1;
+        this.h2 = h2;
+        this.h3 = h3;
+    }
+
+    private static long getLong(final byte[] raw, final int offset) {
+        return getBytes(raw, offset, 8);
+    }
+
+    private static long getBytes(final byte[] raw, final int offset, final int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (raw[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * @return whether or not this object id represents the {@link #NULL} object id
+     */
+    public boolean isNull() {
+        return h1 == 0L && h2 == 0L && h3 == 0;
+    }
+
+    /**
+     * Determines if this object id is the same as the given object id.
+     * 
+     * @param o the object id to compare against
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) o;
+        return h1 == other.h1 && h2 == other.h2 && h3 == other.h3;
+    }
+
+    /**
+     * @return a hash code based on all the bytes of the hash
+     */
+    @Override
+    public int hashCode() {
+        return (int) (h1 ^ (h1 >>> 32) ^ h2 ^ (h2 >>> 32)) ^ h3;
+    }
+
+    /**
+     * @return a human friendly representation of this SHA1
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final char[] chars = new char[NUM_CHARS];
+        toHex(h1, 16, chars, 0);
+        toHex(h2, 16, chars, 16);
+        toHex(h3, 8, chars, 32);
+        return new String(chars);
+    }
+
+    private static void toHex(long value, final int numChars, final char[] target,
+            final int offset) {
+        for (int i = offset + numChars - 1; i >= offset; i--) {
+            target[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Converts a {@code String} representation of a hash code into an {@code ObjectId}.
+     * 
+     * @param hash the string to convert
+     * @return the object id represented by its string form, this method is the inverse of
+     *         {@link #toString()}
+     */
+    public static ObjectId valueOf(final String hash) {
+        Preconditions.checkNotNull(hash);
+        Preconditions.checkArgument(hash.length() == NUM_CHARS, hash,
+                String.format("ObjectId.valueOf: Invalid hash string %s", hash));
+
+        return new ObjectId(parseHex(hash, 0, 16), parseHex(hash, 16, 16),
+                (int) parseHex(hash, 32, 8));
+    }
+
+    private static long parseHex(final String hash, final int offset, final int numChars) {
+        long value = 0;
+        for (int i = offset; i < offset + numChars; i++) {
+            value = (value << 4) | hexDigit(hash, i);
+        }
+        return value;
+    }
+
+    private static int hexDigit(final String hash, final int index) {
+        final int digit = Character.digit(hash.charAt(index), 16);
+        if (digit == -1) {
+            throw new IllegalArgumentException("At index " + index
+                    + ": partialId is not a valid hash subsequence '" + hash + "'");
+        }
+        return digit;
+    }
+
+    /**
+     * Converts a {@code String} representation of a byte code into a byte array.
+     * 
+     * @param hash the string to convert
+     * @return the byte array represented by its string form
+     */
+    public static byte[] toRaw(final String hash) {
+        Preconditions.checkNotNull(hash);
+        for (int i = 0; i < hash.length(); i++) {
+            hexDigit(hash, i);
+        }
+
+        final byte[] raw = new byte[hash.length() / 2];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) ((hexDigit(hash, 2 * i) << 4) | hexDigit(hash, 2 * i + 1));
+        }
+        return raw;
+    }
+
+    /**
+     * Orders ids by their unsigned raw bytes, which is also the order of their string
+     * representations.
+     * 
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    public int compareTo(final ObjectId o) {
+        int c = compareUnsigned(h1, o.h1);
+        if (c == 0) {
+            c = compareUnsigned(h2, o.h2);
+            if (c == 0) {
+                c = compareUnsigned(h3 & 0xFFFFFFFFL, o.h3 & 0xFFFFFFFFL);
+            }
+        }
+        return c;
+    }
+
+    private static int compareUnsigned(final long left, final long right) {
+        final long l = left + Long.MIN_VALUE;
+        final long r = right + Long.MIN_VALUE;
+        return l < r ? -1 : (l == r ? 0 : 1);
+    }
+
+    /**
+     * @return a raw byte array of the hash code for this object id. Changes to the returned array
+     *         do not affect this object.
+     */
+    public byte[] getRawValue() {
+        final byte[] raw = new byte[NUM_BYTES];
+        getRawValue(raw, 0);
+        return raw;
+    }
+
+    /**
+     * Copies the raw bytes of the hash code for this object id to the given array, without
+     * allocating a new one.
+     * 
+     * @param target the array to copy the 20 bytes of the hash to
+     * @param offset the index in {@code target} of the first byte to copy
+     */
+    public void getRawValue(final byte[] target, final int offset) {
+        Preconditions.checkPositionIndexes(offset, offset + NUM_BYTES, target.length);
+        for (int i = 0; i < NUM_BYTES; i++) {
+            target[offset + i] = (byte) byteN(i);
+        }
+    }
+
+    /**
+     * Utility method to quickly hash a String and create an ObjectId out of the string SHA-1 hash.
+     * <p>
+     * Note this method is to hash a string, not to convert the string representation of an
+     * ObjectId. Use {@link #valueOf(String)} for that purpose.
+     * </p>
+     * 
+     * @param strToHash
+     * @return the {@code ObjectId} generated from the string
+     */
+    public static ObjectId forString(final String strToHash) {
+        Preconditions.checkNotNull(strToHash);
+        HashCode hashCode = HASH_FUNCTION.hashString(strToHash, Charset.forName("UTF-8"));
+        return new ObjectId(hashCode.asBytes());
+    }
+
+    /**
+     * Returns the value of this ObjectId's internal hash at the given index without having to go
+     * through {@link #getRawValue()} and hence create excessive defensive copies of the byte array.
+     * 
+     * @param index the index of the byte inside this objectid's internal hash to return
+     * @return the byte at the given index as an integer
+     */
+    public int byteN(int index) {
+        Preconditions.checkElementIndex(index, NUM_BYTES);
+        final long word;
+        final int shift;
+        if (index < 8) {
+            word = h1;
+            shift = 56 - 8 * index;
+        } else if (index < 16) {
+            word = h2;
+            shift = 56 - 8 * (index - 8);
+        } else {
+            word = h3;
+            shift = 24 - 8 * (index - 16);
+        }
+        return (int) (word >>> shift) & 0xFF;
+    }
+}
@@ -0,0 +1,144 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A set of {@link ObjectId}s that keeps the ids as primitive values in a single open addressing
+ * table, instead of an entry object per id as a {@link java.util.HashSet} does, meant for the
+ * visited sets of graph walks.
+ * <p>
+ * Only supports adding ids and checking for their presence. Not thread safe.
+ */
+public final class ObjectIdSet {
+
+    private static final int SLOT_WIDTH = 3;
+
+    /**
+     * Set on the third word of a slot, which holds the last four bytes of the id, to tell taken
+     * slots from free ones
+     */
+    private static final long TAKEN = 1L << 32;
+
+    private long[] table;
+
+    private int mask;
+
+    private int size;
+
+    /**
+     * Creates an empty set
+     */
+    public ObjectIdSet() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty set sized to hold the given number of ids without growing
+     *
+     * @param expectedSize the number of ids the set is expected to hold
+     */
+    public ObjectIdSet(final int expectedSize) {
+        Preconditions.checkArgument(expectedSize >= 0, "expectedSize can't be negative");
+        int slots = 16;
+        while (slots / 2 < expectedSize) {
+            slots *= 2;
+        }
+        this.table = new long[slots * SLOT_WIDTH];
+        this.mask = slots - 1;
+    }
+
+    /**
+     * @return the number of ids in this set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return {@code true} if this set contains no ids
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param id the id to look for
+     * @return {@code true} if the id was added to this set
+     */
+    public boolean contains(final ObjectId id) {
+        return table[find(table, mask, id) + 2] != 0L;
+    }
+
+    /**
+     * Adds the given id to this set if it's not already present
+     *
+     * @param id the id to add
+     * @return {@code true} if the id was not already in the set
+     */
+    public boolean add(final ObjectId id) {
+        final int slot = find(table, mask, id);
+        if (table[slot + 2] != 0L) {
+            return false;
+        }
+        put(table, slot, id);
+        if (++size > (mask + 1) / 2) {
+            grow();
+        }
+        return true;
+    }
+
+    private void grow() {
+        final long[] old = table;
+        final int newMask = 2 * mask + 1;
+        final long[] grown = new long[old.length * 2];
+        for (int base = 0; base < old.length; base += SLOT_WIDTH) {
+            final long tail = old[base + 2];
+            if (tail != 0L) {
+                int slot = hash(old[base], old[base + 1], tail) & newMask;
+                while (grown[slot * SLOT_WIDTH + 2] != 0L) {
+                    slot = (slot + 1) & newMask;
+                }
+                System.arraycopy(old, base, grown, slot * SLOT_WIDTH, SLOT_WIDTH);
+            }
+        }
+        this.table = grown;
+        this.mask = newMask;
+    }
+
+    /**
+     * @return the index in the table of the slot holding the id, or of the free slot where it
+     *         would go
+     */
+    private static int find(final long[] table, final int mask, final ObjectId id) {
+        final long h1 = id.h1;
+        final long h2 = id.h2;
+        final long tail = TAKEN | (id.h3 & 0xFFFFFFFFL);
+        int slot = hash(h1, h2, tail) & mask;
+        while (true) {
+            final int base = slot * SLOT_WIDTH;
+            final long taken = table[base + 2];
+            if (taken == 0L || (taken == tail && table[base] == h1 && table[base + 1] == h2)) {
+                return base;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static void put(final long[] table, final int base, final ObjectId id) {
+        table[base] = id.h1;
+        table[base + 1] = id.h2;
+        table[base + 2] = TAKEN | (id.h3 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Ids are mostly SHA-1 hashes already, mixing their words is enough for the ones that aren't
+     */
+    private static int hash(final long h1, final long h2, final long tail) {
+        final long hash = (h1 ^ h2 ^ tail) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32);
+    }
+}
@@ -0,0 +1,559 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.geogit.api.RevTree.NORMALIZED_SIZE_LIMIT;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.repository.DepthSearch;
+import org.geogit.repository.SpatialOps;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.QuadTreeStorageOrder;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Builds trees with the quadtree layout, where nodes are split into buckets by the quadtree cell
+ * holding the center of their bounds instead of by their path hash, so that spatially close nodes
+ * end up in the same bucket trees and a bounds filtered traversal reads only the few bucket trees
+ * intersecting the filter, see {@link QuadTreeStorageOrder}.
+ * <p>
+ * The root of a non empty quadtree is always split into buckets, for its layout to be told apart
+ * from the path hash one; deeper cells holding up to {@link RevTree#NORMALIZED_SIZE_LIMIT} nodes are
+ * leaf trees. {@link RevTree#builder(ObjectDatabase)} returns a {@code QuadTreeBuilder} for
+ * quadtrees, so edited quadtrees keep their layout, while copying a tree of another layout converts
+ * it.
+ * <p>
+ * As the cell a node is in is given by its bounds rather than by its name, building a quadtree
+ * with removed or replaced nodes first finds out where they are. Nodes given to
+ * {@link #update(Node, Node)} or {@link #remove(Node)} are looked up in the single branch of cells
+ * their bounds fall into, as are the nodes given to {@link #put(Node)} in case they replace a node
+ * with the same bounds; only the names still not found that way, and not known to be new, are
+ * looked up by scanning the whole quadtree, once per build. Only the cells with changes are
+ * rebuilt. All the added nodes are held in memory until the tree is built.
+ */
+public class QuadTreeBuilder extends RevTreeBuilder {
+
+    private static final Cell ROOT = new Cell(QuadTreeStorageOrder.topCell(0), 0, 0, 0);
+
+    private final ObjectDatabase db;
+
+    /**
+     * The quadtree being edited, if any
+     */
+    @Nullable
+    private RevTree original;
+
+    private final Map<String, Node> changes;
+
+    private final Set<String> deletes;
+
+    /**
+     * The nodes of the original tree given to {@link #update(Node, Node)} or
+     * {@link #remove(Node)}, by name
+     */
+    private final Map<String, Node> previous;
+
+    /**
+     * The names known not to be in the original tree
+     */
+    private final Set<String> added;
+
+    /**
+     * The bucket keys of the trees holding the nodes of the original tree found so far, from the
+     * root, by name
+     */
+    private final Map<String, List<Integer>> located;
+
+    @Nullable
+    private ExecutorService executor;
+
+    /**
+     * Empty tree constructor, used to create quadtrees from scratch
+     */
+    public QuadTreeBuilder(ObjectDatabase db) {
+        this(db, null);
+    }
+
+    /**
+     * Copy constructor, the tree to copy being converted to the quadtree layout unless it's a
+     * quadtree already
+     */
+    public QuadTreeBuilder(ObjectDatabase db, @Nullable RevTree copy) {
+        super(db);
+        this.db = db;
+        this.changes = Maps.newHashMap();
+        this.deletes = Sets.newHashSet();
+        this.previous = Maps.newHashMap();
+        this.added = Sets.newHashSet();
+        this.located = Maps.newHashMap();
+        if (copy == null || copy.isEmpty() || QuadTreeStorageOrder.isQuadTree(copy)) {
+            this.original = copy == null || copy.isEmpty() ? null : copy;
+        } else {
+            this.original = null;
+            Iterator<NodeRef> nodes = new DepthTreeIterator("", ObjectId.NULL, copy, db,
+                    Strategy.CHILDREN);
+            while (nodes.hasNext()) {
+                put(nodes.next().getNode());
+            }
+        }
+    }
+
+    /**
+     * Returns the builder to apply the changes made to a source tree to a target tree with, as
+     * when staging the working tree changes or committing the staged ones: the
+     * {@link RevTree#builder(ObjectDatabase) builder} of the target tree if it exists, or else a
+     * quadtree builder if the source tree is a quadtree, so that new trees keep the source layout.
+     *
+     * @param target the tree to apply the changes to, empty if it doesn't exist yet
+     * @param source supplies the tree the changes come from, only called if {@code target} is
+     *        empty
+     * @param db the object database to build the tree on
+     */
+    public static RevTreeBuilder builderFor(final RevTree target, final Supplier<RevTree> source,
+            final ObjectDatabase db) {
+        if (target.isEmpty() && QuadTreeStorageOrder.isQuadTree(source.get())) {
+            return new QuadTreeBuilder(db);
+        }
+        return target.builder(db);
+    }
+
+    @Override
+    public QuadTreeBuilder setExecutor(@Nullable ExecutorService executor) {
+        super.setExecutor(executor);
+        this.executor = executor;
+        return this;
+    }
+
+    @Override
+    public Optional<Node> get(final String key) {
+        Node node = changes.get(key);
+        if (node != null) {
+            return Optional.of(node);
+        }
+        if (original == null || deletes.contains(key) || added.contains(key)) {
+            return Optional.absent();
+        }
+        if (!located.containsKey(key)) {
+            scan(Collections.singleton(key));
+        }
+        List<Integer> buckets = located.get(key);
+        if (buckets == null) {
+            return Optional.absent();
+        }
+        RevTree tree = original;
+        for (Integer bucket : buckets) {
+            tree = db.getTree(tree.buckets().get().get(bucket));
+        }
+        return new DepthSearch(db).getDirectChild(tree, key, 0);
+    }
+
+    @Override
+    public QuadTreeBuilder put(final Node node) {
+        checkNotNull(node, "node can't be null");
+        switch (node.getType()) {
+        case FEATURE:
+        case TREE:
+            break;
+        default:
+            throw new IllegalArgumentException(
+                    "Only tree or feature nodes can be added to a tree: " + node + " "
+                            + node.getType());
+        }
+        deletes.remove(node.getName());
+        changes.put(node.getName(), node);
+        return this;
+    }
+
+    @Override
+    public QuadTreeBuilder update(@Nullable final Node oldNode, final Node newNode) {
+        checkNotNull(newNode, "node can't be null");
+        if (oldNode == null) {
+            added.add(newNode.getName());
+        } else {
+            previous.put(oldNode.getName(), oldNode);
+        }
+        return put(newNode);
+    }
+
+    @Override
+    public QuadTreeBuilder remove(final Node oldNode) {
+        checkNotNull(oldNode, "node can't be null");
+        previous.put(oldNode.getName(), oldNode);
+        return remove(oldNode.getName());
+    }
+
+    @Override
+    public QuadTreeBuilder remove(final String childName) {
+        checkNotNull(childName, "key can't be null");
+        changes.remove(childName);
+        deletes.add(childName);
+        return this;
+    }
+
+    /**
+     * @return the new quadtree with a {@link ObjectId#NULL NULL} id, not saved to the object
+     *         database. Its bucket trees are saved though.
+     */
+    @Override
+    protected RevTree buildUnnamed() {
+        final Set<String> removes = Sets.newHashSet();
+        if (original != null) {
+            Set<String> unresolved = Sets.newHashSet();
+            for (String name : Sets.union(deletes, changes.keySet())) {
+                if (added.contains(name)) {
+                    continue;
+                }
+                Node oldNode = previous.get(name);
+                Node newNode = changes.get(name);
+                if (located.containsKey(name) || (oldNode != null && locate(oldNode))
+                        || (newNode != null && locate(newNode))) {
+                    removes.add(name);
+                } else {
+                    unresolved.add(name);
+                }
+            }
+            if (!unresolved.isEmpty()) {
+                removes.addAll(scan(unresolved));
+            }
+        }
+        RevTree tree = build(ROOT, original, located, removes, changes.values());
+        changes.clear();
+        deletes.clear();
+        previous.clear();
+        added.clear();
+        located.clear();
+        original = tree.isEmpty() ? null : tree;
+        return tree;
+    }
+
+    /**
+     * Looks for a node of the original tree in the branch of cells its bounds fall into, down to
+     * the leaf or path hash layout tree that would hold it.
+     *
+     * @return whether a node with the same name was found there, in which case the bucket keys of
+     *         the trees holding it are added to {@link #located}
+     */
+    private boolean locate(final Node node) {
+        List<Integer> buckets = Lists.newArrayList();
+        if (find(original, node, db, buckets).isPresent()) {
+            located.put(node.getName(), ImmutableList.copyOf(buckets));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Looks for a node of a quadtree in the branch of cells the bounds of the given node fall into,
+     * reading a single tree per level, so the node is only found if it has the same bounds as the
+     * given one, or at least bounds centered in the same cell.
+     *
+     * @param quadTree the root of a quadtree, as returned by {@link #build()}
+     * @param node the node to look for a node with the same name of
+     * @param db the object database the quadtree is stored in
+     * @return the node of the quadtree with the same name, if found in that branch
+     */
+    public static Optional<Node> find(final RevTree quadTree, final Node node,
+            final ObjectDatabase db) {
+        return find(quadTree, node, db, Lists.<Integer> newArrayList());
+    }
+
+    private static Optional<Node> find(final RevTree quadTree, final Node node,
+            final ObjectDatabase db, final List<Integer> buckets) {
+        Cell cell = ROOT;
+        RevTree tree = quadTree;
+        while (!cell.isHashed() && tree.buckets().isPresent()) {
+            Integer bucket = QuadTreeStorageOrder.bucket(node, cell.extent);
+            ObjectId bucketId = tree.buckets().get().get(bucket);
+            if (bucketId == null) {
+                return Optional.absent();
+            }
+            buckets.add(bucket);
+            tree = db.getTree(bucketId);
+            cell = cell.child(bucket);
+        }
+        return new DepthSearch(db).getDirectChild(tree, node.getName(), 0);
+    }
+
+    /**
+     * Scans the original tree for the nodes with the given names, adding the ones found to
+     * {@link #located}.
+     *
+     * @return the names found
+     */
+    private Set<String> scan(final Set<String> names) {
+        Map<String, List<Integer>> found = Maps.newHashMap();
+        locate(ROOT, original, ImmutableList.<Integer> of(), names, found);
+        located.putAll(found);
+        return found.keySet();
+    }
+
+    /**
+     * Scans the quadtree for the nodes with the given names, down to the leaf or path hash layout
+     * trees holding them. Only used for the nodes not found in the branch given by their bounds.
+     *
+     * @param located where to put the bucket keys of the trees holding each found node, from the
+     *        root
+     * @return whether all the nodes where found
+     */
+    private boolean locate(final Cell cell, final RevTree tree, final List<Integer> buckets,
+            final Set<String> names, final Map<String, List<Integer>> located) {
+
+        if (!cell.isHashed() && tree.buckets().isPresent()) {
+            for (Map.Entry<Integer, ObjectId> bucket : tree.buckets().get().entrySet()) {
+                List<Integer> bucketPath = ImmutableList.<Integer> builder().addAll(buckets)
+                        .add(bucket.getKey()).build();
+                RevTree bucketTree = db.getTree(bucket.getValue());
+                if (locate(cell.child(bucket.getKey()), bucketTree, bucketPath, names, located)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        Iterator<NodeRef> nodes = new DepthTreeIterator("", ObjectId.NULL, tree, db,
+                Strategy.CHILDREN);
+        while (nodes.hasNext()) {
+            String name = nodes.next().name();
+            if (names.contains(name)) {
+                located.put(name, buckets);
+                if (located.size() == names.size()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the tree of a cell out of its current tree and changes, saving any bucket tree.
+     *
+     * @param current the current tree of the cell, if any
+     * @param located the bucket keys of the trees holding the nodes to remove, from the root
+     * @param removes the names of the nodes to remove from the current tree of the cell
+     * @param puts the nodes to add to the cell
+     * @return the new tree of the cell, not saved
+     */
+    private RevTree build(final Cell cell, @Nullable final RevTree current,
+            final Map<String, List<Integer>> located, final Collection<String> removes,
+            final Collection<Node> puts) {
+
+        if (cell.isHashed()) {
+            RevTreeBuilder builder = new RevTreeBuilder(db, current);
+            builder.setExecutor(executor);
+            for (String name : removes) {
+                builder.remove(name);
+            }
+            for (Node node : puts) {
+                builder.put(node);
+            }
+            return builder.buildUnnamed();
+        }
+
+        SortedMap<Integer, ObjectId> buckets = Maps.newTreeMap();
+        SortedMap<Integer, Envelope> bucketBounds = Maps.newTreeMap();
+        Collection<String> bucketRemoves = removes;
+        Collection<Node> bucketPuts = puts;
+
+        if (current == null || !current.buckets().isPresent()) {
+            Map<String, Node> nodes = Maps.newHashMap();
+            if (current != null) {
+                for (Iterator<Node> it = current.children(); it.hasNext();) {
+                    Node node = it.next();
+                    nodes.put(node.getName(), node);
+                }
+            }
+            nodes.keySet().removeAll(removes);
+            for (Node node : puts) {
+                nodes.put(node.getName(), node);
+            }
+            if (!cell.isRoot() && nodes.size() <= NORMALIZED_SIZE_LIMIT) {
+                return leafTree(nodes.values());
+            }
+            bucketRemoves = Collections.emptySet();
+            bucketPuts = nodes.values();
+        } else {
+            buckets.putAll(current.buckets().get());
+            bucketBounds.putAll(current.bucketBounds());
+        }
+
+        Multimap<Integer, String> removesByBucket = ArrayListMultimap.create();
+        for (String name : bucketRemoves) {
+            removesByBucket.put(located.get(name).get(cell.level), name);
+        }
+        Multimap<Integer, Node> putsByBucket = ArrayListMultimap.create();
+        for (Node node : bucketPuts) {
+            putsByBucket.put(QuadTreeStorageOrder.bucket(node, cell.extent), node);
+        }
+
+        final List<Integer> changed = ImmutableList.copyOf(Sets.union(removesByBucket.keySet(),
+                putsByBucket.keySet()));
+        List<Callable<RevTree>> bucketBuilds = Lists.newArrayListWithCapacity(changed.size());
+        for (Integer bucket : changed) {
+            bucketBuilds.add(new BucketBuild(cell.child(bucket), buckets.get(bucket), located,
+                    removesByBucket.get(bucket), putsByBucket.get(bucket)));
+        }
+        final List<RevTree> bucketTrees = buildAll(bucketBuilds);
+
+        for (int i = 0; i < changed.size(); i++) {
+            final Integer bucket = changed.get(i);
+            final RevTree bucketTree = bucketTrees.get(i);
+            bucketBounds.remove(bucket);
+            if (bucketTree.isEmpty()) {
+                buckets.remove(bucket);
+            } else {
+                buckets.put(bucket, bucketTree.getId());
+                Optional<Envelope> bounds = SpatialOps.boundsOf(bucketTree);
+                if (bounds.isPresent()) {
+                    bucketBounds.put(bucket, bounds.get());
+                }
+            }
+        }
+        if (buckets.isEmpty()) {
+            return RevTree.EMPTY;
+        }
+
+        long size = 0;
+        for (ObjectId bucketId : buckets.values()) {
+            size += db.getTree(bucketId).size();
+        }
+        RevTree tree = RevTreeImpl.createNodeTree(ObjectId.NULL, size, buckets, bucketBounds);
+        if (!cell.isRoot() && size <= NORMALIZED_SIZE_LIMIT) {
+            // shrunk enough to be a leaf again
+            List<Node> nodes = Lists.newArrayList();
+            Iterator<NodeRef> refs = new DepthTreeIterator("", ObjectId.NULL, tree, db,
+                    Strategy.CHILDREN);
+            while (refs.hasNext()) {
+                nodes.add(refs.next().getNode());
+            }
+            tree = leafTree(nodes);
+        }
+        return tree;
+    }
+
+    private RevTree leafTree(Collection<Node> nodes) {
+        if (nodes.isEmpty()) {
+            return RevTree.EMPTY;
+        }
+        List<Node> features = Lists.newArrayList();
+        List<Node> trees = Lists.newArrayList();
+        long size = 0;
+        for (Node node : nodes) {
+            if (TYPE.TREE.equals(node.getType())) {
+                trees.add(node);
+                Optional<Long> treeSize = node.getTreeSize();
+                size += treeSize.isPresent() ? treeSize.get().longValue() : db.getTree(
+                        node.getObjectId()).size();
+            } else {
+                features.add(node);
+                size++;
+            }
+        }
+        return RevTreeImpl.createLeafTree(ObjectId.NULL, size, features, trees);
+    }
+
+    /**
+     * Builds the tree of a bucket out of its current tree and changes, and saves it unless it's
+     * empty.
+     */
+    private class BucketBuild implements Callable<RevTree> {
+
+        private final Cell cell;
+
+        @Nullable
+        private final ObjectId bucketId;
+
+        private final Map<String, List<Integer>> located;
+
+        private final Collection<String> removes;
+
+        private final Collection<Node> puts;
+
+        BucketBuild(Cell cell, @Nullable ObjectId bucketId, Map<String, List<Integer>> located,
+                Collection<String> removes, Collection<Node> puts) {
+            this.cell = cell;
+            this.bucketId = bucketId;
+            this.located = located;
+            this.removes = removes;
+            this.puts = puts;
+        }
+
+        @Override
+        public RevTree call() {
+            RevTree current = bucketId == null ? null : db.getTree(bucketId);
+            RevTree unnamed = build(cell, current, located, removes, puts);
+            if (unnamed.isEmpty()) {
+                return unnamed;
+            }
+            return db.hashAndPut(unnamed);
+        }
+    }
+
+    /**
+     * A quadtree cell: the extent it covers, which of the top cells it descends from, how many
+     * quadrant levels under it, and how many levels under the root. Cells past the last top cell
+     * or too deep have no extent, and are laid out by path hash.
+     */
+    private static final class Cell {
+
+        @Nullable
+        final Envelope extent;
+
+        final int topCell;
+
+        final int depth;
+
+        final int level;
+
+        Cell(@Nullable Envelope extent, int topCell, int depth, int level) {
+            this.extent = extent;
+            this.topCell = topCell;
+            this.depth = depth;
+            this.level = level;
+        }
+
+        boolean isRoot() {
+            return level == 0;
+        }
+
+        boolean isHashed() {
+            return extent == null;
+        }
+
+        Cell child(Integer bucket) {
+            if (QuadTreeStorageOrder.OUTSIDE.equals(bucket)) {
+                int next = topCell + 1;
+                Envelope nextExtent = next < QuadTreeStorageOrder.numTopCells() ? QuadTreeStorageOrder
+                        .topCell(next) : null;
+                return new Cell(nextExtent, next, 0, level + 1);
+            }
+            Envelope quadrant = depth < QuadTreeStorageOrder.MAX_DEPTH ? QuadTreeStorageOrder
+                    .quadrant(extent, bucket) : null;
+            return new Cell(quadrant, topCell, depth + 1, level + 1);
+        }
+    }
+}
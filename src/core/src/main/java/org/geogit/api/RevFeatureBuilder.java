@@ -9,6 +9,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ObjectInserter;
 import org.opengis.feature.Feature;
 import org.opengis.feature.Property;
 
@@ -39,6 +41,36 @@ public final class RevFeatureBuilder {
      * @return the newly constructed RevFeature
      */
     public RevFeature build(Feature feature) {
+        return RevFeature.build(values(feature));
+    }
+
+    /**
+     * Constructs a new {@link RevFeature} from the provided {@link Feature} and adds it to the
+     * given database, computing its id while it's serialized rather than in a separate pass.
+     * 
+     * @param feature the feature to build from
+     * @param target the database to add the feature to
+     * @return the newly constructed RevFeature
+     * @see ObjectDatabase#hashAndPut(org.geogit.api.RevObject)
+     */
+    public RevFeature build(Feature feature, ObjectDatabase target) {
+        return target.hashAndPut(new RevFeature(ObjectId.NULL, values(feature)));
+    }
+
+    /**
+     * Constructs a new {@link RevFeature} from the provided {@link Feature} and adds it to the
+     * given inserter's batch, computing its id while it's serialized.
+     * 
+     * @param feature the feature to build from
+     * @param target the inserter to add the feature to
+     * @return the newly constructed RevFeature
+     * @see ObjectInserter#hashAndInsert(org.geogit.api.RevObject)
+     */
+    public RevFeature build(Feature feature, ObjectInserter target) {
+        return target.hashAndInsert(new RevFeature(ObjectId.NULL, values(feature)));
+    }
+
+    private ImmutableList<Optional<Object>> values(Feature feature) {
         if (feature == null) {
             throw new IllegalStateException("No feature set");
         }
@@ -55,6 +87,6 @@ public final class RevFeatureBuilder {
             valuesBuilder.add(Optional.fromNullable(prop.getValue()));
         }
 
-        return RevFeature.build(valuesBuilder.build());
+        return valuesBuilder.build();
     }
 }
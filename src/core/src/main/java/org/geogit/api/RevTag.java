@@ -23,6 +23,8 @@ public class RevTag extends AbstractRevObject {
      */
     public RevTag(final ObjectId id, final String name, final ObjectId commitId) {
         super(id);
+        this.name = name;
+        this.commit = commitId;
     }
 
     @Override
@@ -12,6 +12,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterators;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Provides an interface for accessing and managing GeoGit revision trees.
@@ -80,6 +81,11 @@ public interface RevTree extends RevObject {
             return Optional.absent();
         }
 
+        @Override
+        public ImmutableSortedMap<Integer, Envelope> bucketBounds() {
+            return ImmutableSortedMap.of();
+        }
+
         @Override
         public long size() {
             return 0L;
@@ -105,6 +111,19 @@ public interface RevTree extends RevObject {
 
     public Optional<ImmutableSortedMap<Integer, ObjectId>> buckets();
 
+    /**
+     * The bounds of the {@link SpatialNode spatial nodes} under each of the {@link #buckets()
+     * buckets}, in the coordinates of the nodes' bounds. A bucket with no spatial node has a
+     * {@link Envelope#isNull() null} envelope, and a bucket holding any tree node without bounds,
+     * whose contents' extent is thus unknown, has no entry at all.
+     * <p>
+     * The envelopes are not to be modified. Bucket bounds are not part of the tree's hash.
+     * 
+     * @return the bounds of each bucket by bucket index, empty if this tree isn't split into
+     *         buckets
+     */
+    public ImmutableSortedMap<Integer, Envelope> bucketBounds();
+
     public RevTreeBuilder builder(ObjectDatabase target);
 
     /**
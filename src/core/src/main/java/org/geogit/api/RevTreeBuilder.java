@@ -11,9 +11,15 @@ import static org.geogit.api.RevTree.NORMALIZED_SIZE_LIMIT;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nullable;
 
@@ -22,16 +28,21 @@ import org.geogit.api.plumbing.HashObject;
 import org.geogit.api.plumbing.diff.DepthTreeIterator;
 import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
 import org.geogit.repository.DepthSearch;
+import org.geogit.repository.SpatialOps;
 import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.vividsolutions.jts.geom.Envelope;
 
 public class RevTreeBuilder {
 
@@ -53,10 +64,20 @@ public class RevTreeBuilder {
 
     protected final TreeMap<Integer, ObjectId> bucketTreesByBucket;
 
+    /**
+     * The known {@link RevTree#bucketBounds() bounds} of the bucket trees
+     */
+    private final TreeMap<Integer, Envelope> bucketBoundsByBucket;
+
     private int depth;
 
     protected NodePathStorageOrder storageOrder = new NodePathStorageOrder();
 
+    private final NodeStorageOrder nodeOrder = new NodeStorageOrder();
+
+    @Nullable
+    private ExecutorService executor;
+
     /**
      * Empty tree constructor, used to create trees from scratch
      * 
@@ -87,6 +108,7 @@ public class RevTreeBuilder {
         this.treeChanges = Maps.newHashMap();
         this.featureChanges = Maps.newHashMap();
         this.bucketTreesByBucket = Maps.newTreeMap();
+        this.bucketBoundsByBucket = Maps.newTreeMap();
 
         if (copy != null) {
             if (copy.trees().isPresent()) {
@@ -104,6 +126,7 @@ public class RevTreeBuilder {
             if (copy.buckets().isPresent()) {
                 checkArgument(!copy.features().isPresent());
                 bucketTreesByBucket.putAll(copy.buckets().get());
+                bucketBoundsByBucket.putAll(copy.bucketBounds());
             }
         }
     }
@@ -210,6 +233,7 @@ public class RevTreeBuilder {
         Iterator<NodeRef> iterator = new DepthTreeIterator("", ObjectId.NULL, unnamedTree, db,
                 Strategy.CHILDREN);
         this.bucketTreesByBucket.clear();
+        this.bucketBoundsByBucket.clear();
         while (iterator.hasNext()) {
             put(iterator.next().getNode());
         }
@@ -237,79 +261,200 @@ public class RevTreeBuilder {
     }
 
     private long sizeOf(Node node) {
-        return node.getType().equals(TYPE.TREE) ? sizeOfTree(node.getObjectId()) : 1L;
+        if (!node.getType().equals(TYPE.TREE)) {
+            return 1L;
+        }
+        Optional<Long> treeSize = node.getTreeSize();
+        return treeSize.isPresent() ? treeSize.get().longValue() : sizeOfTree(node.getObjectId());
     }
 
     /**
-     * @return
-     * 
+     * Splits the cached entries into bucket subtrees, building and saving each of them, either in
+     * turn or concurrently if an {@link #setExecutor(ExecutorService) executor} was given, and
+     * keeping track of the {@link RevTree#bucketBounds() bounds} of each.
      */
     private RevTree normalizeToBuckets() {
         // update all inner trees
         final int childDepth = this.depth + 1;
         long accSize = 0;
 
-        try {
-            Multimap<Integer, Node> changesByBucket = ArrayListMultimap.create();
-            for (Iterator<Node> it = featureChanges.values().iterator(); it.hasNext();) {
-                Node change = it.next();
-                it.remove();
-                Integer bucket = computeBucket(change.getName());
-                changesByBucket.put(bucket, change);
+        Multimap<Integer, Node> changesByBucket = ArrayListMultimap.create();
+        for (Iterator<Node> it = featureChanges.values().iterator(); it.hasNext();) {
+            Node change = it.next();
+            it.remove();
+            Integer bucket = computeBucket(change);
+            changesByBucket.put(bucket, change);
+        }
+        Preconditions.checkState(featureChanges.isEmpty());
+        for (Iterator<Node> it = treeChanges.values().iterator(); it.hasNext();) {
+            Node change = it.next();
+            it.remove();
+            Integer bucket = computeBucket(change);
+            changesByBucket.put(bucket, change);
+        }
+        Preconditions.checkState(featureChanges.isEmpty());
+
+        Multimap<Integer, String> deletesByBucket = ArrayListMultimap.create();
+        for (String deleted : deletes) {
+            deletesByBucket.put(computeBucket(deleted), deleted);
+        }
+
+        final List<Integer> buckets = ImmutableList.copyOf(Sets.union(changesByBucket.keySet(),
+                bucketTreesByBucket.keySet()));
+
+        List<Callable<RevTree>> subtreeBuilds = Lists.newArrayListWithCapacity(buckets.size());
+        for (Integer bucket : buckets) {
+            subtreeBuilds.add(new SubtreeBuild(bucketTreesByBucket.get(bucket), childDepth,
+                    deletesByBucket.get(bucket), changesByBucket.removeAll(bucket)));
+        }
+        final List<RevTree> subtrees = buildAll(subtreeBuilds);
+
+        for (int i = 0; i < buckets.size(); i++) {
+            final Integer bucket = buckets.get(i);
+            final RevTree subtree = subtrees.get(i);
+            accSize += subtree.size();
+            bucketBoundsByBucket.remove(bucket);
+            if (subtree.isEmpty()) {
+                bucketTreesByBucket.remove(bucket);
+            } else {
+                bucketTreesByBucket.put(bucket, subtree.getId());
+                Optional<Envelope> bounds = SpatialOps.boundsOf(subtree);
+                if (bounds.isPresent()) {
+                    bucketBoundsByBucket.put(bucket, bounds.get());
+                }
             }
-            Preconditions.checkState(featureChanges.isEmpty());
-            for (Iterator<Node> it = treeChanges.values().iterator(); it.hasNext();) {
-                Node change = it.next();
-                it.remove();
-                Integer bucket = computeBucket(change.getName());
-                changesByBucket.put(bucket, change);
+        }
+        return RevTreeImpl.createNodeTree(ObjectId.NULL, accSize, this.bucketTreesByBucket,
+                this.bucketBoundsByBucket);
+    }
+
+    /**
+     * Builds the subtree of a bucket out of its current tree and changes, and saves it unless it's
+     * empty.
+     */
+    private class SubtreeBuild implements Callable<RevTree> {
+
+        @Nullable
+        private final ObjectId subtreeId;
+
+        private final int childDepth;
+
+        private final Collection<String> bucketDeletes;
+
+        private final Collection<Node> bucketEntries;
+
+        SubtreeBuild(@Nullable ObjectId subtreeId, int childDepth,
+                Collection<String> bucketDeletes, Collection<Node> bucketEntries) {
+            this.subtreeId = subtreeId;
+            this.childDepth = childDepth;
+            this.bucketDeletes = bucketDeletes;
+            this.bucketEntries = bucketEntries;
+        }
+
+        @Override
+        public RevTree call() {
+            final RevTreeBuilder subtreeBuilder;
+            if (subtreeId == null) {
+                subtreeBuilder = new RevTreeBuilder(db, null, childDepth);
+            } else {
+                subtreeBuilder = new RevTreeBuilder(db, loadTree(subtreeId), childDepth);
             }
-            Preconditions.checkState(featureChanges.isEmpty());
-
-            final Set<Integer> buckets = ImmutableSet.copyOf(Sets.union(changesByBucket.keySet(),
-                    bucketTreesByBucket.keySet()));
-
-            for (Integer bucket : buckets) {
-                final RevTreeBuilder subtreeBuilder;
-                {
-                    final Collection<Node> bucketEntries = changesByBucket.removeAll(bucket);
-                    final ObjectId subtreeId = bucketTreesByBucket.get(bucket);
-                    if (subtreeId == null) {
-                        subtreeBuilder = new RevTreeBuilder(db, null, childDepth);
-                    } else {
-                        subtreeBuilder = new RevTreeBuilder(db, loadTree(subtreeId), childDepth);
-                    }
-                    for (String deleted : deletes) {
-                        Integer bucketOfDelete = computeBucket(deleted);
-                        if (bucket.equals(bucketOfDelete)) {
-                            subtreeBuilder.remove(deleted);
-                        }
-                    }
-                    for (Node node : bucketEntries) {
-                        subtreeBuilder.put(node);
-                    }
-                }
-                final RevTree subtree = subtreeBuilder.build();
-                accSize += subtree.size();
-                if (subtree.isEmpty()) {
-                    bucketTreesByBucket.remove(bucket);
-                } else {
-                    db.put(subtree);
-                    bucketTreesByBucket.put(bucket, subtree.getId());
-                }
+            subtreeBuilder.setExecutor(executor);
+            for (String deleted : bucketDeletes) {
+                subtreeBuilder.remove(deleted);
+            }
+            for (Node node : bucketEntries) {
+                subtreeBuilder.put(node);
+            }
+            final RevTree unnamedSubtree = subtreeBuilder.buildUnnamed();
+            if (unnamedSubtree.isEmpty()) {
+                return unnamedSubtree;
+            }
+            // hashed while saved instead of hashing it on build() and serializing it here
+            return db.hashAndPut(unnamedSubtree);
+        }
+    }
+
+    /**
+     * Runs the builds in turn, or submits them to the executor if there is one. In the later case
+     * the calling thread runs the builds no worker took yet rather than just waiting for them, so
+     * that nested builds can't exhaust the executor threads waiting on each other.
+     * 
+     * @return the results of the builds, in the same order
+     */
+    protected final List<RevTree> buildAll(final List<Callable<RevTree>> builds) {
+        List<RevTree> results = Lists.newArrayListWithCapacity(builds.size());
+        if (executor == null || builds.size() < 2) {
+            for (Callable<RevTree> build : builds) {
+                results.add(call(build));
             }
-        } catch (RuntimeException e) {
-            throw e;
+            return results;
+        }
+        List<FutureTask<RevTree>> tasks = Lists.newArrayListWithCapacity(builds.size());
+        for (Callable<RevTree> build : builds) {
+            FutureTask<RevTree> task = new FutureTask<RevTree>(build);
+            tasks.add(task);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // run below by this thread
+            }
+        }
+        // take the builds from the end, workers start by the beginning
+        for (FutureTask<RevTree> task : Lists.reverse(tasks)) {
+            task.run();
+        }
+        try {
+            for (FutureTask<RevTree> task : tasks) {
+                results.add(task.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            for (FutureTask<RevTree> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private static RevTree call(final Callable<RevTree> build) {
+        try {
+            return build.call();
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            throw Throwables.propagate(e);
         }
-        return RevTreeImpl.createNodeTree(ObjectId.NULL, accSize, this.bucketTreesByBucket);
     }
 
     protected final Integer computeBucket(final String path) {
         return this.storageOrder.bucket(path, this.depth);
     }
 
+    /**
+     * Same as {@link #computeBucket(String)}, reusing the path hash the node keeps
+     */
+    protected final Integer computeBucket(final Node node) {
+        return this.nodeOrder.bucket(node, this.depth);
+    }
+
+    /**
+     * Sets the executor to build the bucket subtrees of this tree concurrently with, when this
+     * tree is split into buckets. Bucket subtrees use it for their own buckets in turn.
+     * <p>
+     * The object database must support concurrent writes and reads, as all the provided ones do.
+     * 
+     * @param executor the executor to use, or {@code null} to build the bucket subtrees in turn,
+     *        the default
+     * @return {@code this}
+     */
+    public RevTreeBuilder setExecutor(@Nullable ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
     /**
      * Gets an entry by key, this is potentially slow.
      * 
@@ -360,17 +505,55 @@ public class RevTreeBuilder {
         return this;
     }
 
+    /**
+     * Replaces a node of the tree, given the node it replaces, or adds it if there's none.
+     * <p>
+     * The same as {@link #put(Node)} for trees laid out by path hash, while builders of trees
+     * laid out by node bounds find the node to replace from its bounds, or skip looking for it if
+     * there's none, instead of scanning the tree.
+     * 
+     * @param oldNode the node currently in the tree with the same name, or {@code null} if the
+     *        tree has no such node
+     * @param newNode the node to put in the tree
+     * @return {@code this}
+     */
+    public RevTreeBuilder update(@Nullable final Node oldNode, final Node newNode) {
+        return put(newNode);
+    }
+
+    /**
+     * Removes a node from the tree.
+     * <p>
+     * The same as {@link #remove(String)} for trees laid out by path hash, while builders of trees
+     * laid out by node bounds find the node to remove from its bounds instead of scanning the
+     * tree.
+     * 
+     * @param oldNode the node currently in the tree
+     * @return {@code this}
+     */
+    public RevTreeBuilder remove(final Node oldNode) {
+        Preconditions.checkNotNull(oldNode, "node can't be null");
+        return remove(oldNode.getName());
+    }
+
     /**
      * @return the new tree, not saved to the object database. Any bucket tree though is saved when
      *         this method returns.
      */
     public RevTree build() {
-        RevTree unnamedTree = normalize();
-        checkState(bucketTreesByBucket.isEmpty()
-                || (featureChanges.isEmpty() && treeChanges.isEmpty()));
-
+        RevTree unnamedTree = buildUnnamed();
         ObjectId treeId = new HashObject().setObject(unnamedTree).call();
         RevTreeImpl namedTree = RevTreeImpl.create(treeId, unnamedTree.size(), unnamedTree);
         return namedTree;
     }
+
+    /**
+     * @return the new tree with a {@link ObjectId#NULL NULL} id, not saved to the object database
+     */
+    protected RevTree buildUnnamed() {
+        RevTree unnamedTree = normalize();
+        checkState(bucketTreesByBucket.isEmpty()
+                || (featureChanges.isEmpty() && treeChanges.isEmpty()));
+        return unnamedTree;
+    }
 }
@@ -12,6 +12,7 @@ import java.util.TreeSet;
 
 import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.QuadTreeStorageOrder;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -19,6 +20,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  *
@@ -59,10 +61,14 @@ public abstract class RevTreeImpl extends AbstractRevObject implements RevTree {
 
         private final Optional<ImmutableSortedMap<Integer, ObjectId>> buckets;
 
+        private final ImmutableSortedMap<Integer, Envelope> bucketBounds;
+
         public NodeTree(final ObjectId id, final long size,
-                final ImmutableSortedMap<Integer, ObjectId> innerTrees) {
+                final ImmutableSortedMap<Integer, ObjectId> innerTrees,
+                final ImmutableSortedMap<Integer, Envelope> bucketBounds) {
             super(id, size);
             this.buckets = Optional.of(innerTrees);
+            this.bucketBounds = bucketBounds;
         }
 
         @Override
@@ -70,6 +76,11 @@ public abstract class RevTreeImpl extends AbstractRevObject implements RevTree {
             return buckets;
         }
 
+        @Override
+        public ImmutableSortedMap<Integer, Envelope> bucketBounds() {
+            return bucketBounds;
+        }
+
         @Override
         public final boolean isEmpty() {
             return buckets().isPresent() ? buckets().get().isEmpty() : true;
@@ -103,6 +114,11 @@ public abstract class RevTreeImpl extends AbstractRevObject implements RevTree {
         return Optional.absent();
     }
 
+    @Override
+    public ImmutableSortedMap<Integer, Envelope> bucketBounds() {
+        return ImmutableSortedMap.of();
+    }
+
     public static RevTreeImpl createLeafTree(ObjectId id, long size, ImmutableList<Node> features,
             ImmutableList<Node> trees) {
 
@@ -144,16 +160,33 @@ public abstract class RevTreeImpl extends AbstractRevObject implements RevTree {
 
     public static RevTreeImpl createNodeTree(ObjectId id, long size,
             Map<Integer, ObjectId> bucketTrees) {
+        return createNodeTree(id, size, bucketTrees, ImmutableSortedMap.<Integer, Envelope> of());
+    }
+
+    /**
+     * @param bucketBounds the {@link RevTree#bucketBounds() bounds} of the buckets whose bounds
+     *        are known, keyed by a subset of the bucket indexes
+     */
+    public static RevTreeImpl createNodeTree(ObjectId id, long size,
+            Map<Integer, ObjectId> bucketTrees, Map<Integer, Envelope> bucketBounds) {
         Preconditions.checkNotNull(id);
         Preconditions.checkNotNull(bucketTrees);
+        Preconditions.checkNotNull(bucketBounds);
+        Preconditions.checkArgument(bucketTrees.keySet().containsAll(bucketBounds.keySet()),
+                "bounds given for missing buckets");
         ImmutableSortedMap<Integer, ObjectId> innerTrees = ImmutableSortedMap.copyOf(bucketTrees);
 
-        return new NodeTree(id, size, innerTrees);
+        return new NodeTree(id, size, innerTrees, ImmutableSortedMap.copyOf(bucketBounds));
     }
 
-    static RevTreeImpl create(ObjectId id, long size, RevTree unidentified) {
+    /**
+     * @return a tree with the given id and size and the same contents as {@code unidentified},
+     *         without copying them
+     */
+    public static RevTreeImpl create(ObjectId id, long size, RevTree unidentified) {
         if (unidentified.buckets().isPresent()) {
-            return new NodeTree(id, size, unidentified.buckets().get());
+            return new NodeTree(id, size, unidentified.buckets().get(),
+                    unidentified.bucketBounds());
         }
         final Optional<ImmutableList<Node>> features;
         if (unidentified.features().isPresent()) {
@@ -177,6 +210,9 @@ public abstract class RevTreeImpl extends AbstractRevObject implements RevTree {
 
     @Override
     public RevTreeBuilder builder(ObjectDatabase target) {
+        if (QuadTreeStorageOrder.isQuadTree(this)) {
+            return new QuadTreeBuilder(target, this);
+        }
         return new RevTreeBuilder(target, this);
     }
 
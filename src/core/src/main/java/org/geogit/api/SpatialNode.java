@@ -7,6 +7,8 @@ package org.geogit.api;
 import org.geogit.api.RevObject.TYPE;
 import org.opengis.geometry.BoundingBox;
 
+import com.google.common.base.Optional;
+
 /**
  * A Node with spatial hints.
  */
@@ -28,10 +30,44 @@ public class SpatialNode extends Node {
         this.bounds = bounds;
     }
 
+    /**
+     * Creates a tree {@code SpatialNode} that holds the size of the tree it points to.
+     * 
+     * @param path the path of the node
+     * @param treeId the id of the tree at the node
+     * @param metadataId id of the object that contains metadata for this node
+     * @param bounds the bounds of the node
+     * @param treeSize the size of the tree at the node
+     * @see Node#tree(String, ObjectId, ObjectId, long)
+     */
+    public static SpatialNode tree(String path, ObjectId treeId, ObjectId metadataId,
+            BoundingBox bounds, long treeSize) {
+        return new SizedTree(path, treeId, metadataId, bounds, treeSize);
+    }
+
     /**
      * @return the bounds of this node
      */
     public BoundingBox getBounds() {
         return bounds;
     }
+
+    /**
+     * A tree {@code SpatialNode} that holds the size of its tree.
+     */
+    private static class SizedTree extends SpatialNode {
+
+        private final long treeSize;
+
+        SizedTree(String path, ObjectId treeId, ObjectId metadataId, BoundingBox bounds,
+                long treeSize) {
+            super(path, treeId, metadataId, TYPE.TREE, bounds);
+            this.treeSize = checkTreeSize(treeSize);
+        }
+
+        @Override
+        public Optional<Long> getTreeSize() {
+            return Optional.of(Long.valueOf(treeSize));
+        }
+    }
 }
@@ -0,0 +1,624 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.geogit.api.RevTree.NORMALIZED_SIZE_LIMIT;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.repository.SpatialOps;
+import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.NodeStorageOrder;
+import org.geogit.storage.ObjectDatabase;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Builds a new tree out of any number of nodes holding a bounded number of them in memory, for
+ * imports too large for a {@link RevTreeBuilder}, which keeps reloading and saving again the
+ * bucket trees it already wrote as more nodes are added.
+ * <p>
+ * Nodes are kept in memory until {@code maxNodesInMemory} of them are, then sorted and spilled to
+ * a temporary file. On {@link #build()} the spilled runs are merged, at most
+ * {@link #MAX_MERGE_WIDTH} at a time, and the merged nodes stream into the tree writer, which
+ * saves each bucket tree exactly once, bottom up, holding no more than
+ * {@link RevTree#NORMALIZED_SIZE_LIMIT} nodes per tree depth.
+ * <p>
+ * Nodes are sorted by the buckets they fall into at each depth, in order, which is what makes
+ * every bucket tree a contiguous range of the sorted nodes. The resulting tree is the same a
+ * {@link RevTreeBuilder} builds out of the same nodes. When a name is added more than once the last
+ * node added wins.
+ * <p>
+ * Only new trees can be built this way, nodes can't be removed nor looked up. Not thread safe.
+ * Temporary files are deleted by {@link #build()} and {@link #close()}.
+ */
+public class SpillingRevTreeBuilder {
+
+    /**
+     * Default number of nodes to hold in memory before spilling them to disk
+     */
+    public static final int DEFAULT_MAX_NODES_IN_MEMORY = 1000 * 250;
+
+    /**
+     * How many runs to merge at once at most, so that the number of open files and read buffers
+     * doesn't grow with the number of nodes
+     */
+    public static final int MAX_MERGE_WIDTH = 64;
+
+    private static final int IO_BUFFER_SIZE = 32 * 1024;
+
+    private static final int TYPE_MASK = 0x07;
+
+    private static final int HAS_METADATA = 0x08;
+
+    private static final int HAS_BOUNDS = 0x10;
+
+    private static final int HAS_SIZE = 0x20;
+
+    private static final NodeStorageOrder NODE_ORDER = new NodeStorageOrder();
+
+    /**
+     * Orders nodes by the bucket they fall into at each depth in turn, then by storage order
+     */
+    private static final Comparator<Node> BUCKET_ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(final Node n1, final Node n2) {
+            final long p1 = n1.getPathHashPrefix();
+            final long p2 = n2.getPathHashPrefix();
+            if (p1 != p2) {
+                for (int depth = 0; depth < NodePathStorageOrder.PREFIX_BYTES; depth++) {
+                    int c = NodePathStorageOrder.bucket(p1, depth).intValue()
+                            - NodePathStorageOrder.bucket(p2, depth).intValue();
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+            }
+            if (n1.getName().equals(n2.getName())) {
+                return 0;
+            }
+            for (int depth = NodePathStorageOrder.PREFIX_BYTES; depth < 20; depth++) {
+                int c = NODE_ORDER.bucket(n1, depth).intValue()
+                        - NODE_ORDER.bucket(n2, depth).intValue();
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return NODE_ORDER.compare(n1, n2);
+        }
+    };
+
+    private final ObjectDatabase db;
+
+    private final int maxNodesInMemory;
+
+    private final File tempDirectory;
+
+    private final Map<String, Node> nodes;
+
+    private final List<File> runs;
+
+    /**
+     * The metadata ids and coordinate reference systems of the spilled nodes, written as indexes
+     * to these lists, there's usually just a few of them
+     */
+    private final List<ObjectId> metadataIds;
+
+    private final Map<ObjectId, Integer> metadataIdIndexes;
+
+    private final List<CoordinateReferenceSystem> crsList;
+
+    private final Map<CoordinateReferenceSystem, Integer> crsIndexes;
+
+    private boolean built;
+
+    /**
+     * Creates a builder that holds up to {@link #DEFAULT_MAX_NODES_IN_MEMORY} nodes in memory and
+     * spills them to the {@code java.io.tmpdir} directory
+     */
+    public SpillingRevTreeBuilder(final ObjectDatabase db) {
+        this(db, DEFAULT_MAX_NODES_IN_MEMORY, new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * @param db the database to save the bucket trees to
+     * @param maxNodesInMemory how many nodes to hold in memory before spilling them to disk
+     * @param tempDirectory where to create the temporary files spilled nodes are written to
+     */
+    public SpillingRevTreeBuilder(final ObjectDatabase db, final int maxNodesInMemory,
+            final File tempDirectory) {
+        checkNotNull(db);
+        checkArgument(maxNodesInMemory > 0, "maxNodesInMemory must be positive");
+        checkNotNull(tempDirectory);
+        this.db = db;
+        this.maxNodesInMemory = maxNodesInMemory;
+        this.tempDirectory = tempDirectory;
+        this.nodes = Maps.newHashMap();
+        this.runs = Lists.newArrayList();
+        this.metadataIds = Lists.newArrayList();
+        this.metadataIdIndexes = Maps.newHashMap();
+        this.crsList = Lists.newArrayList();
+        this.crsIndexes = new IdentityHashMap<CoordinateReferenceSystem, Integer>();
+    }
+
+    /**
+     * Adds an element to the tree, replacing any element with the same name added before.
+     *
+     * @param node the tree or feature node to add
+     * @return {@code this}
+     */
+    public SpillingRevTreeBuilder put(final Node node) {
+        checkNotNull(node, "node can't be null");
+        checkState(!built, "the tree was already built");
+        checkArgument(TYPE.FEATURE.equals(node.getType()) || TYPE.TREE.equals(node.getType()),
+                "Only tree or feature nodes can be added to a tree: %s %s", node, node.getType());
+        nodes.put(node.getName(), node);
+        if (nodes.size() >= maxNodesInMemory) {
+            try {
+                spill();
+            } catch (IOException e) {
+                close();
+                throw Throwables.propagate(e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Builds the tree, saving its bucket trees to the object database, and deletes the temporary
+     * files. This builder can't be used afterwards.
+     *
+     * @return the new tree, not saved to the object database
+     */
+    public RevTree build() {
+        checkState(!built, "the tree was already built");
+        built = true;
+        try {
+            final Iterator<Node> sorted;
+            if (runs.isEmpty()) {
+                List<Node> inMemory = Lists.newArrayList(nodes.values());
+                nodes.clear();
+                Collections.sort(inMemory, BUCKET_ORDER);
+                sorted = inMemory.iterator();
+            } else {
+                spill();
+                while (runs.size() > MAX_MERGE_WIDTH) {
+                    mergeRuns();
+                }
+                sorted = new MergingIterator(openRuns(runs));
+            }
+            RevTree unnamedTree = new TreeWriter(sorted).write(0, null);
+            ObjectId treeId = new HashObject().setObject(unnamedTree).call();
+            return RevTreeImpl.create(treeId, unnamedTree.size(), unnamedTree);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Deletes any temporary file and discards the nodes added so far
+     */
+    public void close() {
+        built = true;
+        nodes.clear();
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        if (nodes.isEmpty()) {
+            return;
+        }
+        List<Node> sorted = Lists.newArrayList(nodes.values());
+        nodes.clear();
+        Collections.sort(sorted, BUCKET_ORDER);
+        runs.add(writeRun(sorted.iterator()));
+    }
+
+    /**
+     * Merges consecutive runs, {@link #MAX_MERGE_WIDTH} at a time, keeping their relative order so
+     * that the last node added with a given name keeps winning
+     */
+    private void mergeRuns() throws IOException {
+        List<File> merged = Lists.newArrayList();
+        for (List<File> group : Lists.partition(Lists.newArrayList(runs), MAX_MERGE_WIDTH)) {
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            merged.add(writeRun(new MergingIterator(openRuns(group))));
+            for (File run : group) {
+                run.delete();
+            }
+        }
+        runs.clear();
+        runs.addAll(merged);
+    }
+
+    private File writeRun(final Iterator<Node> sorted) throws IOException {
+        final File run = File.createTempFile("geogit-tree-", ".run", tempDirectory);
+        runs.add(run);// so that it's deleted on close() if writing it fails
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(run), IO_BUFFER_SIZE));
+        try {
+            final byte[] rawId = new byte[20];
+            while (sorted.hasNext()) {
+                out.writeBoolean(true);
+                writeNode(out, sorted.next(), rawId);
+            }
+            out.writeBoolean(false);
+        } finally {
+            out.close();
+        }
+        runs.remove(runs.size() - 1);
+        return run;
+    }
+
+    private List<RunReader> openRuns(final List<File> files) throws IOException {
+        List<RunReader> readers = Lists.newArrayListWithCapacity(files.size());
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                readers.add(new RunReader(files.get(i), i));
+            }
+        } catch (IOException e) {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            throw e;
+        }
+        return readers;
+    }
+
+    private void writeNode(final DataOutputStream out, final Node node, final byte[] rawId)
+            throws IOException {
+        final ObjectId metadataId = node.getMetadataId().orNull();
+        final boolean hasMetadata = metadataId != null && !metadataId.isNull();
+        final BoundingBox bounds = node instanceof SpatialNode ? ((SpatialNode) node).getBounds()
+                : null;
+        int flags = node.getType().value() & TYPE_MASK;
+        if (hasMetadata) {
+            flags |= HAS_METADATA;
+        }
+        if (bounds != null) {
+            flags |= HAS_BOUNDS;
+        }
+        final Long treeSize = node.getTreeSize().orNull();
+        if (treeSize != null) {
+            flags |= HAS_SIZE;
+        }
+        out.writeByte(flags);
+        out.writeLong(node.getPathHashPrefix());
+        out.writeUTF(node.getName());
+        node.getObjectId().getRawValue(rawId, 0);
+        out.write(rawId);
+        if (hasMetadata) {
+            out.writeInt(metadataIdIndex(metadataId));
+        }
+        if (treeSize != null) {
+            out.writeLong(treeSize.longValue());
+        }
+        if (bounds != null) {
+            out.writeDouble(bounds.getMinX());
+            out.writeDouble(bounds.getMaxX());
+            out.writeDouble(bounds.getMinY());
+            out.writeDouble(bounds.getMaxY());
+            out.writeInt(crsIndex(bounds.getCoordinateReferenceSystem()));
+        }
+    }
+
+    private Node readNode(final DataInputStream in, final byte[] rawId) throws IOException {
+        final int flags = in.readUnsignedByte();
+        final TYPE type = TYPE.valueOf(flags & TYPE_MASK);
+        final long pathHashPrefix = in.readLong();
+        final String name = in.readUTF();
+        in.readFully(rawId);
+        final ObjectId objectId = new ObjectId(rawId);
+        ObjectId metadataId = ObjectId.NULL;
+        if ((flags & HAS_METADATA) != 0) {
+            metadataId = metadataIds.get(in.readInt());
+        }
+        final long treeSize = (flags & HAS_SIZE) == 0 ? -1L : in.readLong();
+        final Node node;
+        if ((flags & HAS_BOUNDS) == 0) {
+            node = treeSize < 0 ? new Node(name, objectId, metadataId, type) : Node.tree(name,
+                    objectId, metadataId, treeSize);
+        } else {
+            final double minx = in.readDouble();
+            final double maxx = in.readDouble();
+            final double miny = in.readDouble();
+            final double maxy = in.readDouble();
+            final int crsIndex = in.readInt();
+            CoordinateReferenceSystem crs = crsIndex < 0 ? null : crsList.get(crsIndex);
+            ReferencedEnvelope bounds = new ReferencedEnvelope(minx, maxx, miny, maxy, crs);
+            node = treeSize < 0 ? new SpatialNode(name, objectId, metadataId, type, bounds)
+                    : SpatialNode.tree(name, objectId, metadataId, bounds, treeSize);
+        }
+        node.setPathHashPrefix(pathHashPrefix);
+        return node;
+    }
+
+    private int metadataIdIndex(final ObjectId metadataId) {
+        Integer index = metadataIdIndexes.get(metadataId);
+        if (index == null) {
+            index = Integer.valueOf(metadataIds.size());
+            metadataIds.add(metadataId);
+            metadataIdIndexes.put(metadataId, index);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Looks up the crs by identity first, as the nodes of a feature type share the same instance,
+     * and by equality then
+     */
+    private int crsIndex(@Nullable final CoordinateReferenceSystem crs) {
+        if (crs == null) {
+            return -1;
+        }
+        Integer index = crsIndexes.get(crs);
+        if (index == null) {
+            int equal = crsList.indexOf(crs);
+            if (equal == -1) {
+                equal = crsList.size();
+                crsList.add(crs);
+            }
+            index = Integer.valueOf(equal);
+            crsIndexes.put(crs, index);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Reads back the nodes of a run in order, closing the file once they're all read
+     */
+    private class RunReader {
+
+        private final int index;
+
+        private final byte[] rawId = new byte[20];
+
+        private DataInputStream in;
+
+        private Node head;
+
+        RunReader(final File run, final int index) throws IOException {
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run),
+                    IO_BUFFER_SIZE));
+            advance();
+        }
+
+        /**
+         * @return the next node of the run, or {@code null} if there are no more
+         */
+        @Nullable
+        Node head() {
+            return head;
+        }
+
+        void advance() throws IOException {
+            if (in.readBoolean()) {
+                head = readNode(in, rawId);
+            } else {
+                close();
+            }
+        }
+
+        void close() {
+            head = null;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // read only, nothing to lose
+                }
+                in = null;
+            }
+        }
+    }
+
+    /**
+     * Merges sorted runs, returning only the node of the latest run when several runs have a node
+     * with the same name
+     */
+    private class MergingIterator extends AbstractIterator<Node> {
+
+        private final PriorityQueue<RunReader> queue;
+
+        MergingIterator(final List<RunReader> readers) {
+            this.queue = new PriorityQueue<RunReader>(Math.max(1, readers.size()),
+                    new Comparator<RunReader>() {
+                        @Override
+                        public int compare(RunReader r1, RunReader r2) {
+                            int c = BUCKET_ORDER.compare(r1.head(), r2.head());
+                            return c == 0 ? r1.index - r2.index : c;
+                        }
+                    });
+            for (RunReader reader : readers) {
+                if (reader.head() != null) {
+                    queue.add(reader);
+                }
+            }
+        }
+
+        @Override
+        protected Node computeNext() {
+            if (queue.isEmpty()) {
+                return endOfData();
+            }
+            try {
+                Node next = pollHead();
+                while (!queue.isEmpty()
+                        && queue.peek().head().getName().equals(next.getName())) {
+                    next = pollHead();
+                }
+                return next;
+            } catch (IOException e) {
+                for (RunReader reader : queue) {
+                    reader.close();
+                }
+                throw Throwables.propagate(e);
+            }
+        }
+
+        private Node pollHead() throws IOException {
+            RunReader reader = queue.poll();
+            Node head = reader.head();
+            reader.advance();
+            if (reader.head() != null) {
+                queue.add(reader);
+            }
+            return head;
+        }
+    }
+
+    /**
+     * Writes the tree out of the sorted nodes, depth first. Each tree takes the nodes that fall
+     * into its bucket from the front of the sorted nodes: up to
+     * {@link RevTree#NORMALIZED_SIZE_LIMIT} of them make a leaf tree, otherwise they're put back
+     * for its bucket trees to take in turn.
+     */
+    private class TreeWriter {
+
+        private final PeekingIterator<Node> sorted;
+
+        private final Deque<Node> putBack = new ArrayDeque<Node>();
+
+        TreeWriter(final Iterator<Node> sorted) {
+            this.sorted = Iterators.peekingIterator(sorted);
+        }
+
+        /**
+         * @param depth the depth of the tree to write
+         * @param bucketKey any node in the bucket of the tree to write, or {@code null} for the
+         *        root tree
+         * @return the tree, not saved to the database, with a {@link ObjectId#NULL NULL} id
+         */
+        RevTree write(final int depth, @Nullable final Node bucketKey) {
+            List<Node> children = Lists.newArrayList();
+            while (children.size() <= NORMALIZED_SIZE_LIMIT && hasNext(depth, bucketKey)) {
+                children.add(next());
+            }
+            if (children.size() <= NORMALIZED_SIZE_LIMIT) {
+                return leafTree(children);
+            }
+            for (Node child : Lists.reverse(children)) {
+                putBack.addFirst(child);
+            }
+            children = null;
+
+            SortedMap<Integer, ObjectId> buckets = Maps.newTreeMap();
+            SortedMap<Integer, Envelope> bucketBounds = Maps.newTreeMap();
+            long size = 0;
+            while (hasNext(depth, bucketKey)) {
+                final Node childKey = peek();
+                final Integer bucket = NODE_ORDER.bucket(childKey, depth);
+                final RevTree bucketTree = db.hashAndPut(write(depth + 1, childKey));
+                buckets.put(bucket, bucketTree.getId());
+                Optional<Envelope> bounds = SpatialOps.boundsOf(bucketTree);
+                if (bounds.isPresent()) {
+                    bucketBounds.put(bucket, bounds.get());
+                }
+                size += bucketTree.size();
+            }
+            RevTree tree = RevTreeImpl.createNodeTree(ObjectId.NULL, size, buckets, bucketBounds);
+            if (size <= NORMALIZED_SIZE_LIMIT) {
+                // only possible with tree nodes, as RevTreeBuilder does
+                Iterator<NodeRef> all = new DepthTreeIterator("", ObjectId.NULL, tree, db,
+                        Strategy.CHILDREN);
+                List<Node> allChildren = Lists.newArrayList();
+                while (all.hasNext()) {
+                    allChildren.add(all.next().getNode());
+                }
+                tree = leafTree(allChildren);
+            }
+            return tree;
+        }
+
+        private RevTree leafTree(final List<Node> children) {
+            List<Node> features = Lists.newArrayList();
+            List<Node> trees = Lists.newArrayList();
+            long size = 0;
+            for (Node child : children) {
+                if (TYPE.TREE.equals(child.getType())) {
+                    trees.add(child);
+                    if (child.getTreeSize().isPresent()) {
+                        size += child.getTreeSize().get().longValue();
+                    } else if (!child.getObjectId().isNull()) {
+                        size += db.getTree(child.getObjectId()).size();
+                    }
+                } else {
+                    features.add(child);
+                    size++;
+                }
+            }
+            return RevTreeImpl.createLeafTree(ObjectId.NULL, size, features, trees);
+        }
+
+        private boolean hasNext(final int depth, @Nullable final Node bucketKey) {
+            if (putBack.isEmpty() && !sorted.hasNext()) {
+                return false;
+            }
+            if (bucketKey == null) {
+                return true;
+            }
+            final Node next = peek();
+            for (int d = 0; d < depth; d++) {
+                if (!NODE_ORDER.bucket(next, d).equals(NODE_ORDER.bucket(bucketKey, d))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Node peek() {
+            return putBack.isEmpty() ? sorted.peek() : putBack.peekFirst();
+        }
+
+        private Node next() {
+            return putBack.isEmpty() ? sorted.next() : putBack.removeFirst();
+        }
+    }
+}
@@ -7,12 +7,13 @@ package org.geogit.api.plumbing;
 
 import static com.google.common.base.Preconditions.checkState;
 
-import java.io.InputStream;
 import java.util.Iterator;
+import java.util.Set;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.Node;
 import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.repository.StagingArea;
@@ -20,7 +21,8 @@ import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.StagingDatabase;
 
 import com.google.common.base.Supplier;
-import com.google.common.io.Closeables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 
 /**
@@ -104,46 +106,70 @@ public class DeepMove extends AbstractGeoGitOp<ObjectId> {
     }
 
     private void moveFeature(Node objectRef, ObjectDatabase from, ObjectDatabase to) {
-        moveObject(objectRef.getObjectId(), from, to, true);
+        Set<ObjectId> ids = Sets.newHashSet();
+        addFeature(objectRef, ids);
+        moveObjects(ids, from, to);
+    }
+
+    private static void addFeature(Node objectRef, Set<ObjectId> target) {
+        target.add(objectRef.getObjectId());
 
         final ObjectId metadataId = objectRef.getMetadataId().or(ObjectId.NULL);
         if (!metadataId.isNull()) {
-            moveObject(metadataId, from, to, false);
+            target.add(metadataId);
         }
     }
 
+    /**
+     * Moves the tree contents before the tree itself, so that the destination database never
+     * holds a tree whose children are missing. The features directly under the tree are moved in
+     * bulk.
+     */
     private void moveTree(RevTree tree, ObjectDatabase from, ObjectDatabase to) {
+        Set<ObjectId> features = Sets.newHashSet();
         Iterator<Node> children = tree.children();
         while (children.hasNext()) {
             Node ref = children.next();
-            deepMove(ref, from, to);
+            if (TYPE.TREE.equals(ref.getType())) {
+                deepMove(ref, from, to);
+            } else {
+                addFeature(ref, features);
+            }
         }
+        moveObjects(features, from, to);
+
         if (tree.buckets().isPresent()) {
-            for (ObjectId bucketId : tree.buckets().get().values()) {
-                RevTree bucketTree = from.getTree(bucketId);
-                moveTree(bucketTree, from, to);
+            Iterator<RevObject> bucketTrees = from.getAll(tree.buckets().get().values());
+            while (bucketTrees.hasNext()) {
+                moveTree((RevTree) bucketTrees.next(), from, to);
             }
         }
-        moveObject(tree.getId(), from, to, true);
+        moveObjects(ImmutableSet.of(tree.getId()), from, to);
     }
 
-    private void moveObject(final ObjectId objectId, final ObjectDatabase from,
-            final ObjectDatabase to, boolean failIfNotPresent) {
-
-        if (to.exists(objectId)) {
-            from.delete(objectId);
+    /**
+     * Copies the objects not already present in the destination database in their stored,
+     * compressed form, and then deletes all of them from the origin database.
+     */
+    private void moveObjects(final Set<ObjectId> objectIds, final ObjectDatabase from,
+            final ObjectDatabase to) {
+        if (objectIds.isEmpty()) {
             return;
         }
-
-        final InputStream raw = from.getRaw(objectId);
-        try {
-            to.put(objectId, raw);
+        Set<ObjectId> missing = Sets.newHashSet(Sets.difference(objectIds,
+                to.existsAll(objectIds)));
+        if (!missing.isEmpty()) {
+            int moved = 0;
+            for (ObjectId objectId : missing) {
+                if (to.putRawCompressed(objectId, from.getRawCompressed(objectId))) {
+                    moved++;
+                }
+            }
+            checkState(moved == missing.size(), "Expected to move %s objects but moved %s",
+                    missing.size(), moved);
+        }
+        for (ObjectId objectId : objectIds) {
             from.delete(objectId);
-
-            checkState(to.exists(objectId));
-
-        } finally {
-            Closeables.closeQuietly(raw);
         }
     }
 
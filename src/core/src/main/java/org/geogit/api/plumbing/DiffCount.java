@@ -14,6 +14,7 @@ import javax.annotation.Nullable;
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.diff.DiffCountCache;
 import org.geogit.api.plumbing.diff.DiffCounter;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.DiffTreeWalk;
@@ -25,6 +26,9 @@ import com.google.inject.Inject;
 /**
  * A faster alternative to count the number of diffs between two trees than walking a
  * {@link DiffTreeWalk} iterator.
+ * <p>
+ * Counts without a path filter are kept in the repository {@link DiffCountCache}, so counting the
+ * differences between the same trees again, or trees sharing most of their subtrees, is cheap.
  * 
  * @see DiffCounter
  */
@@ -38,9 +42,12 @@ public class DiffCount extends AbstractGeoGitOp<Long> {
 
     private String newRefSpec;
 
+    private DiffCountCache cache;
+
     @Inject
-    public DiffCount(StagingDatabase index) {
+    public DiffCount(StagingDatabase index, DiffCountCache cache) {
         this.index = index;
+        this.cache = cache;
     }
 
     public DiffCount setOldVersion(@Nullable String refSpec) {
@@ -72,7 +79,7 @@ public class DiffCount extends AbstractGeoGitOp<Long> {
 
         Long diffCount;
         if (null == pathFilter) {
-            DiffCounter counter = new DiffCounter(index, oldTree, newTree);
+            DiffCounter counter = new DiffCounter(index, oldTree, newTree, cache);
             diffCount = counter.get();
         } else {
             DiffTreeWalk treeWalk = new DiffTreeWalk(index, oldTree, newTree);
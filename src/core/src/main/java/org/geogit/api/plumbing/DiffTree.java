@@ -9,20 +9,29 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.repository.ExecutorServiceProvider;
 import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 /**
  * Compares the content and metadata links of blobs found via two tree objects on the repository's
  * {@link ObjectDatabase}
+ * <p>
+ * In {@link #setParallel(boolean) parallel} mode, the bucket pairs of large trees are diffed
+ * concurrently on the executor set up by {@link ExecutorServiceProvider.Diff}, and the differences still
+ * returned in storage order.
  */
 public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
@@ -34,14 +43,24 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
     private String newRefSpec;
 
+    @Nullable
+    private ExecutorService executor;
+
+    private boolean parallel;
+
+    private int prefetch = DiffTreeWalk.DEFAULT_PREFETCH;
+
     /**
      * Constructs a new instance of the {@code DiffTree} operation with the given parameters.
      * 
      * @param objectDb the repository object database
+     * @param executor the executor to diff on in parallel mode, {@code null} if disabled
      */
     @Inject
-    public DiffTree(ObjectDatabase objectDb) {
+    public DiffTree(ObjectDatabase objectDb,
+            @Named(ExecutorServiceProvider.Diff.NAME) @Nullable ExecutorService executor) {
         this.objectDb = objectDb;
+        this.executor = executor;
     }
 
     /**
@@ -89,6 +108,27 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         return this;
     }
 
+    /**
+     * @param parallel whether to diff the bucket pairs of large trees concurrently, has no effect
+     *        if parallel diffs are disabled by the {@code diff.threads} config key
+     * @return {@code this}
+     */
+    public DiffTree setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    /**
+     * @param prefetch how many bucket pairs to diff ahead of the one being returned in parallel
+     *        mode, defaults to {@link DiffTreeWalk#DEFAULT_PREFETCH}
+     * @return {@code this}
+     */
+    public DiffTree setPrefetch(int prefetch) {
+        checkArgument(prefetch > 0, "prefetch shall be positive");
+        this.prefetch = prefetch;
+        return this;
+    }
+
     /**
      * Finds differences between the two specified trees.
      * 
@@ -116,6 +156,10 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
         DiffTreeWalk treeWalk = new DiffTreeWalk(objectDb, oldTree, newTree);
         treeWalk.setFilter(this.path);
+        if (parallel) {
+            treeWalk.setExecutor(executor);
+            treeWalk.setPrefetch(prefetch);
+        }
         return treeWalk.get();
     }
 }
@@ -6,15 +6,14 @@
 package org.geogit.api.plumbing;
 
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
-import java.util.Set;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.ObjectId;
+import org.geogit.api.ObjectIdSet;
 import org.geogit.api.RevCommit;
 import org.geogit.api.porcelain.ConfigOp;
 import org.geogit.api.porcelain.ConfigOp.ConfigAction;
@@ -97,7 +96,7 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<RevCommit>> {
 
         while (partitions.hasNext()) {
 
-            Set<ObjectId> ancestrySet = new HashSet<ObjectId>();
+            ObjectIdSet ancestrySet = new ObjectIdSet(partitionSize);
             populateSet(partitions.next(), ancestrySet);
             Optional<RevCommit> ancestor = findAncestor(left, ancestrySet);
             if (ancestor.isPresent()) {
@@ -111,16 +110,18 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<RevCommit>> {
         return Optional.absent();
     }
 
-    private void populateSet(List<RevCommit> commits, Set<ObjectId> ancestrySet) {
+    private void populateSet(List<RevCommit> commits, ObjectIdSet ancestrySet) {
         for (int i = 0; i < commits.size(); i++) {
             ancestrySet.add(commits.get(i).getId());
         }
     }
 
-    private Optional<RevCommit> findAncestor(RevCommit descendant, Set<ObjectId> ancestrySet) {
+    private Optional<RevCommit> findAncestor(RevCommit descendant, ObjectIdSet ancestrySet) {
         // Perform a breadth-first search of the graph, looking for a common ancestor
         Queue<RevCommit> commitQueue = new LinkedList<RevCommit>();
+        ObjectIdSet queued = new ObjectIdSet();
         commitQueue.add(descendant);
+        queued.add(descendant.getId());
         while (!commitQueue.isEmpty()) {
             RevCommit commit = (RevCommit) commitQueue.remove();
 
@@ -129,7 +130,9 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<RevCommit>> {
             }
 
             for (ObjectId parent : commit.getParentIds()) {
-                commitQueue.add(repository.getCommit(parent));
+                if (queued.add(parent)) {
+                    commitQueue.add(repository.getCommit(parent));
+                }
             }
         }
 
@@ -7,6 +7,8 @@ package org.geogit.api.plumbing;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
@@ -14,6 +16,7 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevTree;
 import org.geogit.repository.DepthSearch;
+import org.geogit.repository.PathResolutionCache;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.StagingDatabase;
 
@@ -25,6 +28,9 @@ import com.google.inject.Inject;
 /**
  * Finds a {@link Node} by searching the given {@link RevTree} for the given path, returns the
  * {@link NodeRef} that wraps it.
+ * <p>
+ * Resolved paths are kept in the repository {@link PathResolutionCache} by tree id, so that
+ * resolving the same paths from the same tree again doesn't descend the tree again.
  * 
  * @see DepthSearch
  * @see ResolveTreeish
@@ -44,16 +50,21 @@ public class FindTreeChild extends AbstractGeoGitOp<Optional<NodeRef>> {
 
     private ObjectDatabase odb;
 
+    @Nullable
+    private PathResolutionCache cache;
+
     /**
      * Constructs a new {@code FindTreeChild} instance with the specified parameters.
      * 
      * @param odb the repository object database
      * @param index the staging database
+     * @param cache the repository cache of resolved paths
      */
     @Inject
-    public FindTreeChild(ObjectDatabase odb, StagingDatabase index) {
+    public FindTreeChild(ObjectDatabase odb, StagingDatabase index, PathResolutionCache cache) {
         this.odb = odb;
         this.index = index;
+        this.cache = cache;
     }
 
     public FindTreeChild(ObjectDatabase odb) {
@@ -131,7 +142,7 @@ public class FindTreeChild extends AbstractGeoGitOp<Optional<NodeRef>> {
         final String parentPath = this.parentPath == null ? "" : this.parentPath;
         final ObjectDatabase target = indexDb ? index : odb;
 
-        DepthSearch depthSearch = new DepthSearch(target);
+        DepthSearch depthSearch = new DepthSearch(target, cache);
         Optional<NodeRef> childRef = depthSearch.find(tree, parentPath, path);
         return childRef;
 
@@ -50,11 +50,15 @@ import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Hashes a RevObject and returns the ObjectId.
+ * <p>
+ * Besides the per object funnels, the funnels of the parts trees and features are made of are
+ * exposed for the {@link org.geogit.storage.HashingObjectWriter writers} that feed them while
+ * serializing, which must feed them in the same order the object funnels do.
  * 
  * @see RevObject
  * @see ObjectId
  */
-class HashObjectFunnels {
+public class HashObjectFunnels {
 
     // This random byte code is used to represent null in hashing. This is intended to be something
     // that would be unlikely to duplicated by accident with real data. Changing this will cause all
@@ -62,6 +66,11 @@ class HashObjectFunnels {
     private static final byte[] NULL_BYTE_CODE = { 0x60, (byte) 0xe5, 0x6d, 0x08, (byte) 0xd3,
             0x08, 0x53, (byte) 0xb7, (byte) 0x84, 0x07, 0x77 };
 
+    /**
+     * Geometry ordinates are rounded to 9 decimals before hashing them
+     */
+    private static final double COORDINATE_SCALE = 1E9D;
+
     public static Funnel<RevCommit> commitFunnel() {
         return CommitFunnel.INSTANCE;
     }
@@ -82,6 +91,44 @@ class HashObjectFunnels {
         return FeatureTypeFunnel.INSTANCE;
     }
 
+    /**
+     * @return the funnel for the object type every object funnel starts with
+     */
+    public static Funnel<RevObject.TYPE> typeFunnel() {
+        return RevObjectTypeFunnel;
+    }
+
+    /**
+     * @return the funnel for each of the tree nodes, fed in tree nodes then feature nodes order
+     */
+    public static Funnel<Node> nodeFunnel() {
+        return NodeFunnel;
+    }
+
+    /**
+     * @return the funnel for each of the tree buckets, fed in bucket index order after the nodes
+     */
+    public static Funnel<Map.Entry<Integer, ObjectId>> bucketFunnel() {
+        return BucketFunnel;
+    }
+
+    /**
+     * @return the funnel for each of the feature values, with {@code null} for absent values
+     */
+    public static Funnel<Object> propertyValueFunnel() {
+        return PropertyValueFunnel;
+    }
+
+    /**
+     * Feeds a geometry coordinate the way the geometry values are funneled, for writers that walk
+     * the geometry coordinates themselves, which must do it in
+     * {@link Geometry#apply(CoordinateFilter)} order.
+     */
+    public static void funnelCoordinate(final double x, final double y, final PrimitiveSink into) {
+        into.putDouble(Math.round(x * COORDINATE_SCALE) / COORDINATE_SCALE);
+        into.putDouble(Math.round(y * COORDINATE_SCALE) / COORDINATE_SCALE);
+    }
+
     private static final class NullableFunnel<T> implements Funnel<T> {
 
         private static final long serialVersionUID = -1L;
@@ -190,8 +237,7 @@ class HashObjectFunnels {
             if (from.buckets().isPresent()) {
                 ImmutableSortedMap<Integer, ObjectId> buckets = from.buckets().get();
                 for (Map.Entry<Integer, ObjectId> entry : buckets.entrySet()) {
-                    Funnels.integerFunnel().funnel(entry.getKey(), into);
-                    ObjectIdFunnel.funnel(entry.getValue(), into);
+                    BucketFunnel.funnel(entry, into);
                 }
             }
         }
@@ -275,6 +321,16 @@ class HashObjectFunnels {
         }
     };
 
+    private static final Funnel<Map.Entry<Integer, ObjectId>> BucketFunnel = new Funnel<Map.Entry<Integer, ObjectId>>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void funnel(Map.Entry<Integer, ObjectId> bucket, PrimitiveSink into) {
+            Funnels.integerFunnel().funnel(bucket.getKey(), into);
+            ObjectIdFunnel.funnel(bucket.getValue(), into);
+        }
+    };
+
     private static final Funnel<BoundingBox> BoundingBoxFunnel = NullableFunnel
             .of(new Funnel<BoundingBox>() {
                 private static final long serialVersionUID = 1L;
@@ -359,14 +415,9 @@ class HashObjectFunnels {
 
             CoordinateFilter filter = new CoordinateFilter() {
 
-                final double scale = 1E9D;
-
                 @Override
                 public void filter(Coordinate coord) {
-                    double x = Math.round(coord.x * scale) / scale;
-                    double y = Math.round(coord.y * scale) / scale;
-                    into.putDouble(x);
-                    into.putDouble(y);
+                    funnelCoordinate(coord.x, coord.y, into);
                 }
             };
             geom.apply(filter);
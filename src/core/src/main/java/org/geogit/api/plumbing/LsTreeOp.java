@@ -8,6 +8,8 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import java.util.Iterator;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
@@ -24,6 +26,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterators;
 import com.google.inject.Inject;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * List index contents
@@ -69,6 +72,8 @@ public class LsTreeOp extends AbstractGeoGitOp<Iterator<NodeRef>> {
 
     private String ref;
 
+    private Envelope boundsFilter;
+
     @Inject
     public LsTreeOp(WorkingTree workTree, StagingDatabase index) {
         this.workTree = workTree;
@@ -91,6 +96,17 @@ public class LsTreeOp extends AbstractGeoGitOp<Iterator<NodeRef>> {
         return this;
     }
 
+    /**
+     * @param boundsFilter if given, only the nodes whose bounds intersect it are listed, and the
+     *        parts of the trees known not to hold any aren't visited
+     * @return {@code this}
+     * @see DepthTreeIterator
+     */
+    public LsTreeOp setBoundsFilter(@Nullable final Envelope boundsFilter) {
+        this.boundsFilter = boundsFilter;
+        return this;
+    }
+
     /**
      * @see java.util.concurrent.Callable#call()
      */
@@ -155,7 +171,7 @@ public class LsTreeOp extends AbstractGeoGitOp<Iterator<NodeRef>> {
                     .substring(ref.lastIndexOf(':') + 1) : "";
             // TODO: CHANGE METADATAID
             DepthTreeIterator iter = new DepthTreeIterator(path, ObjectId.NULL,
-                    (RevTree) revObject.get(), index, iterStrategy);
+                    (RevTree) revObject.get(), index, iterStrategy, boundsFilter);
             return iter;
         default:
             throw new IllegalArgumentException(String.format("Invalid reference: %s", ref));
@@ -0,0 +1,53 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.StagingDatabase;
+
+import com.google.inject.Inject;
+
+/**
+ * Rebuilds the bloom filters of the repository and index object databases from the objects they
+ * currently hold, sizing them after their number.
+ * <p>
+ * The filters grow less accurate as objects are added beyond the number they were sized for, and
+ * keep answering positively for deleted objects, so it's worth rebuilding them after large imports
+ * or deletions. Shall not be run while other processes are writing to the repository.
+ * 
+ * @see ObjectDatabase#rebuildBloomFilter()
+ */
+public class RebuildBloomFilters extends AbstractGeoGitOp<Void> {
+
+    private ObjectDatabase odb;
+
+    private StagingDatabase index;
+
+    /**
+     * Constructs a new instance of the {@code RebuildBloomFilters} operation.
+     * 
+     * @param odb the repository object database
+     * @param index the staging database
+     */
+    @Inject
+    public RebuildBloomFilters(ObjectDatabase odb, StagingDatabase index) {
+        this.odb = odb;
+        this.index = index;
+    }
+
+    /**
+     * Executes the rebuild of both bloom filters.
+     * 
+     * @return {@code null}
+     */
+    @Override
+    public Void call() {
+        odb.rebuildBloomFilter();
+        index.rebuildBloomFilter();
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ObjectSerialisingFactoryProvider;
+
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Rewrites the objects reachable from the repository refs in the serialization format the
+ * repository is currently configured with, replacing their stored form in place.
+ * <p>
+ * Objects keep their ids, as those don't depend on the serialization format. It's meant to be run
+ * after changing the {@link ObjectSerialisingFactoryProvider#SERIALIZATION serialization format}
+ * of a repository whose new format still reads the old one, so that the old objects are migrated.
+ * Objects that are not reachable from any ref, and the ones in the staging database, are left
+ * as they are.
+ *
+ * @see ObjectDatabase#rewrite(RevObject)
+ */
+public class RewriteObjects extends AbstractGeoGitOp<Long> {
+
+    private ObjectDatabase odb;
+
+    /**
+     * Constructs a new instance of the {@code RewriteObjects} operation.
+     *
+     * @param odb the repository object database
+     */
+    @Inject
+    public RewriteObjects(ObjectDatabase odb) {
+        this.odb = odb;
+    }
+
+    /**
+     * Executes the rewrite.
+     *
+     * @return the number of objects rewritten
+     */
+    @Override
+    public Long call() {
+        Deque<ObjectId> pending = new ArrayDeque<ObjectId>();
+        for (Ref ref : command(ForEachRef.class).call()) {
+            pending.push(ref.getObjectId());
+        }
+        final Set<ObjectId> visited = Sets.newHashSet();
+        long rewritten = 0;
+        odb.beginBulkLoad();
+        try {
+            while (!pending.isEmpty()) {
+                final ObjectId id = pending.pop();
+                if (id.isNull() || !visited.add(id) || !odb.exists(id)) {
+                    continue;
+                }
+                final RevObject object = odb.get(id);
+                odb.rewrite(object);
+                rewritten++;
+                if (TYPE.COMMIT.equals(object.getType())) {
+                    RevCommit commit = (RevCommit) object;
+                    pending.push(commit.getTreeId());
+                    for (ObjectId parentId : commit.getParentIds()) {
+                        pending.push(parentId);
+                    }
+                } else if (TYPE.TREE.equals(object.getType())) {
+                    RevTree tree = (RevTree) object;
+                    if (tree.buckets().isPresent()) {
+                        pending.addAll(tree.buckets().get().values());
+                        continue;
+                    }
+                    for (Iterator<Node> children = tree.children(); children.hasNext();) {
+                        Node node = children.next();
+                        pending.push(node.getObjectId());
+                        pending.push(node.getMetadataId().or(ObjectId.NULL));
+                    }
+                }
+            }
+        } finally {
+            odb.endBulkLoad();
+        }
+        return Long.valueOf(rewritten);
+    }
+}
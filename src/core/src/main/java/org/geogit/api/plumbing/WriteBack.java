@@ -13,7 +13,6 @@ import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
-import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeBuilder;
 import org.geogit.storage.ObjectDatabase;
@@ -189,7 +188,7 @@ public class WriteBack extends AbstractGeoGitOp<ObjectId> {
         final boolean isDirectChild = NodeRef.isDirectChild(ancestorPath, childPath);
         if (isDirectChild) {
             ObjectId metadataId = ObjectId.NULL;
-            ancestor.put(new Node(childPath, treeId, metadataId, TYPE.TREE));
+            ancestor.put(Node.tree(childPath, treeId, metadataId, childTree.size()));
             RevTree newAncestor = ancestor.build();
             targetDatabase.put(newAncestor);
             return newAncestor.getId();
@@ -205,8 +204,8 @@ public class WriteBack extends AbstractGeoGitOp<ObjectId> {
             parentBuilder = RevTree.EMPTY.builder(targetDatabase);
         }
 
-        parentBuilder.put(new Node(NodeRef.nodeFromPath(childPath), treeId, ObjectId.NULL,
-                TYPE.TREE));
+        parentBuilder.put(Node.tree(NodeRef.nodeFromPath(childPath), treeId, ObjectId.NULL,
+                childTree.size()));
         RevTree parent = parentBuilder.build();
 
         return writeBack(ancestor, ancestorPath, parent, parentPath, targetDatabase);
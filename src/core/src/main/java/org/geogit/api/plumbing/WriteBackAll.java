@@ -0,0 +1,216 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.SortedSet;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.repository.DepthSearch;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.StagingDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Writes the contents of several trees as descendants of a given root tree at once, creating any
+ * intermediate tree needed, and returns the {@link ObjectId id} of the resulting new root tree.
+ * <p>
+ * Unlike calling {@link WriteBack} once per tree, which rewrites every tree from the written one up
+ * to the root each time, each tree on the paths to the given trees is rewritten exactly once, from
+ * the deepest ones up. When a given tree is an ancestor of another given tree, the later is written
+ * into the former.
+ * <p>
+ * If no {@link #setAncestor(RevTreeBuilder) root} is provided it is assumed to be the empty tree.
+ * The empty path stands for the root itself.
+ *
+ * @see WriteBack
+ */
+public class WriteBackAll extends AbstractGeoGitOp<ObjectId> {
+
+    /**
+     * Orders paths by decreasing depth, so that children come before their parents
+     */
+    private static final Comparator<String> DEEPEST_FIRST = new Comparator<String>() {
+        @Override
+        public int compare(String p1, String p2) {
+            int c = depth(p2) - depth(p1);
+            return c == 0 ? p1.compareTo(p2) : c;
+        }
+    };
+
+    private final ObjectDatabase odb;
+
+    private final StagingDatabase index;
+
+    private boolean indexDb;
+
+    private Supplier<RevTreeBuilder> ancestor;
+
+    private Map<String, RevTree> trees = ImmutableMap.of();
+
+    /**
+     * Constructs a new {@code WriteBackAll} operation with the given parameters.
+     *
+     * @param odb the object database to use
+     * @param index the staging database to use
+     */
+    @Inject
+    public WriteBackAll(ObjectDatabase odb, StagingDatabase index) {
+        this.odb = odb;
+        this.index = index;
+    }
+
+    /**
+     * @param indexDb if {@code true} the trees will be stored to the {@link StagingDatabase},
+     *        otherwise to the repository's {@link ObjectDatabase permanent store}. Defaults to
+     *        {@code false}
+     * @return {@code this}
+     */
+    public WriteBackAll setToIndex(boolean indexDb) {
+        this.indexDb = indexDb;
+        return this;
+    }
+
+    /**
+     * @param oldRoot the root tree to which add the {@link #setTrees(Map) trees} and any
+     *        intermediate tree
+     * @return {@code this}
+     */
+    public WriteBackAll setAncestor(RevTreeBuilder oldRoot) {
+        return setAncestor(Suppliers.ofInstance(oldRoot));
+    }
+
+    /**
+     * @param ancestor the root tree to which add the {@link #setTrees(Map) trees} and any
+     *        intermediate tree
+     * @return {@code this}
+     */
+    public WriteBackAll setAncestor(Supplier<RevTreeBuilder> ancestor) {
+        this.ancestor = ancestor;
+        return this;
+    }
+
+    /**
+     * @param trees the trees to store on the object database and to create any intermediate tree
+     *        for, by the path to write them at
+     * @return {@code this}
+     */
+    public WriteBackAll setTrees(Map<String, RevTree> trees) {
+        checkNotNull(trees);
+        for (Map.Entry<String, RevTree> e : trees.entrySet()) {
+            if (!e.getKey().isEmpty()) {
+                NodeRef.checkValidPath(e.getKey());
+            }
+            checkNotNull(e.getValue(), "null tree for path %s", e.getKey());
+        }
+        this.trees = ImmutableMap.copyOf(trees);
+        return this;
+    }
+
+    /**
+     * Executes the write back operation.
+     *
+     * @return the {@link ObjectId id} of the resulting new root tree.
+     */
+    @Override
+    public ObjectId call() {
+        final ObjectDatabase targetDb = indexDb ? index : odb;
+
+        // the given paths and all their ancestors, the root included
+        SortedSet<String> paths = Sets.newTreeSet(DEEPEST_FIRST);
+        Multimap<String, String> childPaths = ArrayListMultimap.create();
+        for (String path : trees.keySet()) {
+            String parentPath;
+            for (String p = path; p != null && paths.add(p); p = parentPath) {
+                parentPath = NodeRef.parentPath(p);
+                if (parentPath != null) {
+                    childPaths.put(parentPath, p);
+                }
+            }
+        }
+        paths.add("");
+
+        final Map<String, RevTree> current = Maps.newHashMap();
+        final Map<String, RevTree> written = Maps.newHashMap();
+        for (String path : paths) {
+            RevTree tree = currentTree(path, current, targetDb);
+            if (childPaths.containsKey(path)) {
+                RevTreeBuilder builder = tree.builder(targetDb);
+                for (String childPath : childPaths.get(path)) {
+                    RevTree child = written.remove(childPath);
+                    builder.put(Node.tree(NodeRef.nodeFromPath(childPath), child.getId(),
+                            ObjectId.NULL, child.size()));
+                }
+                tree = builder.build();
+            }
+            targetDb.put(tree);
+            written.put(path, tree);
+        }
+        checkState(written.size() == 1);
+        return written.get("").getId();
+    }
+
+    /**
+     * @return the tree at the given path before writing its children: the given tree for the path
+     *         if any, the tree at the same path in its parent's current tree otherwise
+     */
+    private RevTree currentTree(final String path, final Map<String, RevTree> current,
+            final ObjectDatabase targetDb) {
+        RevTree tree = current.get(path);
+        if (tree != null) {
+            return tree;
+        }
+        tree = trees.get(path);
+        if (tree == null) {
+            if (path.isEmpty()) {
+                tree = ancestor == null ? RevTree.EMPTY : ancestor.get().build();
+            } else {
+                RevTree parent = currentTree(NodeRef.parentPath(path), current, targetDb);
+                Optional<Node> node = new DepthSearch(targetDb).getDirectChild(parent,
+                        NodeRef.nodeFromPath(path), 0);
+                if (node.isPresent() && TYPE.TREE.equals(node.get().getType())) {
+                    tree = targetDb.getTree(node.get().getObjectId());
+                } else {
+                    tree = RevTree.EMPTY;
+                }
+            }
+        }
+        current.put(path, tree);
+        return tree;
+    }
+
+    private static int depth(final String path) {
+        if (path.isEmpty()) {
+            return 0;
+        }
+        int depth = 1;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == NodeRef.PATH_SEPARATOR) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+}
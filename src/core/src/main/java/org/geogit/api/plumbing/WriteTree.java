@@ -12,6 +12,7 @@ import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.QuadTreeBuilder;
 import org.geogit.api.Ref;
 import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeBuilder;
@@ -124,18 +125,28 @@ public class WriteTree extends AbstractGeoGitOp<ObjectId> {
                 Supplier<Optional<RevTree>> rootSupp = Suppliers.ofInstance(Optional
                         .of(oldRootTree));
 
-                parentTree = command(FindOrCreateSubtree.class).setParent(rootSupp)
-                        .setChildPath(parentPath).call().builder(repositoryDatabase);// repositoryDatabase
-                                                                                     // for sure?
+                RevTree currentTree = command(FindOrCreateSubtree.class).setParent(rootSupp)
+                        .setChildPath(parentPath).call();
+                // a tree new to the repository keeps the layout of the staged one
+                final String stagedPath = parentPath;
+                parentTree = QuadTreeBuilder.builderFor(currentTree, new Supplier<RevTree>() {
+                    @Override
+                    public RevTree get() {
+                        return command(FindOrCreateSubtree.class)
+                                .setParent(Suppliers.ofInstance(Optional.of(index.getTree())))
+                                .setIndex(true).setChildPath(stagedPath).call();
+                    }
+                }, repositoryDatabase);
                 changedTrees.put(parentPath, parentTree);
             }
 
             final boolean isDelete = diff.changeType().equals(ChangeType.REMOVED);
             if (isDelete) {
-                parentTree.remove(diff.getOldObject().getNode().getName());
+                parentTree.remove(diff.getOldObject().getNode());
             } else {
                 deepMove(ref.getNode(), index.getDatabase(), repositoryDatabase);
-                parentTree.put(ref.getNode());
+                NodeRef oldObject = diff.getOldObject();
+                parentTree.update(oldObject == null ? null : oldObject.getNode(), ref.getNode());
             }
         }
 
@@ -143,14 +154,16 @@ public class WriteTree extends AbstractGeoGitOp<ObjectId> {
             return null;
         }
 
-        // now write back all changed trees
-        ObjectId newTargetRootId = oldRootTreeId;
+        // now write back all changed trees, rewriting each of their ancestors once
+        Map<String, RevTree> trees = Maps.newHashMap();
         for (Map.Entry<String, RevTreeBuilder> e : changedTrees.entrySet()) {
-            String treePath = e.getKey();
-            RevTreeBuilder treeBuilder = e.getValue();
-            RevTree newRoot = getTree(newTargetRootId);
-            RevTree tree = treeBuilder.build();
-            newTargetRootId = writeBack(newRoot.builder(repositoryDatabase), tree, treePath);
+            trees.put(e.getKey(), e.getValue().build());
+        }
+        ObjectId newTargetRootId = oldRootTreeId;
+        if (!trees.isEmpty()) {
+            newTargetRootId = command(WriteBackAll.class)
+                    .setAncestor(oldRootTree.builder(repositoryDatabase)).setTrees(trees)
+                    .setToIndex(false).call();
         }
 
         progress.complete();
@@ -158,13 +171,6 @@ public class WriteTree extends AbstractGeoGitOp<ObjectId> {
         return newTargetRootId;
     }
 
-    private RevTree getTree(ObjectId treeId) {
-        if (treeId.isNull()) {
-            return RevTree.EMPTY;
-        }
-        return command(RevObjectParse.class).setObjectId(treeId).call(RevTree.class).get();
-    }
-
     private void deepMove(Node ref, StagingDatabase indexDatabase2,
             ObjectDatabase repositoryDatabase2) {
 
@@ -199,10 +205,4 @@ public class WriteTree extends AbstractGeoGitOp<ObjectId> {
         return command(RevObjectParse.class).setObjectId(targetTreeId).call(RevTree.class).get();
     }
 
-    private ObjectId writeBack(RevTreeBuilder root, final RevTree tree, final String pathToTree) {
-
-        return command(WriteBack.class).setAncestor(root).setAncestorPath("").setTree(tree)
-                .setChildPath(pathToTree).setToIndex(false).call();
-    }
-
 }
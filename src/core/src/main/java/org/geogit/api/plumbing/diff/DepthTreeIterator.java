@@ -8,22 +8,35 @@ package org.geogit.api.plumbing.diff;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
+import org.geogit.repository.SpatialOps;
 import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * An iterator over a {@link RevTree} that can return different results depending on the
  * {@link #Strategy} given;
+ * <p>
+ * If given a bounds filter, only the nodes whose bounds intersect it are returned, and the bucket
+ * trees whose {@link RevTree#bucketBounds() bounds} don't intersect it aren't even loaded. Feature
+ * nodes without bounds are left out, and tree nodes without bounds are kept, as what they hold is
+ * unknown. The filter is in the coordinates of the nodes' bounds, no reprojection is performed.
  */
 public class DepthTreeIterator extends AbstractIterator<NodeRef> {
     public enum Strategy {
@@ -62,6 +75,9 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
 
     private Strategy strategy;
 
+    @Nullable
+    private Envelope boundsFilter;
+
     private static class NodeToRef implements Function<Node, NodeRef> {
 
         private final String treePath;
@@ -85,6 +101,15 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
 
     public DepthTreeIterator(final String treePath, final ObjectId metadataId, RevTree tree,
             ObjectDatabase source, Strategy strategy) {
+        this(treePath, metadataId, tree, source, strategy, null);
+    }
+
+    /**
+     * @param boundsFilter the bounds the returned nodes shall intersect, or {@code null} not to
+     *        filter nodes by their bounds
+     */
+    public DepthTreeIterator(final String treePath, final ObjectId metadataId, RevTree tree,
+            ObjectDatabase source, Strategy strategy, @Nullable Envelope boundsFilter) {
         checkNotNull(treePath);
         checkNotNull(metadataId);
         checkNotNull(tree);
@@ -94,6 +119,7 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
         NodeToRef functor = new NodeToRef(treePath, metadataId);
         this.source = source;
         this.strategy = strategy;
+        this.boundsFilter = boundsFilter;
         switch (strategy) {
         case CHILDREN:
             iterator = Iterators.transform(new Children(tree), functor);
@@ -130,6 +156,44 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
         return endOfData();
     }
 
+    /**
+     * @return the nodes that pass the bounds filter, if any
+     */
+    private Iterator<Node> filter(Iterator<Node> nodes) {
+        if (boundsFilter == null) {
+            return nodes;
+        }
+        return Iterators.filter(nodes, new Predicate<Node>() {
+            @Override
+            public boolean apply(Node node) {
+                Envelope bounds = SpatialOps.envelopeOf(node);
+                if (bounds == null) {
+                    return TYPE.TREE.equals(node.getType());
+                }
+                return boundsFilter.intersects(bounds);
+            }
+        });
+    }
+
+    /**
+     * @return the ids of the bucket trees of {@code tree} that may hold nodes passing the bounds
+     *         filter, if any
+     */
+    private Iterator<ObjectId> filterBuckets(RevTree tree) {
+        Preconditions.checkArgument(tree.buckets().isPresent());
+        if (boundsFilter == null) {
+            return tree.buckets().get().values().iterator();
+        }
+        List<ObjectId> bucketIds = Lists.newArrayListWithCapacity(tree.buckets().get().size());
+        for (Entry<Integer, ObjectId> bucket : tree.buckets().get().entrySet()) {
+            Envelope bucketBounds = tree.bucketBounds().get(bucket.getKey());
+            if (bucketBounds == null || boundsFilter.intersects(bucketBounds)) {
+                bucketIds.add(bucket.getValue());
+            }
+        }
+        return bucketIds.iterator();
+    }
+
     private class Recursive extends AbstractIterator<NodeRef> {
 
         private boolean features;
@@ -198,7 +262,7 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
             if (tree.buckets().isPresent()) {
                 this.children = new Buckets(tree);
             } else {
-                this.children = tree.children();
+                this.children = filter(tree.children());
             }
         }
 
@@ -217,7 +281,7 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
 
         public Features(RevTree tree) {
             if (tree.features().isPresent()) {
-                this.features = tree.features().get().iterator();
+                this.features = filter(tree.features().get().iterator());
             } else if (tree.buckets().isPresent()) {
                 this.features = new FeatureBuckets(tree);
             } else {
@@ -240,7 +304,7 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
 
         public Trees(RevTree tree) {
             if (tree.trees().isPresent()) {
-                this.trees = tree.trees().get().iterator();
+                this.trees = filter(tree.trees().get().iterator());
             } else if (tree.buckets().isPresent()) {
                 this.trees = new TreeBuckets(tree);
             } else {
@@ -267,8 +331,7 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
         private Iterator<Node> bucketEntries;
 
         public Buckets(RevTree tree) {
-            Preconditions.checkArgument(tree.buckets().isPresent());
-            buckets = tree.buckets().get().values().iterator();
+            buckets = filterBuckets(tree);
         }
 
         @Override
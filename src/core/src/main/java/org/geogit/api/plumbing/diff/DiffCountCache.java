@@ -0,0 +1,103 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing.diff;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A cache of the number of differences {@link DiffCounter} counted between two trees, keyed by the
+ * ids of both trees regardless of their order, as the count is the same both ways.
+ * <p>
+ * Trees are immutable and addressed by content, so entries never go stale; the least recently
+ * used ones are evicted once the cache holds its maximum number of entries.
+ * 
+ * @see DiffCountCacheProvider
+ */
+public class DiffCountCache {
+
+    public static final int DEFAULT_SIZE = 10 * 1000;
+
+    private final Cache<Key, Long> cache;
+
+    /**
+     * Creates a cache with the default size.
+     */
+    public DiffCountCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a cache holding up to the given number of entries; zero disables caching.
+     */
+    public DiffCountCache(int maxEntries) {
+        checkArgument(maxEntries >= 0, "cache size can't be negative");
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxEntries).recordStats().build();
+    }
+
+    /**
+     * @return the number of differences between the two trees, or {@code null} if not cached
+     */
+    @Nullable
+    public Long get(ObjectId leftTreeId, ObjectId rightTreeId) {
+        return cache.getIfPresent(new Key(leftTreeId, rightTreeId));
+    }
+
+    /**
+     * Caches the number of differences between two trees.
+     */
+    public void put(ObjectId leftTreeId, ObjectId rightTreeId, long count) {
+        cache.put(new Key(leftTreeId, rightTreeId), Long.valueOf(count));
+    }
+
+    /**
+     * Discards all the cached entries.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return the hit, miss and eviction counters of the cache
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static final class Key {
+
+        private final ObjectId lowerId;
+
+        private final ObjectId upperId;
+
+        Key(ObjectId leftTreeId, ObjectId rightTreeId) {
+            boolean ordered = leftTreeId.compareTo(rightTreeId) <= 0;
+            this.lowerId = ordered ? leftTreeId : rightTreeId;
+            this.upperId = ordered ? rightTreeId : leftTreeId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return lowerId.equals(k.lowerId) && upperId.equals(k.upperId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(lowerId, upperId);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing.diff;
+
+import org.geogit.storage.AbstractConfiguredProvider;
+import org.geogit.storage.ConfigDatabase;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Creates the repository {@link DiffCountCache}, holding as many entries as set by the
+ * {@code cache.diffCounts} repository config key, or {@link DiffCountCache#DEFAULT_SIZE} if not
+ * set.
+ */
+public class DiffCountCacheProvider extends AbstractConfiguredProvider<DiffCountCache> {
+
+    public static final String SIZE = "cache.diffCounts";
+
+    @Inject
+    public DiffCountCacheProvider(ConfigDatabase config) {
+        super(config);
+    }
+
+    @Override
+    public DiffCountCache get() {
+        Optional<Integer> size = getConfig(SIZE, Integer.class);
+        return new DiffCountCache(size.or(DiffCountCache.DEFAULT_SIZE).intValue());
+    }
+}
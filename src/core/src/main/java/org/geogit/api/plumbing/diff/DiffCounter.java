@@ -6,38 +6,44 @@ package org.geogit.api.plumbing.diff;
 
 import static com.google.common.base.Preconditions.checkState;
 
-import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.QuadTreeStorageOrder;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Ordering;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
-import com.google.common.collect.SortedSetMultimap;
-import com.google.common.collect.TreeMultimap;
 
 /**
  * A faster alternative to count the number of diffs between two trees than walking a
  * {@link DiffTreeWalk} iterator; doesn't support filtering, counts the total number of differences
  * between the two trees
  * <p>
+ * Both trees are walked in storage order without copying their nodes, and the
+ * {@link Node#getTreeSize() sizes} stored for subtrees and buckets are used to count the nodes only
+ * found on one side. If given a {@link DiffCountCache}, the counts between pairs of
+ * trees are looked up there before being computed, and cached afterwards.
+ * <p>
  * TODO: add support for path filtering
  */
 public class DiffCounter implements Supplier<Long> {
@@ -51,13 +57,28 @@ public class DiffCounter implements Supplier<Long> {
     @Nonnull
     private ObjectDatabase objectDb;
 
+    @Nullable
+    private final DiffCountCache cache;
+
+    private final NodeStorageOrder storageOrder = new NodeStorageOrder();
+
     public DiffCounter(final ObjectDatabase db, final RevTree fromRootTree, final RevTree toRootTree) {
+        this(db, fromRootTree, toRootTree, null);
+    }
+
+    /**
+     * @param cache where to look up and save the counts between pairs of trees, may be
+     *        {@code null}
+     */
+    public DiffCounter(final ObjectDatabase db, final RevTree fromRootTree,
+            final RevTree toRootTree, @Nullable final DiffCountCache cache) {
         Preconditions.checkNotNull(db);
         Preconditions.checkNotNull(fromRootTree);
         Preconditions.checkNotNull(toRootTree);
         this.objectDb = db;
         this.fromRootTree = fromRootTree;
         this.toRootTree = toRootTree;
+        this.cache = cache;
     }
 
     @Override
@@ -83,6 +104,25 @@ public class DiffCounter implements Supplier<Long> {
         } else if (oldTree.isEmpty()) {
             return countOf(newTree);
         }
+        final boolean cacheable = cache != null && !oldTree.getId().isNull()
+                && !newTree.getId().isNull();
+        if (cacheable) {
+            Long cached = cache.get(oldTree.getId(), newTree.getId());
+            if (cached != null) {
+                return cached.longValue();
+            }
+        }
+        final long count = countNonTrivialDiffs(oldTree, newTree);
+        if (cacheable) {
+            cache.put(oldTree.getId(), newTree.getId(), count);
+        }
+        return count;
+    }
+
+    private long countNonTrivialDiffs(RevTree oldTree, RevTree newTree) {
+        if (QuadTreeStorageOrder.isQuadTree(oldTree) || QuadTreeStorageOrder.isQuadTree(newTree)) {
+            return countQuadTreeDiffs(oldTree, newTree);
+        }
 
         long count = 0L;
 
@@ -101,106 +141,95 @@ public class DiffCounter implements Supplier<Long> {
             // get the children and buckets from the respective trees, order doesn't matter as we're
             // counting diffs
             ImmutableSortedMap<Integer, ObjectId> buckets;
-            Iterator<Node> children;
 
             buckets = oldTree.buckets().isPresent() ? oldTree.buckets().get() : newTree.buckets()
                     .get();
 
-            children = oldTree.buckets().isPresent() ? newTree.children() : oldTree.children();
-            count = countBucketsChildren(buckets, children);
+            final RevTree leafTree = oldTree.buckets().isPresent() ? newTree : oldTree;
+            Iterable<Node> children = new Iterable<Node>() {
+                @Override
+                public Iterator<Node> iterator() {
+                    return children(leafTree);
+                }
+            };
+            count = countBucketsChildren(buckets, children, 0);
         }
 
         return count;
     }
 
+    /**
+     * Handles the case where a version of the tree is a {@link QuadTreeStorageOrder quadtree},
+     * whose nodes are bucketed by bounds rather than by path, by counting the entries of their
+     * {@link TreeDiffEntryIterator diff}, which skips the matching buckets.
+     */
+    private long countQuadTreeDiffs(RevTree oldTree, RevTree newTree) {
+        NodeRef oldRef = new NodeRef(new Node("", oldTree.getId(), ObjectId.NULL, TYPE.TREE), "",
+                ObjectId.NULL);
+        NodeRef newRef = new NodeRef(new Node("", newTree.getId(), ObjectId.NULL, TYPE.TREE), "",
+                ObjectId.NULL);
+        return Iterators.size(new TreeDiffEntryIterator(oldRef, newRef, oldTree, newTree,
+                objectDb));
+    }
+
     /**
      * Handles the case where one version of a tree has so few nodes that they all fit in its
      * {@link RevTree#children() children}, but the other version of the tree has more nodes so its
      * split into {@link RevTree#buckets()}.
+     * <p>
+     * The children are compared one bucket at a time by filtering the nodes the leaf tree already
+     * holds, rather than copying them, and the buckets no child falls into are counted by their
+     * size.
      */
-    private long countBucketsChildren(ImmutableSortedMap<Integer, ObjectId> buckets,
-            Iterator<Node> children) {
-
-        final NodeStorageOrder refOrder = new NodeStorageOrder();
-        final int bucketDepth = 0; // start at depth 0
-        return countBucketsChildren(buckets, children, refOrder, bucketDepth);
-    }
-
-    private long countBucketsChildren(ImmutableSortedMap<Integer, ObjectId> buckets,
-            Iterator<Node> children, final NodeStorageOrder refOrder, final int depth) {
-
-        final SortedSetMultimap<Integer, Node> treesByBucket;
-        final SortedSetMultimap<Integer, Node> featuresByBucket;
-        {
-            treesByBucket = TreeMultimap.create(Ordering.natural(), refOrder); // make sure values
-                                                                               // are sorted
-                                                                               // according to
-                                                                               // refOrder
-            featuresByBucket = TreeMultimap.create(Ordering.natural(), refOrder);// make sure values
-                                                                                 // are sorted
-                                                                                 // according to
-                                                                                 // refOrder
-            while (children.hasNext()) {
-                Node ref = children.next();
-                Integer bucket = refOrder.bucket(ref, depth);
-                if (ref.getType().equals(TYPE.TREE)) {
-                    treesByBucket.put(bucket, ref);
-                } else {
-                    featuresByBucket.put(bucket, ref);
-                }
-            }
-        }
+    private long countBucketsChildren(final ImmutableSortedMap<Integer, ObjectId> buckets,
+            final Iterable<Node> children, final int depth) {
 
         long count = 0;
-
-        {// count full size of all buckets for which no children falls into
-            final Set<Integer> loneleyBuckets = Sets.difference(buckets.keySet(),
-                    Sets.union(featuresByBucket.keySet(), treesByBucket.keySet()));
-
-            for (Integer bucket : loneleyBuckets) {
-                ObjectId bucketId = buckets.get(bucket);
-                count += sizeOfTree(bucketId);
+        // count the full size of all children whose buckets don't exist on the buckets tree
+        for (Node child : children) {
+            if (!buckets.containsKey(storageOrder.bucket(child, depth))) {
+                count += sizeOf(child);
             }
         }
-        {// count the full size of all children whose buckets don't exist on the buckets tree
-            for (Integer bucket : Sets.difference(featuresByBucket.keySet(), buckets.keySet())) {
-                SortedSet<Node> refs = featuresByBucket.get(bucket);
-                count += refs.size();
-            }
 
-            for (Integer bucket : Sets.difference(treesByBucket.keySet(), buckets.keySet())) {
-                SortedSet<Node> refs = treesByBucket.get(bucket);
-                count += aggregateSize(refs);
+        for (Map.Entry<Integer, ObjectId> bucket : buckets.entrySet()) {
+            final Iterable<Node> refs = Iterables.filter(children,
+                    new InBucket(bucket.getKey(), depth));
+            if (Iterables.isEmpty(refs)) {
+                // no children falls into it
+                count += sizeOfTree(bucket.getValue());
+                continue;
             }
-        }
-
-        // find the number of diffs of the intersection
-        final Set<Integer> commonBuckets = Sets.intersection(buckets.keySet(),
-                Sets.union(featuresByBucket.keySet(), treesByBucket.keySet()));
-        for (Integer bucket : commonBuckets) {
-
-            Iterator<Node> refs = Iterators.concat(treesByBucket.get(bucket).iterator(),
-                    featuresByBucket.get(bucket).iterator());
-
-            final ObjectId bucketId = buckets.get(bucket);
-            final RevTree bucketTree = getTree(bucketId);
-
+            final RevTree bucketTree = getTree(bucket.getValue());
             if (bucketTree.isEmpty()) {
                 // unlikely
-                count += aggregateSize(refs);
+                count += aggregateSize(refs.iterator());
             } else if (!bucketTree.buckets().isPresent()) {
-                count += countChildrenDiffs(bucketTree.children(), refs);
+                count += countChildrenDiffs(children(bucketTree), refs.iterator());
             } else {
-                final int deeperBucketsDepth = depth + 1;
-                final ImmutableSortedMap<Integer, ObjectId> deeperBuckets;
-                deeperBuckets = bucketTree.buckets().get();
-                count += countBucketsChildren(deeperBuckets, refs, refOrder, deeperBucketsDepth);
+                count += countBucketsChildren(bucketTree.buckets().get(), refs, depth + 1);
             }
         }
-
         return count;
     }
 
+    private class InBucket implements Predicate<Node> {
+
+        private final Integer bucket;
+
+        private final int depth;
+
+        InBucket(Integer bucket, int depth) {
+            this.bucket = bucket;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean apply(Node input) {
+            return bucket.equals(storageOrder.bucket(input, depth));
+        }
+    }
+
     /**
      * Counts the number of differences between two trees that contain {@link RevTree#buckets()
      * buckets} instead of direct {@link RevTree#children() children}
@@ -235,12 +264,20 @@ public class DiffCounter implements Supplier<Long> {
         // SetView<Node> featureDiff = Sets.difference(leftFeatures, rightFeatures);
         // long count = featureDiff.size();
 
-        return countChildrenDiffs(leftTree.children(), rightTree.children());
+        return countChildrenDiffs(children(leftTree), children(rightTree));
     }
 
-    private long countChildrenDiffs(Iterator<Node> leftTree, Iterator<Node> rightTree) {
+    /**
+     * @return the children of a leaf tree, trees and features together in storage order
+     */
+    private Iterator<Node> children(RevTree tree) {
+        final ImmutableList<Node> empty = ImmutableList.of();
+        return Iterators.mergeSorted(
+                ImmutableList.of(tree.trees().or(empty).iterator(), tree.features().or(empty)
+                        .iterator()), storageOrder);
+    }
 
-        final Ordering<Node> storageOrder = new NodeStorageOrder();
+    private long countChildrenDiffs(Iterator<Node> leftTree, Iterator<Node> rightTree) {
 
         long count = 0;
 
@@ -270,28 +307,23 @@ public class DiffCounter implements Supplier<Long> {
                 }
             } else if (peekLeft == storageOrder.min(peekLeft, peekRight)) {
                 peekLeft = left.next();// consume only the left value
-                count += aggregateSize(ImmutableList.of(peekLeft));
+                count += sizeOf(peekLeft);
             } else {
                 peekRight = right.next();// consume only the right value
-                count += aggregateSize(ImmutableList.of(peekRight));
+                count += sizeOf(peekRight);
             }
         }
 
         if (left.hasNext()) {
-            count += countRemaining(left);
+            count += aggregateSize(left);
         } else if (right.hasNext()) {
-            count += countRemaining(right);
+            count += aggregateSize(right);
         }
         Preconditions.checkState(!left.hasNext());
         Preconditions.checkState(!right.hasNext());
         return count;
     }
 
-    private long countRemaining(Iterator<Node> remaining) {
-        ArrayList<Node> iterable = Lists.newArrayList(remaining);
-        return aggregateSize(iterable);
-    }
-
     private long sizeOfTree(ObjectId treeId) {
         RevTree tree = getTree(treeId);
         return countOf(tree);
@@ -312,22 +344,26 @@ public class DiffCounter implements Supplier<Long> {
         return tree.size();
     }
 
-    private long aggregateSize(Iterable<Node> children) {
-        return aggregateSize(children.iterator());
-    }
-
     private long aggregateSize(Iterator<Node> children) {
         long size = 0;
         while (children.hasNext()) {
-            Node ref = children.next();
-            if (RevObject.TYPE.FEATURE.equals(ref.getType())) {
-                size++;
-            } else if (RevObject.TYPE.TREE.equals(ref.getType())) {
-                ObjectId treeId = ref.getObjectId();
-                size += sizeOfTree(treeId);
-            }
+            size += sizeOf(children.next());
         }
         return size;
     }
 
+    /**
+     * @return the number of features under the node, using the size the node keeps for trees
+     */
+    private long sizeOf(Node ref) {
+        if (RevObject.TYPE.FEATURE.equals(ref.getType())) {
+            return 1;
+        } else if (RevObject.TYPE.TREE.equals(ref.getType())) {
+            Optional<Long> treeSize = ref.getTreeSize();
+            return treeSize.isPresent() ? treeSize.get().longValue() : sizeOfTree(ref
+                    .getObjectId());
+        }
+        return 0;
+    }
+
 }
@@ -7,6 +7,7 @@ package org.geogit.api.plumbing.diff;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -30,6 +31,12 @@ import com.google.common.collect.Iterators;
  */
 public class DiffTreeWalk {
 
+    /**
+     * Default number of bucket pairs diffed ahead of the one being returned, when diffing them
+     * concurrently
+     */
+    public static final int DEFAULT_PREFETCH = 8;
+
     @Nonnull
     private final RevTree fromRootTree;
 
@@ -42,6 +49,11 @@ public class DiffTreeWalk {
     @Nullable
     private String pathFilter;
 
+    @Nullable
+    private ExecutorService executor;
+
+    private int prefetch = DEFAULT_PREFETCH;
+
     public DiffTreeWalk(final ObjectDatabase db, final RevTree fromRootTree,
             final RevTree toRootTree) {
         Preconditions.checkNotNull(db);
@@ -61,6 +73,27 @@ public class DiffTreeWalk {
         }
     }
 
+    /**
+     * Sets the executor to diff the bucket pairs of large trees concurrently on; the differences
+     * are still returned in storage order.
+     * 
+     * @param executor the executor, or {@code null} to diff on the calling thread only
+     */
+    public void setExecutor(@Nullable final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets how many bucket pairs past the one being returned are diffed ahead of time when diffing
+     * concurrently, which bounds the number of differences held in memory.
+     * 
+     * @param prefetch the number of bucket pairs, defaults to {@link #DEFAULT_PREFETCH}
+     */
+    public void setPrefetch(final int prefetch) {
+        Preconditions.checkArgument(prefetch > 0, "prefetch shall be positive");
+        this.prefetch = prefetch;
+    }
+
     public Iterator<DiffEntry> get() {
 
         RevTree oldTree = this.fromRootTree;
@@ -113,7 +146,7 @@ public class DiffTreeWalk {
         // TODO: pass pathFilter to TreeDiffEntryIterator so it ignores inner trees where the path
         // is guaranteed not to be present
         Iterator<DiffEntry> iterator = new TreeDiffEntryIterator(oldRef, newRef, oldTree, newTree,
-                objectDb);
+                objectDb, executor, prefetch);
 
         if (pathFiltering) {
             iterator = Iterators.filter(iterator, new Predicate<DiffEntry>() {
@@ -0,0 +1,167 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing.diff;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.geogit.api.RevTree;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+/**
+ * Concatenates the differences of the bucket pairs of two {@link RevTree}s in bucket order, while
+ * the ones of the next {@code prefetch} buckets are computed concurrently on an executor.
+ * <p>
+ * The differences of a bucket pair are pulled in batches of up to {@link #BATCH_SIZE} entries, and
+ * only one batch per bucket is computed ahead of time, so no more than
+ * {@code (prefetch + 2) * BATCH_SIZE} entries are held in memory however big the trees are. The
+ * tasks pulling the batches never wait on each other, so the executor may be shared, and a batch
+ * not yet started when it's needed is computed by the calling thread.
+ */
+class ParallelBucketDiff extends AbstractIterator<DiffEntry> {
+
+    /**
+     * Maximum number of differences pulled out of a bucket pair per task
+     */
+    static final int BATCH_SIZE = 1000;
+
+    private final ExecutorService executor;
+
+    private final int prefetch;
+
+    private final List<Bucket> buckets;
+
+    private int current;
+
+    private Iterator<DiffEntry> batch = Iterators.emptyIterator();
+
+    /**
+     * @param bucketDiffs the diffs of the bucket pairs, in bucket order, each one creating the
+     *        iterator of the differences of its pair when called
+     * @param executor the executor to compute the bucket differences on
+     * @param prefetch how many buckets past the current one to compute differences for ahead of
+     *        time
+     */
+    public ParallelBucketDiff(final List<Callable<Iterator<DiffEntry>>> bucketDiffs,
+            final ExecutorService executor, final int prefetch) {
+        checkNotNull(executor);
+        checkArgument(prefetch > 0, "prefetch shall be positive");
+        this.executor = executor;
+        this.prefetch = prefetch;
+        this.buckets = Lists.newArrayListWithCapacity(bucketDiffs.size());
+        for (Callable<Iterator<DiffEntry>> diff : bucketDiffs) {
+            buckets.add(new Bucket(diff));
+        }
+    }
+
+    @Override
+    protected DiffEntry computeNext() {
+        while (!batch.hasNext()) {
+            if (current == buckets.size()) {
+                return endOfData();
+            }
+            prefetch();
+            List<DiffEntry> next = buckets.get(current).take();
+            if (next == null) {
+                // let it be garbage collected
+                buckets.set(current, null);
+                current++;
+            } else {
+                batch = next.iterator();
+            }
+        }
+        return batch.next();
+    }
+
+    private void prefetch() {
+        final int last = Math.min(buckets.size() - 1, current + prefetch);
+        for (int i = current; i <= last; i++) {
+            buckets.get(i).fetch();
+        }
+    }
+
+    /**
+     * Pulls the differences of a bucket pair one batch at a time. The iterator of differences is
+     * only used by one task at a time, each one started after the previous one's result was taken.
+     */
+    private class Bucket implements Callable<List<DiffEntry>> {
+
+        private Callable<Iterator<DiffEntry>> diff;
+
+        private Iterator<DiffEntry> entries;
+
+        private FutureTask<List<DiffEntry>> pending;
+
+        private boolean exhausted;
+
+        Bucket(Callable<Iterator<DiffEntry>> diff) {
+            this.diff = diff;
+        }
+
+        void fetch() {
+            if (pending != null || exhausted) {
+                return;
+            }
+            pending = new FutureTask<List<DiffEntry>>(this);
+            try {
+                executor.execute(pending);
+            } catch (RejectedExecutionException e) {
+                // run by the calling thread when taken
+            }
+        }
+
+        /**
+         * @return the next batch of differences, or {@code null} if there are no more
+         */
+        List<DiffEntry> take() {
+            if (exhausted) {
+                return null;
+            }
+            fetch();
+            final FutureTask<List<DiffEntry>> task = pending;
+            pending = null;
+            // no-op if already run or running
+            task.run();
+            List<DiffEntry> next;
+            try {
+                next = task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+            exhausted = next.size() < BATCH_SIZE;
+            // go on with the next batch while this one is consumed
+            fetch();
+            return next.isEmpty() ? null : next;
+        }
+
+        @Override
+        public List<DiffEntry> call() throws Exception {
+            if (entries == null) {
+                entries = diff.call();
+                diff = null;
+            }
+            List<DiffEntry> next = Lists.newArrayList();
+            while (next.size() < BATCH_SIZE && entries.hasNext()) {
+                next.add(entries.next());
+            }
+            return next;
+        }
+    }
+}
@@ -11,27 +11,36 @@ import static org.geogit.api.plumbing.diff.DiffEntry.ChangeType.ADDED;
 import static org.geogit.api.plumbing.diff.DiffEntry.ChangeType.REMOVED;
 
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nullable;
 
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.QuadTreeBuilder;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
+import org.geogit.repository.DepthSearch;
 import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.QuadTreeStorageOrder;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterators;
-import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
@@ -42,25 +51,62 @@ import com.google.common.collect.Sets;
  * changed. If the two elements of the current iteration are not the same, find out whether it's an
  * addition or a deletion; when the change is on a subtree, returns the subtree differences before
  * continuing with the own ones.
+ * <p>
+ * If given an executor, the differences of the bucket pairs of two bucket trees are computed
+ * concurrently, see {@link ParallelBucketDiff}, and still returned in bucket order.
  */
 class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
 
+    /**
+     * How many removals and additions of nodes moved to another quadtree cell to hold at most while
+     * waiting for their counterparts, see {@link QuadTreeDiff}
+     */
+    private static final int PAIRING_BATCH = 10000;
+
     private final ObjectDatabase objectDb;
 
+    @Nullable
+    private final ExecutorService executor;
+
+    private final int prefetch;
+
     private final Iterator<DiffEntry> delegate;
 
     public TreeDiffEntryIterator(NodeRef oldTreeRef, NodeRef newTreeRef,
             @Nullable final RevTree oldTree, @Nullable final RevTree newTree,
             final ObjectDatabase db) {
+        this(oldTreeRef, newTreeRef, oldTree, newTree, db, null, 0);
+    }
+
+    /**
+     * @param executor the executor to diff bucket pairs on, or {@code null} to diff them one after
+     *        the other on the calling thread
+     * @param prefetch how many bucket pairs past the one being returned to diff ahead of time, if
+     *        given an executor
+     */
+    public TreeDiffEntryIterator(NodeRef oldTreeRef, NodeRef newTreeRef,
+            @Nullable final RevTree oldTree, @Nullable final RevTree newTree,
+            final ObjectDatabase db, @Nullable final ExecutorService executor, final int prefetch) {
 
         checkArgument(oldTree != null || newTree != null);
+        checkArgument(executor == null || prefetch > 0, "prefetch shall be positive");
 
         this.objectDb = db;
+        this.executor = executor;
+        this.prefetch = prefetch;
 
         if (oldTree == null || oldTree.isEmpty()) {
             delegate = addRemoveAll(newTreeRef, newTree, ADDED);
         } else if (newTree == null || newTree.isEmpty()) {
             delegate = addRemoveAll(oldTreeRef, oldTree, REMOVED);
+        } else if (QuadTreeStorageOrder.isQuadTree(oldTree)
+                && QuadTreeStorageOrder.isQuadTree(newTree)) {
+            delegate = new QuadTreeDiff(oldTreeRef, newTreeRef, oldTree, newTree);
+
+        } else if (QuadTreeStorageOrder.isQuadTree(oldTree)
+                || QuadTreeStorageOrder.isQuadTree(newTree)) {
+            delegate = new MixedLayoutDiff(oldTreeRef, newTreeRef, oldTree, newTree);
+
         } else if (!oldTree.buckets().isPresent() && !newTree.buckets().isPresent()) {
 
             Iterator<NodeRef> left = new DepthTreeIterator(oldTreeRef.path(),
@@ -120,6 +166,67 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
         return Iterators.transform(treeIterator, new RefToDiffEntry(changeType));
     }
 
+    /**
+     * Concatenates the differences of bucket pairs, diffing them concurrently if there's an
+     * executor
+     */
+    private Iterator<DiffEntry> concat(final List<Callable<Iterator<DiffEntry>>> bucketDiffs) {
+        if (executor != null && bucketDiffs.size() > 1) {
+            return new ParallelBucketDiff(bucketDiffs, executor, prefetch);
+        }
+        return Iterators.concat(Iterators.transform(bucketDiffs.iterator(),
+                new Function<Callable<Iterator<DiffEntry>>, Iterator<DiffEntry>>() {
+                    @Override
+                    public Iterator<DiffEntry> apply(Callable<Iterator<DiffEntry>> diff) {
+                        try {
+                            return diff.call();
+                        } catch (Exception e) {
+                            throw Throwables.propagate(e);
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * Diffs a pair of buckets, returning the iterator of their differences when called. The
+     * buckets are only loaded then, and the iterator is not given the executor as it may be called
+     * by one of its threads.
+     */
+    private class BucketDiff implements Callable<Iterator<DiffEntry>> {
+
+        private final NodeRef leftRef;
+
+        private final NodeRef rightRef;
+
+        @Nullable
+        private final ObjectId leftTreeId;
+
+        @Nullable
+        private final ObjectId rightTreeId;
+
+        BucketDiff(NodeRef leftRef, NodeRef rightRef, @Nullable ObjectId leftTreeId,
+                @Nullable ObjectId rightTreeId) {
+            this.leftRef = leftRef;
+            this.rightRef = rightRef;
+            this.leftTreeId = leftTreeId;
+            this.rightTreeId = rightTreeId;
+        }
+
+        @Override
+        public Iterator<DiffEntry> call() {
+            RevTree left = resolveTree(leftTreeId);
+            RevTree right = resolveTree(rightTreeId);
+            return new TreeDiffEntryIterator(leftRef, rightRef, left, right, objectDb);
+        }
+    }
+
+    private RevTree resolveTree(@Nullable ObjectId treeId) {
+        if (treeId == null) {
+            return null;
+        }
+        return objectDb.getTree(treeId);
+    }
+
     /**
      * Compares the contents of two leaf trees and spits out the changes. The entries must be in
      * {@link NodeRef}'s {@link NodeStorageOrder storage order}.
@@ -209,7 +316,8 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
                 checkState(fromTree != null);
                 it = addRemoveAll(nextLeft, fromTree, REMOVED);
             } else {
-                it = new TreeDiffEntryIterator(nextLeft, nextRight, fromTree, toTree, objectDb);
+                it = new TreeDiffEntryIterator(nextLeft, nextRight, fromTree, toTree, objectDb,
+                        executor, prefetch);
             }
             return it;
         }
@@ -247,66 +355,337 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
 
     }
 
+    /**
+     * Concatenates the differences of the bucket pairs of two bucket trees in bucket order,
+     * skipping the pairs with the same id
+     */
     private class BucketBucketDiff extends AbstractIterator<DiffEntry> {
 
-        /**
-         * A multi-map of bucket/objectId where key is guaranteed to have two entries, the first one
-         * for the left tree id and the second one for he right tree id
-         */
-        private final ListMultimap<Integer, Optional<ObjectId>> leftRightBuckets;
+        private final Iterator<DiffEntry> bucketsIterator;
 
-        private final Iterator<Integer> combinedBuckets;
+        public BucketBucketDiff(final NodeRef leftRef, final NodeRef rightRef,
+                final ImmutableSortedMap<Integer, ObjectId> left,
+                final ImmutableSortedMap<Integer, ObjectId> right) {
 
-        private Iterator<DiffEntry> currentBucketIterator;
+            List<Callable<Iterator<DiffEntry>>> bucketDiffs = Lists.newArrayList();
+            Set<Integer> buckets = Sets.newTreeSet(Sets.union(left.keySet(), right.keySet()));
+            for (Integer bucket : buckets) {
+                final ObjectId leftTreeId = left.get(bucket);
+                final ObjectId rightTreeId = right.get(bucket);
+                if (leftTreeId == null || !leftTreeId.equals(rightTreeId)) {
+                    bucketDiffs.add(new BucketDiff(leftRef, rightRef, leftTreeId, rightTreeId));
+                }
+            }
+            this.bucketsIterator = concat(bucketDiffs);
+        }
 
-        private NodeRef leftRef;
+        @Override
+        protected DiffEntry computeNext() {
+            if (bucketsIterator.hasNext()) {
+                return bucketsIterator.next();
+            }
+            return endOfData();
+        }
+    }
 
-        private NodeRef rightRef;
+    /**
+     * Compares two {@link QuadTreeStorageOrder quadtrees}. Buckets are paired by quadrant, skipping
+     * the ones with the same id. As a feature moved to another cell comes out removed from a bucket
+     * and added to another, removals and additions are held until their counterpart shows up, to
+     * be reported as a modification. Up to {@link #PAIRING_BATCH} of them are held at a time: past
+     * that, their counterparts are looked for in the buckets of the other tree that differ, where
+     * they'd be if any, and the ones found are reported as modifications right away and skipped
+     * when they show up.
+     */
+    private class QuadTreeDiff extends AbstractIterator<DiffEntry> {
 
-        public BucketBucketDiff(final NodeRef leftRef, final NodeRef rightRef,
-                final ImmutableSortedMap<Integer, ObjectId> left,
-                final ImmutableSortedMap<Integer, ObjectId> right) {
+        private final NodeRef leftRef;
+
+        private final NodeRef rightRef;
+
+        private final RevTree left;
+
+        private final RevTree right;
+
+        private final Iterator<DiffEntry> changes;
+
+        private final Map<String, DiffEntry> removed = Maps.newLinkedHashMap();
 
+        private final Map<String, DiffEntry> added = Maps.newLinkedHashMap();
+
+        /**
+         * The paths of the nodes already reported as modified, whose removal or addition is still
+         * to come out of the bucket pairs
+         */
+        private final Set<String> paired = Sets.newHashSet();
+
+        private Iterator<DiffEntry> resolved = Iterators.emptyIterator();
+
+        public QuadTreeDiff(final NodeRef leftRef, final NodeRef rightRef, final RevTree left,
+                final RevTree right) {
             this.leftRef = leftRef;
             this.rightRef = rightRef;
-            int expectedKeys = left.size() + right.size();
-            int expectedValuesPerKey = 2;
-            leftRightBuckets = ArrayListMultimap.create(expectedKeys, expectedValuesPerKey);
-
-            Set<Integer> buckets = Sets.newTreeSet(Sets.union(left.keySet(), right.keySet()));
-            for (Integer bucket : buckets) {
-                leftRightBuckets.put(bucket, Optional.fromNullable(left.get(bucket)));
-                leftRightBuckets.put(bucket, Optional.fromNullable(right.get(bucket)));
+            this.left = left;
+            this.right = right;
+
+            final ImmutableSortedMap<Integer, ObjectId> leftBuckets = left.buckets().get();
+            final ImmutableSortedMap<Integer, ObjectId> rightBuckets = right.buckets().get();
+            List<Callable<Iterator<DiffEntry>>> bucketDiffs = Lists.newArrayList();
+            for (Integer bucket : Sets.newTreeSet(Sets.union(leftBuckets.keySet(),
+                    rightBuckets.keySet()))) {
+                ObjectId leftId = leftBuckets.get(bucket);
+                ObjectId rightId = rightBuckets.get(bucket);
+                if (leftId == null || !leftId.equals(rightId)) {
+                    bucketDiffs.add(new BucketDiff(leftRef, rightRef, leftId, rightId));
+                }
             }
-            this.combinedBuckets = leftRightBuckets.keySet().iterator();
+            this.changes = concat(bucketDiffs);
         }
 
         @Override
         protected DiffEntry computeNext() {
-            if (currentBucketIterator != null && currentBucketIterator.hasNext()) {
-                return currentBucketIterator.next();
+            while (!resolved.hasNext() && changes.hasNext()) {
+                final DiffEntry entry = changes.next();
+                switch (entry.changeType()) {
+                case REMOVED: {
+                    if (paired.remove(entry.oldPath())) {
+                        break;
+                    }
+                    DiffEntry addition = added.remove(entry.oldPath());
+                    if (addition == null) {
+                        removed.put(entry.oldPath(), entry);
+                    } else if (!entry.getOldObject().equals(addition.getNewObject())) {
+                        return new DiffEntry(entry.getOldObject(), addition.getNewObject());
+                    }
+                    break;
+                }
+                case ADDED: {
+                    if (paired.remove(entry.newPath())) {
+                        break;
+                    }
+                    DiffEntry removal = removed.remove(entry.newPath());
+                    if (removal == null) {
+                        added.put(entry.newPath(), entry);
+                    } else if (!removal.getOldObject().equals(entry.getNewObject())) {
+                        return new DiffEntry(removal.getOldObject(), entry.getNewObject());
+                    }
+                    break;
+                }
+                default:
+                    return entry;
+                }
+                if (removed.size() + added.size() >= PAIRING_BATCH) {
+                    resolved = resolve();
+                }
             }
-            if (!combinedBuckets.hasNext()) {
-                return endOfData();
+            if (!resolved.hasNext() && !(removed.isEmpty() && added.isEmpty())) {
+                // all the bucket pairs are diffed, what's left has no counterpart
+                resolved = Iterators.concat(ImmutableList.copyOf(removed.values()).iterator(),
+                        ImmutableList.copyOf(added.values()).iterator());
+                removed.clear();
+                added.clear();
             }
+            return resolved.hasNext() ? resolved.next() : endOfData();
+        }
 
-            final Integer bucket = combinedBuckets.next();
-            final ObjectId leftTreeId = leftRightBuckets.get(bucket).get(0).orNull();
-            final ObjectId rightTreeId = leftRightBuckets.get(bucket).get(1).orNull();
-            final RevTree left = resolveTree(leftTreeId);
-            final RevTree right = resolveTree(rightTreeId);
+        /**
+         * Looks for the counterparts of the held removals and additions in the other tree.
+         *
+         * @return the differences of the held nodes
+         */
+        private Iterator<DiffEntry> resolve() {
+            List<DiffEntry> diffs = Lists.newArrayList();
+            Iterator<NodeRef> rightNodes = changedNodes(rightRef, right, left);
+            while (!removed.isEmpty() && rightNodes.hasNext()) {
+                NodeRef node = rightNodes.next();
+                DiffEntry removal = removed.remove(node.path());
+                if (removal != null) {
+                    paired.add(node.path());
+                    if (!removal.getOldObject().equals(node)) {
+                        diffs.add(new DiffEntry(removal.getOldObject(), node));
+                    }
+                }
+            }
+            diffs.addAll(removed.values());
+            removed.clear();
+
+            Iterator<NodeRef> leftNodes = changedNodes(leftRef, left, right);
+            while (!added.isEmpty() && leftNodes.hasNext()) {
+                NodeRef node = leftNodes.next();
+                DiffEntry addition = added.remove(node.path());
+                if (addition != null) {
+                    paired.add(node.path());
+                    if (!node.equals(addition.getNewObject())) {
+                        diffs.add(new DiffEntry(node, addition.getNewObject()));
+                    }
+                }
+            }
+            diffs.addAll(added.values());
+            added.clear();
+            return diffs.iterator();
+        }
 
-            // TODO******
-            this.currentBucketIterator = new TreeDiffEntryIterator(leftRef, rightRef, left, right,
-                    objectDb);
-            return computeNext();
+        /**
+         * @return the nodes of {@code tree} in the buckets whose id differs from the one of the
+         *         same bucket in {@code other}, down the quadtree levels they have in common
+         */
+        private Iterator<NodeRef> changedNodes(final NodeRef treeRef, final RevTree tree,
+                final RevTree other) {
+            if (!QuadTreeStorageOrder.isQuadTree(tree) || !QuadTreeStorageOrder.isQuadTree(other)) {
+                return new DepthTreeIterator(treeRef.path(), treeRef.getMetadataId(), tree,
+                        objectDb, DepthTreeIterator.Strategy.RECURSIVE_FEATURES_ONLY);
+            }
+            final ImmutableSortedMap<Integer, ObjectId> otherBuckets = other.buckets().get();
+            List<Iterator<NodeRef>> bucketNodes = Lists.newArrayList();
+            for (Map.Entry<Integer, ObjectId> bucket : tree.buckets().get().entrySet()) {
+                final ObjectId bucketId = bucket.getValue();
+                final ObjectId otherId = otherBuckets.get(bucket.getKey());
+                if (!bucketId.equals(otherId)) {
+                    bucketNodes.add(new LazyIterator(treeRef, bucketId, otherId));
+                }
+            }
+            return Iterators.concat(bucketNodes.iterator());
         }
 
-        private RevTree resolveTree(@Nullable ObjectId treeId) {
-            if (treeId == null) {
-                return null;
+        /**
+         * The {@link #changedNodes changed nodes} of a bucket pair, only loaded when first iterated
+         */
+        private class LazyIterator extends AbstractIterator<NodeRef> {
+
+            private final NodeRef treeRef;
+
+            private final ObjectId bucketId;
+
+            @Nullable
+            private final ObjectId otherId;
+
+            private Iterator<NodeRef> nodes;
+
+            LazyIterator(NodeRef treeRef, ObjectId bucketId, @Nullable ObjectId otherId) {
+                this.treeRef = treeRef;
+                this.bucketId = bucketId;
+                this.otherId = otherId;
+            }
+
+            @Override
+            protected NodeRef computeNext() {
+                if (nodes == null) {
+                    RevTree other = otherId == null ? RevTree.EMPTY : objectDb.getTree(otherId);
+                    nodes = changedNodes(treeRef, objectDb.getTree(bucketId), other);
+                }
+                return nodes.hasNext() ? nodes.next() : endOfData();
+            }
+        }
+    }
+
+    /**
+     * Compares a {@link QuadTreeStorageOrder quadtree} with a tree of another layout, as when a
+     * feature type tree changed layout, or a quadtree cell was split or merged. The nodes of the
+     * quadtree are looked up by name in the other tree; a leaf tree is held in memory, while a
+     * path hash layout one, which can only be compared with the root of a quadtree, is searched
+     * for each. The nodes of the other tree are then looked up in the quadtree branch their bounds
+     * fall into, the nodes moved to another cell being told apart by the modifications found
+     * first. Only those modifications are held in memory, so two trees with the same content
+     * can be compared whatever their size.
+     */
+    private class MixedLayoutDiff extends AbstractIterator<DiffEntry> {
+
+        private final boolean quadTreeIsLeft;
+
+        private final NodeRef otherRef;
+
+        private final RevTree quadTree;
+
+        private final RevTree other;
+
+        private final Iterator<NodeRef> quadTreeNodes;
+
+        /**
+         * The nodes of the other tree if it's a leaf tree, by name, the ones not matched yet
+         */
+        @Nullable
+        private final Map<String, NodeRef> leafNodes;
+
+        /**
+         * The names of the nodes reported as modified, if the other tree is not a leaf
+         */
+        private final Set<String> modified = Sets.newHashSet();
+
+        private Iterator<NodeRef> otherNodes;
+
+        public MixedLayoutDiff(final NodeRef leftRef, final NodeRef rightRef, final RevTree left,
+                final RevTree right) {
+            this.quadTreeIsLeft = QuadTreeStorageOrder.isQuadTree(left);
+            final NodeRef quadTreeRef = quadTreeIsLeft ? leftRef : rightRef;
+            this.otherRef = quadTreeIsLeft ? rightRef : leftRef;
+            this.quadTree = quadTreeIsLeft ? left : right;
+            this.other = quadTreeIsLeft ? right : left;
+
+            this.quadTreeNodes = new DepthTreeIterator(quadTreeRef.path(),
+                    quadTreeRef.getMetadataId(), quadTree, objectDb,
+                    DepthTreeIterator.Strategy.RECURSIVE_FEATURES_ONLY);
+            if (other.buckets().isPresent()) {
+                this.leafNodes = null;
+            } else {
+                this.leafNodes = Maps.newLinkedHashMap();
+                Iterator<NodeRef> nodes = otherNodes();
+                while (nodes.hasNext()) {
+                    NodeRef node = nodes.next();
+                    leafNodes.put(node.name(), node);
+                }
             }
-            return objectDb.getTree(treeId);
+        }
+
+        @Override
+        protected DiffEntry computeNext() {
+            while (quadTreeNodes.hasNext()) {
+                final NodeRef node = quadTreeNodes.next();
+                final NodeRef otherNode;
+                if (leafNodes == null) {
+                    Optional<Node> found = new DepthSearch(objectDb).getDirectChild(other,
+                            node.name(), 0);
+                    otherNode = found.isPresent() ? new NodeRef(found.get(), otherRef.path(),
+                            found.get().getMetadataId().or(otherRef.getMetadataId())) : null;
+                } else {
+                    otherNode = leafNodes.remove(node.name());
+                }
+                if (otherNode == null) {
+                    return diff(node, null);
+                }
+                if (!node.equals(otherNode)) {
+                    if (leafNodes == null) {
+                        modified.add(node.name());
+                    }
+                    return diff(node, otherNode);
+                }
+            }
+            if (otherNodes == null) {
+                otherNodes = leafNodes == null ? otherNodes() : leafNodes.values().iterator();
+            }
+            while (otherNodes.hasNext()) {
+                final NodeRef node = otherNodes.next();
+                if (leafNodes == null
+                        && (modified.remove(node.name()) || QuadTreeBuilder.find(quadTree,
+                                node.getNode(), objectDb).isPresent())) {
+                    continue;
+                }
+                return diff(null, node);
+            }
+            return endOfData();
+        }
+
+        private Iterator<NodeRef> otherNodes() {
+            return new DepthTreeIterator(otherRef.path(), otherRef.getMetadataId(), other,
+                    objectDb, DepthTreeIterator.Strategy.RECURSIVE_FEATURES_ONLY);
+        }
+
+        /**
+         * @return the difference of a node of the quadtree and the node with the same name in the
+         *         other tree, either of them being {@code null} if missing
+         */
+        private DiffEntry diff(@Nullable NodeRef quadTreeNode, @Nullable NodeRef otherNode) {
+            return quadTreeIsLeft ? new DiffEntry(quadTreeNode, otherNode) : new DiffEntry(
+                    otherNode, quadTreeNode);
         }
     }
-}
\ No newline at end of file
+}
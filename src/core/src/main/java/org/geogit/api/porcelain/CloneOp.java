@@ -14,6 +14,7 @@ import org.geogit.api.plumbing.LsRemote;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.porcelain.ConfigOp.ConfigAction;
+import org.geogit.repository.Repository;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -31,11 +32,16 @@ public class CloneOp extends AbstractGeoGitOp<Void> {
 
     private String repositoryURL;
 
+    private Repository repository;
+
     /**
      * Constructs a new {@code CloneOp}.
+     * 
+     * @param repository the repository to clone into
      */
     @Inject
-    public CloneOp() {
+    public CloneOp(Repository repository) {
+        this.repository = repository;
     }
 
     /**
@@ -73,7 +79,12 @@ public class CloneOp extends AbstractGeoGitOp<Void> {
         Remote remote = command(RemoteAddOp.class).setName("origin").setURL(repositoryURL).call();
 
         // Fetch remote data
-        command(FetchOp.class).setProgressListener(subProgress(90.f)).call();
+        repository.beginBulkLoad();
+        try {
+            command(FetchOp.class).setProgressListener(subProgress(90.f)).call();
+        } finally {
+            repository.endBulkLoad();
+        }
 
         // Set up remote tracking branches
         final ImmutableSet<Ref> remoteRefs = command(LsRemote.class).setRemote(
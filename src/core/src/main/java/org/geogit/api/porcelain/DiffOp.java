@@ -54,6 +54,8 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
     private boolean cached;
 
+    private boolean parallel;
+
     /**
      * @param compareIndex if true, the index will be used in the comparison
      */
@@ -104,6 +106,16 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         return this;
     }
 
+    /**
+     * @param parallel whether to diff two revisions in {@link DiffTree#setParallel(boolean)
+     *        parallel mode}
+     * @return {@code this}
+     */
+    public DiffOp setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
     /**
      * Executes the diff operation.
      * 
@@ -136,7 +148,7 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         } else {
 
             iterator = command(DiffTree.class).setOldVersion(oldRefSpec).setNewVersion(newRefSpec)
-                    .setFilterPath(pathFilter).call();
+                    .setFilterPath(pathFilter).setParallel(parallel).call();
         }
 
         return iterator;
@@ -4,33 +4,38 @@
  */
 package org.geogit.di;
 
-import static com.google.inject.matcher.Matchers.subclassesOf;
-
-import java.lang.reflect.Method;
-import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
 import org.geogit.api.CommandLocator;
 import org.geogit.api.DefaultPlatform;
-import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
+import org.geogit.api.plumbing.diff.DiffCountCache;
+import org.geogit.api.plumbing.diff.DiffCountCacheProvider;
+import org.geogit.repository.ExecutorServiceProvider;
 import org.geogit.repository.Index;
+import org.geogit.repository.PathResolutionCache;
+import org.geogit.repository.PathResolutionCacheProvider;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.repository.WorkingTree;
-import org.geogit.storage.CachingObjectDatabaseGetInterceptor;
+import org.geogit.storage.BloomFilterFactory;
+import org.geogit.storage.BloomFilterFactoryProvider;
 import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.ObjectCache;
+import org.geogit.storage.ObjectCacheProvider;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectSerialisingFactory;
+import org.geogit.storage.ObjectSerialisingFactoryProvider;
+import org.geogit.storage.OffHeapObjectCache;
+import org.geogit.storage.OffHeapObjectCacheProvider;
 import org.geogit.storage.RefDatabase;
-import org.geogit.storage.fs.FileObjectDatabase;
+import org.geogit.storage.fs.FilePackObjectDatabase;
 import org.geogit.storage.fs.FileRefDatabase;
 import org.geogit.storage.fs.IniConfigDatabase;
-import org.geogit.storage.hessian.HessianFactory;
 
-import com.google.common.base.Throwables;
 import com.google.inject.AbstractModule;
 import com.google.inject.Scopes;
-import com.google.inject.matcher.Matcher;
+import com.google.inject.name.Names;
 
 /**
  * Provides bindings for GeoGit singletons.
@@ -44,6 +49,10 @@ import com.google.inject.matcher.Matcher;
  * @see ObjectDatabase
  * @see RefDatabase
  * @see ObjectSerialisingFactory
+ * @see ObjectCache
+ * @see OffHeapObjectCache
+ * @see PathResolutionCache
+ * @see DiffCountCache
  */
 
 public class GeogitModule extends AbstractModule {
@@ -63,42 +72,24 @@ public class GeogitModule extends AbstractModule {
         bind(StagingArea.class).to(Index.class).in(Scopes.SINGLETON);
         bind(WorkingTree.class).in(Scopes.SINGLETON);
 
-        bind(ObjectDatabase.class).to(FileObjectDatabase.class).in(Scopes.SINGLETON);
+        bind(ObjectDatabase.class).to(FilePackObjectDatabase.class).in(Scopes.SINGLETON);
         bind(RefDatabase.class).to(FileRefDatabase.class).in(Scopes.SINGLETON);
 
-        bind(ObjectSerialisingFactory.class).to(HessianFactory.class).in(Scopes.SINGLETON);
-
-        final Method interceptedGettter;
-        try {
-            interceptedGettter = ObjectDatabase.class.getMethod("get", ObjectId.class, Class.class);
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
-        }
-        Matcher<Method> methodMatcher = new Matcher<Method>() {
-
-            @Override
-            public boolean matches(Method t) {
-                if (interceptedGettter.getName().equals(t.getName())) {
-                    if (Arrays
-                            .equals(interceptedGettter.getParameterTypes(), t.getParameterTypes())) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-
-            @Override
-            public Matcher<Method> and(Matcher<? super Method> other) {
-                throw new UnsupportedOperationException();
-            }
-
-            @Override
-            public Matcher<Method> or(Matcher<? super Method> other) {
-                throw new UnsupportedOperationException();
-            }
-        };
-
-        bindInterceptor(subclassesOf(ObjectDatabase.class), methodMatcher,
-                new CachingObjectDatabaseGetInterceptor());
+        bind(ObjectSerialisingFactory.class).toProvider(ObjectSerialisingFactoryProvider.class)
+                .in(Scopes.SINGLETON);
+
+        bind(ObjectCache.class).toProvider(ObjectCacheProvider.class).in(Scopes.SINGLETON);
+        bind(OffHeapObjectCache.class).toProvider(OffHeapObjectCacheProvider.class).in(
+                Scopes.SINGLETON);
+        bind(BloomFilterFactory.class).toProvider(BloomFilterFactoryProvider.class).in(
+                Scopes.SINGLETON);
+        bind(ExecutorService.class)
+                .annotatedWith(Names.named(ExecutorServiceProvider.TreeBuild.NAME))
+                .toProvider(ExecutorServiceProvider.TreeBuild.class).in(Scopes.SINGLETON);
+        bind(ExecutorService.class).annotatedWith(Names.named(ExecutorServiceProvider.Diff.NAME))
+                .toProvider(ExecutorServiceProvider.Diff.class).in(Scopes.SINGLETON);
+        bind(PathResolutionCache.class).toProvider(PathResolutionCacheProvider.class).in(
+                Scopes.SINGLETON);
+        bind(DiffCountCache.class).toProvider(DiffCountCacheProvider.class).in(Scopes.SINGLETON);
     }
 }
@@ -2,11 +2,15 @@ package org.geogit.remote;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.Node;
 import org.geogit.api.ObjectId;
+import org.geogit.api.ObjectIdSet;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevObject;
@@ -17,12 +21,15 @@ import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.repository.Repository;
+import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectInserter;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Injector;
 
 /**
@@ -126,7 +133,14 @@ public class LocalRemoteRepo implements IRemoteRepo {
     @Override
     public void fetchNewData(Repository localRepository, Ref ref) {
         ObjectInserter objectInserter = localRepository.newObjectInserter();
-        walkCommit(ref.getObjectId(), remoteGeoGit.getRepository(), localRepository, objectInserter);
+        try {
+            walkCommit(ref.getObjectId(), remoteGeoGit.getRepository(), localRepository,
+                    objectInserter, new ObjectIdSet());
+            objectInserter.commit();
+        } catch (RuntimeException e) {
+            objectInserter.abort();
+            throw e;
+        }
     }
 
     /**
@@ -138,7 +152,14 @@ public class LocalRemoteRepo implements IRemoteRepo {
     @Override
     public void pushNewData(Repository localRepository, Ref ref) {
         ObjectInserter objectInserter = remoteGeoGit.getRepository().newObjectInserter();
-        walkCommit(ref.getObjectId(), localRepository, remoteGeoGit.getRepository(), objectInserter);
+        try {
+            walkCommit(ref.getObjectId(), localRepository, remoteGeoGit.getRepository(),
+                    objectInserter, new ObjectIdSet());
+            objectInserter.commit();
+        } catch (RuntimeException e) {
+            objectInserter.abort();
+            throw e;
+        }
         remoteGeoGit.command(UpdateRef.class).setName(ref.getName()).setNewValue(ref.getObjectId())
                 .call();
     }
@@ -152,7 +173,14 @@ public class LocalRemoteRepo implements IRemoteRepo {
      */
     public void pushNewData(Repository localRepository, Ref ref, String refspec) {
         ObjectInserter objectInserter = remoteGeoGit.getRepository().newObjectInserter();
-        walkCommit(ref.getObjectId(), localRepository, remoteGeoGit.getRepository(), objectInserter);
+        try {
+            walkCommit(ref.getObjectId(), localRepository, remoteGeoGit.getRepository(),
+                    objectInserter, new ObjectIdSet());
+            objectInserter.commit();
+        } catch (RuntimeException e) {
+            objectInserter.abort();
+            throw e;
+        }
         remoteGeoGit.command(UpdateRef.class).setName(refspec).setNewValue(ref.getObjectId())
                 .call();
     }
@@ -167,10 +195,15 @@ public class LocalRemoteRepo implements IRemoteRepo {
         remoteGeoGit.command(UpdateRef.class).setName(refspec).setDelete(true).call();
     }
 
+    /**
+     * @param visited the ids of the objects the walk already got to, either present in the target
+     *        repository or inserted to it
+     */
     private void walkCommit(ObjectId commitId, Repository from, Repository to,
-            ObjectInserter objectInserter) {
+            ObjectInserter objectInserter, ObjectIdSet visited) {
         // See if we already have it
-        if (to.getObjectDatabase().exists(commitId)) {
+        if (!visited.add(commitId) || objectInserter.isPending(commitId)
+                || to.getObjectDatabase().exists(commitId)) {
             return;
         }
 
@@ -178,61 +211,113 @@ public class LocalRemoteRepo implements IRemoteRepo {
                 .call();
         if (object.isPresent() && object.get().getType().equals(TYPE.COMMIT)) {
             RevCommit commit = (RevCommit) object.get();
-            walkTree(commit.getTreeId(), from, to, objectInserter);
+            walkTree(commit.getTreeId(), from, to, objectInserter, visited);
 
             objectInserter.insert(commit);
             for (ObjectId parentCommit : commit.getParentIds()) {
-                walkCommit(parentCommit, from, to, objectInserter);
+                walkCommit(parentCommit, from, to, objectInserter, visited);
             }
         }
     }
 
     private void walkTree(ObjectId treeId, Repository from, Repository to,
-            ObjectInserter objectInserter) {
+            ObjectInserter objectInserter, ObjectIdSet visited) {
         // See if we already have it
-        if (to.getObjectDatabase().exists(treeId)) {
+        if (!visited.add(treeId) || objectInserter.isPending(treeId)
+                || to.getObjectDatabase().exists(treeId)) {
             return;
         }
 
         Optional<RevObject> object = from.command(RevObjectParse.class).setObjectId(treeId).call();
         if (object.isPresent() && object.get().getType().equals(TYPE.TREE)) {
-            RevTree tree = (RevTree) object.get();
+            walkTree((RevTree) object.get(), from, to, objectInserter, visited);
+        }
+    }
 
-            objectInserter.insert(tree);
-            // walk subtrees
-            if (tree.buckets().isPresent()) {
-                for (ObjectId bucketId : tree.buckets().get().values()) {
-                    walkTree(bucketId, from, to, objectInserter);
+    private void walkTree(RevTree tree, Repository from, Repository to,
+            ObjectInserter objectInserter, ObjectIdSet visited) {
+        objectInserter.insert(tree);
+        // walk subtrees
+        if (tree.buckets().isPresent()) {
+            walkTrees(tree.buckets().get().values(), from, to, objectInserter, visited);
+        } else {
+            // get new objects
+            Set<ObjectId> subtrees = Sets.newLinkedHashSet();
+            Set<ObjectId> ids = Sets.newLinkedHashSet();
+            for (Iterator<Node> children = tree.children(); children.hasNext();) {
+                Node ref = children.next();
+                if (TYPE.TREE.equals(ref.getType())) {
+                    subtrees.add(ref.getObjectId());
+                } else {
+                    ids.add(ref.getObjectId());
                 }
-            } else {
-                // get new objects
-                for (Iterator<Node> children = tree.children(); children.hasNext();) {
-                    Node ref = children.next();
-                    moveObject(ref.getObjectId(), from, to, objectInserter);
-                    ObjectId metadataId = ref.getMetadataId().or(ObjectId.NULL);
-                    if (!metadataId.isNull()) {
-                        moveObject(metadataId, from, to, objectInserter);
-                    }
+                ObjectId metadataId = ref.getMetadataId().or(ObjectId.NULL);
+                if (!metadataId.isNull()) {
+                    ids.add(metadataId);
                 }
             }
+            moveObjects(ids, from, to, objectInserter, visited);
+            walkTrees(subtrees, from, to, objectInserter, visited);
         }
     }
 
-    private void moveObject(ObjectId objectId, Repository from, Repository to,
-            ObjectInserter objectInserter) {
-        // See if we already have it
-        if (to.getObjectDatabase().exists(objectId)) {
+    /**
+     * Walks down the trees the target repository doesn't have yet, reading them in bulk.
+     */
+    private void walkTrees(Collection<ObjectId> treeIds, Repository from, Repository to,
+            ObjectInserter objectInserter, ObjectIdSet visited) {
+        Set<ObjectId> missing = missing(treeIds, to, objectInserter, visited);
+        if (missing.isEmpty()) {
             return;
         }
+        List<RevTree> trees = Lists.newArrayListWithCapacity(missing.size());
+        Iterator<RevObject> found = from.getIndex().getDatabase().getAll(missing);
+        while (found.hasNext()) {
+            trees.add((RevTree) found.next());
+        }
+        for (RevTree tree : trees) {
+            walkTree(tree, from, to, objectInserter, visited);
+        }
+    }
 
-        Optional<RevObject> childObject = from.command(RevObjectParse.class).setObjectId(objectId)
-                .call();
-        if (childObject.isPresent()) {
-            RevObject revObject = childObject.get();
-            if (TYPE.TREE.equals(revObject.getType())) {
-                walkTree(objectId, from, to, objectInserter);
+    /**
+     * Copies the objects the target repository doesn't have yet in their stored, compressed
+     * form, without decoding them, unless the repositories use different serialization formats,
+     * in which case they are decoded and written again in the target format.
+     */
+    private void moveObjects(Collection<ObjectId> ids, Repository from, Repository to,
+            ObjectInserter objectInserter, ObjectIdSet visited) {
+        ObjectDatabase fromDb = from.getIndex().getDatabase();
+        Set<ObjectId> missing = missing(ids, to, objectInserter, visited);
+        if (sameFormat(from, to)) {
+            for (ObjectId id : missing) {
+                objectInserter.insertRawCompressed(id, fromDb.getRawCompressed(id));
+            }
+        } else if (!missing.isEmpty()) {
+            objectInserter.insertAll(fromDb.getAll(missing));
+        }
+    }
+
+    private static boolean sameFormat(Repository from, Repository to) {
+        return from.getSerializationFactory().getClass()
+                .equals(to.getSerializationFactory().getClass());
+    }
+
+    /**
+     * @return the given ids the walk didn't get to before and that the target repository doesn't
+     *         have, all of them marked as visited
+     */
+    private Set<ObjectId> missing(Collection<ObjectId> ids, Repository to,
+            ObjectInserter objectInserter, ObjectIdSet visited) {
+        Set<ObjectId> missing = Sets.newLinkedHashSet();
+        for (ObjectId id : ids) {
+            if (visited.add(id) && !objectInserter.isPending(id)) {
+                missing.add(id);
             }
-            objectInserter.insert(revObject);
         }
+        if (!missing.isEmpty()) {
+            missing.removeAll(to.getObjectDatabase().existsAll(missing));
+        }
+        return missing;
     }
 }
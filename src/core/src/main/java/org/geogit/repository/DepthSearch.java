@@ -10,12 +10,15 @@ import static org.geogit.api.NodeRef.PATH_SEPARATOR;
 
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevTree;
 import org.geogit.storage.NodePathStorageOrder;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.QuadTreeStorageOrder;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
@@ -32,6 +35,9 @@ public class DepthSearch {
 
     private final ObjectDatabase objectDb;
 
+    @Nullable
+    private final PathResolutionCache cache;
+
     private NodePathStorageOrder refOrder = new NodePathStorageOrder();
 
     /**
@@ -40,7 +46,19 @@ public class DepthSearch {
      * @param db the object database where {@link Node}s and {@link RevTree}s are stored
      */
     public DepthSearch(final ObjectDatabase db) {
+        this(db, null);
+    }
+
+    /**
+     * Constructs a new {@code DepthSearch} that looks up and records the paths it resolves in the
+     * given cache, for both the searched paths and the intermediate trees on the way to them.
+     * 
+     * @param db the object database where {@link Node}s and {@link RevTree}s are stored
+     * @param cache the cache of resolved paths, or {@code null} not to cache them
+     */
+    public DepthSearch(final ObjectDatabase db, @Nullable final PathResolutionCache cache) {
         this.objectDb = db;
+        this.cache = cache;
     }
 
     /**
@@ -93,23 +111,46 @@ public class DepthSearch {
 
         checkArgument(parentPath.isEmpty() || childPath.startsWith(parentPath + PATH_SEPARATOR));
 
+        final ObjectId parentId = parent.getId();
+        final boolean cached = cache != null && !parentId.isNull();
+        if (cached) {
+            Optional<NodeRef> ref = cache.get(parentId, parentPath, childPath);
+            if (ref != null) {
+                return ref;
+            }
+        }
+
         final List<String> allPaths = NodeRef.allPathsTo(childPath);
         final int nexChildIndex = allPaths.indexOf(parentPath) + 1;
         final String directChildPath = allPaths.get(nexChildIndex);
-        String directChildName = NodeRef.nodeFromPath(directChildPath);
-
-        final Optional<Node> childTreeRef = getDirectChild(parent, directChildName, 0);
 
-        if (!childTreeRef.isPresent()) {
-            return Optional.absent();
+        Optional<NodeRef> directChildRef = cached ? cache.get(parentId, parentPath,
+                directChildPath) : null;
+        if (directChildRef == null) {
+            String directChildName = NodeRef.nodeFromPath(directChildPath);
+            Optional<Node> directChild = getDirectChild(parent, directChildName, 0);
+            directChildRef = Optional.absent();
+            if (directChild.isPresent()) {
+                directChildRef = Optional.of(new NodeRef(directChild.get(), NodeRef
+                        .parentPath(directChildPath), ObjectId.NULL));
+            }
+            if (cached) {
+                cache.put(parentId, parentPath, directChildPath, directChildRef);
+            }
         }
-        if (directChildPath.equals(childPath)) {
-            // found it!
-            return Optional.of(new NodeRef(childTreeRef.get(), NodeRef.parentPath(directChildPath),
-                    ObjectId.NULL));
+
+        final Optional<NodeRef> ref;
+        if (!directChildRef.isPresent() || directChildPath.equals(childPath)) {
+            ref = directChildRef;
+        } else {
+            final RevTree childTree = objectDb.get(directChildRef.get().objectId(),
+                    RevTree.class);
+            ref = find(childTree, directChildPath, childPath);
+            if (cached) {
+                cache.put(parentId, parentPath, childPath, ref);
+            }
         }
-        final RevTree childTree = objectDb.get(childTreeRef.get().getObjectId(), RevTree.class);
-        return find(childTree, directChildPath, childPath);
+        return ref;
     }
 
     /**
@@ -143,8 +184,19 @@ public class DepthSearch {
             return Optional.absent();
         }
 
-        Integer bucket = refOrder.bucket(directChildName, subtreesDepth);
         ImmutableSortedMap<Integer, ObjectId> buckets = parent.buckets().get();
+        if (QuadTreeStorageOrder.isQuadTree(parent)) {
+            // nodes are in the bucket given by their bounds, not their name
+            for (ObjectId bucketId : buckets.values()) {
+                RevTree bucketTree = objectDb.get(bucketId, RevTree.class);
+                Optional<Node> node = getDirectChild(bucketTree, directChildName, 0);
+                if (node.isPresent()) {
+                    return node;
+                }
+            }
+            return Optional.absent();
+        }
+        Integer bucket = refOrder.bucket(directChildName, subtreesDepth);
         ObjectId subtreeId = buckets.get(bucket);
         if (subtreeId == null) {
             return Optional.absent();
@@ -0,0 +1,107 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.plumbing.DiffTree;
+import org.geogit.storage.AbstractConfiguredProvider;
+import org.geogit.storage.ConfigDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * Creates an executor with as many threads as set by a repository config key, or as available
+ * processors if not set. Setting the key to one or less disables the executor, and this provider
+ * returns {@code null}.
+ * <p>
+ * The executors are bound as singletons of the injector, which may open and close its repository
+ * more than once, so instead of being shut down with the repository their threads exit after
+ * being idle for {@link #KEEP_ALIVE_SECONDS}, and are started again as needed.
+ * 
+ * @see TreeBuild
+ * @see Diff
+ */
+public class ExecutorServiceProvider extends AbstractConfiguredProvider<ExecutorService> {
+
+    /**
+     * How long the executor threads wait for a new task before exiting
+     */
+    public static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final String threadsKey;
+
+    private final String nameFormat;
+
+    /**
+     * @param config the repository config
+     * @param threadsKey the config key holding the number of threads
+     * @param nameFormat the format of the thread names, as for
+     *        {@link ThreadFactoryBuilder#setNameFormat(String)}
+     */
+    public ExecutorServiceProvider(ConfigDatabase config, String threadsKey, String nameFormat) {
+        super(config);
+        this.threadsKey = threadsKey;
+        this.nameFormat = nameFormat;
+    }
+
+    @Override
+    public ExecutorService get() {
+        Optional<Integer> configured = getConfig(threadsKey, Integer.class);
+        final int threads = configured.or(Runtime.getRuntime().availableProcessors()).intValue();
+        if (threads <= 1) {
+            return null;
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                        .setDaemon(true).setNameFormat(nameFormat).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates the executor the {@link WorkingTree} builds the bucket subtrees of large trees with,
+     * see {@link RevTreeBuilder#setExecutor}, sized by the {@code tree.buildThreads} config key.
+     */
+    public static class TreeBuild extends ExecutorServiceProvider {
+
+        /**
+         * Name the executor is bound with
+         */
+        public static final String NAME = "treeBuildExecutor";
+
+        public static final String THREADS = "tree.buildThreads";
+
+        @Inject
+        public TreeBuild(ConfigDatabase config) {
+            super(config, THREADS, "geogit-tree-build-%d");
+        }
+    }
+
+    /**
+     * Creates the executor {@link DiffTree} diffs the bucket pairs of large trees on in parallel
+     * mode, see {@link DiffTree#setParallel}, sized by the {@code diff.threads} config key.
+     */
+    public static class Diff extends ExecutorServiceProvider {
+
+        /**
+         * Name the executor is bound with
+         */
+        public static final String NAME = "diffExecutor";
+
+        public static final String THREADS = "diff.threads";
+
+        @Inject
+        public Diff(ConfigDatabase config) {
+            super(config, THREADS, "geogit-diff-%d");
+        }
+    }
+}
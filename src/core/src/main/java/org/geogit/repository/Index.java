@@ -15,6 +15,7 @@ import javax.annotation.Nullable;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.QuadTreeBuilder;
 import org.geogit.api.Ref;
 import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeBuilder;
@@ -25,7 +26,7 @@ import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.ResolveTreeish;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.UpdateRef;
-import org.geogit.api.plumbing.WriteBack;
+import org.geogit.api.plumbing.WriteBackAll;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.storage.ObjectSerialisingFactory;
 import org.geogit.storage.StagingDatabase;
@@ -169,13 +170,26 @@ public class Index implements StagingArea {
 
         }
 
+        Map<String, RevTree> parentTrees = new HashMap<String, RevTree>();
         Iterator<Map.Entry<String, List<DiffEntry>>> changes = changeMap.entrySet().iterator();
         while (changes.hasNext()) {
             Map.Entry<String, List<DiffEntry>> pairs = changes.next();
 
-            RevTreeBuilder parentTree = repository.command(FindOrCreateSubtree.class)
+            final String parentPath = pairs.getKey();
+            RevTree currentTree = repository.command(FindOrCreateSubtree.class)
                     .setParent(Suppliers.ofInstance(Optional.of(getTree()))).setIndex(true)
-                    .setChildPath(pairs.getKey()).call().builder(getDatabase());
+                    .setChildPath(parentPath).call();
+            // a tree new to the index keeps the layout of the working tree one
+            RevTreeBuilder parentTree = QuadTreeBuilder.builderFor(currentTree,
+                    new Supplier<RevTree>() {
+                        @Override
+                        public RevTree get() {
+                            RevTree workTree = repository.getWorkingTree().getTree();
+                            return repository.command(FindOrCreateSubtree.class)
+                                    .setParent(Suppliers.ofInstance(Optional.of(workTree)))
+                                    .setIndex(true).setChildPath(parentPath).call();
+                        }
+                    }, getDatabase());
 
             for (DiffEntry diff : pairs.getValue()) {
                 i++;
@@ -185,20 +199,22 @@ public class Index implements StagingArea {
                 NodeRef newObject = diff.getNewObject();
                 if (newObject == null) {
                     // Delete
-                    parentTree.remove(oldObject.name());
+                    parentTree.remove(oldObject.getNode());
                 } else if (oldObject == null) {
                     // Add
-                    parentTree.put(newObject.getNode());
+                    parentTree.update(null, newObject.getNode());
                 } else {
                     // Modify
-                    parentTree.put(newObject.getNode());
+                    parentTree.update(oldObject.getNode(), newObject.getNode());
                 }
             }
 
-            ObjectId newTree = repository.command(WriteBack.class).setAncestor(getTreeSupplier())
-                    .setChildPath(pairs.getKey()).setToIndex(true).setTree(parentTree.build())
-                    .call();
-
+            parentTrees.put(parentPath, parentTree.build());
+        }
+        if (!parentTrees.isEmpty()) {
+            // all the changed trees are written back at once, rewriting their ancestors once
+            ObjectId newTree = repository.command(WriteBackAll.class)
+                    .setAncestor(getTreeSupplier()).setTrees(parentTrees).setToIndex(true).call();
             updateStageHead(newTree);
         }
         progress.complete();
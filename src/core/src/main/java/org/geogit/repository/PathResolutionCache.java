@@ -0,0 +1,116 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A cache of the paths {@link DepthSearch} resolved, keyed by the id of the tree searched, the path
+ * of that tree and the path looked for, mapping to the {@link NodeRef} found, or to
+ * {@link Optional#absent() absent} if there was no such path.
+ * <p>
+ * Trees are immutable and addressed by content, so entries never go stale; the least recently
+ * used ones are evicted once the cache holds its maximum number of entries.
+ *
+ * @see PathResolutionCacheProvider
+ */
+public class PathResolutionCache {
+
+    public static final int DEFAULT_SIZE = 10 * 1000;
+
+    private final Cache<Key, Optional<NodeRef>> cache;
+
+    /**
+     * Creates a cache with the default size.
+     */
+    public PathResolutionCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a cache holding up to the given number of entries; zero disables caching.
+     */
+    public PathResolutionCache(int maxEntries) {
+        checkArgument(maxEntries >= 0, "cache size can't be negative");
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxEntries).recordStats().build();
+    }
+
+    /**
+     * @param treeId the id of the searched tree
+     * @param treePath the path of the searched tree
+     * @param path the path looked for
+     * @return the result of the search, or {@code null} if not cached
+     */
+    @Nullable
+    public Optional<NodeRef> get(ObjectId treeId, String treePath, String path) {
+        return cache.getIfPresent(new Key(treeId, treePath, path));
+    }
+
+    /**
+     * Caches the result of searching a tree for a path.
+     *
+     * @param treeId the id of the searched tree
+     * @param treePath the path of the searched tree
+     * @param path the path looked for
+     * @param ref what was found
+     */
+    public void put(ObjectId treeId, String treePath, String path, Optional<NodeRef> ref) {
+        cache.put(new Key(treeId, treePath, path), ref);
+    }
+
+    /**
+     * Discards all the cached entries.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return the hit, miss and eviction counters of the cache
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static final class Key {
+
+        private final ObjectId treeId;
+
+        private final String treePath;
+
+        private final String path;
+
+        Key(ObjectId treeId, String treePath, String path) {
+            this.treeId = treeId;
+            this.treePath = treePath;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return treeId.equals(k.treeId) && path.equals(k.path) && treePath.equals(k.treePath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(treeId, treePath, path);
+        }
+    }
+}
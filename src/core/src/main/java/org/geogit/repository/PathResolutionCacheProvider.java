@@ -0,0 +1,32 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import org.geogit.storage.AbstractConfiguredProvider;
+import org.geogit.storage.ConfigDatabase;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Creates the repository {@link PathResolutionCache}, holding as many entries as set by the
+ * {@code cache.paths} repository config key, or {@link PathResolutionCache#DEFAULT_SIZE} if not
+ * set.
+ */
+public class PathResolutionCacheProvider extends AbstractConfiguredProvider<PathResolutionCache> {
+
+    public static final String SIZE = "cache.paths";
+
+    @Inject
+    public PathResolutionCacheProvider(ConfigDatabase config) {
+        super(config);
+    }
+
+    @Override
+    public PathResolutionCache get() {
+        Optional<Integer> size = getConfig(SIZE, Integer.class);
+        return new PathResolutionCache(size.or(PathResolutionCache.DEFAULT_SIZE).intValue());
+    }
+}
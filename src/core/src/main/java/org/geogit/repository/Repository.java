@@ -23,6 +23,7 @@ import org.geogit.api.plumbing.RevParse;
 import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectInserter;
+import org.geogit.storage.ObjectSerialisingFactory;
 import org.geogit.storage.RefDatabase;
 
 import com.google.common.base.Optional;
@@ -60,6 +61,9 @@ public class Repository {
     @Inject
     private ObjectDatabase objectDatabase;
 
+    @Inject
+    private ObjectSerialisingFactory serialFactory;
+
     /**
      * Creates the repository.
      */
@@ -93,6 +97,13 @@ public class Repository {
         return objectDatabase;
     }
 
+    /**
+     * @return the {@link ObjectSerialisingFactory} the objects of this repository are written with
+     */
+    public ObjectSerialisingFactory getSerializationFactory() {
+        return serialFactory;
+    }
+
     /**
      * @return the {@link StagingArea} for this repository
      */
@@ -109,6 +120,31 @@ public class Repository {
         index.getDatabase().close();
     }
 
+    /**
+     * Starts a bulk load session on both the repository and the staging area object databases.
+     * Meant for operations that write large amounts of objects, like imports and clones, which
+     * shall call {@link #endBulkLoad()} in a {@code finally} block.
+     * 
+     * @see ObjectDatabase#beginBulkLoad()
+     */
+    public void beginBulkLoad() {
+        objectDatabase.beginBulkLoad();
+        index.getDatabase().beginBulkLoad();
+    }
+
+    /**
+     * Ends the bulk load session started with {@link #beginBulkLoad()}.
+     * 
+     * @see ObjectDatabase#endBulkLoad()
+     */
+    public void endBulkLoad() {
+        try {
+            index.getDatabase().endBulkLoad();
+        } finally {
+            objectDatabase.endBulkLoad();
+        }
+    }
+
     /**
      * Finds and returns an instance of a command of the specified class.
      * 
@@ -4,18 +4,25 @@
  */
 package org.geogit.repository;
 
+import java.util.Iterator;
+
+import javax.annotation.Nullable;
+
 import org.geogit.api.Node;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
 import org.geogit.api.SpatialNode;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.opengis.geometry.BoundingBox;
-import org.opengis.geometry.Envelope;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 
@@ -53,7 +60,7 @@ public class SpatialOps {
             sourceCrs = targetCrs;
         }
         try {
-            Envelope env = include;
+            org.opengis.geometry.Envelope env = include;
             if (!CRS.equalsIgnoreMetadata(targetCrs, sourceCrs)) {
                 MathTransform mathTransform = CRS.findMathTransform(sourceCrs, targetCrs);
                 env = CRS.transform(mathTransform, include);
@@ -95,6 +102,56 @@ public class SpatialOps {
         return ((SpatialNode) ref).getBounds();
     }
 
+    /**
+     * @param node the node to get the bounds of
+     * @return the bounds of the node as an envelope in the coordinates of its bounding box, or
+     *         {@code null} if the node has no bounds
+     */
+    @Nullable
+    public static Envelope envelopeOf(Node node) {
+        BoundingBox bounds = boundsOf(node);
+        if (bounds == null) {
+            return null;
+        }
+        if (bounds.isEmpty()) {
+            return new Envelope();
+        }
+        return new Envelope(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(), bounds.getMaxY());
+    }
+
+    /**
+     * Computes the bounds a tree contributes to the {@link RevTree#bucketBounds() bucket bounds}
+     * of its parent tree: the bounds of its spatial nodes if it holds nodes, or the union of its
+     * bucket bounds if it's split into buckets.
+     * 
+     * @param tree the tree to compute the bounds of
+     * @return the bounds of the tree, a {@link Envelope#isNull() null} envelope if it holds no
+     *         spatial node, absent if they're unknown because it holds a tree node without bounds
+     */
+    public static Optional<Envelope> boundsOf(RevTree tree) {
+        Envelope bounds = new Envelope();
+        if (tree.buckets().isPresent()) {
+            for (Integer bucket : tree.buckets().get().keySet()) {
+                Envelope bucketBounds = tree.bucketBounds().get(bucket);
+                if (bucketBounds == null) {
+                    return Optional.absent();
+                }
+                bounds.expandToInclude(bucketBounds);
+            }
+            return Optional.of(bounds);
+        }
+        for (Iterator<Node> it = tree.children(); it.hasNext();) {
+            Node node = it.next();
+            Envelope nodeBounds = envelopeOf(node);
+            if (nodeBounds != null) {
+                bounds.expandToInclude(nodeBounds);
+            } else if (TYPE.TREE.equals(node.getType())) {
+                return Optional.absent();
+            }
+        }
+        return Optional.of(bounds);
+    }
+
     /**
      * Creates and returns a geometry out of bounds (a point if bounds.getSpan(0) ==
      * bounds.getSpan(1) == 0D, a polygon otherwise), setting the bounds
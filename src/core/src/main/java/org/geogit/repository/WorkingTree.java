@@ -10,12 +10,14 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nullable;
 
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.QuadTreeBuilder;
 import org.geogit.api.Ref;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevFeatureBuilder;
@@ -24,6 +26,7 @@ import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeBuilder;
 import org.geogit.api.SpatialNode;
+import org.geogit.api.SpillingRevTreeBuilder;
 import org.geogit.api.plumbing.DiffCount;
 import org.geogit.api.plumbing.DiffWorkTree;
 import org.geogit.api.plumbing.FindOrCreateSubtree;
@@ -33,7 +36,11 @@ import org.geogit.api.plumbing.ResolveTreeish;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.WriteBack;
+import org.geogit.api.plumbing.WriteBackAll;
 import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.ObjectInserter;
 import org.geogit.storage.ObjectSerialisingFactory;
 import org.geogit.storage.StagingDatabase;
 import org.geotools.feature.NameImpl;
@@ -53,6 +60,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 /**
  * A working tree is the collection of Features for a single FeatureType in GeoServer that has a
@@ -78,6 +86,18 @@ import com.google.inject.Inject;
  */
 public class WorkingTree {
 
+    /**
+     * Repository config key for the layout of the feature type trees created from then on, either
+     * {@code hash}, the default, or {@link #QUADTREE_LAYOUT quadtree}
+     */
+    public static final String TREE_LAYOUT = "tree.layout";
+
+    /**
+     * {@link #TREE_LAYOUT} value to split new feature type trees by the quadtree cell of their
+     * features bounds, see {@link QuadTreeBuilder}
+     */
+    public static final String QUADTREE_LAYOUT = "quadtree";
+
     @Inject
     private StagingDatabase indexDatabase;
 
@@ -87,6 +107,14 @@ public class WorkingTree {
     @Inject
     private ObjectSerialisingFactory serialFactory;
 
+    @Inject
+    @Named(ExecutorServiceProvider.TreeBuild.NAME)
+    @Nullable
+    private ExecutorService treeBuildExecutor;
+
+    @Inject
+    private ConfigDatabase config;
+
     /**
      * Updates the WORK_HEAD ref to the specified tree.
      * 
@@ -146,7 +174,7 @@ public class WorkingTree {
         String featurePath = NodeRef.appendChild(path, featureId);
         Optional<Node> node = findUnstaged(featurePath);
         if (node.isPresent()) {
-            parentTree.remove(node.get().getName());
+            parentTree.remove(node.get());
         }
 
         ObjectId newTree = repository.command(WriteBack.class).setAncestor(getTreeSupplier())
@@ -176,7 +204,7 @@ public class WorkingTree {
         }
         while (children.hasNext()) {
             Node next = children.next();
-            parentTree.remove(next.getName());
+            parentTree.remove(next);
         }
 
         ObjectId newWorkHead = repository.command(WriteBack.class).setToIndex(true)
@@ -215,7 +243,7 @@ public class WorkingTree {
             featurePath = NodeRef.appendChild(typeName.getLocalPart(), fid);
             Optional<Node> ref = findUnstaged(featurePath);
             if (ref.isPresent()) {
-                parentTree.remove(ref.get().getName());
+                parentTree.remove(ref.get());
             }
         }
 
@@ -269,18 +297,16 @@ public class WorkingTree {
             String featureName = NodeRef.nodeFromPath(featurePath);
             parentTree.remove(featureName);
         }
-        ObjectId newTree = null;
+        if (parents.isEmpty()) {
+            return;
+        }
+        Map<String, RevTree> parentTrees = Maps.newHashMap();
         for (Map.Entry<String, RevTreeBuilder> entry : parents.entrySet()) {
-            String path = entry.getKey();
-            RevTreeBuilder parentTree = entry.getValue();
-            newTree = repository.command(WriteBack.class).setAncestor(getTreeSupplier())
-                    .setChildPath(path).setToIndex(true).setTree(parentTree.build()).call();
-            updateWorkHead(newTree);
+            parentTrees.put(entry.getKey(), entry.getValue().build());
         }
-        /*
-         * if (newTree != null) { updateWorkHead(newTree); }
-         */
-
+        ObjectId newTree = repository.command(WriteBackAll.class).setAncestor(getTreeSupplier())
+                .setTrees(parentTrees).setToIndex(true).call();
+        updateWorkHead(newTree);
     }
 
     /**
@@ -295,12 +321,25 @@ public class WorkingTree {
         RevFeatureType newFeatureType = RevFeatureType.build(featureType);
         ObjectId revFeatureTypeId = newFeatureType.getId();
 
-        indexDatabase.put(newFeatureType);
-
-        Node node = putInDatabase(feature, revFeatureTypeId);
-        RevTreeBuilder parentTree = repository.command(FindOrCreateSubtree.class).setIndex(true)
+        final ObjectInserter inserter = indexDatabase.newObjectInserter();
+        Node node;
+        try {
+            inserter.insert(newFeatureType);
+            node = putInDatabase(feature, revFeatureTypeId, inserter);
+            inserter.commit();
+        } catch (RuntimeException e) {
+            inserter.abort();
+            throw e;
+        }
+        RevTree currentTree = repository.command(FindOrCreateSubtree.class).setIndex(true)
                 .setParent(Suppliers.ofInstance(Optional.of(getTree())))
-                .setChildPath(parentTreePath).call().builder(indexDatabase);
+                .setChildPath(parentTreePath).call();
+        RevTreeBuilder parentTree;
+        if (currentTree.isEmpty() && isQuadTreeLayout()) {
+            parentTree = new QuadTreeBuilder(indexDatabase);
+        } else {
+            parentTree = currentTree.builder(indexDatabase);
+        }
 
         parentTree.put(node);
 
@@ -331,18 +370,51 @@ public class WorkingTree {
         final Integer size = collectionSize == null || collectionSize.intValue() < 1 ? null
                 : collectionSize.intValue();
 
-        RevTreeBuilder parentTree = repository.command(FindOrCreateSubtree.class).setIndex(true)
-                .setParent(Suppliers.ofInstance(Optional.of(getTree()))).setChildPath(treePath)
-                .call().builder(indexDatabase);
-
-        putInDatabase(treePath, features, listener, size, insertedTarget, parentTree);
+        final RevTree currentTree = repository.command(FindOrCreateSubtree.class)
+                .setIndex(true).setParent(Suppliers.ofInstance(Optional.of(getTree())))
+                .setChildPath(treePath).call();
+
+        final RevTree tree;
+        if (currentTree.isEmpty() && isQuadTreeLayout()) {
+            RevTreeBuilder parentTree = new QuadTreeBuilder(indexDatabase)
+                    .setExecutor(treeBuildExecutor);
+            putInDatabase(treePath, features, listener, size, insertedTarget, parentTree, null);
+            tree = parentTree.build();
+        } else if (currentTree.isEmpty()) {
+            // a new tree, built with a bounded number of features in memory however many there are
+            SpillingRevTreeBuilder builder = new SpillingRevTreeBuilder(indexDatabase);
+            try {
+                putInDatabase(treePath, features, listener, size, insertedTarget, null, builder);
+                tree = builder.build();
+            } finally {
+                builder.close();
+            }
+        } else {
+            RevTreeBuilder parentTree = currentTree.builder(indexDatabase);
+            parentTree.setExecutor(treeBuildExecutor);
+            putInDatabase(treePath, features, listener, size, insertedTarget, parentTree, null);
+            tree = parentTree.build();
+        }
 
         ObjectId newTree = repository.command(WriteBack.class).setAncestor(getTreeSupplier())
-                .setChildPath(treePath).setToIndex(true).setTree(parentTree.build()).call();
+                .setChildPath(treePath).setToIndex(true).setTree(tree).call();
 
         updateWorkHead(newTree);
     }
 
+    /**
+     * @return whether new feature type trees are to be laid out as quadtrees, as set by the
+     *         {@link #TREE_LAYOUT} config key
+     */
+    private boolean isQuadTreeLayout() {
+        try {
+            return QUADTREE_LAYOUT.equals(config.get(TREE_LAYOUT).orNull());
+        } catch (ConfigException e) {
+            // no repository config yet
+            return false;
+        }
+    }
+
     /**
      * Updates a collection of features in the working tree and updates the WORK_HEAD ref.
      * 
@@ -418,20 +490,20 @@ public class WorkingTree {
      * 
      * @param feature the feature to add
      * @param metadataId
+     * @param inserter the inserter to write the feature through
      * @return the Node for the inserted feature
      */
-    private Node putInDatabase(final Feature feature, final ObjectId metadataId) {
+    private Node putInDatabase(final Feature feature, final ObjectId metadataId,
+            final ObjectInserter inserter) {
 
         checkNotNull(feature);
         checkNotNull(metadataId);
 
-        final RevFeature newFeature = new RevFeatureBuilder().build(feature);
+        final RevFeature newFeature = new RevFeatureBuilder().build(feature, inserter);
         final ObjectId objectId = newFeature.getId();
         final BoundingBox bounds = feature.getBounds();
         final String nodeName = feature.getIdentifier().getID();
 
-        indexDatabase.put(newFeature);
-
         Node newObject;
         if (bounds == null) {
             newObject = new Node(nodeName, objectId, metadataId, TYPE.FEATURE);
@@ -443,30 +515,54 @@ public class WorkingTree {
     }
 
     /**
-     * Adds a collection of features to the staging database.
+     * Adds a collection of features to the staging database, writing them in batches through an
+     * {@link ObjectInserter}. The features added before a cancellation are kept.
      * 
      * @param parentTreepath path of features
      * @param objects the features to insert
      * @param progress the {@link ProgressListener} for this process
      * @param size number of features to add
      * @param target if specified, created {@link Node}s will be added to the list
+     * @param parentTree the builder of the tree to add the features to, if it's not a new one
+     * @param newTree the builder of the tree to add the features to, if it's a new one
      * @throws Exception
      */
     private void putInDatabase(final String parentTreePath, final Iterator<Feature> objects,
             final ProgressListener progress, final @Nullable Integer size,
-            @Nullable final List<Node> target, final RevTreeBuilder parentTree) throws Exception {
+            @Nullable final List<Node> target, @Nullable final RevTreeBuilder parentTree,
+            @Nullable final SpillingRevTreeBuilder newTree) throws Exception {
 
         checkNotNull(objects);
         checkNotNull(progress);
-        checkNotNull(parentTree);
-
-        Feature feature;
-        int count = 0;
+        checkArgument(parentTree == null ^ newTree == null);
 
         progress.started();
 
         Map<Name, ObjectId> revFeatureTypes = Maps.newHashMap();
 
+        final ObjectInserter inserter = indexDatabase.newObjectInserter();
+        try {
+            insertAll(objects, progress, size, target, parentTree, newTree, revFeatureTypes,
+                    inserter);
+            inserter.commit();
+        } catch (Exception e) {
+            inserter.abort();
+            throw e;
+        }
+        if (!progress.isCanceled()) {
+            progress.complete();
+        }
+    }
+
+    private void insertAll(final Iterator<Feature> objects, final ProgressListener progress,
+            final @Nullable Integer size, @Nullable final List<Node> target,
+            @Nullable final RevTreeBuilder parentTree,
+            @Nullable final SpillingRevTreeBuilder newTree,
+            final Map<Name, ObjectId> revFeatureTypes, final ObjectInserter inserter) {
+
+        Feature feature;
+        int count = 0;
+
         while (objects.hasNext()) {
             count++;
             if (progress.isCanceled()) {
@@ -486,18 +582,20 @@ public class WorkingTree {
 
                 revFeatureTypeId = newFeatureType.getId();
 
-                indexDatabase.put(newFeatureType);
+                inserter.insert(newFeatureType);
                 revFeatureTypes.put(featureType.getName(), revFeatureTypeId);
             }
 
-            final Node objectRef = putInDatabase(feature, revFeatureTypeId);
-            parentTree.put(objectRef);
+            final Node objectRef = putInDatabase(feature, revFeatureTypeId, inserter);
+            if (parentTree == null) {
+                newTree.put(objectRef);
+            } else {
+                parentTree.put(objectRef);
+            }
             if (target != null) {
                 target.add(objectRef);
             }
         }
-
-        progress.complete();
     }
 
     /**
@@ -0,0 +1,38 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import org.geogit.api.porcelain.ConfigException;
+
+import com.google.common.base.Optional;
+import com.google.inject.Provider;
+
+/**
+ * Base class for the providers of the repository components whose settings are read from
+ * repository config keys.
+ */
+public abstract class AbstractConfiguredProvider<T> implements Provider<T> {
+
+    private final ConfigDatabase config;
+
+    protected AbstractConfiguredProvider(final ConfigDatabase config) {
+        this.config = config;
+    }
+
+    /**
+     * @param key the config key
+     * @param type the type of the value
+     * @return the value of the key, or {@link Optional#absent() absent} if it's not set or there's
+     *         no repository config yet
+     */
+    protected <V> Optional<V> getConfig(final String key, final Class<V> type) {
+        try {
+            return config.get(key, type);
+        } catch (ConfigException e) {
+            // no repository config yet
+            return Optional.absent();
+        }
+    }
+}
@@ -4,10 +4,25 @@
  */
 package org.geogit.storage;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
@@ -17,11 +32,24 @@ import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTag;
 import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.api.plumbing.HashObject;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
+import com.google.inject.Inject;
+import com.ning.compress.lzf.LZFChunk;
 import com.ning.compress.lzf.LZFInputStream;
 import com.ning.compress.lzf.LZFOutputStream;
 
@@ -32,13 +60,344 @@ import com.ning.compress.lzf.LZFOutputStream;
  */
 public abstract class AbstractObjectDatabase implements ObjectDatabase {
 
+    /**
+     * Maximum number of objects handed to the {@code *AllInternal} methods at once by the bulk
+     * operations
+     */
+    protected static final int BULK_BATCH_SIZE = 1000;
+
     private ObjectSerialisingFactory serializationFactory;
 
+    @Nullable
+    private ObjectCache cache;
+
+    @Nullable
+    private OffHeapObjectCache offHeapCache;
+
+    @Nullable
+    private BloomFilterFactory bloomFilterFactory;
+
+    @Nullable
+    private volatile ObjectIdBloomFilter bloomFilter;
+
+    @Nullable
+    private File bloomFilterFile;
+
+    @Nullable
+    private BloomFilterLock bloomFilterLock;
+
+    private long bloomFilterStamp;
+
     public AbstractObjectDatabase(final ObjectSerialisingFactory serializationFactory) {
         Preconditions.checkNotNull(serializationFactory);
         this.serializationFactory = serializationFactory;
     }
 
+    /**
+     * Sets the cache decoded objects are looked up in before going to the storage, and added to
+     * after being read from it. The same cache is meant to be shared by all the object databases
+     * of a repository.
+     * 
+     * @param cache the cache to use, or {@code null} to disable caching
+     */
+    @Inject(optional = true)
+    public void setObjectCache(@Nullable ObjectCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the cache in use, or {@code null} if caching is disabled
+     */
+    @Nullable
+    public ObjectCache getObjectCache() {
+        return cache;
+    }
+
+    /**
+     * Does nothing by default, subclasses that have a faster write mode for bulk loads override it.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#beginBulkLoad()
+     */
+    @Override
+    public void beginBulkLoad() {
+        // no bulk load mode by default
+    }
+
+    /**
+     * @see org.geogit.storage.ObjectDatabase#endBulkLoad()
+     */
+    @Override
+    public void endBulkLoad() {
+        // no bulk load mode by default
+    }
+
+    /**
+     * Sets the second level cache looked up for the stored form of objects missing from the
+     * {@link #setObjectCache(ObjectCache) object cache}, before going to the storage.
+     * 
+     * @param offHeapCache the cache to use, or {@code null} to disable it
+     */
+    @Inject(optional = true)
+    public void setOffHeapCache(@Nullable OffHeapObjectCache offHeapCache) {
+        this.offHeapCache = offHeapCache;
+    }
+
+    /**
+     * @return the second level cache in use, or {@code null} if disabled
+     */
+    @Nullable
+    public OffHeapObjectCache getOffHeapCache() {
+        return offHeapCache;
+    }
+
+    /**
+     * Sets the factory for the bloom filter that answers {@link #exists(ObjectId)} for missing
+     * objects without going to the storage. The filter is only used by subclasses that set it up
+     * through {@link #openBloomFilter(File)}.
+     * 
+     * @param bloomFilterFactory the factory to use, or {@code null} to disable the bloom filter
+     */
+    @Inject(optional = true)
+    public void setBloomFilterFactory(@Nullable BloomFilterFactory bloomFilterFactory) {
+        this.bloomFilterFactory = bloomFilterFactory;
+    }
+
+    /**
+     * @return the bloom filter in use, or {@code null} if there's none
+     */
+    @Nullable
+    public ObjectIdBloomFilter getBloomFilter() {
+        return bloomFilter;
+    }
+
+    /**
+     * Sets up the bloom filter, loading it from the given sidecar file or building it through
+     * {@link #listIdsInternal()} if the file doesn't exist, can't be read, holds a saturated
+     * filter, or misses objects written since it was saved. Meant to be called by subclasses at
+     * the end of {@link #open()}.
+     * <p>
+     * Only one instance at a time, in this or any other process, owns the sidecar file and uses a
+     * filter: the others answer from storage, and count their writes in a stamp kept next to the
+     * sidecar file. Once it changes the owner no longer trusts its filter to tell an object is
+     * missing, and doesn't write it back on close. See {@link BloomFilterLock}.
+     * <p>
+     * The sidecar file is deleted once loaded and only written back by
+     * {@link #closeBloomFilter()}, so that if the process dies with the database open, the next
+     * open rebuilds the filter instead of trusting one that misses the last objects inserted.
+     * 
+     * @param sidecar where the filter is persisted between sessions, or {@code null} to keep it
+     *        in memory only, for databases that can't be opened by more than one instance
+     */
+    protected void openBloomFilter(@Nullable final File sidecar) {
+        if (sidecar == null) {
+            if (bloomFilterFactory != null) {
+                this.bloomFilter = buildBloomFilter();
+            }
+            return;
+        }
+        final BloomFilterLock lock;
+        try {
+            lock = BloomFilterLock.open(lockFileFor(sidecar), bloomFilterFactory != null);
+        } catch (IOException e) {
+            // can't coordinate with other instances, do without a filter
+            return;
+        }
+        this.bloomFilterLock = lock;
+        this.bloomFilterFile = sidecar;
+        if (!lock.isOwner()) {
+            return;
+        }
+        final long stamp = lock.stamp();
+        lock.setTrustedStamp(stamp);
+        ObjectIdBloomFilter filter = null;
+        if (sidecar.exists()) {
+            if (lock.sidecarStamp() == stamp) {
+                InputStream in = null;
+                try {
+                    in = new BufferedInputStream(new FileInputStream(sidecar));
+                    filter = ObjectIdBloomFilter.readFrom(in);
+                } catch (IOException e) {
+                    // unreadable, rebuild it
+                    filter = null;
+                } finally {
+                    Closeables.closeQuietly(in);
+                }
+            }
+            sidecar.delete();
+        }
+        if (filter == null || filter.isSaturated()) {
+            filter = buildBloomFilter();
+        }
+        this.bloomFilterStamp = stamp;
+        this.bloomFilter = filter;
+    }
+
+    private static File lockFileFor(final File sidecar) {
+        return new File(sidecar.getParentFile(), sidecar.getName() + ".lock");
+    }
+
+    /**
+     * Writes the bloom filter to its sidecar file, if any and if it still holds every object in
+     * the database, and discards it. Meant to be called by subclasses from {@link #close()}, after
+     * the last write.
+     */
+    protected void closeBloomFilter() {
+        final ObjectIdBloomFilter filter = this.bloomFilter;
+        final File sidecar = this.bloomFilterFile;
+        final BloomFilterLock lock = this.bloomFilterLock;
+        this.bloomFilter = null;
+        this.bloomFilterFile = null;
+        this.bloomFilterLock = null;
+        if (lock == null) {
+            return;
+        }
+        try {
+            if (filter != null && lock.isOwner()) {
+                if (lock.stamp() == bloomFilterStamp) {
+                    writeBloomFilter(filter, sidecar);
+                    lock.setSidecarStamp(bloomFilterStamp);
+                } else {
+                    sidecar.delete();
+                }
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    private static void writeBloomFilter(final ObjectIdBloomFilter filter, final File sidecar) {
+        File tmp = new File(sidecar.getParentFile(), sidecar.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tmp));
+            filter.writeTo(out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(sidecar)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            // no sidecar means the filter is rebuilt on the next open
+            tmp.delete();
+        } finally {
+            Closeables.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Rebuilds the bloom filter from the objects currently in the database, sizing it after their
+     * number. Does nothing if the database has no bloom filter.
+     * <p>
+     * Objects inserted while the filter is being rebuilt may be missed, so this shall not run
+     * while other threads are writing to the database.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#rebuildBloomFilter()
+     */
+    @Override
+    public void rebuildBloomFilter() {
+        if (bloomFilter != null) {
+            if (bloomFilterLock != null) {
+                // read before listing the objects, for the ones written meanwhile to be noticed
+                bloomFilterStamp = bloomFilterLock.stamp();
+                bloomFilterLock.setTrustedStamp(bloomFilterStamp);
+            }
+            bloomFilter = buildBloomFilter();
+        }
+    }
+
+    /**
+     * @return the bloom filter, if there is one and no other instance wrote to the database since
+     *         it was loaded, or {@code null}
+     */
+    @Nullable
+    private ObjectIdBloomFilter trustedBloomFilter() {
+        final ObjectIdBloomFilter filter = this.bloomFilter;
+        final BloomFilterLock lock = this.bloomFilterLock;
+        if (filter != null && lock != null && lock.stamp() != bloomFilterStamp) {
+            return null;
+        }
+        return filter;
+    }
+
+    /**
+     * Lets the owner of the bloom filter know objects were written without being added to it.
+     * Called after the write, so that an owner building its filter meanwhile either sees the
+     * objects or the changed stamp.
+     */
+    private void recordWrite(final boolean written) {
+        final BloomFilterLock lock = this.bloomFilterLock;
+        if (written && lock != null && !lock.isOwner()) {
+            lock.recordWrite();
+        }
+    }
+
+    /**
+     * Builds the filter in a single pass over the objects, sized after
+     * {@link #countObjectsInternal()}.
+     */
+    private ObjectIdBloomFilter buildBloomFilter() {
+        ObjectIdBloomFilter filter = bloomFilterFactory.create(countObjectsInternal());
+        for (Iterator<ObjectId> ids = listIdsInternal(); ids.hasNext();) {
+            filter.put(ids.next());
+        }
+        return filter;
+    }
+
+    /**
+     * Counts the objects in the database, used to size the bloom filter before it's built. It
+     * shall be cheaper than listing them, but doesn't need to be exact.
+     * <p>
+     * Subclasses that call {@link #openBloomFilter(File)} shall override it, this default
+     * implementation throws {@link UnsupportedOperationException}.
+     */
+    protected long countObjectsInternal() {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                + " can't count its objects");
+    }
+
+    /**
+     * Lists the ids of all the objects in the database, used to build the bloom filter.
+     * <p>
+     * Subclasses that call {@link #openBloomFilter(File)} shall override it, this default
+     * implementation throws {@link UnsupportedOperationException}.
+     */
+    protected Iterator<ObjectId> listIdsInternal() {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                + " can't list its objects");
+    }
+
+    /**
+     * Answers for missing objects through the bloom filter, if there is one, and otherwise
+     * through {@link #existsInternal(ObjectId)}.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#exists(org.geogit.api.ObjectId)
+     */
+    @Override
+    public boolean exists(final ObjectId id) {
+        Preconditions.checkNotNull(id);
+        final ObjectIdBloomFilter filter = trustedBloomFilter();
+        if (filter != null && !filter.mightContain(id)) {
+            return false;
+        }
+        return existsInternal(id);
+    }
+
+    /**
+     * Determines if the given {@link ObjectId} exists in the storage.
+     */
+    protected abstract boolean existsInternal(ObjectId id);
+
+    /**
+     * Adds the id to the bloom filter, before the object is written so that {@link #exists}
+     * never misses it.
+     */
+    private void addToBloomFilter(final ObjectId id) {
+        final ObjectIdBloomFilter filter = this.bloomFilter;
+        if (filter != null) {
+            filter.put(id);
+        }
+    }
+
     /**
      * Searches the database for {@link ObjectId}s that match the given partial id.
      * 
@@ -77,26 +436,53 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         Preconditions.checkNotNull(id, "id");
         Preconditions.checkNotNull(clazz, "class");
 
+        final ObjectCache cache = this.cache;
+        if (cache != null) {
+            T cached = cache.getIfPresent(id, clazz);
+            if (cached != null) {
+                return cached;
+            }
+        }
         final ObjectReader<T> reader = serializationFactory.createObjectReader(getType(clazz));
 
-        return get(id, reader);
+        T object = get(id, reader);
+        if (cache != null) {
+            cache.put(object);
+        }
+        return object;
     }
 
     @Override
     public RevObject get(ObjectId id) {
         Preconditions.checkNotNull(id, "id");
 
+        final ObjectCache cache = this.cache;
+        if (cache != null) {
+            RevObject cached = cache.getIfPresent(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
         final ObjectReader<RevObject> reader = serializationFactory.createObjectReader();
-        return get(id, reader);
+        RevObject object = get(id, reader);
+        if (cache != null) {
+            cache.put(object);
+        }
+        return object;
     }
 
     private <T extends RevObject> T get(final ObjectId id, final ObjectReader<T> reader) {
-        InputStream raw = getRaw(id);
         T object;
-        try {
-            object = reader.read(id, raw);
-        } finally {
-            Closeables.closeQuietly(raw);
+        final ByteBuffer stored = getStored(id);
+        if (stored != null) {
+            object = reader.read(id, ByteBufferLZFDecoder.decode(stored));
+        } else {
+            InputStream raw = getRaw(id);
+            try {
+                object = reader.read(id, raw);
+            } finally {
+                Closeables.closeQuietly(raw);
+            }
         }
         Preconditions.checkState(id.equals(object.getId()),
                 "Expected id doesn't match parsed id %s, %s. Object: %s", id, object.getId(),
@@ -104,6 +490,194 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         return object;
     }
 
+    /**
+     * Reads the objects in batches of at most {@link #BULK_BATCH_SIZE} ids through
+     * {@link #getAllRawInternal(List)}, skipping the ones found in the {@link ObjectCache}.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#getAll(java.lang.Iterable)
+     */
+    @Override
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids) {
+        Preconditions.checkNotNull(ids, "ids");
+
+        final ObjectReader<RevObject> reader = serializationFactory.createObjectReader();
+        final ObjectCache cache = this.cache;
+        final Function<Entry<ObjectId, ByteBuffer>, RevObject> parse;
+        parse = new Function<Entry<ObjectId, ByteBuffer>, RevObject>() {
+            @Override
+            public RevObject apply(Entry<ObjectId, ByteBuffer> stored) {
+                final ObjectId id = stored.getKey();
+                RevObject object = reader.read(id, ByteBufferLZFDecoder.decode(stored.getValue()));
+                Preconditions.checkState(id.equals(object.getId()),
+                        "Expected id doesn't match parsed id %s, %s. Object: %s", id,
+                        object.getId(), object);
+                if (cache != null) {
+                    cache.put(object);
+                }
+                return object;
+            }
+        };
+        final Iterator<List<ObjectId>> batches = Iterators.partition(ids.iterator(),
+                BULK_BATCH_SIZE);
+        return Iterators.concat(Iterators.transform(batches,
+                new Function<List<ObjectId>, Iterator<RevObject>>() {
+                    @Override
+                    public Iterator<RevObject> apply(List<ObjectId> batch) {
+                        List<RevObject> cached = ImmutableList.of();
+                        if (cache != null) {
+                            cached = Lists.newArrayList();
+                            List<ObjectId> notCached = Lists.newArrayListWithCapacity(batch
+                                    .size());
+                            for (ObjectId id : batch) {
+                                RevObject object = cache.getIfPresent(id);
+                                if (object == null) {
+                                    notCached.add(id);
+                                } else {
+                                    cached.add(object);
+                                }
+                            }
+                            batch = notCached;
+                        }
+                        Map<ObjectId, ByteBuffer> stored = getAllStored(batch);
+                        return Iterators.concat(cached.iterator(),
+                                Iterators.transform(stored.entrySet().iterator(), parse));
+                    }
+                }));
+    }
+
+    /**
+     * Bulk version of {@link #getStored(ObjectId)}, going to the storage through
+     * {@link #getAllRawInternal(List)} only for the objects missing from the off heap cache.
+     */
+    private Map<ObjectId, ByteBuffer> getAllStored(final List<ObjectId> ids) {
+        final OffHeapObjectCache offHeapCache = this.offHeapCache;
+        if (offHeapCache == null) {
+            return getAllRawInternal(ids);
+        }
+        Map<ObjectId, ByteBuffer> found = Maps.newLinkedHashMap();
+        List<ObjectId> notCached = Lists.newArrayList();
+        for (ObjectId id : ids) {
+            ByteBuffer stored = offHeapCache.get(id);
+            if (stored == null) {
+                notCached.add(id);
+            } else {
+                found.put(id, stored);
+            }
+        }
+        if (!notCached.isEmpty()) {
+            Map<ObjectId, ByteBuffer> read = getAllRawInternal(notCached);
+            for (Entry<ObjectId, ByteBuffer> e : read.entrySet()) {
+                offHeapCache.put(e.getKey(), e.getValue());
+            }
+            found.putAll(read);
+        }
+        return found;
+    }
+
+    /**
+     * Returns the stored (compressed) data of the objects in the batch that exist in this
+     * database.
+     * <p>
+     * This default implementation performs one look up per object, subclasses are encouraged to
+     * override it with a cheaper bulk access to their storage.
+     * 
+     * @param ids a batch of at most {@link #BULK_BATCH_SIZE} ids
+     * @return the stored data of each object found, keyed by id
+     */
+    protected Map<ObjectId, ByteBuffer> getAllRawInternal(final List<ObjectId> ids) {
+        Map<ObjectId, ByteBuffer> found = new LinkedHashMap<ObjectId, ByteBuffer>();
+        for (ObjectId id : ids) {
+            if (found.containsKey(id) || !exists(id)) {
+                continue;
+            }
+            ByteBuffer stored = getRawBufferInternal(id);
+            if (stored == null) {
+                stored = readStored(id);
+            }
+            found.put(id, stored);
+        }
+        return found;
+    }
+
+    /**
+     * Leaves out the ids the bloom filter knows are missing, if there is one, and checks the rest
+     * in batches of at most {@link #BULK_BATCH_SIZE} through {@link #existsAllInternal(List)}.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#existsAll(java.lang.Iterable)
+     */
+    @Override
+    public Set<ObjectId> existsAll(final Iterable<ObjectId> ids) {
+        Preconditions.checkNotNull(ids, "ids");
+        Iterable<ObjectId> candidates = ids;
+        final ObjectIdBloomFilter filter = trustedBloomFilter();
+        if (filter != null) {
+            candidates = Iterables.filter(ids, new Predicate<ObjectId>() {
+                @Override
+                public boolean apply(ObjectId id) {
+                    return filter.mightContain(id);
+                }
+            });
+        }
+        Set<ObjectId> found = Sets.newHashSet();
+        for (List<ObjectId> batch : Iterables.partition(candidates, BULK_BATCH_SIZE)) {
+            found.addAll(existsAllInternal(batch));
+        }
+        return found;
+    }
+
+    /**
+     * This default implementation calls {@link #existsInternal(ObjectId)} once per object,
+     * subclasses are encouraged to override it with a cheaper bulk access to their storage.
+     * 
+     * @param ids a batch of at most {@link #BULK_BATCH_SIZE} ids
+     * @return the ids in the batch that exist in this database
+     */
+    protected Set<ObjectId> existsAllInternal(final List<ObjectId> ids) {
+        Set<ObjectId> found = Sets.newHashSet();
+        for (ObjectId id : ids) {
+            if (existsInternal(id)) {
+                found.add(id);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Looks up the stored form of the object in the off heap cache, and then through
+     * {@link #getRawBufferInternal(ObjectId)}, adding what's read from the storage to the off heap
+     * cache.
+     * 
+     * @return the stored object data, or {@code null} if the off heap cache is disabled and the
+     *         object can only be read through {@link #getRawInternal(ObjectId)}
+     */
+    @Nullable
+    private ByteBuffer getStored(final ObjectId id) {
+        final OffHeapObjectCache offHeapCache = this.offHeapCache;
+        if (offHeapCache == null) {
+            return getRawBufferInternal(id);
+        }
+        ByteBuffer stored = offHeapCache.get(id);
+        if (stored == null) {
+            stored = getRawBufferInternal(id);
+            if (stored == null) {
+                stored = readStored(id);
+            }
+            offHeapCache.put(id, stored);
+        }
+        return stored;
+    }
+
+    private ByteBuffer readStored(final ObjectId id) {
+        InputStream in = getRawInternal(id);
+        try {
+            return ByteBuffer.wrap(ByteStreams.toByteArray(in));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
     @Override
     public RevTree getTree(ObjectId id) {
         return get(id, RevTree.class);
@@ -114,6 +688,20 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         return get(id, RevFeature.class);
     }
 
+    @Override
+    public RevFeature getFeature(final ObjectId id, @Nullable Map<String, Serializable> hints) {
+        Preconditions.checkNotNull(id, "id");
+
+        final ObjectCache cache = this.cache;
+        if (cache != null) {
+            RevFeature cached = cache.getIfPresent(id, RevFeature.class);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return get(id, serializationFactory.createFeatureReader(hints));
+    }
+
     @Override
     public RevFeatureType getFeatureType(ObjectId id) {
         return get(id, RevFeatureType.class);
@@ -142,6 +730,10 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
      */
     @Override
     public InputStream getRaw(final ObjectId id) throws IllegalArgumentException {
+        final ByteBuffer stored = getRawBufferInternal(id);
+        if (stored != null) {
+            return new ByteBufferInputStream(ByteBufferLZFDecoder.decode(stored));
+        }
         InputStream in = getRawInternal(id);
         try {
             return new LZFInputStream(in);
@@ -152,6 +744,40 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
 
     protected abstract InputStream getRawInternal(ObjectId id) throws IllegalArgumentException;
 
+    /**
+     * @see org.geogit.storage.ObjectDatabase#getRawCompressed(org.geogit.api.ObjectId)
+     */
+    @Override
+    public byte[] getRawCompressed(final ObjectId id) throws IllegalArgumentException {
+        Preconditions.checkNotNull(id, "id");
+        ByteBuffer stored = getStored(id);
+        if (stored == null) {
+            stored = readStored(id);
+        }
+        if (stored.hasArray() && stored.arrayOffset() == 0 && stored.position() == 0
+                && stored.remaining() == stored.array().length) {
+            return stored.array();
+        }
+        byte[] compressed = new byte[stored.remaining()];
+        stored.duplicate().get(compressed);
+        return compressed;
+    }
+
+    /**
+     * Returns the stored (compressed) data of the object as a buffer, for databases that can
+     * provide it without copying, for example out of a memory mapped file.
+     * <p>
+     * This default implementation returns {@code null}, meaning reads go through
+     * {@link #getRawInternal(ObjectId)}.
+     * 
+     * @return a buffer holding the stored object data between its position and limit, or
+     *         {@code null} if the database doesn't support buffer reads for the given object
+     */
+    @Nullable
+    protected ByteBuffer getRawBufferInternal(ObjectId id) {
+        return null;
+    }
+
     @Override
     public boolean put(ObjectId objectId, InputStream raw) {
         Preconditions.checkNotNull(objectId);
@@ -170,17 +796,203 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         }
 
         final byte[] rawData = rawOut.toByteArray();
+        addToBloomFilter(objectId);
         final boolean inserted = putInternal(objectId, rawData);
+        recordWrite(inserted);
         return inserted;
     }
 
+    /**
+     * Stores the data as is, through {@link #putInternal(ObjectId, byte[])}.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#putRawCompressed(org.geogit.api.ObjectId, byte[])
+     */
+    @Override
+    public boolean putRawCompressed(final ObjectId objectId, final byte[] compressed) {
+        Preconditions.checkNotNull(objectId);
+        Preconditions.checkArgument(!objectId.isNull(), "ObjectId is NULL");
+        checkCompressed(compressed);
+
+        addToBloomFilter(objectId);
+        final boolean inserted = putInternal(objectId, compressed);
+        recordWrite(inserted);
+        return inserted;
+    }
+
+    /**
+     * Stores the data as is, in a single call to {@link #putAllInternal(Map)}.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#putAllRawCompressed(java.util.Map)
+     */
+    @Override
+    public int putAllRawCompressed(final Map<ObjectId, byte[]> objects) {
+        Preconditions.checkNotNull(objects, "objects");
+        for (Entry<ObjectId, byte[]> e : objects.entrySet()) {
+            Preconditions.checkArgument(!e.getKey().isNull(), "ObjectId is NULL");
+            checkCompressed(e.getValue());
+        }
+        if (objects.isEmpty()) {
+            return 0;
+        }
+        for (ObjectId id : objects.keySet()) {
+            addToBloomFilter(id);
+        }
+        final int inserted = putAllInternal(objects);
+        recordWrite(inserted > 0);
+        return inserted;
+    }
+
+    private static void checkCompressed(final byte[] compressed) {
+        Preconditions.checkNotNull(compressed);
+        Preconditions.checkArgument(compressed.length >= 2 && compressed[0] == LZFChunk.BYTE_Z
+                && compressed[1] == LZFChunk.BYTE_V, "Not LZF compressed data");
+    }
+
     @Override
     public final <T extends RevObject> boolean put(final T object) {
+        final byte[] rawData = serialize(object);
+        addToBloomFilter(object.getId());
+        final boolean inserted = putInternal(object.getId(), rawData);
+        recordWrite(inserted);
+        return inserted;
+    }
+
+    /**
+     * Serializes the object through the {@link HashingObjectWriter} of the serialization factory
+     * if it has one, or hashes it with {@link HashObject} and then serializes it otherwise, and
+     * stores it through {@link #putInternal(ObjectId, byte[])}.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#hashAndPut(org.geogit.api.RevObject)
+     */
+    @Override
+    public final <T extends RevObject> T hashAndPut(final T unnamed) {
+        final ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        final ObjectId id = hashAndSerialize(serializationFactory, unnamed, rawOut);
+        addToBloomFilter(id);
+        recordWrite(putInternal(id, rawOut.toByteArray()));
+        return named(unnamed, id);
+    }
+
+    /**
+     * Serializes a feature or tree with a {@link ObjectId#NULL NULL} id to its compressed stored
+     * form, computing its id in the same pass when the serialization format allows it.
+     *
+     * @return the id of the object
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends RevObject> ObjectId hashAndSerialize(final ObjectSerialisingFactory factory,
+            final T unnamed, final ByteArrayOutputStream rawOut) {
+        Preconditions.checkNotNull(unnamed);
+        final TYPE type = unnamed.getType();
+        Preconditions.checkArgument(TYPE.FEATURE.equals(type) || TYPE.TREE.equals(type),
+                "Only features and trees can be hashed while stored: %s", type);
+
+        final ObjectWriter<T> writer = factory.createObjectWriter(type);
+        final LZFOutputStream cOut = new LZFOutputStream(rawOut);
+        final ObjectId id;
+        try {
+            if (writer instanceof HashingObjectWriter) {
+                Hasher hasher = ObjectId.HASH_FUNCTION.newHasher();
+                ((HashingObjectWriter<T>) writer).write(unnamed, cOut, hasher);
+                id = new ObjectId(hasher.hash().asBytes());
+            } else {
+                id = new HashObject().setObject(unnamed).call();
+                writer.write(unnamed, cOut);
+            }
+            cOut.flush();
+            cOut.close();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return id;
+    }
+
+    /**
+     * @return a copy of the unnamed feature or tree with the given id
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends RevObject> T named(final T unnamed, final ObjectId id) {
+        if (TYPE.FEATURE.equals(unnamed.getType())) {
+            return (T) new RevFeature(id, ((RevFeature) unnamed).getValues());
+        }
+        RevTree tree = (RevTree) unnamed;
+        return (T) RevTreeImpl.create(id, tree.size(), tree);
+    }
+
+    @Override
+    public final <T extends RevObject> boolean rewrite(final T object) {
+        final byte[] rawData = serialize(object);
+        addToBloomFilter(object.getId());
+        final boolean inserted = replaceInternal(object.getId(), rawData);
+        recordWrite(inserted);
+        return inserted;
+    }
+
+    /**
+     * Serializes and stores the objects in batches of at most {@link #BULK_BATCH_SIZE} through
+     * {@link #putAllInternal(Map)}.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#putAll(java.util.Iterator)
+     */
+    @Override
+    public int putAll(final Iterator<? extends RevObject> objects) {
+        Preconditions.checkNotNull(objects, "objects");
+        int inserted = 0;
+        Iterator<? extends List<? extends RevObject>> batches = Iterators.partition(objects,
+                BULK_BATCH_SIZE);
+        while (batches.hasNext()) {
+            List<? extends RevObject> batch = batches.next();
+            Map<ObjectId, byte[]> rawData = Maps.newLinkedHashMap();
+            for (RevObject object : batch) {
+                if (!rawData.containsKey(object.getId())) {
+                    rawData.put(object.getId(), serialize(object));
+                    addToBloomFilter(object.getId());
+                }
+            }
+            inserted += putAllInternal(rawData);
+        }
+        recordWrite(inserted > 0);
+        return inserted;
+    }
+
+    /**
+     * Stores the raw data for each of the given ids that does not exist already.
+     * <p>
+     * This default implementation calls {@link #putInternal(ObjectId, byte[])} once per object,
+     * subclasses are encouraged to override it with a cheaper bulk access to their storage.
+     * 
+     * @param objects a batch of objects stored data, keyed by id. Batches built by
+     *        {@link #putAll(Iterator)} hold at most {@link #BULK_BATCH_SIZE} objects, the ones
+     *        handed to {@link #putAllRawCompressed(Map)} are as large as the caller made them
+     * @return the number of objects actually inserted
+     */
+    protected int putAllInternal(final Map<ObjectId, byte[]> objects) {
+        int inserted = 0;
+        for (Entry<ObjectId, byte[]> e : objects.entrySet()) {
+            if (putInternal(e.getKey(), e.getValue())) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * @return the compressed serialized form of the object, as handed to
+     *         {@link #putInternal(ObjectId, byte[])}
+     */
+    private <T extends RevObject> byte[] serialize(final T object) {
+        return serialize(serializationFactory, object);
+    }
+
+    /**
+     * @return the compressed serialized form of the object, as stored by the object databases
+     */
+    static <T extends RevObject> byte[] serialize(final ObjectSerialisingFactory factory,
+            final T object) {
         Preconditions.checkNotNull(object);
         Preconditions.checkArgument(!object.getId().isNull(), "ObjectId is NULL %s", object);
 
-        final ObjectId id = object.getId();
-        ObjectWriter<T> writer = serializationFactory.createObjectWriter(object.getType());
+        ObjectWriter<T> writer = factory.createObjectWriter(object.getType());
 
         ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
         LZFOutputStream cOut = new LZFOutputStream(rawOut);
@@ -196,9 +1008,7 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
                 throw Throwables.propagate(e);
             }
         }
-        final byte[] rawData = rawOut.toByteArray();
-        final boolean inserted = putInternal(id, rawData);
-        return inserted;
+        return rawOut.toByteArray();
     }
 
     /**
@@ -207,12 +1017,25 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
      */
     protected abstract boolean putInternal(ObjectId id, byte[] rawData);
 
+    /**
+     * Stores the raw data for the given id whether it exists already or not, and returns whether
+     * the object did not exist before.
+     * <p>
+     * This default implementation deletes the object and puts it back, so the object is missing
+     * in between. Subclasses shall override it when their storage can replace it atomically.
+     */
+    protected boolean replaceInternal(ObjectId id, byte[] rawData) {
+        final boolean existed = delete(id);
+        putInternal(id, rawData);
+        return !existed;
+    }
+
     /**
      * @return a newly constructed {@link ObjectInserter} for this database
      * @see org.geogit.storage.ObjectDatabase#newObjectInserter()
      */
     @Override
     public ObjectInserter newObjectInserter() {
-        return new ObjectInserter(this);
+        return new ObjectInserter(this, serializationFactory);
     }
 }
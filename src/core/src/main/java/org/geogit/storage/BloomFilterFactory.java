@@ -0,0 +1,52 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Creates the {@link ObjectIdBloomFilter}s of the object databases with the repository's false
+ * positive probability, leaving room for the database to double in size before the filter
+ * saturates.
+ *
+ * @see BloomFilterFactoryProvider
+ * @see AbstractObjectDatabase#setBloomFilterFactory(BloomFilterFactory)
+ */
+public class BloomFilterFactory {
+
+    public static final double DEFAULT_FPP = 0.01;
+
+    /**
+     * Minimum number of ids a filter is sized for, so that a new database doesn't need to
+     * rebuild its filter right away
+     */
+    public static final long MIN_EXPECTED_INSERTIONS = 1024 * 1024;
+
+    private final double fpp;
+
+    public BloomFilterFactory() {
+        this(DEFAULT_FPP);
+    }
+
+    /**
+     * @param fpp the false positive probability of the filters created
+     */
+    public BloomFilterFactory(double fpp) {
+        checkArgument(fpp > 0 && fpp < 1, "fpp shall be between 0 and 1");
+        this.fpp = fpp;
+    }
+
+    public double getFpp() {
+        return fpp;
+    }
+
+    /**
+     * @param count the number of objects the database currently holds
+     * @return an empty filter for the database
+     */
+    public ObjectIdBloomFilter create(long count) {
+        return ObjectIdBloomFilter.create(Math.max(MIN_EXPECTED_INSERTIONS, 2 * count), fpp);
+    }
+}
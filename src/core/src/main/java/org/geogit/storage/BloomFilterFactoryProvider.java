@@ -0,0 +1,37 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Creates the repository {@link BloomFilterFactory}, with the false positive probability set by
+ * the {@code bloom.fpp} repository config key, or {@link BloomFilterFactory#DEFAULT_FPP} if not
+ * set.
+ * <p>
+ * Setting the key to zero disables the bloom filters, and this provider returns {@code null}.
+ */
+public class BloomFilterFactoryProvider extends AbstractConfiguredProvider<BloomFilterFactory> {
+
+    public static final String FPP = "bloom.fpp";
+
+    @Inject
+    public BloomFilterFactoryProvider(ConfigDatabase config) {
+        super(config);
+    }
+
+    @Override
+    public BloomFilterFactory get() {
+        Optional<Double> fpp = getConfig(FPP, Double.class);
+        if (!fpp.isPresent()) {
+            return new BloomFilterFactory();
+        }
+        if (fpp.get().doubleValue() <= 0) {
+            return null;
+        }
+        return new BloomFilterFactory(fpp.get().doubleValue());
+    }
+}
@@ -0,0 +1,181 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.Closeables;
+
+/**
+ * Coordinates the database instances, in this or other processes, that share the bloom filter
+ * sidecar file of an object database.
+ * <p>
+ * Only one instance at a time owns the filter: the one holding the lock on the first bytes of the
+ * lock file. The other instances don't use a filter, and instead count their writes in a stamp
+ * stored in the lock file, which is memory mapped so that the owner can check it on every lookup
+ * without a system call. The owner only trusts its filter to tell an object is missing while the
+ * stamp hasn't changed since the filter was loaded, and only writes the filter back if it still
+ * holds every object in the database.
+ * <p>
+ * The owner also publishes the stamp its filter was loaded at, so that the other instances only
+ * bump the stamp on the first write after that, instead of locking the file on every write.
+ * <p>
+ * The lock file layout is:
+ * <ul>
+ * <li>bytes 0 to 7: locked by the owner of the filter
+ * <li>bytes 8 to 15: the number of writes made by the instances that don't own the filter,
+ * updated while holding a lock on these bytes
+ * <li>bytes 16 to 23: the value of the write count when the sidecar file was last written
+ * <li>bytes 24 to 31: the value of the write count when the owner last loaded its filter
+ * </ul>
+ */
+class BloomFilterLock {
+
+    private static final int OWNER = 0;
+
+    private static final int STAMP = 8;
+
+    private static final int SIDECAR_STAMP = 16;
+
+    private static final int TRUSTED_STAMP = 24;
+
+    private static final int LENGTH = 32;
+
+    private final RandomAccessFile file;
+
+    private final MappedByteBuffer buffer;
+
+    private FileLock ownerLock;
+
+    private BloomFilterLock(final RandomAccessFile file, final MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens the lock file, creating it if needed, and tries to take ownership of the filter.
+     *
+     * @param lockFile the lock file
+     * @param takeOwnership whether to try to become the owner of the filter
+     */
+    public static BloomFilterLock open(final File lockFile, final boolean takeOwnership)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+        try {
+            // only ever grows, instances are never truncated
+            if (raf.length() < LENGTH) {
+                raf.setLength(LENGTH);
+            }
+            FileChannel channel = raf.getChannel();
+            BloomFilterLock lock = new BloomFilterLock(raf, channel.map(MapMode.READ_WRITE, 0,
+                    LENGTH));
+            if (takeOwnership) {
+                try {
+                    lock.ownerLock = channel.tryLock(OWNER, STAMP - OWNER, false);
+                } catch (OverlappingFileLockException e) {
+                    // owned by another instance in this process
+                }
+            }
+            return lock;
+        } catch (IOException e) {
+            Closeables.closeQuietly(raf);
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether this instance owns the filter
+     */
+    public boolean isOwner() {
+        return ownerLock != null;
+    }
+
+    /**
+     * @return the current number of writes made by the instances that don't own the filter
+     */
+    public long stamp() {
+        return buffer.getLong(STAMP);
+    }
+
+    /**
+     * Records a write made by an instance that doesn't own the filter. Shall be called after the
+     * objects are written, so that an owner reading the stamp before it changes builds its filter
+     * from storage that already holds them.
+     * <p>
+     * The stamp is only bumped if the owner still trusts its filter, that is if it hasn't changed
+     * since the owner {@link #setTrustedStamp(long) last loaded} it. Otherwise the owner already
+     * ignores its filter until it loads a new one, which it only does after publishing the stamp
+     * it's loaded at, so this write is either seen by that load or bumps the stamp again.
+     */
+    public void recordWrite() {
+        if (stamp() != buffer.getLong(TRUSTED_STAMP)) {
+            return;
+        }
+        // file locks are held by the process, so serialize the instances of this one first
+        synchronized (BloomFilterLock.class) {
+            FileLock lock = null;
+            try {
+                lock = file.getChannel().lock(STAMP, SIDECAR_STAMP - STAMP, false);
+                buffer.putLong(STAMP, buffer.getLong(STAMP) + 1);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    /**
+     * Publishes the write count the owner loads its filter at. Only called by the owner, before
+     * it reads the filter or lists the objects to build it.
+     */
+    public void setTrustedStamp(final long stamp) {
+        buffer.putLong(TRUSTED_STAMP, stamp);
+    }
+
+    /**
+     * @return the write count the sidecar file was written at
+     */
+    public long sidecarStamp() {
+        return buffer.getLong(SIDECAR_STAMP);
+    }
+
+    /**
+     * Records the write count the sidecar file was written at. Only called by the owner.
+     */
+    public void setSidecarStamp(final long stamp) {
+        buffer.putLong(SIDECAR_STAMP, stamp);
+    }
+
+    /**
+     * Releases the ownership of the filter, if held, and closes the lock file.
+     */
+    public void close() {
+        if (ownerLock != null) {
+            buffer.force();
+            release(ownerLock);
+            ownerLock = null;
+        }
+        Closeables.closeQuietly(file);
+    }
+
+    private static void release(final FileLock lock) {
+        if (lock != null) {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                // released when the file is closed anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import com.ning.compress.lzf.LZFChunk;
+import com.ning.compress.lzf.LZFOutputStream;
+
+/**
+ * Decodes the LZF chunk format written by {@link LZFOutputStream} straight out of a
+ * {@link ByteBuffer}, without going through an input stream.
+ * <p>
+ * The chunk format is a sequence of chunks, each one starting with the {@code 'Z','V'} signature
+ * and a block type byte, followed by either a two bytes length and the literal data for
+ * non-compressed chunks, or the two bytes compressed and uncompressed lengths and the LZF encoded
+ * data for compressed ones.
+ * <p>
+ * If the data is made of a single non-compressed chunk (as is usually the case for small objects)
+ * the returned buffer is a slice of the argument and nothing is copied at all.
+ */
+public final class ByteBufferLZFDecoder {
+
+    private static final int SIGNATURE_SIZE = 3;
+
+    private ByteBufferLZFDecoder() {
+        // utility class
+    }
+
+    /**
+     * Decodes the LZF chunks between the buffer's position and limit.
+     * <p>
+     * The argument buffer's position and limit are not modified.
+     *
+     * @param compressed the LZF encoded data
+     * @return a buffer containing the uncompressed data, positioned at zero
+     * @throws IllegalArgumentException if the buffer contents are not valid LZF chunks
+     */
+    public static ByteBuffer decode(final ByteBuffer compressed) throws IllegalArgumentException {
+        final ByteBuffer in = compressed.duplicate();
+        final int start = in.position();
+
+        // first pass over the chunk headers to figure out the uncompressed size
+        int uncompressedSize = 0;
+        int chunks = 0;
+        int lastType = -1;
+        int pos = start;
+        while (pos < in.limit()) {
+            final int type = checkSignature(in, pos);
+            final int length = uint16(in, pos + SIGNATURE_SIZE);
+            if (type == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) {
+                uncompressedSize += length;
+                pos += SIGNATURE_SIZE + 2 + length;
+            } else {
+                uncompressedSize += uint16(in, pos + SIGNATURE_SIZE + 2);
+                pos += SIGNATURE_SIZE + 4 + length;
+            }
+            lastType = type;
+            chunks++;
+        }
+        if (pos != in.limit()) {
+            throw new IllegalArgumentException("Truncated LZF data");
+        }
+
+        if (chunks == 1 && lastType == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) {
+            in.position(start + SIGNATURE_SIZE + 2);
+            return in.slice();
+        }
+
+        final byte[] out = new byte[uncompressedSize];
+        int outPos = 0;
+        pos = start;
+        while (pos < in.limit()) {
+            final int type = in.get(pos + 2);
+            final int length = uint16(in, pos + SIGNATURE_SIZE);
+            if (type == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) {
+                in.position(pos + SIGNATURE_SIZE + 2);
+                in.get(out, outPos, length);
+                outPos += length;
+                pos += SIGNATURE_SIZE + 2 + length;
+            } else {
+                final int uncompressedLength = uint16(in, pos + SIGNATURE_SIZE + 2);
+                in.position(pos + SIGNATURE_SIZE + 4);
+                decodeChunk(in, out, outPos, outPos + uncompressedLength);
+                outPos += uncompressedLength;
+                pos += SIGNATURE_SIZE + 4 + length;
+            }
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    /**
+     * Decodes a single LZF compressed chunk from the current position of {@code in}.
+     */
+    private static void decodeChunk(final ByteBuffer in, final byte[] out, int outPos,
+            final int outEnd) {
+        try {
+            while (outPos < outEnd) {
+                int ctrl = in.get() & 0xFF;
+                if (ctrl < LZFChunk.MAX_LITERAL) {
+                    // literal run of ctrl + 1 bytes
+                    final int length = ctrl + 1;
+                    in.get(out, outPos, length);
+                    outPos += length;
+                } else {
+                    // back reference
+                    int length = ctrl >> 5;
+                    int ref = outPos - ((ctrl & 0x1f) << 8) - 1;
+                    if (length == 7) {
+                        length += in.get() & 0xFF;
+                    }
+                    ref -= in.get() & 0xFF;
+                    length += 2;
+                    if (ref < 0) {
+                        throw new IllegalArgumentException(
+                                "Corrupt LZF data: invalid back reference");
+                    }
+                    // byte by byte since the source and target ranges may overlap
+                    for (int i = 0; i < length; i++) {
+                        out[outPos++] = out[ref++];
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Corrupt LZF data", e);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Corrupt LZF data", e);
+        }
+    }
+
+    private static int checkSignature(ByteBuffer in, int pos) {
+        if (pos + SIGNATURE_SIZE + 2 > in.limit() || in.get(pos) != LZFChunk.BYTE_Z
+                || in.get(pos + 1) != LZFChunk.BYTE_V) {
+            throw new IllegalArgumentException("Corrupt LZF data: missing chunk signature");
+        }
+        final int type = in.get(pos + 2);
+        if (type != LZFChunk.BLOCK_TYPE_NON_COMPRESSED && type != LZFChunk.BLOCK_TYPE_COMPRESSED) {
+            throw new IllegalArgumentException("Corrupt LZF data: unknown chunk type " + type);
+        }
+        return type;
+    }
+
+    private static int uint16(ByteBuffer in, int pos) {
+        return ((in.get(pos) & 0xFF) << 8) | (in.get(pos + 1) & 0xFF);
+    }
+}
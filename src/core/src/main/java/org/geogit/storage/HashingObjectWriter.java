@@ -0,0 +1,37 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.geogit.api.RevObject;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.api.plumbing.HashObjectFunnels;
+
+import com.google.common.hash.PrimitiveSink;
+
+/**
+ * An {@link ObjectWriter} that can compute the id of the object it writes in the same pass, for
+ * objects whose serialized form doesn't include their own id.
+ * <p>
+ * Used by {@link ObjectDatabase#hashAndPut(RevObject)} to avoid walking the object once to hash
+ * it and once more to serialize it. Writers that don't implement it are used along with
+ * {@link HashObject} instead.
+ */
+public interface HashingObjectWriter<T extends RevObject> extends ObjectWriter<T> {
+
+    /**
+     * Writes the object to the given output stream like {@link #write(RevObject, OutputStream)}
+     * does, feeding the hasher the exact same data {@link HashObject} would for it, through the
+     * {@link HashObjectFunnels} funnels.
+     *
+     * @param object the object to serialize, its id is not used
+     * @param out the stream to write to
+     * @param hasher the sink to feed the object contents to
+     * @throws IOException
+     */
+    public void write(T object, OutputStream out, PrimitiveSink hasher) throws IOException;
+}
@@ -8,8 +8,6 @@ package org.geogit.storage;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Map;
-import java.util.WeakHashMap;
 
 import org.geogit.api.Node;
 import org.geogit.api.ObjectId;
@@ -17,47 +15,134 @@ import org.geogit.api.RevTree;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Ordering;
 
 /**
- * Implements storage order of {@link Node} based on its {@link #pathHash(Node) hashed path}
+ * Implements storage order of {@link Node} based on its {@link #pathHash(String) hashed path}
+ * <p>
+ * Path hashes are compared byte by byte as signed values. Instances are thread safe: each thread
+ * hashes paths with its own digest, and the recently used path hashes are shared through a bounded
+ * concurrent cache. {@link Node}s keep the leading bytes of their own path hash, see
+ * {@link Node#getPathHashPrefix()}, so that {@link NodeStorageOrder} doesn't need to hash their
+ * names again.
  */
 public final class NodePathStorageOrder extends Ordering<String> {
 
-    private final MessageDigest hasher;
+    /**
+     * Number of leading path hash bytes held by a {@link #pathHashPrefix(String) path hash prefix}
+     */
+    public static final int PREFIX_BYTES = 8;
 
-    public NodePathStorageOrder() {
-        try {
-            hasher = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw Throwables.propagate(e);
+    private static final int CACHE_SIZE = 10 * 1000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final long SIGN_BITS = 0x8080808080808080L;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA1");
+            } catch (NoSuchAlgorithmException e) {
+                throw Throwables.propagate(e);
+            }
         }
-    }
+    };
+
+    private static final LoadingCache<String, ObjectId> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE).build(new CacheLoader<String, ObjectId>() {
+                @Override
+                public ObjectId load(final String path) {
+                    return hash(path);
+                }
+            });
 
     @Override
     public int compare(String p1, String p2) {
         ObjectId left = pathHash(p1);
         ObjectId right = pathHash(p2);
-        return left.compareTo(right);
+        return compareSigned(left, right);
     }
 
-    // private Cache<String, ObjectId> cache = CacheBuilder.newBuilder().maximumSize(1000).build();
-    private Map<String, ObjectId> cache = new WeakHashMap<String, ObjectId>();
+    /**
+     * Compares the hashes byte by byte as signed values, which is the order nodes are stored in,
+     * unlike {@link ObjectId#compareTo(ObjectId)}
+     */
+    private static int compareSigned(final ObjectId left, final ObjectId right) {
+        for (int i = 0; i < 20; i++) {
+            int c = (byte) left.byteN(i) - (byte) right.byteN(i);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
 
-    private ObjectId pathHash(final String path) {
-        ObjectId pathHash = cache.get(path);// .getIfPresent(path);
-        if (pathHash == null) {
-            hasher.reset();
-            hasher.update(path.getBytes(Charset.forName("UTF-8")));
-            pathHash = new ObjectId(hasher.digest());
-            cache.put(path, pathHash);
+    /**
+     * Compares two {@link #pathHashPrefix(String) path hash prefixes} in storage order.
+     *
+     * @return a negative, zero or positive integer as the first prefix sorts before, the same as
+     *         or after the second one; the paths need to be compared in full when the prefixes are
+     *         equal
+     */
+    public static int comparePrefixes(final long prefix1, final long prefix2) {
+        // flipping the sign bit of each byte makes the unsigned order the signed bytes order
+        final long left = (prefix1 ^ SIGN_BITS) + Long.MIN_VALUE;
+        final long right = (prefix2 ^ SIGN_BITS) + Long.MIN_VALUE;
+        return left < right ? -1 : (left == right ? 0 : 1);
+    }
+
+    /**
+     * @return the SHA-1 hash of the path, which determines its storage order and bucket
+     */
+    public ObjectId pathHash(final String path) {
+        return CACHE.getUnchecked(path);
+    }
+
+    /**
+     * @return the first {@link #PREFIX_BYTES} bytes of the path hash as a big endian long
+     */
+    public static long pathHashPrefix(final String path) {
+        ObjectId hash = CACHE.getIfPresent(path);
+        if (hash == null) {
+            hash = hash(path);
+        }
+        long prefix = 0;
+        for (int i = 0; i < PREFIX_BYTES; i++) {
+            prefix = (prefix << 8) | hash.byteN(i);
         }
-        return pathHash;
+        return prefix;
     }
 
-    public Integer bucket(final String path, final int depth) {
+    private static ObjectId hash(final String path) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        digest.update(path.getBytes(UTF8));
+        return new ObjectId(digest.digest());
+    }
 
+    public Integer bucket(final String path, final int depth) {
         final int byteN = pathHash(path).byteN(depth);// 0-255
+        return bucketOf(byteN);
+    }
+
+    /**
+     * Computes the bucket out of a {@link #pathHashPrefix(String) path hash prefix}, for depths
+     * lower than {@link #PREFIX_BYTES}.
+     *
+     * @see #bucket(String, int)
+     */
+    public static Integer bucket(final long pathHashPrefix, final int depth) {
+        Preconditions.checkElementIndex(depth, PREFIX_BYTES);
+        final int byteN = (int) (pathHashPrefix >>> (8 * (PREFIX_BYTES - 1 - depth))) & 0xFF;
+        return bucketOf(byteN);
+    }
+
+    private static Integer bucketOf(final int byteN) {
         final int maxBuckets = RevTree.BUCKET_SIZE;
 
         Preconditions.checkState(maxBuckets <= 256);
@@ -65,4 +150,4 @@ public final class NodePathStorageOrder extends Ordering<String> {
         int bucket = (byteN * maxBuckets) / 255;
         return Integer.valueOf(bucket);
     }
-}
\ No newline at end of file
+}
@@ -10,7 +10,10 @@ import org.geogit.api.Node;
 import com.google.common.collect.Ordering;
 
 /**
- * Implements storage order of {@link Node} based on its {@link #pathHash(Node) hashed path}
+ * Implements storage order of {@link Node} based on its {@link NodePathStorageOrder hashed path}
+ * <p>
+ * Uses the {@link Node#getPathHashPrefix() path hash prefix} nodes keep, hashing their names again
+ * only to break ties between the prefixes of different names.
  */
 public final class NodeStorageOrder extends Ordering<Node> {
 
@@ -18,13 +21,21 @@ public final class NodeStorageOrder extends Ordering<Node> {
 
     @Override
     public int compare(Node nr1, Node nr2) {
-        return pathOrder.compare(nr1.getName(), nr2.getName());
+        int c = NodePathStorageOrder.comparePrefixes(nr1.getPathHashPrefix(),
+                nr2.getPathHashPrefix());
+        if (c == 0 && !nr1.getName().equals(nr2.getName())) {
+            c = pathOrder.compare(nr1.getName(), nr2.getName());
+        }
+        return c;
     }
 
     /**
      * @see NodePathStorageOrder#bucket(String, int)
      */
     public Integer bucket(final Node ref, final int depth) {
+        if (depth < NodePathStorageOrder.PREFIX_BYTES) {
+            return NodePathStorageOrder.bucket(ref.getPathHashPrefix(), depth);
+        }
         return pathOrder.bucket(ref.getName(), depth);
     }
-}
\ No newline at end of file
+}
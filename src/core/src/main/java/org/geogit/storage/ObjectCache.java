@@ -0,0 +1,311 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTag;
+import org.geogit.api.RevTree;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A cache of decoded {@link RevObject}s, shared by the object databases of a repository.
+ * <p>
+ * Objects are weighted by their estimated heap size, and each kind of object has its own budget
+ * so that, for example, a burst of feature reads doesn't evict the trees being traversed:
+ * <ul>
+ * <li>{@link TYPE#TREE trees}
+ * <li>{@link TYPE#COMMIT commits} and {@link TYPE#TAG tags}
+ * <li>{@link TYPE#FEATURETYPE feature types}
+ * <li>{@link TYPE#FEATURE features}
+ * </ul>
+ * Objects are immutable and addressed by content, so a cached object stays valid for as long as
+ * its id is in use, no matter which database it was read from.
+ * <p>
+ * Hit, miss and eviction counters are kept per object type and can be queried through
+ * {@link #stats()} and {@link #stats(TYPE)}.
+ *
+ * @see ObjectCacheProvider
+ */
+public class ObjectCache {
+
+    public static final long DEFAULT_TREES_SIZE = 64L * 1024 * 1024;
+
+    public static final long DEFAULT_COMMITS_SIZE = 8L * 1024 * 1024;
+
+    public static final long DEFAULT_FEATURETYPES_SIZE = 4L * 1024 * 1024;
+
+    public static final long DEFAULT_FEATURES_SIZE = 32L * 1024 * 1024;
+
+    /**
+     * Estimated heap size of an {@link ObjectId} and its byte array
+     */
+    private static final int OBJECT_ID_SIZE = 56;
+
+    private static final TYPE[] LOOKUP_ORDER = { TYPE.TREE, TYPE.FEATURE, TYPE.COMMIT,
+            TYPE.FEATURETYPE };
+
+    private final Map<TYPE, Cache<ObjectId, RevObject>> caches;
+
+    private final AtomicLongArray hits = new AtomicLongArray(TYPE.values().length);
+
+    private final AtomicLongArray misses = new AtomicLongArray(TYPE.values().length);
+
+    private final AtomicLongArray evictions = new AtomicLongArray(TYPE.values().length);
+
+    /**
+     * Misses for look ups that didn't state the object type
+     */
+    private final AtomicLong untypedMisses = new AtomicLong();
+
+    /**
+     * Creates a cache with the default sizes.
+     */
+    public ObjectCache() {
+        this(DEFAULT_TREES_SIZE, DEFAULT_COMMITS_SIZE, DEFAULT_FEATURETYPES_SIZE,
+                DEFAULT_FEATURES_SIZE);
+    }
+
+    /**
+     * Creates a cache with the given budgets, in bytes, for each kind of object. A zero budget
+     * disables caching for that kind of object.
+     */
+    public ObjectCache(long treesSize, long commitsSize, long featureTypesSize, long featuresSize) {
+        checkArgument(treesSize >= 0 && commitsSize >= 0 && featureTypesSize >= 0
+                && featuresSize >= 0, "cache sizes can't be negative");
+        caches = new EnumMap<TYPE, Cache<ObjectId, RevObject>>(TYPE.class);
+        caches.put(TYPE.TREE, build(treesSize));
+        Cache<ObjectId, RevObject> commits = build(commitsSize);
+        caches.put(TYPE.COMMIT, commits);
+        caches.put(TYPE.TAG, commits);
+        caches.put(TYPE.FEATURETYPE, build(featureTypesSize));
+        caches.put(TYPE.FEATURE, build(featuresSize));
+    }
+
+    private Cache<ObjectId, RevObject> build(final long maxWeight) {
+        return CacheBuilder.newBuilder().maximumWeight(maxWeight).weigher(new SizeWeigher())
+                .removalListener(new EvictionCounter()).build();
+    }
+
+    /**
+     * Looks up an object of unknown type.
+     *
+     * @return the cached object, or {@code null} if not cached
+     */
+    @Nullable
+    public RevObject getIfPresent(final ObjectId id) {
+        checkNotNull(id);
+        for (TYPE type : LOOKUP_ORDER) {
+            // go through the map view to not count misses on the caches for other types
+            RevObject object = caches.get(type).asMap().get(id);
+            if (object != null) {
+                hits.incrementAndGet(object.getType().ordinal());
+                return object;
+            }
+        }
+        untypedMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Looks up an object of the given type.
+     *
+     * @return the cached object, or {@code null} if not cached
+     */
+    @Nullable
+    public <T extends RevObject> T getIfPresent(final ObjectId id, final Class<T> type) {
+        checkNotNull(id);
+        final TYPE objectType = TYPE.valueOf(type);
+        RevObject object = caches.get(objectType).asMap().get(id);
+        if (object == null || !type.isInstance(object)) {
+            misses.incrementAndGet(objectType.ordinal());
+            return null;
+        }
+        hits.incrementAndGet(objectType.ordinal());
+        return type.cast(object);
+    }
+
+    public void put(final RevObject object) {
+        checkNotNull(object);
+        caches.get(object.getType()).put(object.getId(), object);
+    }
+
+    public void invalidate(final ObjectId id) {
+        for (TYPE type : LOOKUP_ORDER) {
+            caches.get(type).invalidate(id);
+        }
+    }
+
+    public void invalidateAll() {
+        for (TYPE type : LOOKUP_ORDER) {
+            caches.get(type).invalidateAll();
+        }
+    }
+
+    /**
+     * @return the number of objects currently cached
+     */
+    public long size() {
+        long size = 0;
+        for (TYPE type : LOOKUP_ORDER) {
+            size += caches.get(type).size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the hit, miss and eviction counts for all the object types, including misses for
+     *         look ups that didn't state the object type
+     */
+    public CacheStats stats() {
+        CacheStats stats = new CacheStats(0, untypedMisses.get(), 0, 0, 0, 0);
+        for (TYPE type : TYPE.values()) {
+            stats = stats.plus(stats(type));
+        }
+        return stats;
+    }
+
+    /**
+     * @return the hit, miss and eviction counts for the given object type
+     */
+    public CacheStats stats(final TYPE type) {
+        final int i = type.ordinal();
+        return new CacheStats(hits.get(i), misses.get(i), 0, 0, 0, evictions.get(i));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(getClass().getSimpleName()).append('[');
+        for (TYPE type : TYPE.values()) {
+            CacheStats stats = stats(type);
+            sb.append(type).append(": hits=").append(stats.hitCount()).append(", misses=")
+                    .append(stats.missCount()).append(", evictions=")
+                    .append(stats.evictionCount()).append("; ");
+        }
+        return sb.append("size=").append(size()).append(']').toString();
+    }
+
+    private class EvictionCounter implements RemovalListener<ObjectId, RevObject> {
+        @Override
+        public void onRemoval(RemovalNotification<ObjectId, RevObject> notification) {
+            RevObject object = notification.getValue();
+            if (notification.wasEvicted() && object != null) {
+                evictions.incrementAndGet(object.getType().ordinal());
+            }
+        }
+    }
+
+    private static class SizeWeigher implements Weigher<ObjectId, RevObject> {
+        @Override
+        public int weigh(ObjectId key, RevObject value) {
+            return sizeOf(value);
+        }
+    }
+
+    /**
+     * Estimates the heap size of a decoded object, in bytes.
+     * <p>
+     * This is a rough estimate meant to weigh objects against each other, not an exact
+     * measurement.
+     */
+    public static int sizeOf(final RevObject object) {
+        switch (object.getType()) {
+        case TREE:
+            return sizeOf((RevTree) object);
+        case FEATURE:
+            return sizeOf((RevFeature) object);
+        case COMMIT:
+            RevCommit commit = (RevCommit) object;
+            return 256 + OBJECT_ID_SIZE * (2 + commit.getParentIds().size())
+                    + sizeOf(commit.getMessage());
+        case TAG:
+            return 64 + OBJECT_ID_SIZE * 2 + sizeOf(((RevTag) object).getName());
+        case FEATURETYPE:
+            return 1024 + 256 * ((RevFeatureType) object).sortedDescriptors().size();
+        default:
+            throw new IllegalArgumentException("Unknown object type: " + object.getType());
+        }
+    }
+
+    private static int sizeOf(final RevTree tree) {
+        int size = 64 + OBJECT_ID_SIZE;
+        size += sizeOf(tree.trees());
+        size += sizeOf(tree.features());
+        Optional<ImmutableSortedMap<Integer, ObjectId>> buckets = tree.buckets();
+        if (buckets.isPresent()) {
+            size += 64 + buckets.get().size() * (48 + OBJECT_ID_SIZE);
+            size += 48 * tree.bucketBounds().size();
+        }
+        return size;
+    }
+
+    private static int sizeOf(final Optional<ImmutableList<Node>> nodes) {
+        if (!nodes.isPresent()) {
+            return 0;
+        }
+        int size = 32 + 8 * nodes.get().size();
+        for (Node node : nodes.get()) {
+            size += 40 + OBJECT_ID_SIZE + sizeOf(node.getName());
+            if (node.getMetadataId().isPresent()) {
+                size += OBJECT_ID_SIZE;
+            }
+        }
+        return size;
+    }
+
+    private static int sizeOf(final RevFeature feature) {
+        ImmutableList<Optional<Object>> values = feature.getValues();
+        int size = 48 + OBJECT_ID_SIZE + 24 * values.size();
+        for (Optional<Object> value : values) {
+            if (value.isPresent()) {
+                size += sizeOfValue(value.get());
+            }
+        }
+        return size;
+    }
+
+    private static int sizeOfValue(final Object value) {
+        if (value instanceof Geometry) {
+            // envelope, factory reference and a 40 bytes Coordinate per point
+            return 96 + 40 * ((Geometry) value).getNumPoints();
+        }
+        if (value instanceof String) {
+            return sizeOf((String) value);
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        return 24;
+    }
+
+    private static int sizeOf(@Nullable final String s) {
+        return s == null ? 0 : 40 + 2 * s.length();
+    }
+}
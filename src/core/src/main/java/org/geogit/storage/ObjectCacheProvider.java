@@ -0,0 +1,51 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Creates the repository {@link ObjectCache}, sized after the following repository config keys,
+ * in megabytes:
+ * <ul>
+ * <li>{@code cache.trees}
+ * <li>{@code cache.commits}
+ * <li>{@code cache.featuretypes}
+ * <li>{@code cache.features}
+ * </ul>
+ * Keys not set, or a repository with no config yet, get the {@link ObjectCache} defaults.
+ */
+public class ObjectCacheProvider extends AbstractConfiguredProvider<ObjectCache> {
+
+    public static final String TREES_SIZE = "cache.trees";
+
+    public static final String COMMITS_SIZE = "cache.commits";
+
+    public static final String FEATURETYPES_SIZE = "cache.featuretypes";
+
+    public static final String FEATURES_SIZE = "cache.features";
+
+    private static final long MB = 1024 * 1024;
+
+    @Inject
+    public ObjectCacheProvider(ConfigDatabase config) {
+        super(config);
+    }
+
+    @Override
+    public ObjectCache get() {
+        final long trees = size(TREES_SIZE, ObjectCache.DEFAULT_TREES_SIZE);
+        final long commits = size(COMMITS_SIZE, ObjectCache.DEFAULT_COMMITS_SIZE);
+        final long featureTypes = size(FEATURETYPES_SIZE, ObjectCache.DEFAULT_FEATURETYPES_SIZE);
+        final long features = size(FEATURES_SIZE, ObjectCache.DEFAULT_FEATURES_SIZE);
+        return new ObjectCache(trees, commits, featureTypes, features);
+    }
+
+    private long size(final String key, final long defaultSize) {
+        Optional<Long> megabytes = getConfig(key, Long.class);
+        return megabytes.isPresent() ? megabytes.get().longValue() * MB : defaultSize;
+    }
+}
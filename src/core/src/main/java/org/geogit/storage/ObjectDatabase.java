@@ -5,7 +5,13 @@
 package org.geogit.storage;
 
 import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
@@ -36,6 +42,30 @@ public interface ObjectDatabase {
      */
     public void close();
 
+    /**
+     * Starts a bulk load session, letting the database trade durability for write throughput
+     * until {@link #endBulkLoad()} is called. Sessions may be nested, only the outermost one
+     * takes effect.
+     * <p>
+     * Objects written during the session are only guaranteed to be durable once it ends, so
+     * callers shall end it in a {@code finally} block. The session shall not be started or ended
+     * while other threads are using the database.
+     */
+    public void beginBulkLoad();
+
+    /**
+     * Ends a bulk load session started with {@link #beginBulkLoad()}, making all the objects
+     * written during it durable.
+     */
+    public void endBulkLoad();
+
+    /**
+     * Rebuilds the bloom filter the database uses to answer {@link #exists(ObjectId)} for missing
+     * objects without going to the storage, if it has one. Shall not be called while other
+     * threads are writing to the database.
+     */
+    public void rebuildBloomFilter();
+
     /**
      * Determines if the given {@link ObjectId} exists in the object database.
      * 
@@ -44,6 +74,15 @@ public interface ObjectDatabase {
      */
     public boolean exists(final ObjectId id);
 
+    /**
+     * Determines which of the given {@link ObjectId}s exist in the object database, in as few
+     * round trips to the storage as possible.
+     * 
+     * @param ids the ids to search for
+     * @return the subset of {@code ids} that exist in the database
+     */
+    public Set<ObjectId> existsAll(Iterable<ObjectId> ids);
+
     /**
      * Gets the raw input stream of the object with the given {@link ObjectId id}.
      * 
@@ -52,6 +91,19 @@ public interface ObjectDatabase {
      */
     public InputStream getRaw(final ObjectId id);
 
+    /**
+     * Gets the object with the given {@link ObjectId id} in the compressed form it is stored in,
+     * as accepted by {@link #putRawCompressed(ObjectId, byte[])}.
+     * <p>
+     * This allows moving objects between databases as opaque blobs, without decompressing and
+     * compressing them again, as long as both databases use the same serialization format.
+     * 
+     * @param id the id of the object to get
+     * @return the stored object data
+     * @throws IllegalArgumentException if the object doesn't exist
+     */
+    public byte[] getRawCompressed(final ObjectId id) throws IllegalArgumentException;
+
     /**
      * Searches the database for {@link ObjectId}s that match the given partial id.
      * 
@@ -67,6 +119,18 @@ public interface ObjectDatabase {
 
     public <T extends RevObject> T get(ObjectId id, Class<T> type);
 
+    /**
+     * Reads all the objects with the given ids out of the database, in as few round trips to the
+     * storage as possible.
+     * <p>
+     * The objects are returned in no particular order, and ids of objects that don't exist in the
+     * database are ignored. The ids may be consumed lazily as the returned iterator is traversed.
+     * 
+     * @param ids the ids of the objects to read
+     * @return an iterator over the objects found
+     */
+    public Iterator<RevObject> getAll(Iterable<ObjectId> ids);
+
     /**
      * Shortcut for {@link #get(ObjectId, Class)) get(id, RevTree.class)}
      */
@@ -77,6 +141,19 @@ public interface ObjectDatabase {
      */
     public RevFeature getFeature(ObjectId id);
 
+    /**
+     * Reads a feature with the given {@link ObjectReader reader hints}, for example
+     * {@link ObjectReader#ATTRIBUTE_INDEXES} to decode only the values the caller needs. Hints are
+     * only advice: serialisation formats that can't decode values separately, like the Hessian
+     * one, ignore them and decode the whole feature. A feature found in the object cache is
+     * returned as is, and features read this way are not cached.
+     * 
+     * @param id the id of the feature
+     * @param hints the feature reader hints, may be {@code null}
+     * @return the feature
+     */
+    public RevFeature getFeature(ObjectId id, @Nullable Map<String, Serializable> hints);
+
     /**
      * Shortcut for {@link #get(ObjectId, Class)) get(id, RevFeatureType.class)}
      */
@@ -101,6 +178,38 @@ public interface ObjectDatabase {
      */
     public <T extends RevObject> boolean put(final T object);
 
+    /**
+     * Computes the id of an object that doesn't have one yet and adds it to the database if it
+     * doesn't exist already, hashing and serializing it in a single pass when the serialization
+     * format {@link HashingObjectWriter allows it}.
+     * <p>
+     * Only features and trees are supported, as they are the objects built in large amounts and
+     * whose serialized form doesn't depend on their id.
+     * 
+     * @param unnamed a feature or tree with any id, usually {@link ObjectId#NULL}
+     * @return an object equal to {@code unnamed} but for its id, which is the one
+     *         {@link org.geogit.api.plumbing.HashObject} computes for it
+     */
+    public <T extends RevObject> T hashAndPut(final T unnamed);
+
+    /**
+     * Adds all the given objects to the database, skipping the ones that already exist.
+     * 
+     * @param objects the objects to insert, key'ed by their {@link RevObject#getId() ids}
+     * @return the number of objects actually inserted
+     */
+    public int putAll(Iterator<? extends RevObject> objects);
+
+    /**
+     * Stores the object in the database serialization format whether it already exists or not,
+     * replacing its current stored form. Implementations shall replace it atomically where the
+     * storage allows it, so that the object is never missing.
+     * 
+     * @param object the object to store, key'ed by its {@link RevObject#getId() id}
+     * @return true if the object did not exist before, false if it was replaced
+     */
+    public <T extends RevObject> boolean rewrite(final T object);
+
     /**
      * @return a newly constructed {@link ObjectInserter} for this database
      */
@@ -121,4 +230,26 @@ public interface ObjectDatabase {
      */
     public boolean put(ObjectId objectId, InputStream raw);
 
+    /**
+     * Adds an object in the compressed form returned by {@link #getRawCompressed(ObjectId)},
+     * unless an object with the same id already exists.
+     * 
+     * @param objectId the id of the object
+     * @param compressed the stored object data, as returned by {@code getRawCompressed}
+     * @return true if the object was inserted, false otherwise
+     */
+    public boolean putRawCompressed(ObjectId objectId, byte[] compressed);
+
+    /**
+     * Adds all the given objects in the compressed form returned by
+     * {@link #getRawCompressed(ObjectId)}, skipping the ones that already exist.
+     * <p>
+     * Implementations shall apply the whole batch at once where the storage allows it, for
+     * example in a single transaction.
+     * 
+     * @param objects the stored object data, keyed by object id
+     * @return the number of objects actually inserted
+     */
+    public int putAllRawCompressed(Map<ObjectId, byte[]> objects);
+
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.geogit.api.ObjectId;
+
+/**
+ * A Bloom filter over {@link ObjectId}s, used by the object databases to answer
+ * {@link ObjectDatabase#exists(ObjectId) exists} for missing objects without going to disk.
+ * <p>
+ * Object ids are SHA-1 hashes already, so the bit indexes are derived straight from their bytes
+ * through double hashing instead of hashing them again.
+ * <p>
+ * The filter is thread safe. Ids can't be removed, so deleted objects remain as false positives
+ * until the filter is rebuilt.
+ *
+ * @see AbstractObjectDatabase#rebuildBloomFilter()
+ */
+public class ObjectIdBloomFilter {
+
+    private static final int MAGIC = 0x47474246;
+
+    private static final int VERSION = 1;
+
+    private final AtomicLongArray bits;
+
+    private final long numBits;
+
+    private final int numHashes;
+
+    private final long expectedInsertions;
+
+    private final double fpp;
+
+    private final AtomicLong count;
+
+    private ObjectIdBloomFilter(long[] words, int numHashes, long expectedInsertions,
+            double fpp, long count) {
+        this.bits = new AtomicLongArray(words);
+        this.numBits = 64L * words.length;
+        this.numHashes = numHashes;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.count = new AtomicLong(count);
+    }
+
+    /**
+     * @param expectedInsertions the number of ids the filter is sized for
+     * @param fpp the false positive probability once {@code expectedInsertions} ids are added
+     */
+    public static ObjectIdBloomFilter create(long expectedInsertions, double fpp) {
+        checkArgument(expectedInsertions >= 0, "expectedInsertions can't be negative");
+        checkArgument(fpp > 0 && fpp < 1, "fpp shall be between 0 and 1");
+        final long n = Math.max(1, expectedInsertions);
+        final long optimalBits = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        final long words = Math.max(1, (optimalBits + 63) / 64);
+        checkArgument(words <= Integer.MAX_VALUE, "too many expected insertions");
+        final int numHashes = Math.max(1, (int) Math.round(64.0 * words / n * Math.log(2)));
+        return new ObjectIdBloomFilter(new long[(int) words], numHashes, expectedInsertions, fpp,
+                0);
+    }
+
+    /**
+     * @return {@code false} if the id was definitely never added, {@code true} if it might have
+     *         been
+     */
+    public boolean mightContain(final ObjectId id) {
+        final long h1 = hash1(id);
+        final long h2 = hash2(id);
+        for (int i = 0; i < numHashes; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the id to the filter.
+     *
+     * @return {@code true} if the filter changed, meaning the id was definitely not added before
+     */
+    public boolean put(final ObjectId id) {
+        final long h1 = hash1(id);
+        final long h2 = hash2(id);
+        boolean changed = false;
+        for (int i = 0; i < numHashes; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            final int word = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            long current;
+            while (((current = bits.get(word)) & mask) == 0) {
+                if (bits.compareAndSet(word, current, current | mask)) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        if (changed) {
+            count.incrementAndGet();
+        }
+        return changed;
+    }
+
+    private static long hash1(final ObjectId id) {
+        return longAt(id, 0);
+    }
+
+    private static long hash2(final ObjectId id) {
+        // odd, so that it never collapses all the probes onto the same bit
+        return longAt(id, 8) | 1;
+    }
+
+    private static long longAt(final ObjectId id, final int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | id.byteN(i);
+        }
+        return value;
+    }
+
+    /**
+     * @return the number of ids added so far, not counting the ones the filter already thought
+     *         present
+     */
+    public long approximateCount() {
+        return count.get();
+    }
+
+    public long expectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double fpp() {
+        return fpp;
+    }
+
+    /**
+     * @return whether more ids than the filter was sized for were added, and hence its false
+     *         positive probability is higher than requested
+     */
+    public boolean isSaturated() {
+        return count.get() > expectedInsertions;
+    }
+
+    public void writeTo(final OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(expectedInsertions);
+        data.writeDouble(fpp);
+        data.writeLong(count.get());
+        data.writeInt(numHashes);
+        final int words = bits.length();
+        data.writeInt(words);
+        for (int i = 0; i < words; i++) {
+            data.writeLong(bits.get(i));
+        }
+        data.flush();
+    }
+
+    /**
+     * @throws IOException if the stream doesn't hold a filter written by {@link #writeTo}
+     */
+    public static ObjectIdBloomFilter readFrom(final InputStream in) throws IOException {
+        checkNotNull(in);
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not an object id bloom filter");
+        }
+        final long expectedInsertions = data.readLong();
+        final double fpp = data.readDouble();
+        final long count = data.readLong();
+        final int numHashes = data.readInt();
+        final int words = data.readInt();
+        if (numHashes < 1 || words < 1) {
+            throw new IOException("Corrupt object id bloom filter");
+        }
+        long[] bits = new long[words];
+        for (int i = 0; i < words; i++) {
+            bits[i] = data.readLong();
+        }
+        return new ObjectIdBloomFilter(bits, numHashes, expectedInsertions, fpp, count);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[ids=%d, expected=%d, fpp=%s, bits=%d, hashes=%d]", getClass()
+                .getSimpleName(), approximateCount(), expectedInsertions, fpp, numBits, numHashes);
+    }
+}
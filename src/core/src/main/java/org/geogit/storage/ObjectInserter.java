@@ -4,34 +4,194 @@
  */
 package org.geogit.storage;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject;
 
+import com.google.common.collect.Maps;
+
 /**
  * Encapsulates a transaction.
  * <p>
  * Use the same ObjectInserter for a single transaction
  * </p>
- * 
+ * <p>
+ * Objects are serialized as they're inserted and buffered until the batch reaches the maximum
+ * number of objects or bytes, at which point the whole batch is handed to the database through
+ * {@link ObjectDatabase#putAllRawCompressed(Map)}, which applies it in a single transaction or
+ * pack append where the storage allows it. Inserting the same object twice in a batch only
+ * serializes and stores it once.
+ * <p>
+ * Call {@link #commit()} to write the last batch, or {@link #abort()} to discard it. Objects are
+ * addressed by content, so the batches already written on abort are left in place: nothing
+ * references them, but they're valid objects.
+ *
  */
 public class ObjectInserter {
 
+    public static final int DEFAULT_MAX_OBJECTS = 1000;
+
+    public static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
     private ObjectDatabase objectDb;
 
-    // TODO: transaction management
+    private ObjectSerialisingFactory serialFactory;
+
+    private final int maxObjects;
+
+    private final int maxBytes;
+
+    private Map<ObjectId, byte[]> batch = Maps.newLinkedHashMap();
+
+    private int batchBytes;
+
+    private int inserted;
+
+    private boolean finished;
+
     /**
-     * Constructs a new {@code ObjectInserter} with the given {@link ObjectDatabase}.
-     * 
+     * Constructs a new {@code ObjectInserter} with the given {@link ObjectDatabase} and the
+     * default batch limits.
+     *
      * @param objectDatabase the database to insert to
+     * @param serialFactory the serialization format of the database
      */
-    public ObjectInserter(ObjectDatabase objectDatabase) {
-        objectDb = objectDatabase;
+    public ObjectInserter(ObjectDatabase objectDatabase, ObjectSerialisingFactory serialFactory) {
+        this(objectDatabase, serialFactory, DEFAULT_MAX_OBJECTS, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param objectDatabase the database to insert to
+     * @param serialFactory the serialization format of the database
+     * @param maxObjects the number of objects that triggers writing the batch
+     * @param maxBytes the compressed size of the batch that triggers writing it
+     */
+    public ObjectInserter(ObjectDatabase objectDatabase, ObjectSerialisingFactory serialFactory,
+            int maxObjects, int maxBytes) {
+        checkNotNull(objectDatabase);
+        checkNotNull(serialFactory);
+        checkArgument(maxObjects > 0, "maxObjects shall be a positive number");
+        checkArgument(maxBytes > 0, "maxBytes shall be a positive number");
+        this.objectDb = objectDatabase;
+        this.serialFactory = serialFactory;
+        this.maxObjects = maxObjects;
+        this.maxBytes = maxBytes;
     }
 
     /**
      * @param object
      */
     public void insert(RevObject object) {
-        objectDb.put(object);
+        checkNotNull(object);
+        if (!batch.containsKey(object.getId())) {
+            add(object.getId(), AbstractObjectDatabase.serialize(serialFactory, object));
+        }
+    }
+
+    /**
+     * Computes the id of a feature or tree while serializing it, and inserts it.
+     *
+     * @param unnamed the object, with a {@link ObjectId#NULL NULL} id
+     * @return the object with its id
+     * @see ObjectDatabase#hashAndPut(RevObject)
+     */
+    public <T extends RevObject> T hashAndInsert(T unnamed) {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        ObjectId id = AbstractObjectDatabase.hashAndSerialize(serialFactory, unnamed, rawOut);
+        if (!batch.containsKey(id)) {
+            add(id, rawOut.toByteArray());
+        }
+        return AbstractObjectDatabase.named(unnamed, id);
+    }
+
+    /**
+     * Inserts all the given objects.
+     *
+     * @param objects the objects to insert
+     */
+    public void insertAll(Iterator<? extends RevObject> objects) {
+        while (objects.hasNext()) {
+            insert(objects.next());
+        }
+    }
+
+    /**
+     * Inserts an object in its stored, compressed form.
+     *
+     * @param id the id of the object
+     * @param compressed the object data as returned by {@link ObjectDatabase#getRawCompressed}
+     * @see ObjectDatabase#putRawCompressed(ObjectId, byte[])
+     */
+    public void insertRawCompressed(ObjectId id, byte[] compressed) {
+        checkNotNull(id);
+        checkNotNull(compressed);
+        if (!batch.containsKey(id)) {
+            add(id, compressed);
+        }
+    }
+
+    private void add(ObjectId id, byte[] compressed) {
+        checkState(!finished, "ObjectInserter already committed or aborted");
+        batch.put(id, compressed);
+        batchBytes += compressed.length;
+        if (batch.size() >= maxObjects || batchBytes >= maxBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the current batch to the database.
+     */
+    public void flush() {
+        checkState(!finished, "ObjectInserter already committed or aborted");
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<ObjectId, byte[]> objects = batch;
+        batch = Maps.newLinkedHashMap();
+        batchBytes = 0;
+        inserted += objectDb.putAllRawCompressed(objects);
+    }
+
+    /**
+     * Writes the pending objects and ends this inserter.
+     *
+     * @return the number of objects actually inserted by this inserter, not counting the ones
+     *         that already existed in the database
+     */
+    public int commit() {
+        flush();
+        finished = true;
+        return inserted;
     }
 
+    /**
+     * Discards the objects not written yet and ends this inserter.
+     */
+    public void abort() {
+        batch.clear();
+        batchBytes = 0;
+        finished = true;
+    }
+
+    /**
+     * @return whether the object is in the batch waiting to be written
+     */
+    public boolean isPending(ObjectId id) {
+        return batch.containsKey(id);
+    }
+
+    /**
+     * @return the number of objects waiting to be written
+     */
+    public int pending() {
+        return batch.size();
+    }
 }
@@ -5,6 +5,7 @@
 package org.geogit.storage;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import org.geogit.api.ObjectId;
 
@@ -27,6 +28,14 @@ public interface ObjectReader<T> {
      */
     public static final String USE_PROVIDED_FID = "USE_PROVIDED_FID";
 
+    /**
+     * Hint of type {@code int[]}, the indexes of the feature values to decode right away, in
+     * {@link org.geogit.api.RevFeatureType#sortedDescriptors() sorted descriptors} order. Feature
+     * readers that support it decode the other values on first access only, the ones that don't
+     * decode all of them.
+     */
+    public static final String ATTRIBUTE_INDEXES = "ATTRIBUTE_INDEXES";
+
     /**
      * Reads an object from the given input stream and assigns it the provided {@link ObjectId id}.
      * 
@@ -38,4 +47,17 @@ public interface ObjectReader<T> {
      */
     public T read(ObjectId id, InputStream rawData) throws IllegalArgumentException;
 
+    /**
+     * Reads an object from the given buffer, from its position up to its limit, and assigns it the
+     * provided {@link ObjectId id}. Implementations shall read straight from the buffer without
+     * copying its contents.
+     * 
+     * @param id the id to use for the object
+     * @param rawData the uncompressed serialized form of the object
+     * @return the final object
+     * @throws IllegalArgumentException if the provided buffer does not represents an object of the
+     *         required type
+     */
+    public T read(ObjectId id, ByteBuffer rawData) throws IllegalArgumentException;
+
 }
@@ -0,0 +1,56 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.hessian.HessianFactory;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Creates the repository {@link ObjectSerialisingFactory}, as set by the
+ * {@code storage.serialization} repository config key: {@value #HESSIAN}, the default, or
+ * {@value #DATASTREAM}.
+ * <p>
+ * The data stream readers also read the objects written in the Hessian format, so an existing
+ * repository can be switched to it at any time, and its objects then rewritten through
+ * {@link org.geogit.api.plumbing.RewriteObjects}. Switching back requires rewriting the objects
+ * first.
+ */
+public class ObjectSerialisingFactoryProvider extends
+        AbstractConfiguredProvider<ObjectSerialisingFactory> {
+
+    public static final String SERIALIZATION = "storage.serialization";
+
+    public static final String HESSIAN = "hessian";
+
+    public static final String DATASTREAM = "datastream";
+
+    @Inject
+    public ObjectSerialisingFactoryProvider(ConfigDatabase config) {
+        super(config);
+    }
+
+    @Override
+    public ObjectSerialisingFactory get() {
+        Optional<String> format = getConfig(SERIALIZATION, String.class);
+        return create(format.or(HESSIAN));
+    }
+
+    /**
+     * @param format one of {@value #HESSIAN} or {@value #DATASTREAM}
+     */
+    public static ObjectSerialisingFactory create(final String format) {
+        if (HESSIAN.equals(format)) {
+            return new HessianFactory();
+        }
+        if (DATASTREAM.equals(format)) {
+            return new DataStreamSerializationFactory();
+        }
+        throw new IllegalArgumentException("Unknown " + SERIALIZATION + " value: " + format
+                + ". Expected one of " + HESSIAN + ", " + DATASTREAM);
+    }
+}
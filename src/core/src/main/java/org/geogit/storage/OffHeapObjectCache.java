@@ -0,0 +1,261 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+
+/**
+ * A second level object cache holding the stored (LZF compressed) form of objects outside of the
+ * Java heap, so that caching them adds no garbage collection cost.
+ * <p>
+ * Objects are appended to fixed size slabs of direct memory. When all the slabs are full, a whole
+ * slab is reclaimed following the CLOCK algorithm: slabs that had a hit since the clock hand last
+ * went over them get a second chance, and the first one that didn't is emptied and reused.
+ * <p>
+ * Reads copy the object out of its slab, so a slab can be reclaimed while the data read from it
+ * is still in use.
+ *
+ * @see ObjectCache
+ * @see AbstractObjectDatabase#setOffHeapCache(OffHeapObjectCache)
+ */
+public class OffHeapObjectCache {
+
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    private static final class Slab {
+
+        final ByteBuffer buffer;
+
+        final List<ObjectId> ids = new ArrayList<ObjectId>();
+
+        int used;
+
+        volatile int generation;
+
+        volatile boolean referenced;
+
+        Slab(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    private static final class Entry {
+
+        final Slab slab;
+
+        final int generation;
+
+        final int offset;
+
+        final int length;
+
+        Entry(Slab slab, int offset, int length) {
+            this.slab = slab;
+            this.generation = slab.generation;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final int slabSize;
+
+    /**
+     * Allocated lazily. Guarded by {@code this}
+     */
+    private final Slab[] slabs;
+
+    /**
+     * Index of the slab being appended to. Guarded by {@code this}
+     */
+    private int current = -1;
+
+    /**
+     * Guarded by {@code this}
+     */
+    private int clockHand;
+
+    private final ConcurrentMap<ObjectId, Entry> index = new ConcurrentHashMap<ObjectId, Entry>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong residentBytes = new AtomicLong();
+
+    /**
+     * @param capacity maximum number of bytes of direct memory to use
+     */
+    public OffHeapObjectCache(long capacity) {
+        this(capacity, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param capacity maximum number of bytes of direct memory to use
+     * @param slabSize the size of each slab, which is also the size of the largest object that
+     *        can be cached. Reduced to half the capacity if needed, so there are at least two
+     *        slabs.
+     */
+    public OffHeapObjectCache(long capacity, int slabSize) {
+        checkArgument(capacity > 1, "capacity shall be a positive number");
+        checkArgument(slabSize > 0, "slabSize shall be a positive number");
+        this.slabSize = (int) Math.min(slabSize, capacity / 2);
+        long count = capacity / this.slabSize;
+        checkArgument(count <= Integer.MAX_VALUE, "too many slabs, use a larger slab size");
+        this.slabs = new Slab[(int) count];
+    }
+
+    /**
+     * @return a copy of the stored data for the object, or {@code null} if not cached
+     */
+    @Nullable
+    public ByteBuffer get(final ObjectId id) {
+        final Entry entry = index.get(id);
+        if (entry != null) {
+            final Slab slab = entry.slab;
+            byte[] data = new byte[entry.length];
+            ByteBuffer src = slab.buffer.duplicate();
+            src.position(entry.offset);
+            src.get(data);
+            // the slab may have been reclaimed while copying
+            if (slab.generation == entry.generation) {
+                slab.referenced = true;
+                hits.incrementAndGet();
+                return ByteBuffer.wrap(data);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the stored data for the object, from its position to its limit, unless it's already
+     * cached or larger than a slab. The buffer's position is not modified.
+     */
+    public synchronized void put(final ObjectId id, final ByteBuffer data) {
+        checkNotNull(id);
+        final int length = data.remaining();
+        if (length > slabSize || index.containsKey(id)) {
+            return;
+        }
+        Slab slab = current == -1 ? null : slabs[current];
+        if (slab == null || slab.used + length > slabSize) {
+            slab = nextSlab();
+        }
+        ByteBuffer dst = slab.buffer.duplicate();
+        dst.position(slab.used);
+        dst.put(data.duplicate());
+
+        index.put(id, new Entry(slab, slab.used, length));
+        slab.ids.add(id);
+        slab.used += length;
+        residentBytes.addAndGet(length);
+    }
+
+    /**
+     * Moves to the next empty slab, allocating it or reclaiming the first slab the clock hand
+     * finds with no hits since its last pass.
+     */
+    private Slab nextSlab() {
+        while (true) {
+            final int i = clockHand;
+            clockHand = (clockHand + 1) % slabs.length;
+            Slab slab = slabs[i];
+            if (slab == null) {
+                slab = new Slab(slabSize);
+                slabs[i] = slab;
+            } else if (slab.referenced && i != current) {
+                slab.referenced = false;
+                continue;
+            } else {
+                reclaim(slab);
+            }
+            current = i;
+            return slab;
+        }
+    }
+
+    private void reclaim(Slab slab) {
+        slab.generation++;
+        for (ObjectId id : slab.ids) {
+            Entry entry = index.get(id);
+            if (entry != null && entry.slab == slab) {
+                index.remove(id);
+            }
+        }
+        slab.ids.clear();
+        residentBytes.addAndGet(-slab.used);
+        slab.used = 0;
+        slab.referenced = false;
+    }
+
+    /**
+     * Empties the cache. Allocated slabs are kept for reuse.
+     */
+    public synchronized void invalidateAll() {
+        for (Slab slab : slabs) {
+            if (slab != null) {
+                reclaim(slab);
+            }
+        }
+        current = -1;
+    }
+
+    /**
+     * @return the maximum number of bytes of direct memory this cache uses
+     */
+    public long capacity() {
+        return (long) slabs.length * slabSize;
+    }
+
+    /**
+     * @return the number of bytes taken by the objects currently cached
+     */
+    public long residentBytes() {
+        return residentBytes.get();
+    }
+
+    /**
+     * @return the number of objects currently cached
+     */
+    public int size() {
+        return index.size();
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the ratio of look ups that were hits, or {@code 1.0} if there were no look ups yet
+     */
+    public double hitRatio() {
+        long hitCount = hits.get();
+        long requestCount = hitCount + misses.get();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[hits=%d, misses=%d, hitRatio=%.2f, objects=%d, resident=%d/%d]",
+                getClass().getSimpleName(), hitCount(), missCount(), hitRatio(), size(),
+                residentBytes(), capacity());
+    }
+}
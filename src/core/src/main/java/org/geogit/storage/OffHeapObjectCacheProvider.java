@@ -0,0 +1,36 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Creates the repository {@link OffHeapObjectCache}, sized after the {@code cache.offheap}
+ * repository config key, in megabytes.
+ * <p>
+ * The off heap cache is disabled, and this provider returns {@code null}, unless the key is set
+ * to a positive value.
+ */
+public class OffHeapObjectCacheProvider extends AbstractConfiguredProvider<OffHeapObjectCache> {
+
+    public static final String OFFHEAP_SIZE = "cache.offheap";
+
+    private static final long MB = 1024 * 1024;
+
+    @Inject
+    public OffHeapObjectCacheProvider(ConfigDatabase config) {
+        super(config);
+    }
+
+    @Override
+    public OffHeapObjectCache get() {
+        Optional<Long> megabytes = getConfig(OFFHEAP_SIZE, Long.class);
+        if (!megabytes.isPresent() || megabytes.get().longValue() <= 0) {
+            return null;
+        }
+        return new OffHeapObjectCache(megabytes.get().longValue() * MB);
+    }
+}
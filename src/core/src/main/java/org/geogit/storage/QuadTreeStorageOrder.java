@@ -0,0 +1,134 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+
+import org.geogit.api.Node;
+import org.geogit.api.QuadTreeBuilder;
+import org.geogit.api.RevTree;
+import org.geogit.repository.SpatialOps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Implements the bucket order of the quadtree tree layout, where the buckets of a tree are the
+ * quadrants of the cell it covers, and {@link Node}s fall into the quadrant holding the center of
+ * their bounds instead of into the bucket given by their {@link NodePathStorageOrder path hash}.
+ * <p>
+ * The top cell of a quadtree is the first of the {@link #topCell(int) top cells} extents, the
+ * longitude/latitude extent of the world. Nodes without bounds, or centered outside a top cell, go
+ * to the {@link #OUTSIDE} bucket, which is a quadtree on the next top cell extent, one big enough
+ * for the coordinates of common projected CRSs. Past the last extent, and past {@link #MAX_DEPTH}
+ * quadrant levels, trees get the path hash layout back.
+ * <p>
+ * Quadtree bucket keys are out of the range of path hash bucket keys, so the non empty trees split
+ * into quadrants are told apart by their {@link #isQuadTree(RevTree) bucket keys}.
+ *
+ * @see QuadTreeBuilder
+ */
+public final class QuadTreeStorageOrder {
+
+    /**
+     * Bucket of the south west quadrant, the lowest quadtree bucket key
+     */
+    public static final Integer SW = Integer.valueOf(64);
+
+    public static final Integer SE = Integer.valueOf(65);
+
+    public static final Integer NW = Integer.valueOf(66);
+
+    public static final Integer NE = Integer.valueOf(67);
+
+    /**
+     * Bucket of the nodes without bounds or centered outside a top cell
+     */
+    public static final Integer OUTSIDE = Integer.valueOf(68);
+
+    /**
+     * Number of quadrant levels under a top cell before falling back to the path hash layout, for
+     * cells of about 600m on the world extent
+     */
+    public static final int MAX_DEPTH = 16;
+
+    private static final double PROJECTED_EXTENT = 1 << 25;
+
+    private static final List<Envelope> TOP_CELLS = ImmutableList.of(new Envelope(-180, 180, -90,
+            90), new Envelope(-PROJECTED_EXTENT, PROJECTED_EXTENT, -PROJECTED_EXTENT,
+            PROJECTED_EXTENT));
+
+    private QuadTreeStorageOrder() {
+        // static helpers only
+    }
+
+    /**
+     * @return {@code true} if the tree is split into quadtree buckets, {@code false} if it's a
+     *         leaf tree or split into path hash buckets
+     */
+    public static boolean isQuadTree(RevTree tree) {
+        if (!tree.buckets().isPresent()) {
+            return false;
+        }
+        ImmutableSortedMap<Integer, ?> buckets = tree.buckets().get();
+        return !buckets.isEmpty() && buckets.firstKey().intValue() >= SW.intValue();
+    }
+
+    /**
+     * @return the number of top cell extents
+     */
+    public static int numTopCells() {
+        return TOP_CELLS.size();
+    }
+
+    /**
+     * @param index the index of the top cell, from zero to {@link #numTopCells()} excluded
+     * @return the extent of the top cell
+     */
+    public static Envelope topCell(int index) {
+        return new Envelope(TOP_CELLS.get(index));
+    }
+
+    /**
+     * @param node the node to get the bucket of
+     * @param cell the extent of the cell the tree to add the node to covers
+     * @return the quadrant of the cell the center of the node bounds falls into, or
+     *         {@link #OUTSIDE} if the node has no bounds or is centered outside the cell
+     */
+    public static Integer bucket(Node node, Envelope cell) {
+        Envelope bounds = SpatialOps.envelopeOf(node);
+        if (bounds == null || bounds.isNull()) {
+            return OUTSIDE;
+        }
+        final double x = (bounds.getMinX() + bounds.getMaxX()) / 2;
+        final double y = (bounds.getMinY() + bounds.getMaxY()) / 2;
+        if (!cell.contains(x, y)) {
+            return OUTSIDE;
+        }
+        final boolean east = x >= cell.centre().x;
+        final boolean north = y >= cell.centre().y;
+        return Integer.valueOf(SW.intValue() + (east ? 1 : 0) + (north ? 2 : 0));
+    }
+
+    /**
+     * @param cell the extent of a cell
+     * @param quadrant one of {@link #SW}, {@link #SE}, {@link #NW} or {@link #NE}
+     * @return the extent of the given quadrant of the cell
+     */
+    public static Envelope quadrant(Envelope cell, Integer quadrant) {
+        final int q = quadrant.intValue() - SW.intValue();
+        checkArgument(q >= 0 && q < 4, "not a quadrant: %s", quadrant);
+        final double midx = cell.centre().x;
+        final double midy = cell.centre().y;
+        final boolean east = (q & 1) != 0;
+        final boolean north = (q & 2) != 0;
+        return new Envelope(east ? midx : cell.getMinX(), east ? cell.getMaxX() : midx,
+                north ? midy : cell.getMinY(), north ? cell.getMaxY() : midy);
+    }
+}
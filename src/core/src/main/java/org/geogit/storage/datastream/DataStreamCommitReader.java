@@ -0,0 +1,58 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.readNullableString;
+import static org.geogit.storage.datastream.FormatCommon.readObjectId;
+import static org.geogit.storage.datastream.FormatCommon.readSignedVarLong;
+import static org.geogit.storage.datastream.FormatCommon.readUnsignedVarInt;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.ObjectReader;
+
+/**
+ * Reads {@link RevCommit commits} written by {@link DataStreamCommitWriter}. Commits are built
+ * through {@link CommitBuilder#build()}, which hashes them, and the result is checked against the
+ * id they were read for.
+ */
+class DataStreamCommitReader extends DataStreamReader<RevCommit> {
+
+    DataStreamCommitReader(ObjectReader<RevCommit> legacyReader) {
+        super(legacyReader);
+    }
+
+    @Override
+    protected RevCommit read(final ObjectId id, final DataInput in, final TYPE type)
+            throws IOException {
+        FormatCommon.requireType(TYPE.COMMIT, type);
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(readObjectId(in));
+        final int parentCount = readUnsignedVarInt(in);
+        List<ObjectId> parentIds = new ArrayList<ObjectId>(parentCount);
+        for (int i = 0; i < parentCount; i++) {
+            parentIds.add(readObjectId(in));
+        }
+        builder.setParentIds(parentIds);
+        builder.setAuthor(readNullableString(in));
+        builder.setAuthorEmail(readNullableString(in));
+        builder.setCommitter(readNullableString(in));
+        builder.setCommitterEmail(readNullableString(in));
+        builder.setMessage(readNullableString(in));
+        builder.setTimestamp(readSignedVarLong(in));
+        final RevCommit commit = builder.build();
+        if (!commit.getId().equals(id)) {
+            throw new IOException("Commit " + id + " was read back as " + commit.getId());
+        }
+        return commit;
+    }
+}
@@ -0,0 +1,55 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.writeNullableString;
+import static org.geogit.storage.datastream.FormatCommon.writeObjectId;
+import static org.geogit.storage.datastream.FormatCommon.writeSignedVarLong;
+import static org.geogit.storage.datastream.FormatCommon.writeUnsignedVarInt;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevPerson;
+
+/**
+ * Writes a {@link RevCommit commit} in the data stream format: the raw tree id, the parent count
+ * and raw parent ids, the author and committer names and emails, the message, and the timestamp
+ * as a signed varlong.
+ */
+class DataStreamCommitWriter extends DataStreamWriter<RevCommit> {
+
+    DataStreamCommitWriter() {
+        super(TYPE.COMMIT);
+    }
+
+    @Override
+    protected void writeBody(final RevCommit commit, final DataOutput out) throws IOException {
+        writeObjectId(out, commit.getTreeId());
+        List<ObjectId> parentIds = commit.getParentIds();
+        writeUnsignedVarInt(out, parentIds.size());
+        for (ObjectId parentId : parentIds) {
+            writeObjectId(out, parentId);
+        }
+        writePerson(out, commit.getAuthor());
+        writePerson(out, commit.getCommitter());
+        writeNullableString(out, commit.getMessage());
+        long timestamp = commit.getTimestamp();
+        if (timestamp <= 0) {
+            timestamp = System.currentTimeMillis();
+        }
+        writeSignedVarLong(out, timestamp);
+    }
+
+    private static void writePerson(final DataOutput out, final RevPerson person)
+            throws IOException {
+        writeNullableString(out, person == null ? null : person.getName());
+        writeNullableString(out, person == null ? null : person.getEmail());
+    }
+}
@@ -0,0 +1,178 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.readBytes;
+import static org.geogit.storage.datastream.FormatCommon.readSignedVarInt;
+import static org.geogit.storage.datastream.FormatCommon.readSignedVarLong;
+import static org.geogit.storage.datastream.FormatCommon.readString;
+import static org.geogit.storage.datastream.FormatCommon.readUnsignedVarInt;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.EntityType;
+import org.geogit.storage.ObjectReader;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * Reads {@link RevFeature features} written by {@link DataStreamFeatureWriter}.
+ * <p>
+ * Given the {@link ObjectReader#ATTRIBUTE_INDEXES} hint, the returned feature keeps the encoded
+ * form of its values and decodes each of them on first access, so that callers that only need the
+ * requested values don't pay for decoding the others.
+ * <p>
+ * Geometries are built by the {@link ObjectReader#JTS_GEOMETRY_FACTORY} hint factory if given, and
+ * on {@link PackedCoordinateSequenceFactory#DOUBLE_FACTORY packed coordinate sequences} otherwise.
+ */
+class DataStreamFeatureReader extends DataStreamReader<RevFeature> {
+
+    private final GeometryFactory geometryFactory;
+
+    @Nullable
+    private final int[] attributeIndexes;
+
+    /**
+     * @param hints feature creation hints, may be {@code null}
+     */
+    DataStreamFeatureReader(ObjectReader<RevFeature> legacyReader,
+            final Map<String, Serializable> hints) {
+        super(legacyReader);
+        GeometryFactory gf = null;
+        int[] indexes = null;
+        if (hints != null) {
+            gf = (GeometryFactory) hints.get(ObjectReader.JTS_GEOMETRY_FACTORY);
+            indexes = (int[]) hints.get(ObjectReader.ATTRIBUTE_INDEXES);
+        }
+        this.geometryFactory = gf == null ? new GeometryFactory(
+                PackedCoordinateSequenceFactory.DOUBLE_FACTORY) : gf;
+        this.attributeIndexes = indexes;
+    }
+
+    @Override
+    protected RevFeature read(final ObjectId id, final DataInput in, final TYPE type)
+            throws IOException {
+        FormatCommon.requireType(TYPE.FEATURE, type);
+        final int count = readUnsignedVarInt(in);
+        final int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[i + 1] = offsets[i] + readUnsignedVarInt(in);
+        }
+        if (attributeIndexes != null) {
+            byte[] data = new byte[offsets[count]];
+            in.readFully(data);
+            return new LazyRevFeature(id, this, data, offsets);
+        }
+        ImmutableList.Builder<Optional<Object>> values = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            values.add(Optional.fromNullable(readValue(in)));
+        }
+        return new RevFeature(id, values.build());
+    }
+
+    Object readValue(final DataInput in) throws IOException {
+        final EntityType type = EntityType.fromValue(in.readUnsignedByte());
+        if (type == null) {
+            throw new IOException("Illegal format in data stream");
+        }
+        switch (type) {
+        case STRING:
+            return readString(in);
+        case BOOLEAN:
+            return Boolean.valueOf(in.readBoolean());
+        case BYTE:
+            return Byte.valueOf(in.readByte());
+        case DOUBLE:
+            return Double.valueOf(in.readDouble());
+        case FLOAT:
+            return Float.valueOf(in.readFloat());
+        case INT:
+            return Integer.valueOf(readSignedVarInt(in));
+        case LONG:
+            return Long.valueOf(readSignedVarLong(in));
+        case BIGDECIMAL:
+            final int scale = readSignedVarInt(in);
+            return new BigDecimal(new BigInteger(readBytes(in)), scale);
+        case BIGINT:
+            return new BigInteger(readBytes(in));
+        case UUID:
+            final long most = in.readLong();
+            final long least = in.readLong();
+            return new UUID(most, least);
+        case BYTE_ARRAY:
+            return readBytes(in);
+        case BOOLEAN_ARRAY:
+            boolean[] bools = new boolean[readUnsignedVarInt(in)];
+            for (int i = 0; i < bools.length; i += 8) {
+                final int packed = in.readUnsignedByte();
+                for (int bit = 0; bit < 8 && i + bit < bools.length; bit++) {
+                    bools[i + bit] = (packed & (1 << bit)) != 0;
+                }
+            }
+            return bools;
+        case CHAR_ARRAY:
+            return readString(in).toCharArray();
+        case DOUBLE_ARRAY:
+            double[] doubles = new double[readUnsignedVarInt(in)];
+            for (int i = 0; i < doubles.length; i++) {
+                doubles[i] = in.readDouble();
+            }
+            return doubles;
+        case FLOAT_ARRAY:
+            float[] floats = new float[readUnsignedVarInt(in)];
+            for (int i = 0; i < floats.length; i++) {
+                floats[i] = in.readFloat();
+            }
+            return floats;
+        case INT_ARRAY:
+            int[] ints = new int[readUnsignedVarInt(in)];
+            for (int i = 0; i < ints.length; i++) {
+                ints[i] = readSignedVarInt(in);
+            }
+            return ints;
+        case LONG_ARRAY:
+            long[] longs = new long[readUnsignedVarInt(in)];
+            for (int i = 0; i < longs.length; i++) {
+                longs[i] = readSignedVarLong(in);
+            }
+            return longs;
+        case GEOMETRY:
+            return GeometryCodec.read(in, geometryFactory);
+        case NULL:
+            return null;
+        case UNKNOWN_SERIALISABLE:
+            ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)));
+            try {
+                return oin.readObject();
+            } catch (ClassNotFoundException e) {
+                throw (IOException) new IOException(e.getMessage()).initCause(e);
+            } finally {
+                oin.close();
+            }
+        case UNKNOWN:
+            String classname = readString(in);
+            String value = readString(in);
+            return classname + value;
+        default:
+            throw new IOException("Unknown entity type " + type);
+        }
+    }
+}
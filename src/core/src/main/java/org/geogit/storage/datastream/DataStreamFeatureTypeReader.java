@@ -0,0 +1,106 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.readSignedVarInt;
+import static org.geogit.storage.datastream.FormatCommon.readString;
+import static org.geogit.storage.datastream.FormatCommon.readUnsignedVarInt;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.GtEntityType;
+import org.geogit.storage.ObjectReader;
+import org.geotools.feature.NameImpl;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.AttributeType;
+import org.opengis.feature.type.FeatureTypeFactory;
+import org.opengis.feature.type.GeometryType;
+import org.opengis.feature.type.Name;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Reads {@link RevFeatureType feature types} written by {@link DataStreamFeatureTypeWriter}.
+ */
+class DataStreamFeatureTypeReader extends DataStreamReader<RevFeatureType> {
+
+    private final FeatureTypeFactory typeFactory;
+
+    DataStreamFeatureTypeReader(ObjectReader<RevFeatureType> legacyReader) {
+        super(legacyReader);
+        this.typeFactory = new SimpleFeatureTypeBuilder().getFeatureTypeFactory();
+    }
+
+    @Override
+    protected RevFeatureType read(final ObjectId id, final DataInput in, final TYPE type)
+            throws IOException {
+        FormatCommon.requireType(TYPE.FEATURETYPE, type);
+        final Name name = readName(in);
+        final int attributeCount = readUnsignedVarInt(in);
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        for (int i = 0; i < attributeCount; i++) {
+            builder.add(readDescriptor(in));
+        }
+        builder.setName(name);
+        return new RevFeatureType(id, builder.buildFeatureType());
+    }
+
+    private static Name readName(final DataInput in) throws IOException {
+        String namespace = readString(in);
+        String localPart = readString(in);
+        return new NameImpl("".equals(namespace) ? null : namespace, localPart);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private AttributeDescriptor readDescriptor(final DataInput in) throws IOException {
+        final GtEntityType type = GtEntityType.fromValue(in.readUnsignedByte());
+        Class binding = type.getBinding();
+        final boolean nillable = in.readBoolean();
+        final Name propertyName = readName(in);
+        final int maxOccurs = readSignedVarInt(in);
+        final int minOccurs = readSignedVarInt(in);
+        final Name typeName = readName(in);
+
+        if (!type.isGeometry()) {
+            AttributeType attributeType = typeFactory.createAttributeType(typeName, binding,
+                    false, false, null, null, null);
+            return typeFactory.createAttributeDescriptor(attributeType, propertyName, minOccurs,
+                    maxOccurs, nillable, null);
+        }
+        final String bindingName = readString(in);
+        try {
+            binding = Class.forName(bindingName);
+        } catch (ClassNotFoundException e) {
+            // keep the entity type binding
+        }
+        final boolean crsCode = in.readBoolean();
+        final String crsText = readString(in);
+        CoordinateReferenceSystem crs;
+        try {
+            if (crsCode) {
+                if (DataStreamFeatureTypeWriter.NO_CRS.equals(crsText)) {
+                    crs = null;
+                } else {
+                    boolean forceLongitudeFirst = crsText.startsWith("EPSG:");
+                    crs = CRS.decode(crsText, forceLongitudeFirst);
+                }
+            } else {
+                crs = CRS.parseWKT(crsText);
+            }
+        } catch (FactoryException e) {
+            throw (IOException) new IOException(e.getMessage()).initCause(e);
+        }
+        GeometryType attributeType = typeFactory.createGeometryType(typeName, binding, crs, false,
+                false, null, null, null);
+        return typeFactory.createGeometryDescriptor(attributeType, propertyName, minOccurs,
+                maxOccurs, nillable, null);
+    }
+}
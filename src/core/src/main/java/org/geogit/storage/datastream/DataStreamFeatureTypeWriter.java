@@ -0,0 +1,113 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.writeSignedVarInt;
+import static org.geogit.storage.datastream.FormatCommon.writeString;
+import static org.geogit.storage.datastream.FormatCommon.writeUnsignedVarInt;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.GtEntityType;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.CRS.AxisOrder;
+import org.geotools.referencing.wkt.Formattable;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.AttributeType;
+import org.opengis.feature.type.GeometryType;
+import org.opengis.feature.type.Name;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Writes a {@link RevFeatureType feature type} in the data stream format: its name namespace and
+ * local part, the attribute count, and for each attribute:
+ * <ol>
+ * <li>{@link GtEntityType} - byte</li>
+ * <li>nillable - boolean</li>
+ * <li>property namespace and name - strings</li>
+ * <li>max and min occurs - signed varints</li>
+ * <li>type namespace and name - strings</li>
+ * </ol>
+ * Geometry attributes are followed by their binding class name, a boolean telling whether the CRS
+ * is given by code or by WKT, and the CRS code or WKT.
+ */
+class DataStreamFeatureTypeWriter extends DataStreamWriter<RevFeatureType> {
+
+    static final String NO_CRS = "urn:ogc:def:crs:EPSG::0";
+
+    DataStreamFeatureTypeWriter() {
+        super(TYPE.FEATURETYPE);
+    }
+
+    @Override
+    protected void writeBody(final RevFeatureType revType, final DataOutput out)
+            throws IOException {
+        final SimpleFeatureType type = (SimpleFeatureType) revType.type();
+        writeName(out, type.getName());
+        List<AttributeDescriptor> descriptors = type.getAttributeDescriptors();
+        writeUnsignedVarInt(out, descriptors.size());
+        for (AttributeDescriptor descriptor : descriptors) {
+            writeDescriptor(out, descriptor);
+        }
+    }
+
+    private static void writeName(final DataOutput out, final Name name) throws IOException {
+        writeString(out, name.getNamespaceURI() == null ? "" : name.getNamespaceURI());
+        writeString(out, name.getLocalPart());
+    }
+
+    private static void writeDescriptor(final DataOutput out, final AttributeDescriptor descriptor)
+            throws IOException {
+        final AttributeType attrType = descriptor.getType();
+        final GtEntityType type = GtEntityType.fromBinding(attrType.getBinding());
+        out.writeByte(type.getValue());
+        out.writeBoolean(descriptor.isNillable());
+        writeName(out, descriptor.getName());
+        writeSignedVarInt(out, descriptor.getMaxOccurs());
+        writeSignedVarInt(out, descriptor.getMinOccurs());
+        writeName(out, attrType.getName());
+        if (type.isGeometry() && attrType instanceof GeometryType) {
+            GeometryType gt = (GeometryType) attrType;
+            writeString(out, gt.getBinding().getName());
+            CoordinateReferenceSystem crs = gt.getCoordinateReferenceSystem();
+            String srsName = srsName(crs);
+            if (srsName != null) {
+                out.writeBoolean(true);
+                writeString(out, srsName);
+            } else {
+                String wkt;
+                if (crs instanceof Formattable) {
+                    wkt = ((Formattable) crs).toWKT(Formattable.SINGLE_LINE);
+                } else {
+                    wkt = crs.toWKT();
+                }
+                out.writeBoolean(false);
+                writeString(out, wkt);
+            }
+        }
+    }
+
+    /**
+     * @return the code of the CRS, in {@code EPSG:} form for longitude first CRSs and
+     *         {@code urn:ogc:def:crs:EPSG::} form otherwise, or {@code null} if it has no code
+     */
+    private static String srsName(final CoordinateReferenceSystem crs) {
+        if (crs == null) {
+            return NO_CRS;
+        }
+        final boolean longitudeFirst = CRS.getAxisOrder(crs, false) == AxisOrder.EAST_NORTH;
+        final boolean codeOnly = true;
+        String crsCode = CRS.toSRS(crs, codeOnly);
+        if (crsCode == null) {
+            return null;
+        }
+        return (longitudeFirst ? "EPSG:" : "urn:ogc:def:crs:EPSG::") + crsCode;
+    }
+}
@@ -0,0 +1,209 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.writeBytes;
+import static org.geogit.storage.datastream.FormatCommon.writeSignedVarInt;
+import static org.geogit.storage.datastream.FormatCommon.writeSignedVarLong;
+import static org.geogit.storage.datastream.FormatCommon.writeString;
+import static org.geogit.storage.datastream.FormatCommon.writeUnsignedVarInt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.plumbing.HashObjectFunnels;
+import org.geogit.storage.EntityType;
+import org.geogit.storage.HashingObjectWriter;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Writes a {@link RevFeature feature} in the data stream format: the value count, the encoded
+ * length of each value as unsigned varints, so that readers can find any value without decoding
+ * the ones before it, followed by one typed block per value, made of the
+ * {@link EntityType#getValue() entity type} byte and the value encoding for that type:
+ * <ul>
+ * <li>integral values as signed varints, floating point values as their IEEE 754 bits</li>
+ * <li>arrays as their length followed by their elements, booleans packed eight per byte</li>
+ * <li>big decimals as their scale followed by the bytes of their unscaled value</li>
+ * <li>geometries as their coordinate sequences, delta coded when lossless, see
+ * {@link GeometryCodec}</li>
+ * <li>unknown serializable values through java serialization, other unknown values as their class
+ * name and string representation</li>
+ * </ul>
+ * The values are hashed as they are written when writing through
+ * {@link #write(RevFeature, OutputStream, PrimitiveSink)}, the geometry coordinates in the same
+ * walk that encodes them.
+ */
+class DataStreamFeatureWriter extends DataStreamWriter<RevFeature> implements
+        HashingObjectWriter<RevFeature> {
+
+    DataStreamFeatureWriter() {
+        super(TYPE.FEATURE);
+    }
+
+    @Override
+    protected void writeBody(final RevFeature feature, final DataOutput out) throws IOException {
+        writeValues(feature, out, null);
+    }
+
+    @Override
+    public void write(final RevFeature feature, final OutputStream out,
+            final PrimitiveSink hasher) throws IOException {
+        DataOutputStream data = writeHeader(out);
+        HashObjectFunnels.typeFunnel().funnel(TYPE.FEATURE, hasher);
+        writeValues(feature, data, hasher);
+        data.flush();
+    }
+
+    private static void writeValues(final RevFeature feature, final DataOutput out,
+            @Nullable final PrimitiveSink hasher) throws IOException {
+        final Funnel<Object> valueFunnel = HashObjectFunnels.propertyValueFunnel();
+        ImmutableList<Optional<Object>> values = feature.getValues();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream valuesOut = new DataOutputStream(buffer);
+        int[] lengths = new int[values.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            final Object value = values.get(i).orNull();
+            final int start = buffer.size();
+            final boolean geometry = value instanceof Geometry;
+            writeValue(valuesOut, value, geometry ? hasher : null);
+            lengths[i] = buffer.size() - start;
+            if (hasher != null && !geometry) {
+                valueFunnel.funnel(value, hasher);
+            }
+        }
+        writeUnsignedVarInt(out, lengths.length);
+        for (int length : lengths) {
+            writeUnsignedVarInt(out, length);
+        }
+        out.write(buffer.toByteArray());
+    }
+
+    /**
+     * @param geometryHasher if given, fed the value coordinates if it's a geometry
+     */
+    private static void writeValue(final DataOutput out, final Object value,
+            @Nullable final PrimitiveSink geometryHasher) throws IOException {
+        final EntityType type = EntityType.determineType(value);
+        out.writeByte(type.getValue());
+        switch (type) {
+        case STRING:
+            writeString(out, (String) value);
+            break;
+        case BOOLEAN:
+            out.writeBoolean(((Boolean) value).booleanValue());
+            break;
+        case BYTE:
+            out.writeByte(((Byte) value).byteValue());
+            break;
+        case DOUBLE:
+            out.writeDouble(((Double) value).doubleValue());
+            break;
+        case FLOAT:
+            out.writeFloat(((Float) value).floatValue());
+            break;
+        case INT:
+            writeSignedVarInt(out, ((Integer) value).intValue());
+            break;
+        case LONG:
+            writeSignedVarLong(out, ((Long) value).longValue());
+            break;
+        case BIGDECIMAL:
+            BigDecimal decimal = (BigDecimal) value;
+            writeSignedVarInt(out, decimal.scale());
+            writeBytes(out, decimal.unscaledValue().toByteArray());
+            break;
+        case BIGINT:
+            writeBytes(out, ((BigInteger) value).toByteArray());
+            break;
+        case UUID:
+            UUID uuid = (UUID) value;
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+            break;
+        case BYTE_ARRAY:
+            writeBytes(out, (byte[]) value);
+            break;
+        case BOOLEAN_ARRAY:
+            boolean[] bools = (boolean[]) value;
+            writeUnsignedVarInt(out, bools.length);
+            for (int i = 0; i < bools.length; i += 8) {
+                int packed = 0;
+                for (int bit = 0; bit < 8 && i + bit < bools.length; bit++) {
+                    if (bools[i + bit]) {
+                        packed |= 1 << bit;
+                    }
+                }
+                out.writeByte(packed);
+            }
+            break;
+        case CHAR_ARRAY:
+            writeString(out, new String((char[]) value));
+            break;
+        case DOUBLE_ARRAY:
+            double[] doubles = (double[]) value;
+            writeUnsignedVarInt(out, doubles.length);
+            for (double d : doubles) {
+                out.writeDouble(d);
+            }
+            break;
+        case FLOAT_ARRAY:
+            float[] floats = (float[]) value;
+            writeUnsignedVarInt(out, floats.length);
+            for (float f : floats) {
+                out.writeFloat(f);
+            }
+            break;
+        case INT_ARRAY:
+            int[] ints = (int[]) value;
+            writeUnsignedVarInt(out, ints.length);
+            for (int i : ints) {
+                writeSignedVarInt(out, i);
+            }
+            break;
+        case LONG_ARRAY:
+            long[] longs = (long[]) value;
+            writeUnsignedVarInt(out, longs.length);
+            for (long l : longs) {
+                writeSignedVarLong(out, l);
+            }
+            break;
+        case GEOMETRY:
+            GeometryCodec.write((Geometry) value, out, geometryHasher);
+            break;
+        case NULL:
+            break;
+        case UNKNOWN_SERIALISABLE:
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            ObjectOutputStream oout = new ObjectOutputStream(serialized);
+            oout.writeObject(value);
+            oout.close();
+            writeBytes(out, serialized.toByteArray());
+            break;
+        case UNKNOWN:
+            writeString(out, value.getClass().getName());
+            writeString(out, value.toString());
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown entity type " + type);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.storage.ByteBufferInputStream;
+import org.geogit.storage.ObjectReader;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Abstract parent class to the readers of the data stream format.
+ * <p>
+ * Objects that don't start with the data stream {@link FormatCommon#MAGIC magic byte} were written
+ * by the {@link org.geogit.storage.hessian.HessianFactory Hessian} writers, and are handed to the
+ * legacy reader, so a repository keeps working while its objects are being rewritten. Readers of
+ * object types the Hessian format can't encode have no legacy reader, and reject such objects.
+ */
+abstract class DataStreamReader<T> implements ObjectReader<T> {
+
+    @Nullable
+    private final ObjectReader<T> legacyReader;
+
+    /**
+     * @param legacyReader the reader for objects not in the data stream format, or {@code null} if
+     *        there's no legacy format for the type of objects read
+     */
+    DataStreamReader(@Nullable final ObjectReader<T> legacyReader) {
+        this.legacyReader = legacyReader;
+    }
+
+    @Override
+    public final T read(ObjectId id, InputStream rawData) throws IllegalArgumentException {
+        try {
+            PushbackInputStream in = new PushbackInputStream(rawData, 1);
+            final int first = in.read();
+            if (first != FormatCommon.MAGIC) {
+                if (first != -1) {
+                    in.unread(first);
+                }
+                return legacyReader(id).read(id, in);
+            }
+            DataInputStream data = new DataInputStream(in);
+            return read(id, data, FormatCommon.readHeader(data));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Reads straight from the buffer through a {@link ByteBufferInputStream}, so no copy of the
+     * buffer contents is made.
+     */
+    @Override
+    public final T read(ObjectId id, ByteBuffer rawData) throws IllegalArgumentException {
+        if (!rawData.hasRemaining() || rawData.get(rawData.position()) != FormatCommon.MAGIC) {
+            return legacyReader(id).read(id, rawData);
+        }
+        return read(id, new ByteBufferInputStream(rawData));
+    }
+
+    private ObjectReader<T> legacyReader(final ObjectId id) {
+        if (legacyReader == null) {
+            throw new IllegalArgumentException("Object " + id
+                    + " is not in the data stream format");
+        }
+        return legacyReader;
+    }
+
+    /**
+     * Reads the object body, once the header is consumed.
+     */
+    protected abstract T read(ObjectId id, DataInput in, RevObject.TYPE type) throws IOException;
+}
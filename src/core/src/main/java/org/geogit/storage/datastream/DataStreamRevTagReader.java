@@ -0,0 +1,35 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.readObjectId;
+import static org.geogit.storage.datastream.FormatCommon.readString;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTag;
+
+/**
+ * Reads {@link RevTag tags} written by {@link DataStreamRevTagWriter}. The Hessian format has no
+ * tag encoding, so there is no legacy format to fall back to.
+ */
+class DataStreamRevTagReader extends DataStreamReader<RevTag> {
+
+    DataStreamRevTagReader() {
+        super(null);
+    }
+
+    @Override
+    protected RevTag read(final ObjectId id, final DataInput in, final TYPE type)
+            throws IOException {
+        FormatCommon.requireType(TYPE.TAG, type);
+        final String name = readString(in);
+        final ObjectId commitId = readObjectId(in);
+        return new RevTag(id, name, commitId);
+    }
+}
@@ -0,0 +1,31 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.writeObjectId;
+import static org.geogit.storage.datastream.FormatCommon.writeString;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTag;
+
+/**
+ * Writes a {@link RevTag tag} in the data stream format: the tag name and the raw id of the commit
+ * it points to.
+ */
+class DataStreamRevTagWriter extends DataStreamWriter<RevTag> {
+
+    DataStreamRevTagWriter() {
+        super(TYPE.TAG);
+    }
+
+    @Override
+    protected void writeBody(final RevTag tag, final DataOutput out) throws IOException {
+        writeString(out, tag.getName());
+        writeObjectId(out, tag.getCommitId());
+    }
+}
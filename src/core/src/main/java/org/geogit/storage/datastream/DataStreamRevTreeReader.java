@@ -0,0 +1,144 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.DataStreamRevTreeWriter.HAS_BOUNDS;
+import static org.geogit.storage.datastream.DataStreamRevTreeWriter.HAS_METADATA;
+import static org.geogit.storage.datastream.DataStreamRevTreeWriter.HAS_SIZE;
+import static org.geogit.storage.datastream.DataStreamRevTreeWriter.TYPE_MASK;
+import static org.geogit.storage.datastream.FormatCommon.lookupCrs;
+import static org.geogit.storage.datastream.FormatCommon.readObjectId;
+import static org.geogit.storage.datastream.FormatCommon.readString;
+import static org.geogit.storage.datastream.FormatCommon.readUnsignedVarInt;
+import static org.geogit.storage.datastream.FormatCommon.readUnsignedVarLong;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.TreeMap;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.api.SpatialNode;
+import org.geogit.storage.ObjectReader;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Reads {@link RevTree trees} written by {@link DataStreamRevTreeWriter}.
+ */
+class DataStreamRevTreeReader extends DataStreamReader<RevTree> {
+
+    DataStreamRevTreeReader(ObjectReader<RevTree> legacyReader) {
+        super(legacyReader);
+    }
+
+    @Override
+    protected RevTree read(final ObjectId id, final DataInput in, final TYPE type)
+            throws IOException {
+        FormatCommon.requireType(TYPE.TREE, type);
+
+        final long size = readUnsignedVarLong(in);
+        final int treeCount = readUnsignedVarInt(in);
+        final int featureCount = readUnsignedVarInt(in);
+        final int bucketCount = readUnsignedVarInt(in);
+
+        final String[] dictionary = new String[readUnsignedVarInt(in)];
+        String previous = "";
+        for (int i = 0; i < dictionary.length; i++) {
+            final int shared = readUnsignedVarInt(in);
+            previous = previous.substring(0, shared) + readString(in);
+            dictionary[i] = previous;
+        }
+        final ObjectId[] metadataIds = new ObjectId[readUnsignedVarInt(in)];
+        for (int i = 0; i < metadataIds.length; i++) {
+            metadataIds[i] = readObjectId(in);
+        }
+
+        ImmutableList.Builder<Node> trees = ImmutableList.builder();
+        for (int i = 0; i < treeCount; i++) {
+            trees.add(readNode(in, dictionary, metadataIds));
+        }
+        ImmutableList.Builder<Node> features = ImmutableList.builder();
+        for (int i = 0; i < featureCount; i++) {
+            features.add(readNode(in, dictionary, metadataIds));
+        }
+        if (bucketCount == 0) {
+            return RevTreeImpl.createLeafTree(id, size, features.build(), trees.build());
+        }
+        TreeMap<Integer, ObjectId> buckets = Maps.newTreeMap();
+        for (int i = 0; i < bucketCount; i++) {
+            Integer bucket = Integer.valueOf(readUnsignedVarInt(in));
+            buckets.put(bucket, readObjectId(in));
+        }
+        TreeMap<Integer, Envelope> bucketBounds = Maps.newTreeMap();
+        final int boundsCount = readBucketBoundsCount(in);
+        for (int i = 0; i < boundsCount; i++) {
+            Integer bucket = Integer.valueOf(readUnsignedVarInt(in));
+            bucketBounds.put(bucket, readEnvelope(in));
+        }
+        return RevTreeImpl.createNodeTree(id, size, buckets, bucketBounds);
+    }
+
+    /**
+     * @return the number of bucket bounds that follow, zero if the tree was written before bucket
+     *         bounds were kept and thus ends right after its buckets
+     */
+    private static int readBucketBoundsCount(DataInput in) throws IOException {
+        try {
+            return readUnsignedVarInt(in);
+        } catch (EOFException e) {
+            return 0;
+        }
+    }
+
+    private static Envelope readEnvelope(DataInput in) throws IOException {
+        final double minx = in.readDouble();
+        if (Double.isNaN(minx)) {
+            return new Envelope();
+        }
+        final double maxx = in.readDouble();
+        final double miny = in.readDouble();
+        final double maxy = in.readDouble();
+        return new Envelope(minx, maxx, miny, maxy);
+    }
+
+    private static Node readNode(DataInput in, String[] dictionary, ObjectId[] metadataIds)
+            throws IOException {
+        final int flags = in.readUnsignedByte();
+        final TYPE type = TYPE.valueOf(flags & TYPE_MASK);
+        final String name = dictionary[readUnsignedVarInt(in)];
+        final ObjectId objectId = readObjectId(in);
+        ObjectId metadataId = ObjectId.NULL;
+        if ((flags & HAS_METADATA) != 0) {
+            metadataId = metadataIds[readUnsignedVarInt(in)];
+        }
+        final long treeSize = (flags & HAS_SIZE) == 0 ? -1L : readUnsignedVarLong(in);
+        if ((flags & HAS_BOUNDS) == 0) {
+            if (treeSize >= 0) {
+                return Node.tree(name, objectId, metadataId, treeSize);
+            }
+            return new Node(name, objectId, metadataId, type);
+        }
+        final double minx = in.readDouble();
+        final double maxx = in.readDouble();
+        final double miny = in.readDouble();
+        final double maxy = in.readDouble();
+        final int crsIndex = readUnsignedVarInt(in);
+        CoordinateReferenceSystem crs = crsIndex == 0 ? null : lookupCrs(dictionary[crsIndex - 1]);
+        final ReferencedEnvelope bounds = new ReferencedEnvelope(minx, maxx, miny, maxy, crs);
+        if (treeSize >= 0) {
+            return SpatialNode.tree(name, objectId, metadataId, bounds, treeSize);
+        }
+        return new SpatialNode(name, objectId, metadataId, type, bounds);
+    }
+}
@@ -0,0 +1,242 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.lookupIdentifier;
+import static org.geogit.storage.datastream.FormatCommon.writeObjectId;
+import static org.geogit.storage.datastream.FormatCommon.writeString;
+import static org.geogit.storage.datastream.FormatCommon.writeUnsignedVarInt;
+import static org.geogit.storage.datastream.FormatCommon.writeUnsignedVarLong;
+
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedSet;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.SpatialNode;
+import org.geogit.api.plumbing.HashObjectFunnels;
+import org.geogit.storage.HashingObjectWriter;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Writes a {@link RevTree tree} in the data stream format:
+ * <ol>
+ * <li>size - unsigned varlong</li>
+ * <li>tree node count, feature node count and bucket count - unsigned varints</li>
+ * <li>the dictionary of the node names and CRS identifiers, sorted and front coded: its size and,
+ * for each string, the number of leading chars it shares with the previous one and the remaining
+ * chars</li>
+ * <li>the distinct non null metadata ids: their count and raw values</li>
+ * <li>the tree nodes followed by the feature nodes</li>
+ * <li>the buckets: index - unsigned varint, raw tree id</li>
+ * <li>if there are buckets, their {@link RevTree#bucketBounds() bounds}: their count and, for
+ * each, the bucket index - unsigned varint, and minx, maxx, miny, maxy doubles, or a single NaN
+ * double for a null envelope. Trees written before bucket bounds were kept end right after the
+ * buckets</li>
+ * </ol>
+ * Each node is a flags byte holding the node type in its three low bits, {@link #HAS_METADATA},
+ * {@link #HAS_BOUNDS} and {@link #HAS_SIZE}; the dictionary index of its name; its raw object id;
+ * the index of its metadata id if any; the size of the tree it points to if known, as an unsigned
+ * varlong; and its bounds if any, as minx, maxx, miny, maxy doubles followed by the dictionary
+ * index of its CRS identifier plus one, zero meaning no CRS.
+ * <p>
+ * The nodes and buckets are hashed as they are written when writing through
+ * {@link #write(RevTree, OutputStream, PrimitiveSink)}. Tree sizes and bucket bounds aren't
+ * hashed, they're given by the tree ids already.
+ */
+class DataStreamRevTreeWriter extends DataStreamWriter<RevTree> implements
+        HashingObjectWriter<RevTree> {
+
+    static final int TYPE_MASK = 0x07;
+
+    static final int HAS_METADATA = 0x08;
+
+    static final int HAS_BOUNDS = 0x10;
+
+    static final int HAS_SIZE = 0x20;
+
+    DataStreamRevTreeWriter() {
+        super(TYPE.TREE);
+    }
+
+    @Override
+    protected void writeBody(final RevTree tree, final DataOutput out) throws IOException {
+        writeBody(tree, out, null);
+    }
+
+    @Override
+    public void write(final RevTree tree, final OutputStream out, final PrimitiveSink hasher)
+            throws IOException {
+        DataOutputStream data = writeHeader(out);
+        HashObjectFunnels.typeFunnel().funnel(TYPE.TREE, hasher);
+        writeBody(tree, data, hasher);
+        data.flush();
+    }
+
+    private void writeBody(final RevTree tree, final DataOutput out,
+            @Nullable final PrimitiveSink hasher) throws IOException {
+        final List<Node> trees = tree.trees().or(ImmutableList.<Node> of());
+        final List<Node> features = tree.features().or(ImmutableList.<Node> of());
+        final ImmutableSortedMap<Integer, ObjectId> buckets = tree.buckets().or(
+                ImmutableSortedMap.<Integer, ObjectId> of());
+
+        writeUnsignedVarLong(out, tree.size());
+        writeUnsignedVarInt(out, trees.size());
+        writeUnsignedVarInt(out, features.size());
+        writeUnsignedVarInt(out, buckets.size());
+
+        SortedSet<String> strings = Sets.newTreeSet();
+        Map<ObjectId, Integer> metadataIds = Maps.newLinkedHashMap();
+        collect(trees, strings, metadataIds);
+        collect(features, strings, metadataIds);
+
+        Map<String, Integer> dictionary = Maps.newHashMap();
+        writeUnsignedVarInt(out, strings.size());
+        String previous = "";
+        for (String s : strings) {
+            int shared = sharedPrefix(previous, s);
+            writeUnsignedVarInt(out, shared);
+            writeString(out, s.substring(shared));
+            dictionary.put(s, Integer.valueOf(dictionary.size()));
+            previous = s;
+        }
+        writeUnsignedVarInt(out, metadataIds.size());
+        for (ObjectId metadataId : metadataIds.keySet()) {
+            writeObjectId(out, metadataId);
+        }
+
+        final Funnel<Node> nodeFunnel = HashObjectFunnels.nodeFunnel();
+        for (Node node : Iterables.concat(trees, features)) {
+            writeNode(out, node, dictionary, metadataIds);
+            if (hasher != null) {
+                nodeFunnel.funnel(node, hasher);
+            }
+        }
+        final Funnel<Entry<Integer, ObjectId>> bucketFunnel = HashObjectFunnels.bucketFunnel();
+        for (Entry<Integer, ObjectId> bucket : buckets.entrySet()) {
+            writeUnsignedVarInt(out, bucket.getKey().intValue());
+            writeObjectId(out, bucket.getValue());
+            if (hasher != null) {
+                bucketFunnel.funnel(bucket, hasher);
+            }
+        }
+        if (!buckets.isEmpty()) {
+            final ImmutableSortedMap<Integer, Envelope> bucketBounds = tree.bucketBounds();
+            writeUnsignedVarInt(out, bucketBounds.size());
+            for (Entry<Integer, Envelope> bounds : bucketBounds.entrySet()) {
+                writeUnsignedVarInt(out, bounds.getKey().intValue());
+                writeEnvelope(out, bounds.getValue());
+            }
+        }
+    }
+
+    private static void writeEnvelope(DataOutput out, Envelope envelope) throws IOException {
+        if (envelope.isNull()) {
+            out.writeDouble(Double.NaN);
+            return;
+        }
+        out.writeDouble(envelope.getMinX());
+        out.writeDouble(envelope.getMaxX());
+        out.writeDouble(envelope.getMinY());
+        out.writeDouble(envelope.getMaxY());
+    }
+
+    private static void collect(List<Node> nodes, SortedSet<String> strings,
+            Map<ObjectId, Integer> metadataIds) {
+        for (Node node : nodes) {
+            strings.add(node.getName());
+            ObjectId metadataId = node.getMetadataId().orNull();
+            if (metadataId != null && !metadataId.isNull() && !metadataIds.containsKey(metadataId)) {
+                metadataIds.put(metadataId, Integer.valueOf(metadataIds.size()));
+            }
+            CoordinateReferenceSystem crs = crs(node);
+            if (crs != null) {
+                strings.add(lookupIdentifier(crs));
+            }
+        }
+    }
+
+    private static void writeNode(DataOutput out, Node node, Map<String, Integer> dictionary,
+            Map<ObjectId, Integer> metadataIds) throws IOException {
+        final ObjectId metadataId = node.getMetadataId().orNull();
+        final boolean hasMetadata = metadataId != null && !metadataId.isNull();
+        final BoundingBox bounds = node instanceof SpatialNode ? ((SpatialNode) node).getBounds()
+                : null;
+        int flags = node.getType().value() & TYPE_MASK;
+        if (hasMetadata) {
+            flags |= HAS_METADATA;
+        }
+        if (bounds != null) {
+            flags |= HAS_BOUNDS;
+        }
+        final Long treeSize = node.getTreeSize().orNull();
+        if (treeSize != null) {
+            flags |= HAS_SIZE;
+        }
+        out.writeByte(flags);
+        writeUnsignedVarInt(out, dictionary.get(node.getName()).intValue());
+        writeObjectId(out, node.getObjectId());
+        if (hasMetadata) {
+            writeUnsignedVarInt(out, metadataIds.get(metadataId).intValue());
+        }
+        if (treeSize != null) {
+            writeUnsignedVarLong(out, treeSize.longValue());
+        }
+        if (bounds != null) {
+            out.writeDouble(bounds.getMinX());
+            out.writeDouble(bounds.getMaxX());
+            out.writeDouble(bounds.getMinY());
+            out.writeDouble(bounds.getMaxY());
+            CoordinateReferenceSystem crs = bounds.getCoordinateReferenceSystem();
+            writeUnsignedVarInt(out, crs == null ? 0 : 1 + dictionary.get(lookupIdentifier(crs))
+                    .intValue());
+        }
+    }
+
+    private static CoordinateReferenceSystem crs(Node node) {
+        if (node instanceof SpatialNode) {
+            BoundingBox bounds = ((SpatialNode) node).getBounds();
+            if (bounds != null) {
+                return bounds.getCoordinateReferenceSystem();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of leading chars both strings share, never splitting a surrogate pair
+     */
+    private static int sharedPrefix(String previous, String s) {
+        final int max = Math.min(previous.length(), s.length());
+        int shared = 0;
+        while (shared < max && previous.charAt(shared) == s.charAt(shared)) {
+            shared++;
+        }
+        if (shared > 0 && Character.isHighSurrogate(s.charAt(shared - 1))) {
+            shared--;
+        }
+        return shared;
+    }
+}
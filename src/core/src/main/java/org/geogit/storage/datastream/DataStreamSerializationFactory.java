@@ -0,0 +1,159 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.storage.ObjectReader;
+import org.geogit.storage.ObjectSerialisingFactory;
+import org.geogit.storage.ObjectWriter;
+import org.geogit.storage.hessian.HessianFactory;
+
+/**
+ * An {@link ObjectSerialisingFactory} for a compact binary format written straight through
+ * {@link java.io.DataOutput}, with variable length integers, a per tree dictionary of node names
+ * and one typed block per feature attribute. See {@link FormatCommon} and the writers for the
+ * layout of each object type.
+ * <p>
+ * Objects written by the {@link HessianFactory} are still read, so a repository can switch to this
+ * format without rewriting its objects first. Tags, which the Hessian format doesn't encode, are
+ * only supported in this format.
+ *
+ * @see org.geogit.storage.ObjectSerialisingFactoryProvider
+ */
+public class DataStreamSerializationFactory implements ObjectSerialisingFactory {
+
+    private static final HessianFactory LEGACY = new HessianFactory();
+
+    private static final DataStreamCommitReader COMMIT_READER = new DataStreamCommitReader(
+            LEGACY.createCommitReader());
+
+    private static final DataStreamCommitWriter COMMIT_WRITER = new DataStreamCommitWriter();
+
+    private static final DataStreamRevTreeReader TREE_READER = new DataStreamRevTreeReader(
+            LEGACY.createRevTreeReader());
+
+    private static final DataStreamRevTreeWriter TREE_WRITER = new DataStreamRevTreeWriter();
+
+    private static final DataStreamFeatureReader FEATURE_READER = new DataStreamFeatureReader(
+            LEGACY.createFeatureReader(), null);
+
+    private static final DataStreamFeatureWriter FEATURE_WRITER = new DataStreamFeatureWriter();
+
+    private static final DataStreamFeatureTypeReader FEATURE_TYPE_READER = new DataStreamFeatureTypeReader(
+            LEGACY.createFeatureTypeReader());
+
+    private static final DataStreamFeatureTypeWriter FEATURE_TYPE_WRITER = new DataStreamFeatureTypeWriter();
+
+    private static final DataStreamRevTagReader TAG_READER = new DataStreamRevTagReader();
+
+    private static final DataStreamRevTagWriter TAG_WRITER = new DataStreamRevTagWriter();
+
+    private static final DataStreamRevObjectReader OBJECT_READER = new DataStreamRevObjectReader(
+            LEGACY.createObjectReader());
+
+    @Override
+    public ObjectReader<RevCommit> createCommitReader() {
+        return COMMIT_READER;
+    }
+
+    @Override
+    public ObjectReader<RevTree> createRevTreeReader() {
+        return TREE_READER;
+    }
+
+    @Override
+    public ObjectReader<RevFeature> createFeatureReader() {
+        return FEATURE_READER;
+    }
+
+    @Override
+    public ObjectReader<RevFeature> createFeatureReader(final Map<String, Serializable> hints) {
+        return new DataStreamFeatureReader(LEGACY.createFeatureReader(hints), hints);
+    }
+
+    @Override
+    public ObjectReader<RevFeatureType> createFeatureTypeReader() {
+        return FEATURE_TYPE_READER;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends RevObject> ObjectWriter<T> createObjectWriter(TYPE type) {
+        switch (type) {
+        case COMMIT:
+            return (ObjectWriter<T>) COMMIT_WRITER;
+        case TREE:
+            return (ObjectWriter<T>) TREE_WRITER;
+        case FEATURE:
+            return (ObjectWriter<T>) FEATURE_WRITER;
+        case FEATURETYPE:
+            return (ObjectWriter<T>) FEATURE_TYPE_WRITER;
+        case TAG:
+            return (ObjectWriter<T>) TAG_WRITER;
+        default:
+            throw new IllegalArgumentException("Unknown type: " + type);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> ObjectReader<T> createObjectReader(TYPE type) {
+        switch (type) {
+        case COMMIT:
+            return (ObjectReader<T>) COMMIT_READER;
+        case TREE:
+            return (ObjectReader<T>) TREE_READER;
+        case FEATURE:
+            return (ObjectReader<T>) FEATURE_READER;
+        case FEATURETYPE:
+            return (ObjectReader<T>) FEATURE_TYPE_READER;
+        case TAG:
+            return (ObjectReader<T>) TAG_READER;
+        default:
+            throw new IllegalArgumentException("Unknown type: " + type);
+        }
+    }
+
+    @Override
+    public ObjectReader<RevObject> createObjectReader() {
+        return OBJECT_READER;
+    }
+
+    private static final class DataStreamRevObjectReader extends DataStreamReader<RevObject> {
+
+        DataStreamRevObjectReader(ObjectReader<RevObject> legacyReader) {
+            super(legacyReader);
+        }
+
+        @Override
+        protected RevObject read(ObjectId id, DataInput in, TYPE type) throws IOException {
+            switch (type) {
+            case COMMIT:
+                return COMMIT_READER.read(id, in, type);
+            case TREE:
+                return TREE_READER.read(id, in, type);
+            case FEATURE:
+                return FEATURE_READER.read(id, in, type);
+            case FEATURETYPE:
+                return FEATURE_TYPE_READER.read(id, in, type);
+            case TAG:
+                return TAG_READER.read(id, in, type);
+            default:
+                throw new IllegalArgumentException("Unknown object type " + type);
+            }
+        }
+    }
+}
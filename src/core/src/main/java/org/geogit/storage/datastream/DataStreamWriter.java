@@ -0,0 +1,45 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.geogit.api.RevObject;
+import org.geogit.storage.ObjectWriter;
+
+/**
+ * Abstract parent class to the writers of the data stream format, writes the
+ * {@link FormatCommon#writeHeader header} and leaves the object body to subclasses.
+ */
+abstract class DataStreamWriter<T extends RevObject> implements ObjectWriter<T> {
+
+    private final RevObject.TYPE type;
+
+    DataStreamWriter(final RevObject.TYPE type) {
+        this.type = type;
+    }
+
+    @Override
+    public final void write(final T object, final OutputStream out) throws IOException {
+        DataOutputStream data = writeHeader(out);
+        writeBody(object, data);
+        data.flush();
+    }
+
+    /**
+     * @return a data output over {@code out}, to be flushed by the caller, with the header
+     *         already written
+     */
+    protected final DataOutputStream writeHeader(final OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        FormatCommon.writeHeader(data, type);
+        return data;
+    }
+
+    protected abstract void writeBody(T object, DataOutput out) throws IOException;
+}
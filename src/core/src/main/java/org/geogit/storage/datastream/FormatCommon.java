@@ -0,0 +1,220 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+
+/**
+ * The building blocks shared by the readers and writers of the data stream format.
+ * <p>
+ * Every object starts with a three bytes header: the {@link #MAGIC} byte, the format
+ * {@link #VERSION} and the {@link RevObject.TYPE#value() object type}. Hessian messages always
+ * start with {@code 'p'}, so the magic byte is enough to tell both formats apart.
+ * <p>
+ * Counts and lengths are unsigned variable length integers, seven bits per byte with the high bit
+ * telling whether more bytes follow. Signed values are zig-zag encoded first so that small
+ * negative values are short too. Strings are their UTF-8 length followed by their UTF-8 bytes, and
+ * object ids their 20 raw bytes.
+ */
+final class FormatCommon {
+
+    static final int MAGIC = 0x47;
+
+    static final int VERSION = 1;
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, CoordinateReferenceSystem> crsCache = Collections
+            .synchronizedMap(new LRUMap(3));
+
+    @SuppressWarnings("unchecked")
+    private static Map<CoordinateReferenceSystem, String> crsIdCache = Collections
+            .synchronizedMap(new LRUMap(3));
+
+    private FormatCommon() {
+        // static methods only
+    }
+
+    static void writeHeader(final DataOutput out, final TYPE type) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(type.value());
+    }
+
+    /**
+     * Reads the header, whose magic byte was already consumed.
+     *
+     * @return the type of the object that follows
+     */
+    static TYPE readHeader(final DataInput in) throws IOException {
+        final int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported data stream format version: " + version);
+        }
+        return TYPE.valueOf(in.readUnsignedByte());
+    }
+
+    static void requireType(final TYPE expected, final TYPE actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalArgumentException("Expected " + expected + " but got " + actual);
+        }
+    }
+
+    static void writeUnsignedVarInt(final DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readUnsignedVarInt(final DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length int");
+    }
+
+    static void writeUnsignedVarLong(final DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readUnsignedVarLong(final DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length long");
+    }
+
+    static void writeSignedVarInt(final DataOutput out, final int value) throws IOException {
+        writeUnsignedVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int readSignedVarInt(final DataInput in) throws IOException {
+        final int raw = readUnsignedVarInt(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    static void writeSignedVarLong(final DataOutput out, final long value) throws IOException {
+        writeUnsignedVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readSignedVarLong(final DataInput in) throws IOException {
+        final long raw = readUnsignedVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    static void writeBytes(final DataOutput out, final byte[] bytes) throws IOException {
+        writeUnsignedVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(final DataInput in) throws IOException {
+        byte[] bytes = new byte[readUnsignedVarInt(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeString(final DataOutput out, final String value) throws IOException {
+        writeBytes(out, value.getBytes(Charsets.UTF_8));
+    }
+
+    static String readString(final DataInput in) throws IOException {
+        return new String(readBytes(in), Charsets.UTF_8);
+    }
+
+    /**
+     * Writes a string that may be {@code null}, as its UTF-8 length plus one, zero meaning
+     * {@code null}.
+     */
+    static void writeNullableString(final DataOutput out, final String value) throws IOException {
+        if (value == null) {
+            writeUnsignedVarInt(out, 0);
+        } else {
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            writeUnsignedVarInt(out, bytes.length + 1);
+            out.write(bytes);
+        }
+    }
+
+    static String readNullableString(final DataInput in) throws IOException {
+        final int length = readUnsignedVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Writes the raw id, {@link ObjectId#NULL} being all zeroes.
+     */
+    static void writeObjectId(final DataOutput out, final ObjectId id) throws IOException {
+        out.write(id.getRawValue());
+    }
+
+    static ObjectId readObjectId(final DataInput in) throws IOException {
+        byte[] raw = new byte[20];
+        in.readFully(raw);
+        return new ObjectId(raw);
+    }
+
+    static CoordinateReferenceSystem lookupCrs(final String srs) {
+        CoordinateReferenceSystem crs = crsCache.get(srs);
+        if (crs == null) {
+            try {
+                crs = CRS.decode(srs, false);
+                crsCache.put(srs, crs);
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return crs;
+    }
+
+    static String lookupIdentifier(final CoordinateReferenceSystem crs) {
+        String srs = crsIdCache.get(crs);
+        if (srs == null) {
+            try {
+                srs = CRS.toSRS(crs);
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+            if (srs == null) {
+                throw new IllegalArgumentException("Can't find EPSG code for CRS " + crs.toWKT());
+            }
+            crsIdCache.put(crs, srs);
+        }
+        return srs;
+    }
+}
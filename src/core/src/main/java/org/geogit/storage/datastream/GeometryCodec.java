@@ -0,0 +1,419 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.readSignedVarLong;
+import static org.geogit.storage.datastream.FormatCommon.readUnsignedVarInt;
+import static org.geogit.storage.datastream.FormatCommon.writeSignedVarLong;
+import static org.geogit.storage.datastream.FormatCommon.writeUnsignedVarInt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.plumbing.HashObjectFunnels;
+
+import com.google.common.hash.PrimitiveSink;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
+import com.vividsolutions.jts.geom.CoordinateSequenceFilter;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * Encodes geometries in the data stream format straight from and into their coordinate sequences,
+ * instead of going through WKB.
+ * <p>
+ * A geometry is a header byte holding the geometry type in its four low bits, {@link #HAS_Z} and
+ * {@link #QUANTIZED}; the number of decimal digits of its ordinates if quantized; and its body:
+ * <ul>
+ * <li>points and line strings: their coordinate sequence</li>
+ * <li>polygons: their number of rings followed by each ring sequence, shell first</li>
+ * <li>multi points, line strings and polygons: their number of parts followed by each part body</li>
+ * <li>geometry collections: their number of parts followed by each part as a whole geometry</li>
+ * </ul>
+ * A coordinate sequence is its size followed by the x, y and z if present ordinates of each
+ * coordinate. Quantized ordinates are scaled by ten to the number of digits and written as the
+ * signed varlong difference with the same ordinate of the previous coordinate in the geometry,
+ * otherwise they're written as doubles. Geometries are quantized only when it's lossless, that is
+ * when no ordinate has more than {@link #MAX_DIGITS} decimal digits, as it happens with the
+ * coordinates parsed from decimal text, such as OSM ones.
+ * <p>
+ * Geometries are read into {@link PackedCoordinateSequence.Double packed sequences}, unless the
+ * geometry factory uses a different kind of coordinate sequences.
+ */
+final class GeometryCodec {
+
+    private static final int TYPE_MASK = 0x0F;
+
+    static final int HAS_Z = 0x10;
+
+    static final int QUANTIZED = 0x20;
+
+    private static final int POINT = 1;
+
+    private static final int LINESTRING = 2;
+
+    private static final int POLYGON = 3;
+
+    private static final int MULTIPOINT = 4;
+
+    private static final int MULTILINESTRING = 5;
+
+    private static final int MULTIPOLYGON = 6;
+
+    private static final int GEOMETRYCOLLECTION = 7;
+
+    static final int MAX_DIGITS = 9;
+
+    private static final double[] SCALES = { 1E0, 1E1, 1E2, 1E3, 1E4, 1E5, 1E6, 1E7, 1E8, 1E9 };
+
+    /**
+     * Scaled ordinates are kept under 2^50 so that scaling them back and forth is exact
+     */
+    private static final double MAX_SCALED = 1125899906842624D;
+
+    private GeometryCodec() {
+        // static methods only
+    }
+
+    /**
+     * @param hasher if given, fed the geometry coordinates as they are written through
+     *        {@link HashObjectFunnels#funnelCoordinate}
+     */
+    static void write(final Geometry geom, final DataOutput out,
+            @Nullable final PrimitiveSink hasher) throws IOException {
+        final int type = typeOf(geom);
+        if (type == GEOMETRYCOLLECTION) {
+            out.writeByte(type);
+            final int numParts = geom.getNumGeometries();
+            writeUnsignedVarInt(out, numParts);
+            for (int i = 0; i < numParts; i++) {
+                write(geom.getGeometryN(i), out, hasher);
+            }
+            return;
+        }
+        OrdinatesAnalyzer analyzer = new OrdinatesAnalyzer();
+        geom.apply(analyzer);
+        final int digits = analyzer.digits();
+
+        int header = type;
+        if (analyzer.hasZ) {
+            header |= HAS_Z;
+        }
+        if (digits >= 0) {
+            header |= QUANTIZED;
+        }
+        out.writeByte(header);
+        if (digits >= 0) {
+            out.writeByte(digits);
+        }
+        new Encoder(out, analyzer.hasZ ? 3 : 2, digits, hasher).writeBody(geom, type);
+    }
+
+    static Geometry read(final DataInput in, final GeometryFactory factory) throws IOException {
+        final int header = in.readUnsignedByte();
+        final int type = header & TYPE_MASK;
+        if (type == GEOMETRYCOLLECTION) {
+            Geometry[] parts = new Geometry[readUnsignedVarInt(in)];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = read(in, factory);
+            }
+            return factory.createGeometryCollection(parts);
+        }
+        int digits = -1;
+        if ((header & QUANTIZED) != 0) {
+            digits = in.readUnsignedByte();
+            if (digits > MAX_DIGITS) {
+                throw new IOException("Illegal number of geometry digits: " + digits);
+            }
+        }
+        return new Decoder(in, factory, (header & HAS_Z) != 0 ? 3 : 2, digits).readBody(type);
+    }
+
+    private static int typeOf(final Geometry geom) {
+        if (geom instanceof Point) {
+            return POINT;
+        } else if (geom instanceof LineString) {
+            return LINESTRING;
+        } else if (geom instanceof Polygon) {
+            return POLYGON;
+        } else if (geom instanceof MultiPoint) {
+            return MULTIPOINT;
+        } else if (geom instanceof MultiLineString) {
+            return MULTILINESTRING;
+        } else if (geom instanceof MultiPolygon) {
+            return MULTIPOLYGON;
+        } else if (geom instanceof GeometryCollection) {
+            return GEOMETRYCOLLECTION;
+        }
+        throw new IllegalArgumentException("Unsupported geometry type: " + geom.getGeometryType());
+    }
+
+    /**
+     * Finds out whether a geometry has z ordinates, and the number of decimal digits needed to
+     * quantize its ordinates without loss, if any.
+     */
+    private static final class OrdinatesAnalyzer implements CoordinateSequenceFilter {
+
+        boolean hasZ;
+
+        private boolean missingZ;
+
+        private int digits;
+
+        private double maxAbs;
+
+        @Override
+        public void filter(final CoordinateSequence seq, final int i) {
+            addOrdinate(seq.getOrdinate(i, CoordinateSequence.X));
+            addOrdinate(seq.getOrdinate(i, CoordinateSequence.Y));
+            final double z = seq.getDimension() > 2 ? seq.getOrdinate(i, CoordinateSequence.Z)
+                    : Double.NaN;
+            if (Double.isNaN(z)) {
+                missingZ = true;
+            } else {
+                hasZ = true;
+                addOrdinate(z);
+            }
+        }
+
+        private void addOrdinate(final double value) {
+            if (digits < 0) {
+                return;
+            }
+            maxAbs = Math.max(maxAbs, Math.abs(value));
+            for (; digits <= MAX_DIGITS; digits++) {
+                final double scaled = value * SCALES[digits];
+                if (!(Math.abs(scaled) < MAX_SCALED)) {
+                    break;
+                }
+                if (Math.round(scaled) / SCALES[digits] == value) {
+                    return;
+                }
+            }
+            digits = -1;
+        }
+
+        /**
+         * @return the number of digits to quantize the ordinates to, or {@code -1} if they can't
+         *         be quantized without loss
+         */
+        int digits() {
+            if (digits < 0 || (hasZ && missingZ) || maxAbs * SCALES[digits] >= MAX_SCALED) {
+                return -1;
+            }
+            return digits;
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+
+        @Override
+        public boolean isGeometryChanged() {
+            return false;
+        }
+    }
+
+    private static final class Encoder {
+
+        private final DataOutput out;
+
+        private final int dimension;
+
+        private final double scale;
+
+        @Nullable
+        private final PrimitiveSink hasher;
+
+        private final long[] previous = new long[3];
+
+        Encoder(DataOutput out, int dimension, int digits, @Nullable PrimitiveSink hasher) {
+            this.out = out;
+            this.dimension = dimension;
+            this.scale = digits < 0 ? 0 : SCALES[digits];
+            this.hasher = hasher;
+        }
+
+        void writeBody(final Geometry geom, final int type) throws IOException {
+            switch (type) {
+            case POINT:
+                writeSequence(((Point) geom).getCoordinateSequence());
+                break;
+            case LINESTRING:
+                writeSequence(((LineString) geom).getCoordinateSequence());
+                break;
+            case POLYGON:
+                writePolygon((Polygon) geom);
+                break;
+            case MULTIPOINT:
+            case MULTILINESTRING:
+            case MULTIPOLYGON:
+                final int numParts = geom.getNumGeometries();
+                writeUnsignedVarInt(out, numParts);
+                for (int i = 0; i < numParts; i++) {
+                    writeBody(geom.getGeometryN(i), type - MULTIPOINT + POINT);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported geometry type: " + type);
+            }
+        }
+
+        private void writePolygon(final Polygon polygon) throws IOException {
+            if (polygon.isEmpty()) {
+                writeUnsignedVarInt(out, 0);
+                return;
+            }
+            final int numHoles = polygon.getNumInteriorRing();
+            writeUnsignedVarInt(out, 1 + numHoles);
+            writeSequence(polygon.getExteriorRing().getCoordinateSequence());
+            for (int i = 0; i < numHoles; i++) {
+                writeSequence(polygon.getInteriorRingN(i).getCoordinateSequence());
+            }
+        }
+
+        private void writeSequence(final CoordinateSequence seq) throws IOException {
+            final int size = seq.size();
+            final boolean seqHasZ = seq.getDimension() > 2;
+            writeUnsignedVarInt(out, size);
+            for (int i = 0; i < size; i++) {
+                final double x = seq.getOrdinate(i, CoordinateSequence.X);
+                final double y = seq.getOrdinate(i, CoordinateSequence.Y);
+                if (hasher != null) {
+                    HashObjectFunnels.funnelCoordinate(x, y, hasher);
+                }
+                writeOrdinate(0, x);
+                writeOrdinate(1, y);
+                if (dimension > 2) {
+                    writeOrdinate(2, seqHasZ ? seq.getOrdinate(i, CoordinateSequence.Z)
+                            : Double.NaN);
+                }
+            }
+        }
+
+        private void writeOrdinate(final int ordinate, final double value) throws IOException {
+            if (scale == 0) {
+                out.writeDouble(value);
+            } else {
+                final long quantized = Math.round(value * scale);
+                writeSignedVarLong(out, quantized - previous[ordinate]);
+                previous[ordinate] = quantized;
+            }
+        }
+    }
+
+    private static final class Decoder {
+
+        private final DataInput in;
+
+        private final GeometryFactory factory;
+
+        private final int dimension;
+
+        private final double scale;
+
+        private final boolean packed;
+
+        private final long[] previous = new long[3];
+
+        Decoder(DataInput in, GeometryFactory factory, int dimension, int digits) {
+            this.in = in;
+            this.factory = factory;
+            this.dimension = dimension;
+            this.scale = digits < 0 ? 0 : SCALES[digits];
+            CoordinateSequenceFactory csf = factory.getCoordinateSequenceFactory();
+            this.packed = csf instanceof PackedCoordinateSequenceFactory
+                    && ((PackedCoordinateSequenceFactory) csf).getType() == PackedCoordinateSequenceFactory.DOUBLE;
+        }
+
+        Geometry readBody(final int type) throws IOException {
+            switch (type) {
+            case POINT:
+                return factory.createPoint(readSequence());
+            case LINESTRING:
+                return factory.createLineString(readSequence());
+            case POLYGON:
+                return readPolygon();
+            case MULTIPOINT: {
+                Point[] points = new Point[readUnsignedVarInt(in)];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = factory.createPoint(readSequence());
+                }
+                return factory.createMultiPoint(points);
+            }
+            case MULTILINESTRING: {
+                LineString[] lines = new LineString[readUnsignedVarInt(in)];
+                for (int i = 0; i < lines.length; i++) {
+                    lines[i] = factory.createLineString(readSequence());
+                }
+                return factory.createMultiLineString(lines);
+            }
+            case MULTIPOLYGON: {
+                Polygon[] polygons = new Polygon[readUnsignedVarInt(in)];
+                for (int i = 0; i < polygons.length; i++) {
+                    polygons[i] = readPolygon();
+                }
+                return factory.createMultiPolygon(polygons);
+            }
+            default:
+                throw new IOException("Unknown geometry type " + type);
+            }
+        }
+
+        private Polygon readPolygon() throws IOException {
+            final int numRings = readUnsignedVarInt(in);
+            if (numRings == 0) {
+                return factory.createPolygon(null, null);
+            }
+            LinearRing shell = factory.createLinearRing(readSequence());
+            LinearRing[] holes = new LinearRing[numRings - 1];
+            for (int i = 0; i < holes.length; i++) {
+                holes[i] = factory.createLinearRing(readSequence());
+            }
+            return factory.createPolygon(shell, holes);
+        }
+
+        private CoordinateSequence readSequence() throws IOException {
+            final int size = readUnsignedVarInt(in);
+            final double[] ordinates = new double[size * dimension];
+            for (int i = 0; i < ordinates.length; i++) {
+                ordinates[i] = readOrdinate(i % dimension);
+            }
+            if (packed) {
+                return new PackedCoordinateSequence.Double(ordinates, dimension);
+            }
+            CoordinateSequence seq = factory.getCoordinateSequenceFactory().create(size, dimension);
+            for (int i = 0; i < size; i++) {
+                for (int d = 0; d < dimension; d++) {
+                    seq.setOrdinate(i, d, ordinates[i * dimension + d]);
+                }
+            }
+            return seq;
+        }
+
+        private double readOrdinate(final int ordinate) throws IOException {
+            if (scale == 0) {
+                return in.readDouble();
+            }
+            previous[ordinate] += readSignedVarLong(in);
+            return previous[ordinate] / scale;
+        }
+    }
+}
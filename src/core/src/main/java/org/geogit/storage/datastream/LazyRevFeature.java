@@ -0,0 +1,96 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link RevFeature} that keeps the encoded form of its values and decodes each of them on first
+ * access, as returned by {@link DataStreamFeatureReader} when asked for some of the values only.
+ * <p>
+ * Decoded values are kept, and it's safe to access them from several threads; a value accessed
+ * concurrently for the first time may be decoded more than once.
+ */
+final class LazyRevFeature extends RevFeature {
+
+    private final DataStreamFeatureReader reader;
+
+    private final byte[] data;
+
+    private final int[] offsets;
+
+    private final AtomicReferenceArray<Optional<Object>> decoded;
+
+    private volatile ImmutableList<Optional<Object>> values;
+
+    /**
+     * @param reader the reader to decode the values with
+     * @param data the encoded values
+     * @param offsets the offset of each value in {@code data}, followed by the length of
+     *        {@code data}
+     */
+    LazyRevFeature(final ObjectId id, final DataStreamFeatureReader reader, final byte[] data,
+            final int[] offsets) {
+        super(id);
+        this.reader = reader;
+        this.data = data;
+        this.offsets = offsets;
+        this.decoded = new AtomicReferenceArray<Optional<Object>>(offsets.length - 1);
+    }
+
+    /**
+     * Decodes all the values not accessed so far.
+     */
+    @Override
+    public ImmutableList<Optional<Object>> getValues() {
+        ImmutableList<Optional<Object>> values = this.values;
+        if (values == null) {
+            ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
+            for (int i = 0; i < size(); i++) {
+                builder.add(get(i));
+            }
+            this.values = values = builder.build();
+        }
+        return values;
+    }
+
+    @Override
+    public int size() {
+        return decoded.length();
+    }
+
+    @Override
+    public Optional<Object> get(final int index) {
+        Preconditions.checkElementIndex(index, size());
+        Optional<Object> value = decoded.get(index);
+        if (value == null) {
+            value = Optional.fromNullable(decode(index));
+            decoded.set(index, value);
+        }
+        return value;
+    }
+
+    private Object decode(final int index) {
+        final int offset = offsets[index];
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset,
+                offsets[index + 1] - offset));
+        try {
+            return reader.readValue(in);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
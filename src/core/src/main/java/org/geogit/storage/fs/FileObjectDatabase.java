@@ -6,8 +6,10 @@ package org.geogit.storage.fs;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -15,7 +17,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
@@ -24,9 +34,14 @@ import org.geogit.storage.AbstractObjectDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectSerialisingFactory;
 
+import com.google.common.base.Function;
 import com.google.common.base.Throwables;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import com.google.inject.Inject;
 
 /**
@@ -37,6 +52,25 @@ import com.google.inject.Inject;
  */
 public class FileObjectDatabase extends AbstractObjectDatabase implements ObjectDatabase {
 
+    /**
+     * Name of the file, inside the database directory, the bloom filter is persisted to between
+     * sessions
+     */
+    protected static final String BLOOM_FILTER_FILE = "ids.bloom";
+
+    /**
+     * Name of the file, inside the database directory, the loose object index is persisted to
+     * between sessions
+     */
+    private static final String LOOSE_INDEX_FILE = "loose.idx";
+
+    /**
+     * How long before the time the loose object index was last checked against a fan-out
+     * directory a change to the directory is still looked for, to allow for file systems with a
+     * coarse timestamp resolution
+     */
+    private static final long TIMESTAMP_SLACK = 2000;
+
     private final Platform platform;
 
     private final String databaseName;
@@ -45,6 +79,19 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
 
     private String dataRootPath;
 
+    private LooseObjectIndex looseIndex;
+
+    /**
+     * The time the loose object index holds all the loose objects as of
+     */
+    private long looseIndexTime;
+
+    /**
+     * The fan-out directories checked against the loose object index after it was loaded, and the
+     * time they were listed at
+     */
+    private Map<File, Long> checkedDirs;
+
     /**
      * Constructs a new {@code FileObjectDatabase} using the given platform.
      * 
@@ -88,6 +135,16 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
         if (isOpen()) {
             return;
         }
+        openDataRoot();
+        openLooseIndex();
+        openBloomFilter(new File(dataRoot, BLOOM_FILTER_FILE));
+    }
+
+    /**
+     * Resolves and creates the directory the objects are stored in. Subclasses may override it to
+     * open the rest of their storage before the bloom filter is set up.
+     */
+    protected void openDataRoot() {
         final URL repoUrl = new ResolveGeogitDir(platform).call();
         if (repoUrl == null) {
             throw new IllegalStateException("Can't find geogit repository home");
@@ -114,11 +171,132 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
         dataRootPath = dataRoot.getAbsolutePath();
     }
 
+    /**
+     * Loads the loose object index, or builds it by walking the fan-out directories if it's
+     * missing or can't be read. As with the bloom filter, the index file is deleted once loaded
+     * and written back on close, so that it's rebuilt if the process dies with the database open.
+     * <p>
+     * Other instances, in this or other processes, may write loose objects meanwhile, so the
+     * index file's modification time is set to the time the index holds all the loose objects as
+     * of, and the fan-out directories modified after it are listed again before the index is used.
+     * See {@link #checkLooseIndex(String)}.
+     */
+    private void openLooseIndex() {
+        final File indexFile = new File(dataRoot, LOOSE_INDEX_FILE);
+        LooseObjectIndex index = null;
+        long indexTime = System.currentTimeMillis();
+        if (indexFile.exists()) {
+            try {
+                indexTime = indexFile.lastModified();
+                index = LooseObjectIndex.readFrom(indexFile);
+            } catch (IOException e) {
+                // unreadable, rebuild it
+                index = null;
+                indexTime = System.currentTimeMillis();
+            }
+            indexFile.delete();
+        }
+        if (index == null) {
+            index = LooseObjectIndex.build(Iterators.transform(walkLooseObjects().iterator(),
+                    new Function<File, ObjectId>() {
+                        @Override
+                        public ObjectId apply(File looseFile) {
+                            return ObjectId.valueOf(looseFile.getName());
+                        }
+                    }));
+        }
+        looseIndex = index;
+        looseIndexTime = indexTime;
+        checkedDirs = new ConcurrentHashMap<File, Long>();
+    }
+
+    private void closeLooseIndex() {
+        final LooseObjectIndex index = looseIndex;
+        looseIndex = null;
+        checkedDirs = null;
+        if (index == null) {
+            return;
+        }
+        final File indexFile = new File(dataRoot, LOOSE_INDEX_FILE);
+        try {
+            index.writeTo(indexFile);
+            if (!indexFile.setLastModified(looseIndexTime)) {
+                indexFile.delete();
+            }
+        } catch (IOException e) {
+            // no index file means it's rebuilt on the next open
+        }
+    }
+
+    /**
+     * Brings the loose object index up to date with the fan-out directories that may hold ids
+     * starting with the given prefix, listing again the ones modified since the index was loaded
+     * or since they were last listed.
+     * 
+     * @param prefix a prefix of hexadecimal ids, empty to check all the directories
+     */
+    private void checkLooseIndex(final String prefix) {
+        final String prefix1 = prefix.substring(0, Math.min(2, prefix.length()));
+        final String prefix2 = prefix.length() > 2 ? prefix.substring(2, Math.min(4,
+                prefix.length())) : "";
+        final List<File> dirs = Lists.newArrayList();
+        if (prefix1.length() == 2 && prefix2.length() == 2) {
+            dirs.add(new File(new File(dataRoot, prefix1), prefix2));
+        } else {
+            for (File dir1 : listDirectories(dataRoot, prefix1)) {
+                dirs.addAll(listDirectories(dir1, prefix2));
+            }
+        }
+        for (File dir : dirs) {
+            checkLooseDir(dir);
+        }
+    }
+
+    private static List<File> listDirectories(final File parent, final String prefix) {
+        File[] dirs = parent.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.getName().length() == 2 && f.getName().startsWith(prefix)
+                        && f.isDirectory();
+            }
+        });
+        return dirs == null ? Collections.<File> emptyList() : Arrays.asList(dirs);
+    }
+
+    private void checkLooseDir(final File dir) {
+        final Long listed = checkedDirs.get(dir);
+        final long checkedTime = listed == null ? looseIndexTime : listed.longValue();
+        final long modified = dir.lastModified();
+        if (modified == 0L || modified < checkedTime - TIMESTAMP_SLACK) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final Set<String> contents = list(dir);
+        for (String name : contents) {
+            if (name.length() == 40) {
+                looseIndex.add(ObjectId.valueOf(name));
+            }
+        }
+        final String dirPrefix = dir.getParentFile().getName() + dir.getName();
+        for (ObjectId id : looseIndex.lookUp(new ObjectIdPrefix(dirPrefix))) {
+            final String name = id.toString();
+            // checked again in case it was written by this instance after the listing
+            if (!contents.contains(name) && !new File(dir, name).exists()) {
+                looseIndex.remove(id);
+            }
+        }
+        checkedDirs.put(dir, Long.valueOf(now));
+    }
+
     /**
      * Closes the database.
      */
     @Override
     public void close() {
+        closeBloomFilter();
+        if (dataRoot != null) {
+            closeLooseIndex();
+        }
         dataRoot = null;
         dataRootPath = null;
     }
@@ -130,11 +308,175 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
      * @return true if the object exists, false otherwise
      */
     @Override
-    public boolean exists(final ObjectId id) {
+    protected boolean existsInternal(final ObjectId id) {
         File f = filePath(id);
         return f.exists();
     }
 
+    /**
+     * Lists the loose objects through the loose object index, in id order.
+     */
+    @Override
+    protected Iterator<ObjectId> listIdsInternal() {
+        checkLooseIndex("");
+        return looseIndex.iterator();
+    }
+
+    /**
+     * Counts the loose objects through the loose object index.
+     */
+    @Override
+    protected long countObjectsInternal() {
+        checkLooseIndex("");
+        return looseIndex.size();
+    }
+
+    /**
+     * @return the number of loose objects, as given by the loose object index
+     */
+    public int countLooseObjects() {
+        checkState(isOpen(), "database is not open");
+        checkLooseIndex("");
+        return looseIndex.size();
+    }
+
+    /**
+     * @return the file a loose object is stored to, whether it exists or not
+     */
+    protected File getLooseFile(final ObjectId id) {
+        return filePath(id);
+    }
+
+    /**
+     * @return the loose object files, which live in the {@code objects/xx/yy/} fan-out directories
+     */
+    private List<File> walkLooseObjects() {
+        FileFilter fanoutFilter = new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isDirectory() && f.getName().length() == 2;
+            }
+        };
+        List<File> looseFiles = new ArrayList<File>();
+        File[] level1 = dataRoot.listFiles(fanoutFilter);
+        for (File dir1 : level1) {
+            File[] level2 = dir1.listFiles(fanoutFilter);
+            for (File dir2 : level2) {
+                File[] objects = dir2.listFiles();
+                for (File f : objects) {
+                    if (f.isFile() && f.getName().length() == 40) {
+                        looseFiles.add(f);
+                    }
+                }
+            }
+        }
+        return looseFiles;
+    }
+
+    /**
+     * Groups the ids by fan-out directory and lists each directory holding more than one of them
+     * only once.
+     */
+    @Override
+    protected Set<ObjectId> existsAllInternal(final List<ObjectId> ids) {
+        Set<ObjectId> found = Sets.newHashSet();
+        for (Map.Entry<File, List<ObjectId>> group : groupByDirectory(ids).entrySet()) {
+            final List<ObjectId> dirIds = group.getValue();
+            if (dirIds.size() == 1) {
+                if (existsInternal(dirIds.get(0))) {
+                    found.add(dirIds.get(0));
+                }
+                continue;
+            }
+            Set<String> contents = list(group.getKey());
+            for (ObjectId id : dirIds) {
+                if (contents.contains(id.toString())) {
+                    found.add(id);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Groups the ids by fan-out directory and reads the objects of a directory together.
+     */
+    @Override
+    protected Map<ObjectId, ByteBuffer> getAllRawInternal(final List<ObjectId> ids) {
+        Map<ObjectId, ByteBuffer> found = Maps.newLinkedHashMap();
+        for (Map.Entry<File, List<ObjectId>> group : groupByDirectory(ids).entrySet()) {
+            final File dir = group.getKey();
+            for (ObjectId id : group.getValue()) {
+                File f = new File(dir, id.toString());
+                try {
+                    found.put(id, ByteBuffer.wrap(Files.toByteArray(f)));
+                } catch (FileNotFoundException notFound) {
+                    continue;
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Groups the objects by fan-out directory, creating each directory and listing its contents
+     * only once.
+     */
+    @Override
+    protected int putAllInternal(final Map<ObjectId, byte[]> objects) {
+        int inserted = 0;
+        Map<File, List<ObjectId>> groups = groupByDirectory(objects.keySet());
+        for (Map.Entry<File, List<ObjectId>> group : groups.entrySet()) {
+            final File dir = group.getKey();
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new RuntimeException("Can't create " + dir.getAbsolutePath());
+            }
+            Set<String> contents = list(dir);
+            for (ObjectId id : group.getValue()) {
+                final String name = id.toString();
+                if (contents.contains(name)) {
+                    continue;
+                }
+                try {
+                    Files.write(objects.get(id), new File(dir, name));
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                looseIndex.add(id);
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    private Map<File, List<ObjectId>> groupByDirectory(final Iterable<ObjectId> ids) {
+        Map<String, List<ObjectId>> byName = Maps.newTreeMap();
+        for (ObjectId id : ids) {
+            final String dirName = id.toString().substring(0, 4);
+            List<ObjectId> dirIds = byName.get(dirName);
+            if (dirIds == null) {
+                dirIds = Lists.newArrayListWithCapacity(2);
+                byName.put(dirName, dirIds);
+            }
+            dirIds.add(id);
+        }
+        Map<File, List<ObjectId>> groups = Maps.newLinkedHashMap();
+        for (List<ObjectId> dirIds : byName.values()) {
+            groups.put(filePath(dirIds.get(0)).getParentFile(), dirIds);
+        }
+        return groups;
+    }
+
+    private static Set<String> list(final File dir) {
+        String[] contents = dir.list();
+        if (contents == null) {
+            return Collections.emptySet();
+        }
+        return ImmutableSet.copyOf(contents);
+    }
+
     @Override
     protected InputStream getRawInternal(ObjectId id) {
         File f = filePath(id);
@@ -176,9 +518,34 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
         } catch (IOException e) {
             throw Throwables.propagate(e);
         }
+        looseIndex.add(id);
         return true;
     }
 
+    /**
+     * Writes the new data to a temporary file that is then renamed over the loose object file,
+     * which is atomic on the platforms where renaming over an existing file is supported.
+     */
+    @Override
+    protected boolean replaceInternal(final ObjectId id, final byte[] rawData) {
+        final File f = filePath(id);
+        if (!f.exists()) {
+            return putInternal(id, rawData);
+        }
+        final File tmp = new File(f.getParentFile(), f.getName() + ".tmp");
+        try {
+            Files.write(rawData, tmp);
+        } catch (IOException e) {
+            tmp.delete();
+            throw Throwables.propagate(e);
+        }
+        if (!tmp.renameTo(f) && !(f.delete() && tmp.renameTo(f))) {
+            tmp.delete();
+            throw new RuntimeException("Can't replace " + f.getAbsolutePath());
+        }
+        return false;
+    }
+
     /**
      * Deletes the object with the provided {@link ObjectId id} from the database.
      * 
@@ -189,6 +556,9 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
     public boolean delete(ObjectId objectId) {
         File filePath = filePath(objectId);
         boolean delete = filePath.delete();
+        if (delete) {
+            looseIndex.remove(objectId);
+        }
         return delete;
     }
 
@@ -214,25 +584,19 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
     }
 
     /**
-     * Searches the database for {@link ObjectId}s that match the given partial id.
+     * Searches the loose object index for {@link ObjectId}s that match the given partial id,
+     * after listing again the fan-out directories the matches would live in if they changed since
+     * the index last saw them.
      * 
      * @param partialId the partial id to search for
      * @return a list of matching results
      */
     @Override
     public List<ObjectId> lookUp(final String partialId) {
-        File parent = filePath(partialId).getParentFile();
-        String[] list = parent.list();
-        if (null == list) {
-            return ImmutableList.of();
-        }
-        Builder<ObjectId> builder = ImmutableList.builder();
-        for (String oid : list) {
-            if (oid.startsWith(partialId)) {
-                builder.add(ObjectId.valueOf(oid));
-            }
-        }
-        return builder.build();
+        checkState(isOpen(), "database is not open");
+        final ObjectIdPrefix prefix = new ObjectIdPrefix(partialId);
+        checkLooseIndex(partialId.toLowerCase());
+        return looseIndex.lookUp(prefix);
     }
 
     @Override
@@ -0,0 +1,519 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.storage.AbstractObjectDatabase;
+import org.geogit.storage.ObjectSerialisingFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.inject.Inject;
+
+/**
+ * A file system object database that appends objects to large pack files instead of writing each
+ * one as a loose file.
+ * <p>
+ * Packs live in the {@code objects/pack} directory. Each {@code .pack} file has a sorted
+ * {@code .idx} companion mapping object ids to their location in the pack (see {@link PackFile}
+ * for the formats). New objects are appended to the pack currently being written, which is sealed
+ * and indexed once it reaches the {@link #setMaxPackSize(long) maximum pack size} or the database
+ * is closed.
+ * <p>
+ * Single object {@code put}s are buffered. A {@code putAll} call returns only once the whole
+ * batch, and any object buffered before it, is written to the pack and synced to disk, so refs
+ * updated after a batch never point to objects lost in a crash. Packs are also synced when sealed
+ * and when the database is closed.
+ * <p>
+ * Packed objects are immutable: {@link #delete(ObjectId)} only deletes loose objects, and returns
+ * {@code false} for an object found in a pack.
+ * <p>
+ * The pack being written is only visible to the process writing it, under an active name (see
+ * {@link PackWriter}); other processes sharing the repository see its objects once it's sealed.
+ * Active packs left behind by crashed processes are sealed when the database is opened.
+ * <p>
+ * Loose objects written by {@link FileObjectDatabase} are still readable, and are moved into a
+ * pack by {@link #repack()}.
+ *
+ * @see FileObjectDatabase
+ * @see AbstractObjectDatabase
+ */
+public class FilePackObjectDatabase extends FileObjectDatabase {
+
+    /**
+     * Size in bytes after which the pack being written is sealed and a new one started
+     */
+    public static final long DEFAULT_MAX_PACK_SIZE = 512L * 1024 * 1024;
+
+    private static final String PACK_DIRECTORY = "pack";
+
+    private static final String PACK_PREFIX = "pack-";
+
+    /**
+     * The sealed packs, newest first so that {@link #rewrite rewritten} objects shadow their older
+     * copies
+     */
+    private final List<PackFile> packs = new CopyOnWriteArrayList<PackFile>();
+
+    private File packDirectory;
+
+    private long maxPackSize = DEFAULT_MAX_PACK_SIZE;
+
+    private int packSequence;
+
+    /**
+     * The pack being appended to, lazily created. Guarded by {@code this}
+     */
+    private PackWriter writer;
+
+    /**
+     * Constructs a new {@code FilePackObjectDatabase} using the given platform.
+     *
+     * @param platform the platform to use.
+     */
+    @Inject
+    public FilePackObjectDatabase(final Platform platform,
+            final ObjectSerialisingFactory serialFactory) {
+        super(platform, serialFactory);
+    }
+
+    /**
+     * @param maxPackSize size in bytes after which the pack being written is sealed and a new one
+     *        started
+     */
+    public void setMaxPackSize(long maxPackSize) {
+        checkArgument(maxPackSize > 0, "maxPackSize shall be a positive number");
+        checkArgument(maxPackSize <= PackFile.MAX_PACK_SIZE, "maxPackSize shall be at most %s",
+                PackFile.MAX_PACK_SIZE);
+        this.maxPackSize = maxPackSize;
+    }
+
+    /**
+     * Seals the active packs left behind by crashed processes and loads the existing pack indexes,
+     * so that they're already there when the bloom filter is set up.
+     */
+    @Override
+    protected void openDataRoot() {
+        super.openDataRoot();
+        packDirectory = new File(getDataRoot(), PACK_DIRECTORY);
+        if (!packDirectory.exists() && !packDirectory.mkdirs()) {
+            throw new IllegalStateException("Can't create pack directory: "
+                    + packDirectory.getAbsolutePath());
+        }
+        packSequence = 0;
+        File[] activeFiles = packDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().startsWith(PACK_PREFIX)
+                        && f.getName().endsWith(PackFile.PACK_SUFFIX + PackFile.ACTIVE_SUFFIX);
+            }
+        });
+        for (File activeFile : activeFiles) {
+            PackWriter.recover(activeFile);
+            packSequence = Math.max(packSequence, sequenceOf(PackFile.packFileFor(activeFile)));
+        }
+        File[] packFiles = packDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().startsWith(PACK_PREFIX)
+                        && f.getName().endsWith(PackFile.PACK_SUFFIX);
+            }
+        });
+        Arrays.sort(packFiles);
+        for (File packFile : packFiles) {
+            packs.add(0, PackFile.open(packFile));
+            packSequence = Math.max(packSequence, sequenceOf(packFile));
+        }
+    }
+
+    /**
+     * Seals the pack being written, if any, and closes the database.
+     */
+    @Override
+    public synchronized void close() {
+        if (!isOpen()) {
+            return;
+        }
+        try {
+            if (writer != null) {
+                sealPack();
+            }
+        } finally {
+            for (PackFile pack : packs) {
+                pack.close();
+            }
+            packs.clear();
+            packDirectory = null;
+            super.close();
+        }
+    }
+
+    /**
+     * Determines if the given {@link ObjectId} exists in the object database, looking first in the
+     * packs and then for a loose object.
+     *
+     * @param id the id to search for
+     * @return true if the object exists, false otherwise
+     */
+    @Override
+    protected boolean existsInternal(final ObjectId id) {
+        synchronized (this) {
+            if (writer != null && writer.contains(id)) {
+                return true;
+            }
+        }
+        for (PackFile pack : packs) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return super.existsInternal(id);
+    }
+
+    /**
+     * Checks the packs for the whole batch, and only the ids not packed for loose objects.
+     */
+    @Override
+    protected Set<ObjectId> existsAllInternal(final List<ObjectId> ids) {
+        Set<ObjectId> found = Sets.newHashSet();
+        List<ObjectId> notPacked = Lists.newArrayList();
+        synchronized (this) {
+            for (ObjectId id : ids) {
+                if (existsPacked(id)) {
+                    found.add(id);
+                } else {
+                    notPacked.add(id);
+                }
+            }
+        }
+        if (!notPacked.isEmpty()) {
+            found.addAll(super.existsAllInternal(notPacked));
+        }
+        return found;
+    }
+
+    /**
+     * Counts the objects in the pack being written, the sealed packs and the loose objects through
+     * their indexes. Objects both packed and loose, or packed more than once, are counted twice.
+     */
+    @Override
+    protected long countObjectsInternal() {
+        long count;
+        synchronized (this) {
+            count = writer == null ? 0 : writer.size();
+        }
+        for (PackFile pack : packs) {
+            count += pack.size();
+        }
+        return count + super.countObjectsInternal();
+    }
+
+    /**
+     * Lists the objects in the pack being written and the sealed packs, then the loose objects.
+     */
+    @Override
+    protected Iterator<ObjectId> listIdsInternal() {
+        List<Iterator<ObjectId>> ids = Lists.newArrayList();
+        synchronized (this) {
+            if (writer != null) {
+                ids.add(writer.ids().iterator());
+            }
+        }
+        for (PackFile pack : packs) {
+            ids.add(pack.ids().iterator());
+        }
+        ids.add(super.listIdsInternal());
+        return Iterators.concat(ids.iterator());
+    }
+
+    /**
+     * Returns the packed objects in the batch as {@link #getRawBufferInternal(ObjectId) buffers},
+     * and reads only the ids not packed as loose objects.
+     */
+    @Override
+    protected Map<ObjectId, ByteBuffer> getAllRawInternal(final List<ObjectId> ids) {
+        Map<ObjectId, ByteBuffer> found = Maps.newLinkedHashMap();
+        List<ObjectId> notPacked = Lists.newArrayList();
+        for (ObjectId id : ids) {
+            ByteBuffer data = getRawBufferInternal(id);
+            if (data == null) {
+                notPacked.add(id);
+            } else {
+                found.put(id, data);
+            }
+        }
+        if (!notPacked.isEmpty()) {
+            found.putAll(super.getAllRawInternal(notPacked));
+        }
+        return found;
+    }
+
+    @Override
+    protected InputStream getRawInternal(final ObjectId id) {
+        byte[] data = readPacked(id);
+        if (data != null) {
+            return new ByteArrayInputStream(data);
+        }
+        return super.getRawInternal(id);
+    }
+
+    /**
+     * Returns packed objects as slices of the memory mapped pack files, so they're decompressed
+     * and parsed without being copied to the heap first. Loose objects are read through
+     * {@link #getRawInternal(ObjectId)}.
+     */
+    @Override
+    protected ByteBuffer getRawBufferInternal(final ObjectId id) {
+        synchronized (this) {
+            if (writer != null) {
+                byte[] data = writer.read(id);
+                if (data != null) {
+                    return ByteBuffer.wrap(data);
+                }
+            }
+        }
+        for (PackFile pack : packs) {
+            ByteBuffer data = pack.readBuffer(id);
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    private byte[] readPacked(final ObjectId id) {
+        synchronized (this) {
+            if (writer != null) {
+                byte[] data = writer.read(id);
+                if (data != null) {
+                    return data;
+                }
+            }
+        }
+        for (PackFile pack : packs) {
+            byte[] data = pack.read(id);
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Appends the object to the pack being written, unless it already exists.
+     *
+     * @see org.geogit.storage.AbstractObjectDatabase#putInternal(org.geogit.api.ObjectId, byte[])
+     */
+    @Override
+    protected synchronized boolean putInternal(final ObjectId id, final byte[] rawData) {
+        if (existsInternal(id)) {
+            return false;
+        }
+        append(id, rawData);
+        return true;
+    }
+
+    /**
+     * Appends the whole batch to the pack being written under a single lock acquisition, and
+     * syncs it once.
+     */
+    @Override
+    protected synchronized int putAllInternal(final Map<ObjectId, byte[]> objects) {
+        Set<ObjectId> loose = super.existsAllInternal(Lists.newArrayList(objects.keySet()));
+        int inserted = 0;
+        for (Map.Entry<ObjectId, byte[]> e : objects.entrySet()) {
+            final ObjectId id = e.getKey();
+            if (loose.contains(id) || existsPacked(id)) {
+                continue;
+            }
+            append(id, e.getValue());
+            inserted++;
+        }
+        sync();
+        return inserted;
+    }
+
+    private void append(final ObjectId id, final byte[] rawData) {
+        while (writer == null) {
+            // null if another process took the name
+            writer = PackWriter.create(nextPackFile());
+        }
+        writer.append(id, rawData);
+        if (writer.length() >= maxPackSize) {
+            sealPack();
+        }
+    }
+
+    /**
+     * Packed objects are immutable, so a packed object is replaced by appending its new form to
+     * the pack being written, which shadows the older copy as packs are searched newest first. The
+     * older copy is left in its pack. Loose objects are replaced in place.
+     */
+    @Override
+    protected synchronized boolean replaceInternal(final ObjectId id, final byte[] rawData) {
+        if (super.existsInternal(id)) {
+            return super.replaceInternal(id, rawData);
+        }
+        final boolean inserted = !existsPacked(id);
+        if (!inserted && writer != null && writer.contains(id)) {
+            sealPack();
+        }
+        append(id, rawData);
+        return inserted;
+    }
+
+    /**
+     * Deletes a loose object. Packed objects are immutable, so an object found in a pack is left
+     * alone, even if a loose copy of it exists too.
+     *
+     * @param objectId the id of the object to delete
+     * @return true if the object was deleted, false if it was not found or is packed
+     */
+    @Override
+    public synchronized boolean delete(ObjectId objectId) {
+        if (existsPacked(objectId)) {
+            return false;
+        }
+        return super.delete(objectId);
+    }
+
+    /**
+     * Searches the packs and loose objects for {@link ObjectId}s that match the given partial id.
+     *
+     * @param partialId the partial id to search for
+     * @return a list of matching results
+     */
+    @Override
+    public List<ObjectId> lookUp(final String partialId) {
+        final ObjectIdPrefix prefix = new ObjectIdPrefix(partialId);
+        Set<ObjectId> matches = new LinkedHashSet<ObjectId>(super.lookUp(partialId));
+        synchronized (this) {
+            if (writer != null) {
+                matches.addAll(writer.lookUp(prefix));
+            }
+        }
+        for (PackFile pack : packs) {
+            matches.addAll(pack.lookUp(prefix));
+        }
+        return ImmutableList.copyOf(matches);
+    }
+
+    /**
+     * Moves all loose objects into a new pack. Loose objects are deleted once the pack holding them
+     * has been sealed and indexed.
+     *
+     * @return the number of loose objects that were packed
+     */
+    public synchronized int repack() {
+        checkState(isOpen(), "database is not open");
+        if (writer != null) {
+            sealPack();
+        }
+        List<ObjectId> looseIds = Lists.newArrayList(super.listIdsInternal());
+        int packed = 0;
+        for (ObjectId id : looseIds) {
+            if (existsPacked(id)) {
+                continue;
+            }
+            try {
+                append(id, Files.toByteArray(getLooseFile(id)));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            packed++;
+        }
+        if (writer != null) {
+            sealPack();
+        }
+        for (ObjectId id : looseIds) {
+            File fanoutDir = getLooseFile(id).getParentFile();
+            super.delete(id);
+            // only succeeds if empty
+            if (fanoutDir.delete()) {
+                fanoutDir.getParentFile().delete();
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * @return the number of packed objects, including the ones in the pack being written
+     */
+    public synchronized int countPackedObjects() {
+        checkState(isOpen(), "database is not open");
+        int count = writer == null ? 0 : writer.size();
+        for (PackFile pack : packs) {
+            count += pack.size();
+        }
+        return count;
+    }
+
+    private boolean existsPacked(ObjectId id) {
+        if (writer != null && writer.contains(id)) {
+            return true;
+        }
+        for (PackFile pack : packs) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes out and syncs the objects appended to the pack being written, if any.
+     */
+    private void sync() {
+        if (writer != null) {
+            writer.sync();
+        }
+    }
+
+    private void sealPack() {
+        PackWriter sealing = writer;
+        writer = null;
+        packs.add(0, sealing.finish());
+    }
+
+    private File nextPackFile() {
+        packSequence++;
+        String name = String.format("%s%08d%s", PACK_PREFIX, packSequence, PackFile.PACK_SUFFIX);
+        return new File(packDirectory, name);
+    }
+
+    private static int sequenceOf(File packFile) {
+        String name = packFile.getName();
+        String seq = name.substring(PACK_PREFIX.length(),
+                name.length() - PackFile.PACK_SUFFIX.length());
+        try {
+            return Integer.parseInt(seq);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
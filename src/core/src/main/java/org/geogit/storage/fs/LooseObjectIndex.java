@@ -0,0 +1,297 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static org.geogit.storage.fs.PackFile.ID_SIZE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.io.Closeables;
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * A sorted index of the ids of the loose objects of a {@link FileObjectDatabase}, so that
+ * abbreviated ids are resolved through a binary search instead of listing fan-out directories,
+ * and the loose objects can be counted and listed without walking them.
+ * <p>
+ * The ids known when the index is loaded are kept in a single array of sorted raw ids, with a
+ * fan-out table on their first byte like the one of the {@link PackFile pack indexes}. The ids
+ * added and removed afterwards are kept in sorted sets on the side, and merged into the array
+ * when the index is {@link #writeTo(File) written}.
+ * <p>
+ * The file layout is the {@code "GGLX"} magic and an {@code int} version, followed by the 20
+ * bytes raw ids sorted by unsigned value. The number of ids is given by the file length.
+ * <p>
+ * The index is thread safe.
+ */
+final class LooseObjectIndex {
+
+    private static final byte[] MAGIC = { 'G', 'G', 'L', 'X' };
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = MAGIC.length + 4;
+
+    private static final int FANOUT_SIZE = 256;
+
+    private static final Comparator<byte[]> ID_ORDER = UnsignedBytes.lexicographicalComparator();
+
+    /**
+     * The ids known at load time, sorted
+     */
+    private final byte[] ids;
+
+    private final int count;
+
+    private final int[] fanout;
+
+    private final ConcurrentSkipListSet<ObjectId> added = new ConcurrentSkipListSet<ObjectId>(
+            ObjectIdPrefix.RAW_ORDER);
+
+    private final ConcurrentSkipListSet<ObjectId> removed = new ConcurrentSkipListSet<ObjectId>(
+            ObjectIdPrefix.RAW_ORDER);
+
+    private final AtomicInteger size;
+
+    private LooseObjectIndex(final byte[] ids) {
+        this.ids = ids;
+        this.count = ids.length / ID_SIZE;
+        this.fanout = new int[FANOUT_SIZE];
+        for (int i = 0; i < count; i++) {
+            fanout[ids[i * ID_SIZE] & 0xFF]++;
+        }
+        for (int i = 1; i < FANOUT_SIZE; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+        this.size = new AtomicInteger(count);
+    }
+
+    /**
+     * Creates an index holding the given ids, in any order.
+     */
+    static LooseObjectIndex build(final Iterator<ObjectId> looseIds) {
+        List<byte[]> sorted = new ArrayList<byte[]>();
+        while (looseIds.hasNext()) {
+            sorted.add(looseIds.next().getRawValue());
+        }
+        Collections.sort(sorted, ID_ORDER);
+        byte[] ids = new byte[sorted.size() * ID_SIZE];
+        int offset = 0;
+        for (byte[] id : sorted) {
+            System.arraycopy(id, 0, ids, offset, ID_SIZE);
+            offset += ID_SIZE;
+        }
+        return new LooseObjectIndex(ids);
+    }
+
+    /**
+     * @throws IOException if the file can't be read or is not a valid index
+     */
+    static LooseObjectIndex readFrom(final File file) throws IOException {
+        final long length = file.length();
+        if (length < HEADER_SIZE || (length - HEADER_SIZE) % ID_SIZE != 0
+                || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid loose object index size: " + file);
+        }
+        byte[] ids = new byte[(int) length - HEADER_SIZE];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                file)));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic) || in.readInt() != VERSION) {
+                throw new IOException("Not a loose object index: " + file);
+            }
+            in.readFully(ids);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+        LooseObjectIndex index = new LooseObjectIndex(ids);
+        for (int i = 1; i < index.count; i++) {
+            if (index.compare(i - 1, ids, i * ID_SIZE) >= 0) {
+                throw new IOException("Loose object index is not sorted: " + file);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Writes the whole index, current additions and removals included, to a temporary file that
+     * then replaces the given one.
+     */
+    void writeTo(final File file) throws IOException {
+        final File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            for (Iterator<ObjectId> it = iterator(); it.hasNext();) {
+                out.write(it.next().getRawValue());
+            }
+            out.close();
+            out = null;
+        } finally {
+            Closeables.closeQuietly(out);
+        }
+        if (file.exists() && !file.delete()) {
+            tmp.delete();
+            throw new IOException("Can't replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Can't rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Records a new loose object.
+     */
+    void add(final ObjectId id) {
+        if (removed.remove(id)) {
+            size.incrementAndGet();
+        } else if (find(id.getRawValue()) < 0 && added.add(id)) {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records the deletion of a loose object.
+     */
+    void remove(final ObjectId id) {
+        if (added.remove(id)) {
+            size.decrementAndGet();
+        } else if (find(id.getRawValue()) >= 0 && removed.add(id)) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of loose objects
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * @return the loose object ids that start with the given prefix, sorted
+     */
+    List<ObjectId> lookUp(final ObjectIdPrefix prefix) {
+        final byte[] lowerBound = prefix.lowerBound();
+        final byte[] upperBound = prefix.upperBound();
+        final int firstByte = lowerBound[0] & 0xFF;
+        int low = firstByte == 0 ? 0 : fanout[firstByte - 1];
+        int high = fanout[upperBound[0] & 0xFF];
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(mid, lowerBound, 0) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<ObjectId> matches = new ArrayList<ObjectId>(2);
+        for (int i = low; i < count && compare(i, upperBound, 0) <= 0; i++) {
+            ObjectId id = idAt(i);
+            if (!removed.contains(id)) {
+                matches.add(id);
+            }
+        }
+        if (!added.isEmpty()) {
+            matches.addAll(added.subSet(new ObjectId(lowerBound), true,
+                    new ObjectId(upperBound), true));
+            Collections.sort(matches, ObjectIdPrefix.RAW_ORDER);
+        }
+        return ImmutableList.copyOf(matches);
+    }
+
+    /**
+     * @return all the loose object ids, sorted
+     */
+    Iterator<ObjectId> iterator() {
+        Iterator<ObjectId> loaded = new AbstractIterator<ObjectId>() {
+            private int next;
+
+            @Override
+            protected ObjectId computeNext() {
+                return next < count ? idAt(next++) : endOfData();
+            }
+        };
+        if (!removed.isEmpty()) {
+            loaded = Iterators.filter(loaded, new Predicate<ObjectId>() {
+                @Override
+                public boolean apply(ObjectId id) {
+                    return !removed.contains(id);
+                }
+            });
+        }
+        if (added.isEmpty()) {
+            return loaded;
+        }
+        List<Iterator<ObjectId>> both = ImmutableList.of(loaded, added.iterator());
+        return Iterators.mergeSorted(both, ObjectIdPrefix.RAW_ORDER);
+    }
+
+    private ObjectId idAt(final int entry) {
+        byte[] raw = new byte[ID_SIZE];
+        System.arraycopy(ids, entry * ID_SIZE, raw, 0, ID_SIZE);
+        return new ObjectId(raw);
+    }
+
+    /**
+     * Binary searches the ids known at load time for the given raw id.
+     *
+     * @return the entry number, or a negative value if not found
+     */
+    private int find(final byte[] rawId) {
+        final int firstByte = rawId[0] & 0xFF;
+        int low = firstByte == 0 ? 0 : fanout[firstByte - 1];
+        int high = fanout[firstByte] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int c = compare(mid, rawId, 0);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(final int entry, final byte[] rawId, final int rawIdOffset) {
+        final int offset = entry * ID_SIZE;
+        for (int i = 0; i < ID_SIZE; i++) {
+            int c = (ids[offset + i] & 0xFF) - (rawId[rawIdOffset + i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,100 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Comparator;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.collect.Ordering;
+
+/**
+ * An abbreviated object id, as typed by users, turned into the range of raw ids it matches.
+ * <p>
+ * Indexes sorted by unsigned raw id find all the matches of a prefix by binary searching for its
+ * {@link #lowerBound() lower bound} and scanning up to its {@link #upperBound() upper bound}.
+ * Prefixes with an odd number of hex digits are supported, the last digit constraining the high
+ * nibble of its byte only.
+ */
+final class ObjectIdPrefix {
+
+    /**
+     * Orders ids by their unsigned raw bytes, which is the order of their hex representation and
+     * their {@link ObjectId#compareTo(ObjectId) natural order}
+     */
+    static final Comparator<ObjectId> RAW_ORDER = Ordering.natural();
+
+    private final String partialId;
+
+    private final byte[] lowerBound;
+
+    private final byte[] upperBound;
+
+    /**
+     * @param partialId the leading hex digits of an object id
+     */
+    ObjectIdPrefix(final String partialId) {
+        checkNotNull(partialId);
+        checkArgument(partialId.length() <= 2 * PackFile.ID_SIZE, "not a partial id: %s",
+                partialId);
+        this.partialId = partialId;
+        this.lowerBound = new byte[PackFile.ID_SIZE];
+        this.upperBound = new byte[PackFile.ID_SIZE];
+        for (int i = 0; i < 2 * PackFile.ID_SIZE; i++) {
+            final int low;
+            final int high;
+            if (i < partialId.length()) {
+                low = high = Character.digit(partialId.charAt(i), 16);
+                checkArgument(low != -1, "At index %s: partialId is not a valid hash subsequence '%s'",
+                        i, partialId);
+            } else {
+                low = 0x0;
+                high = 0xF;
+            }
+            final int shift = i % 2 == 0 ? 4 : 0;
+            lowerBound[i / 2] |= low << shift;
+            upperBound[i / 2] |= high << shift;
+        }
+    }
+
+    String getPartialId() {
+        return partialId;
+    }
+
+    /**
+     * @return the smallest raw id matching this prefix, not to be modified
+     */
+    byte[] lowerBound() {
+        return lowerBound;
+    }
+
+    /**
+     * @return the largest raw id matching this prefix, not to be modified
+     */
+    byte[] upperBound() {
+        return upperBound;
+    }
+
+    /**
+     * @return whether the given id starts with this prefix
+     */
+    boolean matches(final ObjectId id) {
+        for (int i = 0; i < PackFile.ID_SIZE; i++) {
+            final int b = id.byteN(i);
+            if (b < (lowerBound[i] & 0xFF) || b > (upperBound[i] & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return partialId;
+    }
+}
@@ -0,0 +1,465 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.base.Throwables;
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * A sealed pack of objects and its sorted {@code .idx} companion.
+ * <p>
+ * The pack file layout is:
+ * <ul>
+ * <li>header: {@code "GGPK"} magic and an {@code int} version</li>
+ * <li>entries: for each object, its 20 bytes raw {@link ObjectId}, the {@code int} length of its
+ * stored (compressed) data, and the data itself</li>
+ * </ul>
+ * The index file layout is:
+ * <ul>
+ * <li>header: {@code "GGIX"} magic and an {@code int} version</li>
+ * <li>fan-out table: 256 {@code int}s, where entry {@code N} holds the number of objects whose
+ * first id byte is less than or equal to {@code N}</li>
+ * <li>entries: sorted by unsigned raw id, each made of the 20 bytes raw id, the {@code long}
+ * offset of the object data in the pack, and the {@code int} data length</li>
+ * </ul>
+ * The pack file is self describing, so the index can always be rebuilt from it if missing. A pack
+ * being appended to has an {@link #activeFileFor(File) active} name, and only gets the
+ * {@code .pack} one once complete and indexed, so readers never see a partially written pack.
+ * <p>
+ * Both files are memory mapped read only once the pack is sealed, so lookups don't go through the
+ * heap and object data can be handed out as {@link #readBuffer(ObjectId) buffer slices} with no
+ * copying at all. This limits a pack to {@link #MAX_PACK_SIZE} bytes, the size of one mapping.
+ */
+final class PackFile {
+
+    static final String PACK_SUFFIX = ".pack";
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Suffix appended to the name of a pack while it's being written
+     */
+    static final String ACTIVE_SUFFIX = ".active";
+
+    static final int VERSION = 1;
+
+    /**
+     * Largest pack that can be mapped in a single {@link MappedByteBuffer}
+     */
+    static final long MAX_PACK_SIZE = Integer.MAX_VALUE;
+
+    private static final byte[] PACK_MAGIC = { 'G', 'G', 'P', 'K' };
+
+    private static final byte[] INDEX_MAGIC = { 'G', 'G', 'I', 'X' };
+
+    static final int PACK_HEADER_SIZE = PACK_MAGIC.length + 4;
+
+    static final int ID_SIZE = 20;
+
+    /**
+     * Size of the per object header in the pack file: raw id plus data length
+     */
+    static final int ENTRY_HEADER_SIZE = ID_SIZE + 4;
+
+    private static final int FANOUT_SIZE = 256;
+
+    private static final int INDEX_HEADER_SIZE = INDEX_MAGIC.length + 4 + 4 * FANOUT_SIZE;
+
+    static final int INDEX_ENTRY_SIZE = ID_SIZE + 8 + 4;
+
+    private static final Comparator<byte[]> ID_ORDER = UnsignedBytes.lexicographicalComparator();
+
+    /**
+     * Location of an object's data inside a pack file
+     */
+    static final class PackEntry {
+
+        final byte[] id;
+
+        final long offset;
+
+        final int length;
+
+        PackEntry(byte[] id, long offset, int length) {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final File packFile;
+
+    /**
+     * Read only mapping of the whole pack file
+     */
+    private final ByteBuffer data;
+
+    private final int[] fanout;
+
+    /**
+     * Index entries, positioned right after the index header
+     */
+    private final ByteBuffer index;
+
+    private PackFile(File packFile, int[] fanout, ByteBuffer index, ByteBuffer data) {
+        this.packFile = packFile;
+        this.fanout = fanout;
+        this.index = index;
+        this.data = data;
+    }
+
+    /**
+     * Opens the given sealed pack file, rebuilding its index first if it does not exist. The pack
+     * is only read, never modified.
+     */
+    static PackFile open(final File packFile) {
+        checkNotNull(packFile);
+        final File indexFile = indexFileFor(packFile);
+        try {
+            if (!indexFile.exists()) {
+                RandomAccessFile raf = new RandomAccessFile(packFile, "r");
+                try {
+                    writeIndex(indexFile, scan(raf, packFile, false));
+                } finally {
+                    raf.close();
+                }
+            }
+            final ByteBuffer buff = map(indexFile);
+            final int[] fanout = readIndexHeader(buff, indexFile);
+            return new PackFile(packFile, fanout, buff.slice(), map(packFile));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Maps the whole file read only. The mapping stays valid after the channel is closed.
+     */
+    private static MappedByteBuffer map(final File file) throws IOException {
+        if (file.length() > MAX_PACK_SIZE) {
+            throw new IOException("File too large to be mapped: " + file);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    static File indexFileFor(final File packFile) {
+        String name = packFile.getName();
+        name = name.substring(0, name.length() - PACK_SUFFIX.length()) + INDEX_SUFFIX;
+        return new File(packFile.getParentFile(), name);
+    }
+
+    /**
+     * @return the name a pack has while being written
+     */
+    static File activeFileFor(final File packFile) {
+        return new File(packFile.getParentFile(), packFile.getName() + ACTIVE_SUFFIX);
+    }
+
+    /**
+     * @return the name a pack being written gets once sealed
+     */
+    static File packFileFor(final File activeFile) {
+        String name = activeFile.getName();
+        name = name.substring(0, name.length() - ACTIVE_SUFFIX.length());
+        return new File(activeFile.getParentFile(), name);
+    }
+
+    /**
+     * @return the pack file this object reads from
+     */
+    File getPackFile() {
+        return packFile;
+    }
+
+    /**
+     * @return the number of objects in this pack
+     */
+    int size() {
+        return fanout[FANOUT_SIZE - 1];
+    }
+
+    boolean contains(final ObjectId id) {
+        return find(id.getRawValue()) >= 0;
+    }
+
+    /**
+     * @return the stored data for the object, or {@code null} if it's not in this pack
+     */
+    byte[] read(final ObjectId id) {
+        final ByteBuffer buffer = readBuffer(id);
+        if (buffer == null) {
+            return null;
+        }
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return a read only slice of the pack mapping holding the stored data for the object, or
+     *         {@code null} if it's not in this pack
+     */
+    ByteBuffer readBuffer(final ObjectId id) {
+        final int entry = find(id.getRawValue());
+        if (entry < 0) {
+            return null;
+        }
+        final int entryOffset = entry * INDEX_ENTRY_SIZE;
+        final long dataOffset = index.getLong(entryOffset + ID_SIZE);
+        final int length = index.getInt(entryOffset + ID_SIZE + 8);
+        if (dataOffset + length > data.capacity()) {
+            throw new IllegalStateException("Unexpected end of pack file " + packFile
+                    + " reading " + id);
+        }
+        final ByteBuffer slice = data.asReadOnlyBuffer();
+        slice.limit((int) dataOffset + length);
+        slice.position((int) dataOffset);
+        return slice.slice();
+    }
+
+    /**
+     * Binary searches the index for the first id matching the prefix and scans from there while
+     * the ids still match.
+     *
+     * @return all the ids in this pack that start with the given prefix
+     */
+    List<ObjectId> lookUp(final ObjectIdPrefix prefix) {
+        final byte[] lowerBound = prefix.lowerBound();
+        final byte[] upperBound = prefix.upperBound();
+        final int firstByte = lowerBound[0] & 0xFF;
+        int low = firstByte == 0 ? 0 : fanout[firstByte - 1];
+        int high = fanout[upperBound[0] & 0xFF];
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(mid, lowerBound) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<ObjectId> matches = new ArrayList<ObjectId>(2);
+        final int size = size();
+        for (int i = low; i < size && compare(i, upperBound) <= 0; i++) {
+            final byte[] id = new byte[ID_SIZE];
+            readId(i, id);
+            matches.add(new ObjectId(id));
+        }
+        return matches;
+    }
+
+    /**
+     * @return all the ids in this pack, in index order
+     */
+    List<ObjectId> ids() {
+        final int size = size();
+        List<ObjectId> ids = new ArrayList<ObjectId>(size);
+        for (int i = 0; i < size; i++) {
+            final byte[] id = new byte[ID_SIZE];
+            readId(i, id);
+            ids.add(new ObjectId(id));
+        }
+        return ids;
+    }
+
+    /**
+     * Memory mappings can't be released explicitly, they are unmapped once this pack and the
+     * buffers it handed out are garbage collected.
+     */
+    void close() {
+        // nothing to do
+    }
+
+    /**
+     * Binary searches the index for the given raw id.
+     *
+     * @return the index entry number, or a negative value if not found
+     */
+    private int find(final byte[] rawId) {
+        final int firstByte = rawId[0] & 0xFF;
+        int low = firstByte == 0 ? 0 : fanout[firstByte - 1];
+        int high = fanout[firstByte] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int c = compare(mid, rawId);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(final int entry, final byte[] rawId) {
+        final int offset = entry * INDEX_ENTRY_SIZE;
+        for (int i = 0; i < ID_SIZE; i++) {
+            int c = (index.get(offset + i) & 0xFF) - (rawId[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private void readId(final int entry, final byte[] target) {
+        final int offset = entry * INDEX_ENTRY_SIZE;
+        for (int i = 0; i < ID_SIZE; i++) {
+            target[i] = index.get(offset + i);
+        }
+    }
+
+
+    private static int[] readIndexHeader(ByteBuffer buff, File indexFile) throws IOException {
+        byte[] magic = new byte[INDEX_MAGIC.length];
+        buff.get(magic);
+        if (!Arrays.equals(INDEX_MAGIC, magic)) {
+            throw new IOException("Not a pack index file: " + indexFile);
+        }
+        int version = buff.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported pack index version " + version + ": " + indexFile);
+        }
+        int[] fanout = new int[FANOUT_SIZE];
+        for (int i = 0; i < FANOUT_SIZE; i++) {
+            fanout[i] = buff.getInt();
+        }
+        if (buff.remaining() != fanout[FANOUT_SIZE - 1] * INDEX_ENTRY_SIZE) {
+            throw new IOException("Corrupt pack index file: " + indexFile);
+        }
+        return fanout;
+    }
+
+    /**
+     * Writes the pack file header to a newly created pack.
+     */
+    static void writePackHeader(RandomAccessFile pack) throws IOException {
+        pack.write(PACK_MAGIC);
+        pack.writeInt(VERSION);
+    }
+
+    /**
+     * Writes the sorted index for the given entries, first to a temporary file that's then renamed
+     * to {@code indexFile} so that a partially written index is never seen.
+     */
+    static void writeIndex(final File indexFile, final Collection<PackEntry> entries)
+            throws IOException {
+
+        List<PackEntry> sorted = new ArrayList<PackEntry>(entries);
+        Collections.sort(sorted, new Comparator<PackEntry>() {
+            @Override
+            public int compare(PackEntry o1, PackEntry o2) {
+                return ID_ORDER.compare(o1.id, o2.id);
+            }
+        });
+
+        int[] fanout = new int[FANOUT_SIZE];
+        for (PackEntry e : sorted) {
+            fanout[e.id[0] & 0xFF]++;
+        }
+        for (int i = 1; i < FANOUT_SIZE; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        final File tmp = File.createTempFile(indexFile.getName(), ".tmp",
+                indexFile.getParentFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                tmp), 64 * 1024));
+        try {
+            out.write(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            for (PackEntry e : sorted) {
+                out.write(e.id);
+                out.writeLong(e.offset);
+                out.writeInt(e.length);
+            }
+        } finally {
+            out.close();
+        }
+        if (indexFile.exists() && !indexFile.delete()) {
+            throw new IOException("Unable to replace pack index " + indexFile);
+        }
+        if (!tmp.renameTo(indexFile)) {
+            throw new IOException("Unable to rename " + tmp + " to " + indexFile);
+        }
+        indexFile.setLastModified(System.currentTimeMillis());
+        checkIndexSize(indexFile, INDEX_HEADER_SIZE + sorted.size() * INDEX_ENTRY_SIZE);
+    }
+
+    private static void checkIndexSize(File indexFile, long expected) throws IOException {
+        if (indexFile.length() != expected) {
+            throw new IOException("Pack index " + indexFile + " should be " + expected
+                    + " bytes long but is " + indexFile.length());
+        }
+    }
+
+    /**
+     * Scans a pack file and returns the location of all its objects. A trailing, partially
+     * written object, as left by an interrupted append, is ignored, and truncated from the pack if
+     * asked to, which only the process holding the lock of an active pack may do.
+     */
+    static List<PackEntry> scan(final RandomAccessFile raf, final File packFile,
+            final boolean truncate) throws IOException {
+        List<PackEntry> entries = new ArrayList<PackEntry>();
+        final long fileLength = raf.length();
+        raf.seek(0);
+        byte[] magic = new byte[PACK_MAGIC.length];
+        raf.readFully(magic);
+        if (!Arrays.equals(PACK_MAGIC, magic)) {
+            throw new IOException("Not a pack file: " + packFile);
+        }
+        int version = raf.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported pack version " + version + ": " + packFile);
+        }
+        long position = PACK_HEADER_SIZE;
+        while (position + ENTRY_HEADER_SIZE <= fileLength) {
+            byte[] id = new byte[ID_SIZE];
+            raf.seek(position);
+            raf.readFully(id);
+            int length = raf.readInt();
+            long dataOffset = position + ENTRY_HEADER_SIZE;
+            if (length < 0 || dataOffset + length > fileLength) {
+                break;
+            }
+            entries.add(new PackEntry(id, dataOffset, length));
+            position = dataOffset + length;
+        }
+        if (truncate && position < fileLength) {
+            raf.setLength(position);
+        }
+        return entries;
+    }
+}
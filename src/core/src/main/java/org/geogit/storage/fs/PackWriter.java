@@ -0,0 +1,327 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.geogit.api.ObjectId;
+import org.geogit.storage.fs.PackFile.PackEntry;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+
+/**
+ * Appends objects to a new pack file, keeping track of their locations until the pack is
+ * {@link #finish() sealed} and its index written.
+ * <p>
+ * While being appended to, the pack is written under its {@link PackFile#activeFileFor active}
+ * name and locked, so other processes neither read nor recover it; it's only renamed to its final
+ * name once sealed and indexed. An active pack left behind by a crashed process is sealed by the
+ * next one to {@link #recover(File) recover} it.
+ * <p>
+ * Appended objects are buffered in memory and written to disk in large chunks, or when
+ * {@link #sync() synced}; reading an object that's still buffered flushes the buffer first. This
+ * class is not thread safe.
+ */
+final class PackWriter {
+
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * How long to wait for the lock of a newly created active pack, which another process may be
+     * holding for a moment while checking whether it's a leftover to recover
+     */
+    private static final long LOCK_TIMEOUT_MILLIS = 10 * 1000;
+
+    private final File packFile;
+
+    private final File activeFile;
+
+    private RandomAccessFile file;
+
+    private FileLock lock;
+
+    private final ByteArrayOutputStream buffer;
+
+    private final DataOutputStream bufferOut;
+
+    /**
+     * Pack file offset where the {@link #buffer} contents start
+     */
+    private long flushedLength;
+
+    private final Map<ObjectId, PackEntry> entries;
+
+    private PackWriter(final File packFile, final File activeFile) throws IOException {
+        this.packFile = packFile;
+        this.activeFile = activeFile;
+        this.entries = Maps.newHashMap();
+        this.buffer = new ByteArrayOutputStream(WRITE_BUFFER_SIZE);
+        this.bufferOut = new DataOutputStream(buffer);
+        this.file = new RandomAccessFile(activeFile, "rw");
+        try {
+            this.lock = lock(file.getChannel());
+            PackFile.writePackHeader(file);
+            this.flushedLength = file.length();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts writing the given pack, unless it or its active file already exist, as another
+     * process may have claimed the same name.
+     *
+     * @return the writer, or {@code null} if the name is taken
+     */
+    static PackWriter create(final File packFile) {
+        final File activeFile = PackFile.activeFileFor(packFile);
+        try {
+            if (packFile.exists() || !activeFile.createNewFile()) {
+                return null;
+            }
+            return new PackWriter(packFile, activeFile);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Seals an active pack left behind by a process that crashed while appending to it: drops the
+     * partially written trailing object, if any, indexes it and renames it to its final name.
+     * Active packs that are locked, as another process is still appending to them, or that don't
+     * even have a header yet, as their writer is just starting, are left alone.
+     *
+     * @return {@code true} if the pack was sealed
+     */
+    static boolean recover(final File activeFile) {
+        final File packFile = PackFile.packFileFor(activeFile);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(activeFile, "rw");
+            try {
+                FileLock lock;
+                try {
+                    lock = raf.getChannel().tryLock();
+                } catch (OverlappingFileLockException e) {
+                    // locked by another writer of this virtual machine
+                    lock = null;
+                }
+                if (lock == null || raf.length() < PackFile.PACK_HEADER_SIZE) {
+                    return false;
+                }
+                List<PackEntry> entries = PackFile.scan(raf, activeFile, true);
+                raf.getChannel().force(true);
+                PackFile.writeIndex(PackFile.indexFileFor(packFile), entries);
+            } finally {
+                raf.close();
+            }
+            rename(activeFile, packFile);
+            return true;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    File getPackFile() {
+        return packFile;
+    }
+
+    /**
+     * @return the number of objects appended so far
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the current size of the pack in bytes, including buffered objects
+     */
+    long length() {
+        return flushedLength + buffer.size();
+    }
+
+    boolean contains(final ObjectId id) {
+        return entries.containsKey(id);
+    }
+
+    /**
+     * @return the ids of the objects appended so far
+     */
+    List<ObjectId> ids() {
+        return new ArrayList<ObjectId>(entries.keySet());
+    }
+
+    /**
+     * @return the ids of the appended objects that start with the given prefix
+     */
+    List<ObjectId> lookUp(final ObjectIdPrefix prefix) {
+        List<ObjectId> matches = new ArrayList<ObjectId>(2);
+        for (ObjectId id : entries.keySet()) {
+            if (prefix.matches(id)) {
+                matches.add(id);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Appends the object data to the pack, unless the object was already appended.
+     *
+     * @return {@code true} if appended, {@code false} if the pack already contained it
+     */
+    boolean append(final ObjectId id, final byte[] data) {
+        if (entries.containsKey(id)) {
+            return false;
+        }
+        final long offset = length() + PackFile.ENTRY_HEADER_SIZE;
+        final byte[] rawId = id.getRawValue();
+        try {
+            bufferOut.write(rawId);
+            bufferOut.writeInt(data.length);
+            bufferOut.write(data);
+            if (buffer.size() >= WRITE_BUFFER_SIZE) {
+                flush();
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        entries.put(id, new PackEntry(rawId, offset, data.length));
+        return true;
+    }
+
+    /**
+     * @return the stored data for the given object, or {@code null} if it wasn't appended to this
+     *         pack
+     */
+    byte[] read(final ObjectId id) {
+        final PackEntry entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            if (entry.offset >= flushedLength) {
+                flush();
+            }
+            byte[] data = new byte[entry.length];
+            file.seek(entry.offset);
+            file.readFully(data);
+            return data;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Writes out the buffered objects and syncs the pack file to disk, so that the objects
+     * appended so far survive a crash of the process or the system.
+     */
+    void sync() {
+        try {
+            flush();
+            file.getChannel().force(true);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Flushes any buffered object, syncs the pack file to disk, writes its index and renames the
+     * pack to its final name.
+     *
+     * @return the sealed pack, ready to be read
+     */
+    PackFile finish() {
+        try {
+            flush();
+            file.getChannel().force(true);
+            PackFile.writeIndex(PackFile.indexFileFor(packFile), entries.values());
+            lock.release();
+            file.close();
+            file = null;
+            rename(activeFile, packFile);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        entries.clear();
+        return PackFile.open(packFile);
+    }
+
+    private static void rename(final File activeFile, final File packFile) throws IOException {
+        if (!activeFile.renameTo(packFile)) {
+            // a process recovering it between the lock release and the rename did it already
+            checkState(packFile.exists() && !activeFile.exists(), "Unable to rename %s to %s",
+                    activeFile, packFile);
+        }
+    }
+
+    /**
+     * Locks a newly created active pack, waiting for other processes that may be checking it.
+     */
+    private static FileLock lock(final FileChannel channel) throws IOException {
+        final long deadline = System.currentTimeMillis() + LOCK_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    return lock;
+                }
+            } catch (OverlappingFileLockException e) {
+                // held by a recovering database of this virtual machine
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Unable to lock new pack file");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted locking new pack file");
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        if (buffer.size() == 0) {
+            return;
+        }
+        file.seek(flushedLength);
+        buffer.writeTo(new RandomAccessFileOutputStream(file));
+        flushedLength += buffer.size();
+        buffer.reset();
+    }
+
+    private static final class RandomAccessFileOutputStream extends OutputStream {
+
+        private final RandomAccessFile file;
+
+        RandomAccessFileOutputStream(RandomAccessFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            file.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            file.write(b, off, len);
+        }
+    }
+}
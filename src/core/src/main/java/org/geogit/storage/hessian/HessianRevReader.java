@@ -6,6 +6,7 @@ package org.geogit.storage.hessian;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
 
@@ -15,6 +16,7 @@ import org.geogit.api.Ref;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.SpatialNode;
+import org.geogit.storage.ByteBufferInputStream;
 import org.geogit.storage.ObjectReader;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
@@ -23,6 +25,7 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.caucho.hessian.io.Hessian2Input;
 import com.google.common.base.Throwables;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Abstract parent class to readers of Rev's. This class provides some common functions used by
@@ -31,10 +34,11 @@ import com.google.common.base.Throwables;
  */
 abstract class HessianRevReader<T> implements ObjectReader<T> {
     /**
-     * Different types of tree nodes.
+     * Different types of tree nodes. A {@code SIZED_REF} is a {@code REF} to a tree followed by the
+     * size of the tree, and a {@code BOUNDED_BUCKET} a {@code BUCKET} followed by its bounds.
      */
     public enum Node {
-        REF(0), BUCKET(1), END(2);
+        REF(0), BUCKET(1), END(2), SIZED_REF(3), BOUNDED_BUCKET(4);
 
         private int value;
 
@@ -100,6 +104,15 @@ abstract class HessianRevReader<T> implements ObjectReader<T> {
         }
     }
 
+    /**
+     * Reads straight from the buffer through a {@link ByteBufferInputStream}, so no copy of the
+     * buffer contents is made.
+     */
+    @Override
+    public final T read(ObjectId id, ByteBuffer rawData) throws IllegalArgumentException {
+        return read(id, new ByteBufferInputStream(rawData));
+    }
+
     protected abstract T read(ObjectId id, Hessian2Input hin, RevObject.TYPE type)
             throws IOException;
 
@@ -130,6 +143,13 @@ abstract class HessianRevReader<T> implements ObjectReader<T> {
     }
 
     protected org.geogit.api.Node readNode(Hessian2Input hin) throws IOException {
+        return readNode(hin, false);
+    }
+
+    /**
+     * @param sized whether the node was written as a {@link Node#SIZED_REF}
+     */
+    protected org.geogit.api.Node readNode(Hessian2Input hin, boolean sized) throws IOException {
         TYPE type = TYPE.valueOf(hin.readInt());
         String name = hin.readString();
         ObjectId id = readObjectId(hin);
@@ -137,7 +157,14 @@ abstract class HessianRevReader<T> implements ObjectReader<T> {
         BoundingBox bbox = readBBox(hin);
 
         org.geogit.api.Node ref;
-        if (bbox == null) {
+        if (sized) {
+            long treeSize = hin.readLong();
+            if (bbox == null) {
+                ref = org.geogit.api.Node.tree(name, id, metadataId, treeSize);
+            } else {
+                ref = SpatialNode.tree(name, id, metadataId, bbox, treeSize);
+            }
+        } else if (bbox == null) {
             ref = new org.geogit.api.Node(name, id, metadataId, type);
         } else {
             ref = new SpatialNode(name, id, metadataId, type, bbox);
@@ -174,6 +201,25 @@ abstract class HessianRevReader<T> implements ObjectReader<T> {
         return bbox;
     }
 
+    /**
+     * Reads an envelope written as four double values, or as a single NaN value if it's a null
+     * envelope.
+     * 
+     * @param hin
+     * @return the envelope described in the stream
+     * @throws IOException
+     */
+    protected Envelope readEnvelope(Hessian2Input hin) throws IOException {
+        double minx = hin.readDouble();
+        if (Double.isNaN(minx)) {
+            return new Envelope();
+        }
+        double maxx = hin.readDouble();
+        double miny = hin.readDouble();
+        double maxy = hin.readDouble();
+        return new Envelope(minx, maxx, miny, maxy);
+    }
+
     private static CoordinateReferenceSystem lookupCrs(final String epsgCode) {
         CoordinateReferenceSystem crs = crsCache.get(epsgCode);
         if (crs == null) {
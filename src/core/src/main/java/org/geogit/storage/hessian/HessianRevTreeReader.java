@@ -19,6 +19,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Reads {@link RevTree trees} from a binary encoded stream.
@@ -39,12 +40,13 @@ class HessianRevTreeReader extends HessianRevReader<RevTree> implements ObjectRe
         Builder<org.geogit.api.Node> features = ImmutableList.builder();
         Builder<org.geogit.api.Node> trees = ImmutableList.builder();
         TreeMap<Integer, ObjectId> subtrees = Maps.newTreeMap();
+        TreeMap<Integer, Envelope> subtreeBounds = Maps.newTreeMap();
 
         while (true) {
             Node type = Node.fromValue(hin.readInt());
 
-            if (type.equals(Node.REF)) {
-                org.geogit.api.Node entryRef = readNode(hin);
+            if (type.equals(Node.REF) || type.equals(Node.SIZED_REF)) {
+                org.geogit.api.Node entryRef = readNode(hin, type.equals(Node.SIZED_REF));
                 if (entryRef.getType().equals(TYPE.TREE)) {
                     trees.add(entryRef);
                 } else {
@@ -52,6 +54,9 @@ class HessianRevTreeReader extends HessianRevReader<RevTree> implements ObjectRe
                 }
             } else if (type.equals(Node.BUCKET)) {
                 parseAndSetSubTree(hin, subtrees);
+            } else if (type.equals(Node.BOUNDED_BUCKET)) {
+                Integer bucket = parseAndSetSubTree(hin, subtrees);
+                subtreeBounds.put(bucket, readEnvelope(hin));
             } else if (type.equals(Node.END)) {
                 break;
             }
@@ -61,15 +66,19 @@ class HessianRevTreeReader extends HessianRevReader<RevTree> implements ObjectRe
         if (subtrees.isEmpty()) {
             tree = RevTreeImpl.createLeafTree(id, size, features.build(), trees.build());
         } else {
-            tree = RevTreeImpl.createNodeTree(id, size, subtrees);
+            tree = RevTreeImpl.createNodeTree(id, size, subtrees, subtreeBounds);
         }
         return tree;
     }
 
-    private void parseAndSetSubTree(Hessian2Input hin, TreeMap<Integer, ObjectId> subtrees)
+    /**
+     * @return the index of the bucket read
+     */
+    private Integer parseAndSetSubTree(Hessian2Input hin, TreeMap<Integer, ObjectId> subtrees)
             throws IOException {
-        int bucket = hin.readInt();
+        Integer bucket = Integer.valueOf(hin.readInt());
         ObjectId id = readObjectId(hin);
-        subtrees.put(Integer.valueOf(bucket), id);
+        subtrees.put(bucket, id);
+        return bucket;
     }
 }
@@ -17,6 +17,7 @@ import org.geogit.storage.ObjectWriter;
 import com.caucho.hessian.io.Hessian2Output;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableSortedMap;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Writes a {@link RevTree tree} to a binary encoded stream.
@@ -45,7 +46,7 @@ class HessianRevTreeWriter extends HessianRevWriter implements ObjectWriter<RevT
             if (revTree.features().isPresent()) {
                 writeChildren(hout, revTree.features().get());
             } else if (revTree.buckets().isPresent()) {
-                writeBuckets(hout, revTree.buckets().get());
+                writeBuckets(hout, revTree.buckets().get(), revTree.bucketBounds());
             }
 
             hout.writeInt(HessianRevTreeReader.Node.END.getValue());
@@ -63,13 +64,18 @@ class HessianRevTreeWriter extends HessianRevWriter implements ObjectWriter<RevT
         }
     }
 
-    private void writeBuckets(Hessian2Output hout, ImmutableSortedMap<Integer, ObjectId> buckets)
-            throws IOException {
+    private void writeBuckets(Hessian2Output hout, ImmutableSortedMap<Integer, ObjectId> buckets,
+            ImmutableSortedMap<Integer, Envelope> bucketBounds) throws IOException {
 
         for (Entry<Integer, ObjectId> entry : buckets.entrySet()) {
-            hout.writeInt(HessianRevReader.Node.BUCKET.getValue());
+            Envelope bounds = bucketBounds.get(entry.getKey());
+            hout.writeInt((bounds == null ? HessianRevReader.Node.BUCKET
+                    : HessianRevReader.Node.BOUNDED_BUCKET).getValue());
             hout.writeInt(entry.getKey().intValue());
             HessianRevTreeWriter.this.writeObjectId(hout, entry.getValue());
+            if (bounds != null) {
+                HessianRevTreeWriter.this.writeEnvelope(hout, bounds);
+            }
         }
     }
 }
@@ -18,8 +18,10 @@ import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.caucho.hessian.io.Hessian2Output;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Abstract parent class to writers of Rev's. This class provides some common functions used by
@@ -67,12 +69,17 @@ class HessianRevWriter {
         if (node instanceof SpatialNode) {
             bounds = ((SpatialNode) node).getBounds();
         }
-        hout.writeInt(HessianRevReader.Node.REF.getValue());
+        Optional<Long> treeSize = node.getTreeSize();
+        hout.writeInt((treeSize.isPresent() ? HessianRevReader.Node.SIZED_REF
+                : HessianRevReader.Node.REF).getValue());
         hout.writeInt(node.getType().value());
         hout.writeString(node.getName());
         writeObjectId(hout, node.getObjectId());
         writeObjectId(hout, node.getMetadataId().or(ObjectId.NULL));
         writeBBox(hout, bounds);
+        if (treeSize.isPresent()) {
+            hout.writeLong(treeSize.get().longValue());
+        }
     }
 
     /**
@@ -107,6 +114,25 @@ class HessianRevWriter {
         hout.writeString(epsgCode);
     }
 
+    /**
+     * Writes an envelope as four double values in the same order as {@link #writeBBox}, or a
+     * {@link Envelope#isNull() null} envelope as a single NaN value.
+     * 
+     * @param hout
+     * @param envelope
+     * @throws IOException
+     */
+    protected void writeEnvelope(Hessian2Output hout, Envelope envelope) throws IOException {
+        if (envelope.isNull()) {
+            hout.writeDouble(Double.NaN);
+            return;
+        }
+        hout.writeDouble(envelope.getMinX());
+        hout.writeDouble(envelope.getMaxX());
+        hout.writeDouble(envelope.getMinY());
+        hout.writeDouble(envelope.getMaxY());
+    }
+
     private String lookupIdentifier(CoordinateReferenceSystem crs) {
         String epsgCode = crsIdCache.get(crs);
         if (epsgCode == null) {
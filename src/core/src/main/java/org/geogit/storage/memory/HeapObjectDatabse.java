@@ -4,9 +4,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.geogit.api.ObjectId;
 import org.geogit.storage.AbstractObjectDatabase;
@@ -16,6 +18,7 @@ import org.geogit.storage.ObjectSerialisingFactory;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 
 /**
@@ -73,7 +76,7 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
      * @return true if the object exists, false otherwise
      */
     @Override
-    public boolean exists(ObjectId id) {
+    protected boolean existsInternal(ObjectId id) {
         checkNotNull(id);
         return objects.containsKey(id);
     }
@@ -131,4 +134,59 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
         return true;
     }
 
+    @Override
+    protected boolean replaceInternal(ObjectId id, byte[] rawData) {
+        return objects.put(id, rawData) == null;
+    }
+
+    /**
+     * Checks the whole batch under a single lock acquisition.
+     */
+    @Override
+    protected Set<ObjectId> existsAllInternal(List<ObjectId> ids) {
+        Set<ObjectId> found = Sets.newHashSet();
+        synchronized (objects) {
+            for (ObjectId id : ids) {
+                if (objects.containsKey(id)) {
+                    found.add(id);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Fetches the whole batch under a single lock acquisition.
+     */
+    @Override
+    protected Map<ObjectId, ByteBuffer> getAllRawInternal(List<ObjectId> ids) {
+        Map<ObjectId, ByteBuffer> found = Maps.newLinkedHashMap();
+        synchronized (objects) {
+            for (ObjectId id : ids) {
+                byte[] data = objects.get(id);
+                if (data != null) {
+                    found.put(id, ByteBuffer.wrap(data));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Inserts the whole batch under a single lock acquisition.
+     */
+    @Override
+    protected int putAllInternal(Map<ObjectId, byte[]> batch) {
+        int inserted = 0;
+        synchronized (objects) {
+            for (Map.Entry<ObjectId, byte[]> e : batch.entrySet()) {
+                if (!objects.containsKey(e.getKey())) {
+                    objects.put(e.getKey(), e.getValue());
+                    inserted++;
+                }
+            }
+        }
+        return inserted;
+    }
+
 }
@@ -6,12 +6,18 @@ package org.geogit.storage.memory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
 import org.geogit.api.RevObject;
 import org.geogit.storage.AbstractObjectDatabase;
 import org.geogit.storage.ObjectDatabase;
@@ -20,7 +26,11 @@ import org.geogit.storage.ObjectReader;
 import org.geogit.storage.ObjectSerialisingFactory;
 import org.geogit.storage.StagingDatabase;
 
+import com.google.common.base.Function;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.ning.compress.lzf.LZFInputStream;
 
@@ -72,6 +82,17 @@ public class HeapStagingDatabase extends HeapObjectDatabse implements StagingDat
         return exists;
     }
 
+    @Override
+    public Set<ObjectId> existsAll(Iterable<ObjectId> ids) {
+        Set<ObjectId> found = super.existsAll(ids);
+        Set<ObjectId> missing = Sets.newHashSet(ids);
+        missing.removeAll(found);
+        if (!missing.isEmpty()) {
+            found.addAll(repositoryDb.existsAll(missing));
+        }
+        return found;
+    }
+
     /**
      * Gets the raw input stream of the object with the given {@link ObjectId id}.
      * 
@@ -91,6 +112,14 @@ public class HeapStagingDatabase extends HeapObjectDatabse implements StagingDat
         return repositoryDb.getRaw(id);
     }
 
+    @Override
+    public byte[] getRawCompressed(final ObjectId id) throws IllegalArgumentException {
+        if (super.exists(id)) {
+            return super.getRawCompressed(id);
+        }
+        return repositoryDb.getRawCompressed(id);
+    }
+
     @Override
     protected InputStream getRawInternal(ObjectId id) throws IllegalArgumentException {
         if (super.exists(id)) {
@@ -135,6 +164,39 @@ public class HeapStagingDatabase extends HeapObjectDatabse implements StagingDat
         return repositoryDb.get(id);
     }
 
+    @Override
+    public RevFeature getFeature(ObjectId id, @Nullable Map<String, Serializable> hints) {
+        if (super.exists(id)) {
+            return super.getFeature(id, hints);
+        }
+        return repositoryDb.getFeature(id, hints);
+    }
+
+    /**
+     * Reads each batch of objects from this database first, and the ones not found from the
+     * repository database.
+     */
+    @Override
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids) {
+        Iterator<List<ObjectId>> batches = Iterators.partition(ids.iterator(), BULK_BATCH_SIZE);
+        return Iterators.concat(Iterators.transform(batches,
+                new Function<List<ObjectId>, Iterator<RevObject>>() {
+                    @Override
+                    public Iterator<RevObject> apply(List<ObjectId> batch) {
+                        List<RevObject> found = Lists.newArrayList(HeapStagingDatabase.super
+                                .getAll(batch));
+                        Set<ObjectId> missing = Sets.newLinkedHashSet(batch);
+                        for (RevObject object : found) {
+                            missing.remove(object.getId());
+                        }
+                        if (missing.isEmpty()) {
+                            return found.iterator();
+                        }
+                        return Iterators.concat(found.iterator(), repositoryDb.getAll(missing));
+                    }
+                }));
+    }
+
     /**
      * @return a newly constructed {@link ObjectInserter} for this database
      */
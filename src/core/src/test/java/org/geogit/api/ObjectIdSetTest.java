@@ -0,0 +1,54 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ObjectIdSetTest {
+
+    @Test
+    public void testAddAndContains() {
+        ObjectIdSet set = new ObjectIdSet();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(ObjectId.NULL));
+
+        final int count = 10000;
+        for (int i = 0; i < count; i++) {
+            assertTrue(set.add(ObjectId.forString("id " + i)));
+        }
+        assertEquals(count, set.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(set.contains(ObjectId.forString("id " + i)));
+            assertFalse(set.add(ObjectId.forString("id " + i)));
+            assertFalse(set.contains(ObjectId.forString("other " + i)));
+        }
+        assertEquals(count, set.size());
+    }
+
+    @Test
+    public void testNullAndSimilarIds() {
+        ObjectIdSet set = new ObjectIdSet(0);
+        assertTrue(set.add(ObjectId.NULL));
+        assertTrue(set.contains(ObjectId.NULL));
+        // ids differing in a single byte only
+        for (int i = 0; i < 20; i++) {
+            byte[] raw = new byte[20];
+            raw[i] = 1;
+            assertTrue(set.add(new ObjectId(raw)));
+        }
+        assertEquals(21, set.size());
+        for (int i = 0; i < 20; i++) {
+            byte[] raw = new byte[20];
+            raw[i] = 1;
+            assertTrue(set.contains(new ObjectId(raw)));
+            raw[i] = 2;
+            assertFalse(set.contains(new ObjectId(raw)));
+        }
+    }
+}
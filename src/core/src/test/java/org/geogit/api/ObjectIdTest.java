@@ -4,6 +4,8 @@
  */
 package org.geogit.api;
 
+import java.util.Arrays;
+
 import junit.framework.TestCase;
 
 import org.junit.Test;
@@ -42,4 +44,56 @@ public class ObjectIdTest extends TestCase {
         assertEquals(3, oid.byteN(3));
         assertEquals(255, oid.byteN(4));
     }
+
+    @Test
+    public void testRawValue() {
+        byte[] raw = new byte[20];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) (0xF0 - i * 7);
+        }
+        ObjectId oid = new ObjectId(raw);
+        assertTrue(Arrays.equals(raw, oid.getRawValue()));
+        for (int i = 0; i < raw.length; i++) {
+            assertEquals(raw[i] & 0xFF, oid.byteN(i));
+        }
+        byte[] target = new byte[22];
+        oid.getRawValue(target, 2);
+        assertEquals(0, target[0]);
+        assertEquals(raw[19], target[21]);
+        assertEquals(oid, new ObjectId(oid.getRawValue()));
+    }
+
+    @Test
+    public void testValueOf() {
+        String hash = "0123456789abcdef00ff7f80deadbeefcafebabe";
+        ObjectId oid = ObjectId.valueOf(hash);
+        assertEquals(hash, oid.toString());
+        assertEquals(0x80, oid.byteN(11));
+        assertEquals(oid, ObjectId.valueOf(hash.toUpperCase()));
+        assertEquals("0000000000000000000000000000000000000000", ObjectId.NULL.toString());
+        try {
+            ObjectId.valueOf("0123456789abcdef00ff7f80deadbeefcafebabx");
+            fail("Expected IAE on invalid hex digit");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("index 39"));
+        }
+    }
+
+    @Test
+    public void testCompareTo() {
+        ObjectId low = ObjectId.valueOf("7f00000000000000000000000000000000000000");
+        ObjectId high = ObjectId.valueOf("8000000000000000000000000000000000000000");
+        ObjectId lowTail = ObjectId.valueOf("000000000000000000000000000000007fffffff");
+        ObjectId highTail = ObjectId.valueOf("0000000000000000000000000000000080000000");
+        assertTrue(low.compareTo(high) < 0);
+        assertTrue(high.compareTo(low) > 0);
+        assertTrue(lowTail.compareTo(highTail) < 0);
+        assertTrue(ObjectId.NULL.compareTo(lowTail) < 0);
+        assertEquals(0, high.compareTo(ObjectId.valueOf(high.toString())));
+        // natural order matches the order of the string representations
+        ObjectId a = ObjectId.forString("a");
+        ObjectId b = ObjectId.forString("b");
+        assertEquals(Integer.signum(a.toString().compareTo(b.toString())),
+                Integer.signum(a.compareTo(b)));
+    }
 }
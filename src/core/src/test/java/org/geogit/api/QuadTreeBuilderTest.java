@@ -0,0 +1,373 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.api.plumbing.diff.DiffCounter;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
+import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.repository.DepthSearch;
+import org.geogit.repository.SpatialOps;
+import org.geogit.storage.QuadTreeStorageOrder;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class QuadTreeBuilderTest extends Assert {
+
+    private static final int NUM_FEATURES = 8 * RevTree.NORMALIZED_SIZE_LIMIT;
+
+    private static final Node NON_SPATIAL = new Node("nonSpatial",
+            ObjectId.forString("nonSpatial"), ObjectId.NULL, TYPE.FEATURE);
+
+    private CountingObjectDatabase db;
+
+    /**
+     * Counts the trees read, to check how much of a tree edits touch
+     */
+    private static class CountingObjectDatabase extends HeapObjectDatabse {
+
+        int treeReads;
+
+        CountingObjectDatabase() {
+            super(new DataStreamSerializationFactory());
+        }
+
+        @Override
+        public RevTree getTree(ObjectId id) {
+            treeReads++;
+            return super.getTree(id);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        db = new CountingObjectDatabase();
+        db.open();
+    }
+
+    /**
+     * @return a point feature on a 64 columns grid over the world
+     */
+    private static Node feature(int i) {
+        return feature(i, (i % 64) * 5.6 - 179, (i / 64) * 2.8 - 89);
+    }
+
+    private static Node feature(int i, double x, double y) {
+        return new SpatialNode("f" + i, ObjectId.forString("feature " + i + " " + x + " " + y),
+                ObjectId.NULL, TYPE.FEATURE, new ReferencedEnvelope(x, x, y, y, null));
+    }
+
+    private RevTree build(Iterable<Node> nodes) {
+        RevTreeBuilder builder = new QuadTreeBuilder(db);
+        for (Node node : nodes) {
+            builder.put(node);
+        }
+        return builder.build();
+    }
+
+    private Map<String, Node> features() {
+        Map<String, Node> nodes = Maps.newTreeMap();
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            Node node = feature(i);
+            nodes.put(node.getName(), node);
+        }
+        nodes.put(NON_SPATIAL.getName(), NON_SPATIAL);
+        return nodes;
+    }
+
+    @Test
+    public void testLayout() {
+        RevTree tree = build(features().values());
+        assertTrue(QuadTreeStorageOrder.isQuadTree(tree));
+        assertEquals(NUM_FEATURES + 1, tree.size());
+        assertTrue(tree.builder(db) instanceof QuadTreeBuilder);
+
+        final Envelope world = QuadTreeStorageOrder.topCell(0);
+        for (Map.Entry<Integer, ObjectId> bucket : tree.buckets().get().entrySet()) {
+            Iterator<NodeRef> nodes = new DepthTreeIterator("", ObjectId.NULL,
+                    db.getTree(bucket.getValue()), db, Strategy.CHILDREN);
+            while (nodes.hasNext()) {
+                assertEquals(bucket.getKey(),
+                        QuadTreeStorageOrder.bucket(nodes.next().getNode(), world));
+            }
+        }
+        assertEquals(features().keySet(), names(tree, null));
+
+        DepthSearch search = new DepthSearch(db);
+        assertEquals(feature(100), search.getDirectChild(tree, "f100", 0).get());
+        assertEquals(NON_SPATIAL, search.getDirectChild(tree, "nonSpatial", 0).get());
+        assertFalse(search.getDirectChild(tree, "missing", 0).isPresent());
+    }
+
+    @Test
+    public void testBoundsFilter() {
+        RevTree tree = build(features().values());
+        Envelope filter = new Envelope(-20, 10, 0, 15);
+        Set<String> expected = Sets.newHashSet();
+        for (Node node : features().values()) {
+            Envelope bounds = SpatialOps.envelopeOf(node);
+            if (bounds != null && filter.intersects(bounds)) {
+                expected.add(node.getName());
+            }
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, names(tree, filter));
+    }
+
+    @Test
+    public void testEditsSameAsBuildFromScratch() {
+        Map<String, Node> nodes = features();
+        RevTree original = build(nodes.values());
+
+        RevTreeBuilder builder = original.builder(db);
+        for (int i = 0; i < NUM_FEATURES; i += 3) {
+            builder.remove("f" + i);
+            nodes.remove("f" + i);
+        }
+        for (int i = 1; i < NUM_FEATURES; i += 15) {
+            // moved to another cell
+            Node moved = feature(i, 170 - i % 7, 80 - i % 11);
+            builder.put(moved);
+            nodes.put(moved.getName(), moved);
+        }
+        for (int i = NUM_FEATURES; i < NUM_FEATURES + 500; i++) {
+            Node added = feature(i, 10 + (i % 20) * 0.01, 45 + (i % 25) * 0.01);
+            builder.put(added);
+            nodes.put(added.getName(), added);
+        }
+        assertEquals(nodes.get("f1"), builder.get("f1").get());
+        assertFalse(builder.get("f3").isPresent());
+        assertEquals(feature(2), builder.get("f2").get());
+
+        RevTree edited = builder.build();
+        assertEquals(nodes.size(), edited.size());
+        assertEquals(build(nodes.values()).getId(), edited.getId());
+    }
+
+    @Test
+    public void testEditsReadOneBranch() {
+        // a 256 columns grid, for the quadtree to be a few levels deep
+        Map<String, Node> nodes = Maps.newTreeMap();
+        for (int i = 0; i < 256 * 128; i++) {
+            Node node = feature(i, (i % 256) * 1.4 - 179, (i / 256) * 1.4 - 89);
+            nodes.put(node.getName(), node);
+        }
+        RevTree original = build(nodes.values());
+
+        db.treeReads = 0;
+        RevTreeBuilder builder = original.builder(db);
+        builder.put(feature(-1, 0, 0));
+        builder.build();
+        final int scanReads = db.treeReads;
+
+        db.treeReads = 0;
+        builder = original.builder(db);
+        builder.remove(nodes.remove("f10"));
+        Node moved = feature(11, 120, -30);
+        builder.update(nodes.put(moved.getName(), moved), moved);
+        Node added = feature(-1, 0, 0);
+        builder.update(null, added);
+        nodes.put(added.getName(), added);
+        RevTree edited = builder.build();
+        assertTrue(db.treeReads * 2 < scanReads);
+
+        assertEquals(build(nodes.values()).getId(), edited.getId());
+    }
+
+    @Test
+    public void testShrinkToLeaves() {
+        Map<String, Node> nodes = features();
+        RevTree original = build(nodes.values());
+        RevTreeBuilder builder = original.builder(db);
+        for (int i = 10; i < NUM_FEATURES; i++) {
+            builder.remove("f" + i);
+            nodes.remove("f" + i);
+        }
+        RevTree edited = builder.build();
+        assertTrue(QuadTreeStorageOrder.isQuadTree(edited));
+        for (ObjectId bucketId : edited.buckets().get().values()) {
+            assertFalse(db.getTree(bucketId).buckets().isPresent());
+        }
+        assertEquals(build(nodes.values()).getId(), edited.getId());
+
+        builder = edited.builder(db);
+        for (String name : nodes.keySet()) {
+            builder.remove(name);
+        }
+        RevTree empty = builder.build();
+        assertTrue(empty.isEmpty());
+    }
+
+    @Test
+    public void testConvertsOtherLayouts() {
+        RevTreeBuilder hashBuilder = new RevTreeBuilder(db);
+        for (Node node : features().values()) {
+            hashBuilder.put(node);
+        }
+        RevTree hashTree = hashBuilder.build();
+        assertFalse(QuadTreeStorageOrder.isQuadTree(hashTree));
+        RevTree converted = new QuadTreeBuilder(db, hashTree).build();
+        assertEquals(build(features().values()).getId(), converted.getId());
+    }
+
+    @Test
+    public void testBuilderFor() {
+        final Supplier<RevTree> quadTree = Suppliers.ofInstance(build(features().values()));
+        final Supplier<RevTree> hashTree = Suppliers.ofInstance(new RevTreeBuilder(db).put(
+                feature(0)).build());
+        final Supplier<RevTree> empty = Suppliers.ofInstance(RevTree.EMPTY);
+
+        // a new tree takes the layout of its source
+        assertTrue(QuadTreeBuilder.builderFor(RevTree.EMPTY, quadTree, db)
+                instanceof QuadTreeBuilder);
+        assertFalse(QuadTreeBuilder.builderFor(RevTree.EMPTY, hashTree, db)
+                instanceof QuadTreeBuilder);
+        assertFalse(QuadTreeBuilder.builderFor(RevTree.EMPTY, empty, db)
+                instanceof QuadTreeBuilder);
+
+        // an existing tree keeps its own
+        assertFalse(QuadTreeBuilder.builderFor(hashTree.get(), quadTree, db)
+                instanceof QuadTreeBuilder);
+        assertTrue(QuadTreeBuilder.builderFor(quadTree.get(), hashTree, db)
+                instanceof QuadTreeBuilder);
+    }
+
+    @Test
+    public void testDiff() {
+        RevTree left = build(features().values());
+        db.put(left);
+
+        RevTreeBuilder builder = left.builder(db);
+        builder.remove("f10");
+        builder.remove("nonSpatial");
+        builder.put(feature(11, 120, -30));
+        builder.put(feature(12, 80, 10));
+        builder.put(feature(NUM_FEATURES, 0, 0));
+        RevTree right = builder.build();
+        db.put(right);
+
+        Map<String, ChangeType> expected = Maps.newHashMap();
+        expected.put("f10", ChangeType.REMOVED);
+        expected.put("nonSpatial", ChangeType.REMOVED);
+        expected.put("f11", ChangeType.MODIFIED);
+        expected.put("f12", ChangeType.MODIFIED);
+        expected.put("f" + NUM_FEATURES, ChangeType.ADDED);
+
+        assertEquals(expected, diff(left, right));
+        assertEquals(Long.valueOf(expected.size()), new DiffCounter(db, left, right).get());
+    }
+
+    @Test
+    public void testDiffManyMoves() {
+        // more moves to another cell than the diff holds unpaired at a time
+        Map<String, Node> nodes = Maps.newTreeMap();
+        for (int i = 0; i < 256 * 128; i++) {
+            Node node = feature(i, (i % 256) * 1.4 - 179, (i / 256) * 1.4 - 89);
+            nodes.put(node.getName(), node);
+        }
+        RevTree left = build(nodes.values());
+        db.put(left);
+
+        Map<String, ChangeType> expected = Maps.newHashMap();
+        RevTreeBuilder builder = left.builder(db);
+        for (int i = 0; i < 256 * 44; i++) {
+            Node moved = feature(i, 179 - (i % 256) * 1.4, 89 - (i / 256) * 1.4);
+            builder.update(nodes.get(moved.getName()), moved);
+            expected.put(moved.getName(), ChangeType.MODIFIED);
+        }
+        builder.remove("f20000");
+        expected.put("f20000", ChangeType.REMOVED);
+        builder.update(null, feature(-1, 0, 0));
+        expected.put("f-1", ChangeType.ADDED);
+        RevTree right = builder.build();
+        db.put(right);
+
+        assertEquals(expected, diff(left, right));
+    }
+
+    @Test
+    public void testDiffMixedLayouts() {
+        RevTreeBuilder hashBuilder = new RevTreeBuilder(db);
+        for (Node node : features().values()) {
+            hashBuilder.put(node);
+        }
+        RevTree hashTree = hashBuilder.build();
+        db.put(hashTree);
+        RevTree quadTree = build(features().values());
+        db.put(quadTree);
+        assertTrue(diff(hashTree, quadTree).isEmpty());
+        assertTrue(diff(quadTree, hashTree).isEmpty());
+
+        RevTreeBuilder builder = quadTree.builder(db);
+        builder.remove("f10");
+        builder.put(feature(11, 120, -30));
+        builder.put(feature(NUM_FEATURES, 0, 0));
+        RevTree edited = builder.build();
+        db.put(edited);
+
+        Map<String, ChangeType> expected = Maps.newHashMap();
+        expected.put("f10", ChangeType.REMOVED);
+        expected.put("f11", ChangeType.MODIFIED);
+        expected.put("f" + NUM_FEATURES, ChangeType.ADDED);
+        assertEquals(expected, diff(hashTree, edited));
+        assertEquals(Long.valueOf(expected.size()), new DiffCounter(db, hashTree, edited).get());
+
+        expected.put("f10", ChangeType.ADDED);
+        expected.put("f" + NUM_FEATURES, ChangeType.REMOVED);
+        assertEquals(expected, diff(edited, hashTree));
+
+        // against a leaf tree
+        RevTree leaf = new RevTreeBuilder(db).put(feature(10)).put(feature(11)).put(feature(-1))
+                .build();
+        db.put(leaf);
+        expected.clear();
+        for (String name : features().keySet()) {
+            expected.put(name, ChangeType.REMOVED);
+        }
+        expected.put("f" + NUM_FEATURES, ChangeType.REMOVED);
+        expected.put("f10", ChangeType.ADDED);
+        expected.put("f11", ChangeType.MODIFIED);
+        expected.put("f-1", ChangeType.ADDED);
+        assertEquals(expected, diff(edited, leaf));
+    }
+
+    private Map<String, ChangeType> diff(RevTree left, RevTree right) {
+        Map<String, ChangeType> actual = Maps.newHashMap();
+        Iterator<DiffEntry> diffs = new DiffTreeWalk(db, left, right).get();
+        while (diffs.hasNext()) {
+            DiffEntry diff = diffs.next();
+            String name = diff.newName() == null ? diff.oldName() : diff.newName();
+            assertNull(name, actual.put(name, diff.changeType()));
+        }
+        return actual;
+    }
+
+    private Set<String> names(RevTree tree, Envelope filter) {
+        Set<String> names = Sets.newHashSet();
+        Iterator<NodeRef> refs = new DepthTreeIterator("", ObjectId.NULL, tree, db,
+                Strategy.CHILDREN, filter);
+        while (refs.hasNext()) {
+            assertTrue(names.add(refs.next().name()));
+        }
+        return names;
+    }
+}
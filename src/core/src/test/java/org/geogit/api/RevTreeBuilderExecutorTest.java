@@ -0,0 +1,93 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RevTreeBuilderExecutorTest {
+
+    private HeapObjectDatabse db;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        db = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        db.open();
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSameTreeAsSequentialBuild() {
+        // enough nodes for buckets with bucket subtrees of their own
+        final int count = 40 * 1000;
+        RevTree expected = build(count, null);
+        assertTrue(expected.buckets().isPresent());
+
+        executor = Executors.newFixedThreadPool(4);
+        RevTree actual = build(count, executor);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(count, actual.size());
+        assertEquals(expected.buckets(), actual.buckets());
+    }
+
+    @Test
+    public void testNestedBuildsDontStarveSingleThread() {
+        executor = Executors.newSingleThreadExecutor();
+        RevTree tree = build(40 * 1000, executor);
+        assertEquals(40 * 1000, tree.size());
+        for (ObjectId bucketId : tree.buckets().get().values()) {
+            assertTrue(db.exists(bucketId));
+        }
+    }
+
+    @Test
+    public void testRemovals() {
+        executor = Executors.newFixedThreadPool(4);
+        RevTree tree = build(20 * 1000, executor);
+        RevTreeBuilder builder = new RevTreeBuilder(db, tree).setExecutor(executor);
+        for (int i = 0; i < 20 * 1000; i += 2) {
+            builder.remove("feature." + i);
+        }
+        RevTree actual = builder.build();
+        assertEquals(10 * 1000, actual.size());
+
+        RevTreeBuilder sequential = new RevTreeBuilder(db);
+        for (int i = 1; i < 20 * 1000; i += 2) {
+            sequential.put(node(i));
+        }
+        assertEquals(sequential.build().getId(), actual.getId());
+    }
+
+    private RevTree build(final int count, final ExecutorService executor) {
+        RevTreeBuilder builder = new RevTreeBuilder(db).setExecutor(executor);
+        for (int i = 0; i < count; i++) {
+            builder.put(node(i));
+        }
+        return builder.build();
+    }
+
+    private static Node node(final int i) {
+        String name = "feature." + i;
+        return new Node(name, ObjectId.forString(name), ObjectId.NULL, TYPE.FEATURE);
+    }
+}
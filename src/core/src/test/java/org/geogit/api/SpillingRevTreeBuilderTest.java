@@ -0,0 +1,142 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillingRevTreeBuilderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private HeapObjectDatabse db;
+
+    @Before
+    public void setUp() {
+        db = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        db.open();
+    }
+
+    @Test
+    public void testSameTreeAsRevTreeBuilder() {
+        for (int count : new int[] { 0, 1, RevTree.NORMALIZED_SIZE_LIMIT,
+                RevTree.NORMALIZED_SIZE_LIMIT + 1, 5000, 40 * 1000 }) {
+            RevTreeBuilder expected = new RevTreeBuilder(db);
+            SpillingRevTreeBuilder actual = newBuilder(1000);
+            for (int i = 0; i < count; i++) {
+                expected.put(node(i));
+                actual.put(node(i));
+            }
+            RevTree expectedTree = expected.build();
+            RevTree actualTree = actual.build();
+            assertEquals(String.valueOf(count), expectedTree.getId(), actualTree.getId());
+            assertEquals(count, actualTree.size());
+        }
+        assertEquals(0, tempFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testManyRuns() {
+        // more runs than merged at once
+        final int count = 20 * 1000;
+        final int runs = SpillingRevTreeBuilder.MAX_MERGE_WIDTH * 3;
+        RevTreeBuilder expected = new RevTreeBuilder(db);
+        SpillingRevTreeBuilder actual = newBuilder(count / runs);
+        for (int i = 0; i < count; i++) {
+            expected.put(node(i));
+            actual.put(node(i));
+        }
+        assertTrue(tempFolder.getRoot().list().length > SpillingRevTreeBuilder.MAX_MERGE_WIDTH);
+        assertEquals(expected.build().getId(), actual.build().getId());
+        assertEquals(0, tempFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testLastNodeWins() {
+        SpillingRevTreeBuilder builder = newBuilder(100);
+        RevTreeBuilder expected = new RevTreeBuilder(db);
+        for (int i = 0; i < 1000; i++) {
+            builder.put(node(i));
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            Node replacement = new Node("feature." + i, ObjectId.forString("replaced " + i),
+                    ObjectId.NULL, TYPE.FEATURE);
+            builder.put(replacement);
+            expected.put(replacement);
+        }
+        for (int i = 0; i < 1000; i++) {
+            if (i % 3 != 0) {
+                expected.put(node(i));
+            }
+        }
+        RevTree tree = builder.build();
+        assertEquals(1000, tree.size());
+        assertEquals(expected.build().getId(), tree.getId());
+    }
+
+    @Test
+    public void testSpilledNodesRoundTrip() {
+        final ObjectId metadataId = ObjectId.forString("featureType");
+        SpillingRevTreeBuilder builder = newBuilder(10);
+        for (int i = 0; i < 1000; i++) {
+            String name = "feature." + i;
+            builder.put(new SpatialNode(name, ObjectId.forString(name), metadataId,
+                    TYPE.FEATURE, new ReferencedEnvelope(i, i + 1, -i, 1 - i, null)));
+        }
+        RevTree tree = builder.build();
+        assertTrue(tree.buckets().isPresent());
+
+        Iterator<NodeRef> nodes = new DepthTreeIterator("", ObjectId.NULL, tree, db,
+                Strategy.CHILDREN);
+        int count = 0;
+        while (nodes.hasNext()) {
+            Node node = nodes.next().getNode();
+            int i = Integer.parseInt(node.getName().substring("feature.".length()));
+            assertEquals(ObjectId.forString(node.getName()), node.getObjectId());
+            assertEquals(metadataId, node.getMetadataId().get());
+            assertEquals(new ReferencedEnvelope(i, i + 1, -i, 1 - i, null),
+                    new ReferencedEnvelope(((SpatialNode) node).getBounds()));
+            count++;
+        }
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void testClose() {
+        SpillingRevTreeBuilder builder = newBuilder(10);
+        for (int i = 0; i < 100; i++) {
+            builder.put(node(i));
+        }
+        assertFalse(0 == tempFolder.getRoot().list().length);
+        builder.close();
+        assertEquals(0, tempFolder.getRoot().list().length);
+    }
+
+    private SpillingRevTreeBuilder newBuilder(final int maxNodesInMemory) {
+        File tempDirectory = tempFolder.getRoot();
+        return new SpillingRevTreeBuilder(db, maxNodesInMemory, tempDirectory);
+    }
+
+    private static Node node(final int i) {
+        String name = "feature." + i;
+        return new Node(name, ObjectId.forString(name), ObjectId.NULL, TYPE.FEATURE);
+    }
+}
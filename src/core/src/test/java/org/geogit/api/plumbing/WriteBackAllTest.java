@@ -0,0 +1,106 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import java.util.Map;
+
+import org.geogit.api.MemoryModule;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.di.GeogitModule;
+import org.geogit.repository.DepthSearch;
+import org.geogit.storage.ObjectDatabase;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+
+public class WriteBackAllTest extends Assert {
+
+    private Injector injector;
+
+    private ObjectDatabase odb;
+
+    @Before
+    public void setUp() {
+        injector = Guice.createInjector(Modules.override(new GeogitModule()).with(
+                new MemoryModule(null)));
+        odb = injector.getInstance(ObjectDatabase.class);
+        odb.open();
+    }
+
+    @Test
+    public void testSameAsWriteBackPerTree() {
+        Map<String, RevTree> trees = Maps.newLinkedHashMap();
+        trees.put("a/b", tree("blob1"));
+        trees.put("a/c", tree("blob2", "blob3"));
+        trees.put("d", tree("blob4"));
+        trees.put("e/f/g", tree("blob5"));
+        trees.put("e/h", tree("blob6"));
+
+        RevTree root = tree("rootBlob");
+        ObjectId expected = root.getId();
+        for (Map.Entry<String, RevTree> e : trees.entrySet()) {
+            expected = injector.getInstance(WriteBack.class)
+                    .setAncestor(odb.getTree(expected).builder(odb)).setChildPath(e.getKey())
+                    .setTree(e.getValue()).call();
+        }
+
+        ObjectId actual = writeBackAll(root, trees);
+        assertEquals(expected, actual);
+        assertEquals(7, odb.getTree(actual).size());
+        assertTrue(odb.exists(actual));
+    }
+
+    @Test
+    public void testKeepsUntouchedSiblings() {
+        ObjectId root = writeBackAll(RevTree.EMPTY,
+                ImmutableMap.of("a/z", tree("blob1"), "y", tree("blob2")));
+        ObjectId newRoot = writeBackAll(odb.getTree(root),
+                ImmutableMap.of("a/b", tree("blob3")));
+
+        DepthSearch search = new DepthSearch(odb);
+        assertTrue(search.find(newRoot, "a/z/blob1").isPresent());
+        assertTrue(search.find(newRoot, "a/b/blob3").isPresent());
+        assertTrue(search.find(newRoot, "y/blob2").isPresent());
+        assertEquals(3, odb.getTree(newRoot).size());
+    }
+
+    @Test
+    public void testNestedTrees() {
+        ObjectId root = writeBackAll(RevTree.EMPTY,
+                ImmutableMap.of("a", tree("blob1"), "a/b", tree("blob2"), "", tree("blob3")));
+
+        DepthSearch search = new DepthSearch(odb);
+        assertTrue(search.find(root, "a/blob1").isPresent());
+        assertTrue(search.find(root, "a/b/blob2").isPresent());
+        assertTrue(search.find(root, "blob3").isPresent());
+        assertEquals(Long.valueOf(2), search.find(root, "a").get().getNode().getTreeSize().get());
+    }
+
+    private ObjectId writeBackAll(RevTree root, Map<String, RevTree> trees) {
+        return injector.getInstance(WriteBackAll.class).setAncestor(root.builder(odb))
+                .setTrees(trees).call();
+    }
+
+    private RevTree tree(String... blobs) {
+        RevTreeBuilder builder = new RevTreeBuilder(odb);
+        for (String blob : blobs) {
+            builder.put(new Node(blob, ObjectId.forString(blob), ObjectId.NULL, TYPE.FEATURE));
+        }
+        RevTree tree = builder.build();
+        odb.put(tree);
+        return tree;
+    }
+}
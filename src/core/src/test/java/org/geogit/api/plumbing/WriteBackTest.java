@@ -153,6 +153,24 @@ public class WriteBackTest extends Assert {
         assertTrue(depthSearch.find(newRootId2, "subtree2/level2/level3/blob").isPresent());
     }
 
+    @Test
+    public void testTreeSizes() {
+        RevTreeBuilder builder = new RevTreeBuilder(odb);
+        for (int i = 0; i < 3; i++) {
+            builder.put(blob("blob" + i));
+        }
+        ObjectId newRootId = writeBack.setAncestor(new RevTreeBuilder(odb))
+                .setChildPath("level1/level2").setTree(builder.build()).call();
+
+        // sizes are kept by the tree nodes up the path
+        DepthSearch depthSearch = new DepthSearch(odb);
+        Node level1 = depthSearch.find(newRootId, "level1").get().getNode();
+        Node level2 = depthSearch.find(newRootId, "level1/level2").get().getNode();
+        assertEquals(Optional.of(3L), level1.getTreeSize());
+        assertEquals(Optional.of(3L), level2.getTreeSize());
+        assertEquals(3L, odb.getTree(newRootId).size());
+    }
+
     private Node blob(String path) {
         return new Node(path, ObjectId.forString(path), ObjectId.NULL, TYPE.FEATURE);
     }
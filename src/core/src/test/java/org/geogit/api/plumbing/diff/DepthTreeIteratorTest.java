@@ -0,0 +1,139 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing.diff;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.SpatialNode;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.repository.SpatialOps;
+import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.hessian.HessianFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class DepthTreeIteratorTest extends Assert {
+
+    private static final int NUM_FEATURES = 4 * RevTree.NORMALIZED_SIZE_LIMIT;
+
+    private ObjectDatabase odb;
+
+    /**
+     * A bucket tree of spatial features on a 100 columns grid, one non spatial feature and one
+     * tree node without bounds
+     */
+    private RevTree tree;
+
+    @Before
+    public void setUp() {
+        odb = new HeapObjectDatabse(new HessianFactory());
+        odb.open();
+
+        RevTreeBuilder builder = new RevTreeBuilder(odb);
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            builder.put(feature(i));
+        }
+        Node nonSpatial = new Node("nonSpatial", ObjectId.forString("nonSpatial"),
+                ObjectId.NULL, TYPE.FEATURE);
+        builder.put(nonSpatial);
+        RevTree subtree = new RevTreeBuilder(odb).put(nonSpatial).build();
+        odb.put(subtree);
+        builder.put(new Node("subtree", subtree.getId(), ObjectId.NULL, TYPE.TREE));
+        tree = builder.build();
+        odb.put(tree);
+        assertTrue(tree.buckets().isPresent());
+    }
+
+    private static Node feature(int i) {
+        double x = i % 100;
+        double y = i / 100;
+        return new SpatialNode("f" + i, ObjectId.forString("feature " + i), ObjectId.NULL,
+                TYPE.FEATURE, new ReferencedEnvelope(x, x, y, y, null));
+    }
+
+    @Test
+    public void testBucketBounds() {
+        final Integer subtreeBucket = new NodePathStorageOrder().bucket("subtree", 0);
+        RevTree stored = odb.getTree(tree.getId());
+        assertEquals(tree.bucketBounds(), stored.bucketBounds());
+
+        for (Map.Entry<Integer, ObjectId> bucket : tree.buckets().get().entrySet()) {
+            Envelope bounds = tree.bucketBounds().get(bucket.getKey());
+            if (bucket.getKey().equals(subtreeBucket)) {
+                assertNull(bounds);
+                continue;
+            }
+            Envelope expected = new Envelope();
+            Iterator<NodeRef> nodes = new DepthTreeIterator("", ObjectId.NULL,
+                    odb.getTree(bucket.getValue()), odb, Strategy.CHILDREN);
+            while (nodes.hasNext()) {
+                Envelope nodeBounds = SpatialOps.envelopeOf(nodes.next().getNode());
+                if (nodeBounds != null) {
+                    expected.expandToInclude(nodeBounds);
+                }
+            }
+            assertEquals(expected, bounds);
+        }
+    }
+
+    @Test
+    public void testBoundsFilter() {
+        Envelope filter = new Envelope(10, 20, 5, 8);
+        Set<String> expected = Sets.newHashSet("subtree");
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            if (filter.intersects(SpatialOps.envelopeOf(feature(i)))) {
+                expected.add("f" + i);
+            }
+        }
+        assertEquals(expected, names(new DepthTreeIterator("", ObjectId.NULL, tree, odb,
+                Strategy.CHILDREN, filter)));
+
+        expected.remove("subtree");
+        assertEquals(expected, names(new DepthTreeIterator("", ObjectId.NULL, tree, odb,
+                Strategy.FEATURES_ONLY, filter)));
+        assertEquals(expected, names(new DepthTreeIterator("", ObjectId.NULL, tree, odb,
+                Strategy.RECURSIVE_FEATURES_ONLY, filter)));
+    }
+
+    @Test
+    public void testSkipsBuckets() {
+        // only the bucket holding the tree node without bounds can't be skipped
+        final Integer subtreeBucket = new NodePathStorageOrder().bucket("subtree", 0);
+        RevTree subtreeBucketTree = odb.getTree(tree.buckets().get().get(subtreeBucket));
+
+        ObjectDatabase bucketOnly = new HeapObjectDatabse(new HessianFactory());
+        bucketOnly.open();
+        bucketOnly.put(subtreeBucketTree);
+
+        Envelope filter = new Envelope(1000, 2000, 1000, 2000);
+        Set<String> names = names(new DepthTreeIterator("", ObjectId.NULL, tree, bucketOnly,
+                Strategy.CHILDREN, filter));
+        assertEquals(Sets.newHashSet("subtree"), names);
+    }
+
+    private static Set<String> names(Iterator<NodeRef> refs) {
+        Set<String> names = Sets.newHashSet();
+        while (refs.hasNext()) {
+            assertTrue(names.add(refs.next().name()));
+        }
+        return names;
+    }
+}
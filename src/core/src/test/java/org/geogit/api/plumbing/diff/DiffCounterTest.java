@@ -253,6 +253,61 @@ public class DiffCounterTest extends Assert {
         assertEquals(expected, count(changed, deepTree));
     }
 
+    @Test
+    public void testBucketChildrenDeeperBucketsWithChanges() {
+        final RevTree deepTree = createFeaturesTree("", 20000).build();
+        assertTrue(depth(deepTree, 0) > 1);
+
+        RevTreeBuilder builder = new RevTreeBuilder(odb, deepTree);
+        for (int i = 0; i < deepTree.size(); i++) {
+            if (i % 100 != 0) {
+                builder.remove(String.valueOf(i));
+            }
+        }
+        // 200 kept, 50 of them changed, plus 100 new ones
+        for (int i = 0; i < deepTree.size(); i += 400) {
+            builder.put(new Node(String.valueOf(i), FAKE_FEATURE_ID_CHANGED, ObjectId.NULL,
+                    TYPE.FEATURE));
+        }
+        for (int i = 0; i < 100; i++) {
+            builder.put(featureRef("", 100 * 1000 + i));
+        }
+        RevTree changed = builder.build();
+        assertFalse(changed.buckets().isPresent());
+
+        final long expected = (deepTree.size() - 200) + 50 + 100;
+        assertEquals(expected, count(deepTree, changed));
+        assertEquals(expected, count(changed, deepTree));
+    }
+
+    @Test
+    public void testCachedCount() {
+        DiffCountCache cache = new DiffCountCache();
+        RevTreeBuilder rootBuilder = new RevTreeBuilder(odb, childrenFeatureTypesTree);
+        childTree1.put(featureRef("tree1", 1000));
+        createFeatureTypesTree(rootBuilder, "tree1", childTree1);
+        RevTree newRoot = rootBuilder.build();
+
+        assertEquals(1, new DiffCounter(odb, childrenFeatureTypesTree, newRoot, cache).get()
+                .longValue());
+        assertEquals(0, cache.stats().hitCount());
+
+        // the other way around is the same count
+        assertEquals(1, new DiffCounter(odb, newRoot, childrenFeatureTypesTree, cache).get()
+                .longValue());
+        assertEquals(1, cache.stats().hitCount());
+
+        // a new root sharing the changed subtree only counts the new changes
+        childTree2.remove("tree2/2");
+        createFeatureTypesTree(rootBuilder, "tree2", childTree2);
+        RevTree newerRoot = rootBuilder.build();
+        assertEquals(2, new DiffCounter(odb, childrenFeatureTypesTree, newerRoot, cache).get()
+                .longValue());
+        assertEquals(2, cache.stats().hitCount());
+        assertEquals(Long.valueOf(2),
+                cache.get(newerRoot.getId(), childrenFeatureTypesTree.getId()));
+    }
+
     private int depth(RevTree deepTree, int currDepth) {
         if (!deepTree.buckets().isPresent()) {
             return currDepth;
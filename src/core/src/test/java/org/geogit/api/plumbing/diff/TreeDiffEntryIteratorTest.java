@@ -9,8 +9,11 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
 
@@ -19,9 +22,12 @@ import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
 import org.geogit.api.RevTreeImpl;
 import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -31,6 +37,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 /**
@@ -238,6 +245,64 @@ public class TreeDiffEntryIteratorTest extends Assert {
         assertEquals(expected, diffset);
     }
 
+    @Test
+    public void testParallelBucketBucketDiff() {
+        ObjectDatabase db = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        db.open();
+        final int numFeatures = 40 * 1000;
+        RevTreeBuilder leftBuilder = new RevTreeBuilder(db);
+        RevTreeBuilder rightBuilder = new RevTreeBuilder(db);
+        for (int i = 0; i < numFeatures; i++) {
+            String name = "feature." + i;
+            leftBuilder.put(new Node(name, ObjectId.forString(name), ObjectId.NULL, TYPE.FEATURE));
+            if (i % 5 == 0) {
+                continue;// removed
+            }
+            // every other one modified
+            String content = i % 2 == 0 ? name : name + " modified";
+            rightBuilder.put(new Node(name, ObjectId.forString(content), ObjectId.NULL,
+                    TYPE.FEATURE));
+        }
+        for (int i = numFeatures; i < numFeatures + 1000; i++) {
+            String name = "feature." + i;
+            rightBuilder.put(new Node(name, ObjectId.forString(name), ObjectId.NULL, TYPE.FEATURE));
+        }
+        RevTree left = root(db, leftBuilder.build());
+        RevTree right = root(db, rightBuilder.build());
+
+        NodeRef leftRef = new NodeRef(new Node("", left.getId(), ObjectId.NULL, TYPE.TREE), "",
+                ObjectId.NULL);
+        NodeRef rightRef = new NodeRef(new Node("", right.getId(), ObjectId.NULL, TYPE.TREE), "",
+                ObjectId.NULL);
+
+        List<DiffEntry> expected = Lists.newArrayList(new TreeDiffEntryIterator(leftRef,
+                rightRef, left, right, db));
+        assertEquals(numFeatures / 5 + 2 * numFeatures / 5 + 1000, expected.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int prefetch : new int[] { 1, 3, 64 }) {
+                List<DiffEntry> actual = Lists.newArrayList(new TreeDiffEntryIterator(leftRef,
+                        rightRef, left, right, db, executor, prefetch));
+                assertEquals(expected, actual);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return a root tree with the given tree as its only child
+     */
+    private RevTree root(ObjectDatabase db, RevTree child) {
+        db.put(child);
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        builder.put(new Node("points", child.getId(), ObjectId.NULL, TYPE.TREE));
+        RevTree root = builder.build();
+        db.put(root);
+        return root;
+    }
+
     private RevTree bucketTree() {
 
         ObjectId id = ObjectId.forString("null");
@@ -32,6 +32,8 @@ import org.geogit.api.plumbing.WriteBack;
 import org.geogit.di.GeogitModule;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.StagingDatabase;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -141,6 +143,47 @@ public class DepthSearchTest {
         }
     }
 
+    @Test
+    public void testCachedFind() {
+        PathResolutionCache cache = new PathResolutionCache();
+        DepthSearch cachedSearch = new DepthSearch(odb, cache);
+        RevTree root = odb.getTree(rootTreeId);
+
+        String[] paths = { "path/to/tree1/node11", "path/to/tree2", "tree3/node34", "tree4" };
+        for (String path : paths) {
+            assertEquals(find(rootTreeId, path), cachedSearch.find(root, path));
+        }
+        // resolved again without reading any tree
+        ObjectDatabase emptyDb = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        emptyDb.open();
+        DepthSearch fromCache = new DepthSearch(emptyDb, cache);
+        for (String path : paths) {
+            assertEquals(find(rootTreeId, path), fromCache.find(root, path));
+        }
+
+        // a sibling path reuses the parent trees resolved on the way
+        long hits = cache.stats().hitCount();
+        assertNode(cachedSearch.find(root, "path/to/tree1/node12"), FEATURE,
+                "path/to/tree1/node12");
+        assertTrue(cache.stats().hitCount() > hits);
+    }
+
+    @Test
+    public void testCacheScopedToTree() {
+        PathResolutionCache cache = new PathResolutionCache();
+        DepthSearch cachedSearch = new DepthSearch(odb, cache);
+        RevTree root = odb.getTree(rootTreeId);
+        assertFalse(cachedSearch.find(root, "tree4").isPresent());
+
+        RevTree subtree = new RevTreeBuilder(odb).put(
+                new Node("node41", ObjectId.forString("node41"), ObjectId.NULL, FEATURE)).build();
+        odb.put(subtree);
+        RevTree newRoot = root.builder(odb)
+                .put(new Node("tree4", subtree.getId(), ObjectId.NULL, TREE)).build();
+        assertNode(cachedSearch.find(newRoot, "tree4"), TREE, "tree4");
+        assertFalse(cachedSearch.find(root, "tree4").isPresent());
+    }
+
     private Optional<NodeRef> find(ObjectId rootTreeId, String rootChildPath) {
         return search.find(rootTreeId, rootChildPath);
     }
@@ -0,0 +1,59 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.api.porcelain.ConfigException.StatusCode;
+import org.geogit.storage.ConfigDatabase;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+public class ExecutorServiceProviderTest {
+
+    @Test
+    public void testConfiguredThreads() {
+        ConfigDatabase config = mock(ConfigDatabase.class);
+        when(config.get(ExecutorServiceProvider.Diff.THREADS, Integer.class)).thenReturn(
+                Optional.of(Integer.valueOf(3)));
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) new ExecutorServiceProvider.Diff(
+                config).get();
+        assertEquals(3, executor.getMaximumPoolSize());
+        assertTrue("idle threads shall exit", executor.allowsCoreThreadTimeOut());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testDisabled() {
+        ConfigDatabase config = mock(ConfigDatabase.class);
+        when(config.get(ExecutorServiceProvider.TreeBuild.THREADS, Integer.class)).thenReturn(
+                Optional.of(Integer.valueOf(1)));
+        assertNull(new ExecutorServiceProvider.TreeBuild(config).get());
+    }
+
+    @Test
+    public void testNoRepositoryConfig() {
+        ConfigDatabase config = mock(ConfigDatabase.class);
+        when(config.get(ExecutorServiceProvider.TreeBuild.THREADS, Integer.class)).thenThrow(
+                new ConfigException(StatusCode.INVALID_LOCATION));
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) new ExecutorServiceProvider.TreeBuild(
+                config).get();
+        int processors = Runtime.getRuntime().availableProcessors();
+        if (processors > 1) {
+            assertEquals(processors, executor.getMaximumPoolSize());
+            executor.shutdown();
+        } else {
+            assertNull(executor);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ning.compress.lzf.LZFOutputStream;
+
+public class ByteBufferLZFDecoderTest {
+
+    @Test
+    public void testSmallUncompressible() throws IOException {
+        byte[] data = random(100);
+        byte[] compressed = compress(data);
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        ByteBuffer decoded = ByteBufferLZFDecoder.decode(buffer);
+        assertArrayEquals(data, toArray(decoded));
+        // single literal chunk is sliced, not copied
+        assertEquals(compressed, decoded.array());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testCompressible() throws IOException {
+        byte[] data = repeated(10000);
+        ByteBuffer decoded = ByteBufferLZFDecoder.decode(ByteBuffer.wrap(compress(data)));
+        assertArrayEquals(data, toArray(decoded));
+    }
+
+    @Test
+    public void testMultipleChunks() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(repeated(100000));
+        bytes.write(random(100000));
+        byte[] data = bytes.toByteArray();
+        ByteBuffer decoded = ByteBufferLZFDecoder.decode(ByteBuffer.wrap(compress(data)));
+        assertArrayEquals(data, toArray(decoded));
+    }
+
+    @Test
+    public void testDirectBuffer() throws IOException {
+        byte[] data = repeated(5000);
+        byte[] compressed = compress(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(compressed.length);
+        direct.put(compressed);
+        direct.flip();
+        assertArrayEquals(data, toArray(ByteBufferLZFDecoder.decode(direct)));
+    }
+
+    @Test
+    public void testCorrupt() throws IOException {
+        byte[] compressed = compress(repeated(1000));
+        try {
+            ByteBufferLZFDecoder.decode(ByteBuffer.wrap(compressed, 0, compressed.length - 3));
+            fail("expected IAE");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LZFOutputStream lzf = new LZFOutputStream(out);
+        lzf.write(data);
+        lzf.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] repeated(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ("feature attribute value " + (i % 17)).charAt(i % 20);
+        }
+        return data;
+    }
+}
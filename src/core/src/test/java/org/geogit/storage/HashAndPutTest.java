@@ -0,0 +1,88 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.TreeMap;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.hessian.HessianFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+public class HashAndPutTest {
+
+    @Test
+    public void testHessian() {
+        testHashAndPut(new HessianFactory());
+    }
+
+    @Test
+    public void testDataStream() {
+        testHashAndPut(new DataStreamSerializationFactory());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedType() {
+        HeapObjectDatabse db = new HeapObjectDatabse(new HessianFactory());
+        db.open();
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(ObjectId.forString("tree"));
+        db.hashAndPut(builder.build());
+    }
+
+    private void testHashAndPut(ObjectSerialisingFactory factory) {
+        HeapObjectDatabse db = new HeapObjectDatabse(factory);
+        db.open();
+
+        ImmutableList<Optional<Object>> values = ImmutableList.of(Optional.<Object> of("value"),
+                Optional.<Object> of(Integer.valueOf(7)), Optional.absent(),
+                Optional.<Object> of(new GeometryFactory().createPoint(new Coordinate(1, 2))),
+                Optional.<Object> of(new int[] { 1, 2 }));
+        RevFeature feature = db.hashAndPut(new RevFeature(ObjectId.NULL, values));
+        assertEquals(RevFeature.build(values).getId(), feature.getId());
+        assertEquals(values.get(0), db.getFeature(feature.getId()).getValues().get(0));
+
+        List<Node> nodes = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            nodes.add(new Node("feature." + i, ObjectId.forString("feature " + i),
+                    i % 2 == 0 ? ObjectId.forString("metadata") : ObjectId.NULL, TYPE.FEATURE));
+        }
+        List<Node> trees = ImmutableList.of(new Node("subtree", ObjectId.forString("subtree"),
+                ObjectId.NULL, TYPE.TREE));
+        assertStored(db, RevTreeImpl.createLeafTree(ObjectId.NULL, 110, nodes, trees));
+
+        TreeMap<Integer, ObjectId> buckets = Maps.newTreeMap();
+        for (int i = 0; i < 32; i += 5) {
+            buckets.put(Integer.valueOf(i), ObjectId.forString("bucket " + i));
+        }
+        assertStored(db, RevTreeImpl.createNodeTree(ObjectId.NULL, 10000, buckets));
+    }
+
+    private void assertStored(ObjectDatabase db, RevTree unnamed) {
+        RevTree tree = db.hashAndPut(unnamed);
+        assertEquals(new HashObject().setObject(unnamed).call(), tree.getId());
+        assertTrue(db.exists(tree.getId()));
+        assertEquals(tree, db.getTree(tree.getId()));
+    }
+}
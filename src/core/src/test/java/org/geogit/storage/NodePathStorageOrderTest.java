@@ -0,0 +1,95 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class NodePathStorageOrderTest {
+
+    private final NodePathStorageOrder order = new NodePathStorageOrder();
+
+    /**
+     * The path hashes are compared as signed bytes, changing it would change the ids of all the
+     * trees
+     */
+    @Test
+    public void testSignedOrder() {
+        // sha1("feature.1") starts with 0x81, sha1("feature.0") with 0x25
+        assertTrue(order.compare("feature.1", "feature.0") < 0);
+        assertTrue(order.compare("feature.0", "feature.1") > 0);
+        assertEquals(0, order.compare("feature.0", "feature.0"));
+    }
+
+    @Test
+    public void testNodeOrderMatchesPathOrder() {
+        NodeStorageOrder nodeOrder = new NodeStorageOrder();
+        List<Node> nodes = nodes(1000);
+        for (int i = 1; i < nodes.size(); i++) {
+            Node left = nodes.get(i - 1);
+            Node right = nodes.get(i);
+            assertEquals(Integer.signum(order.compare(left.getName(), right.getName())),
+                    Integer.signum(nodeOrder.compare(left, right)));
+            for (int depth = 0; depth < 10; depth++) {
+                assertEquals(order.bucket(right.getName(), depth), nodeOrder.bucket(right, depth));
+            }
+        }
+        assertEquals(0, nodeOrder.compare(nodes.get(0), nodes.get(0)));
+    }
+
+    @Test
+    public void testConcurrentSorts() throws Exception {
+        final List<Node> nodes = nodes(20 * 1000);
+        final List<Node> expected = new NodeStorageOrder().sortedCopy(nodes);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = Lists.newArrayList();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        List<String> paths = Lists.newArrayList();
+                        for (Node node : nodes) {
+                            paths.add(node.getName());
+                        }
+                        Collections.shuffle(paths);
+                        return order.sortedCopy(paths);
+                    }
+                }));
+            }
+            for (Future<List<String>> result : results) {
+                List<String> sorted = result.get();
+                for (int i = 0; i < sorted.size(); i++) {
+                    assertEquals(expected.get(i).getName(), sorted.get(i));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Node> nodes(final int count) {
+        List<Node> nodes = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            nodes.add(new Node("feature." + i, ObjectId.forString("feature " + i), ObjectId.NULL,
+                    TYPE.FEATURE));
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,111 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.hessian.HessianFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.cache.CacheStats;
+
+public class ObjectCacheTest {
+
+    private HeapObjectDatabse db;
+
+    @Before
+    public void setUp() {
+        db = new HeapObjectDatabse(new HessianFactory());
+        db.open();
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        ObjectCache cache = new ObjectCache();
+        RevTree tree = tree(0, 10);
+
+        assertNull(cache.getIfPresent(tree.getId(), RevTree.class));
+        assertNull(cache.getIfPresent(tree.getId()));
+        cache.put(tree);
+        assertSame(tree, cache.getIfPresent(tree.getId(), RevTree.class));
+        assertSame(tree, cache.getIfPresent(tree.getId()));
+        // wrong type
+        assertNull(cache.getIfPresent(tree.getId(), RevCommit.class));
+
+        CacheStats treeStats = cache.stats(TYPE.TREE);
+        assertEquals(2, treeStats.hitCount());
+        assertEquals(1, treeStats.missCount());
+        assertEquals(1, cache.stats(TYPE.COMMIT).missCount());
+
+        CacheStats stats = cache.stats();
+        assertEquals(2, stats.hitCount());
+        // includes the untyped miss
+        assertEquals(3, stats.missCount());
+    }
+
+    @Test
+    public void testEvictsByWeight() {
+        final int smallSize = ObjectCache.sizeOf(tree(0, 1));
+        final int largeSize = ObjectCache.sizeOf(tree(0, 500));
+        assertTrue(largeSize > 100 * smallSize);
+
+        ObjectCache cache = new ObjectCache(10 * largeSize, 0, 0, 0);
+        for (int i = 0; i < 30; i++) {
+            cache.put(tree(i, 500));
+        }
+        assertTrue(cache.size() <= 10);
+        assertTrue(cache.stats(TYPE.TREE).evictionCount() >= 20);
+        assertEquals(0, cache.stats(TYPE.FEATURE).evictionCount());
+
+        // the same budget holds many more small trees
+        cache.invalidateAll();
+        for (int i = 0; i < 30; i++) {
+            cache.put(tree(i, 1));
+        }
+        assertEquals(30, cache.size());
+    }
+
+    @Test
+    public void testDatabaseUsesCache() {
+        ObjectCache cache = new ObjectCache();
+        db.setObjectCache(cache);
+        RevTree tree = tree(0, 10);
+        db.put(tree);
+
+        RevTree read = db.getTree(tree.getId());
+        assertEquals(tree, read);
+        assertSame(read, db.getTree(tree.getId()));
+        assertSame(read, db.get(tree.getId()));
+        assertEquals(2, cache.stats(TYPE.TREE).hitCount());
+        assertEquals(1, cache.stats(TYPE.TREE).missCount());
+
+        // a second database sharing the cache doesn't decode the tree again
+        HeapObjectDatabse other = new HeapObjectDatabse(new HessianFactory());
+        other.open();
+        other.setObjectCache(cache);
+        other.put(tree);
+        assertSame(read, other.getTree(tree.getId()));
+    }
+
+    private RevTree tree(int seed, int size) {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (int i = 0; i < size; i++) {
+            String name = "feature-" + seed + "-" + i;
+            builder.put(new Node(name, ObjectId.forString(name), ObjectId.NULL, TYPE.FEATURE));
+        }
+        return builder.build();
+    }
+}
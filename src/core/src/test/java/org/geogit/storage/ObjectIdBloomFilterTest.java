@@ -0,0 +1,233 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.fs.FileObjectDatabase;
+import org.geogit.storage.fs.FilePackObjectDatabase;
+import org.geogit.storage.hessian.HessianFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class ObjectIdBloomFilterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Platform platform;
+
+    @Before
+    public void setUp() {
+        File workingDir = tempFolder.newFolder("mockWorkingDir");
+        tempFolder.newFolder("mockWorkingDir/.geogit");
+        platform = mock(Platform.class);
+        when(platform.pwd()).thenReturn(workingDir);
+    }
+
+    @Test
+    public void testNoFalseNegatives() {
+        final int count = 10000;
+        ObjectIdBloomFilter filter = ObjectIdBloomFilter.create(count, 0.01);
+        for (int i = 0; i < count; i++) {
+            filter.put(ObjectId.forString("present " + i));
+        }
+        for (int i = 0; i < count; i++) {
+            assertTrue(filter.mightContain(ObjectId.forString("present " + i)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < count; i++) {
+            if (filter.mightContain(ObjectId.forString("missing " + i))) {
+                falsePositives++;
+            }
+        }
+        // 1% requested, leave room for variance
+        assertTrue("too many false positives: " + falsePositives, falsePositives < count / 50);
+        assertFalse(filter.isSaturated());
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        ObjectIdBloomFilter filter = ObjectIdBloomFilter.create(1000, 0.05);
+        for (int i = 0; i < 500; i++) {
+            filter.put(ObjectId.forString("object " + i));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filter.writeTo(out);
+
+        ObjectIdBloomFilter read = ObjectIdBloomFilter
+                .readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(filter.approximateCount(), read.approximateCount());
+        assertEquals(filter.expectedInsertions(), read.expectedInsertions());
+        assertEquals(filter.fpp(), read.fpp(), 0d);
+        for (int i = 0; i < 1000; i++) {
+            ObjectId id = ObjectId.forString("object " + i);
+            assertEquals(filter.mightContain(id), read.mightContain(id));
+        }
+    }
+
+    @Test
+    public void testDatabaseSidecar() {
+        List<RevTree> trees = trees(20);
+        FilePackObjectDatabase db = newDatabase(new BloomFilterFactory());
+        assertNotNull(db.getBloomFilter());
+        for (RevTree tree : trees.subList(0, 10)) {
+            db.put(tree);
+        }
+        db.repack();
+        for (RevTree tree : trees.subList(10, 15)) {
+            db.put(tree);
+        }
+        db.close();
+
+        File sidecar = new File(platform.pwd(), ".geogit/objects/ids.bloom");
+        assertTrue(sidecar.exists());
+
+        db = newDatabase(new BloomFilterFactory());
+        assertFalse("sidecar shall be deleted while the database is open", sidecar.exists());
+        assertEquals(15, db.getBloomFilter().approximateCount());
+        for (RevTree tree : trees.subList(0, 15)) {
+            assertTrue(db.exists(tree.getId()));
+        }
+        for (RevTree tree : trees.subList(15, 20)) {
+            assertFalse(db.exists(tree.getId()));
+        }
+        db.close();
+    }
+
+    @Test
+    public void testBuildsFromStorage() {
+        List<RevTree> trees = trees(10);
+        FilePackObjectDatabase db = newDatabase(null);
+        assertNull(db.getBloomFilter());
+        for (RevTree tree : trees.subList(0, 5)) {
+            db.put(tree);
+        }
+        db.repack();
+        db.put(trees.get(5));
+        db.close();
+
+        // no sidecar, the filter is built from the packs and loose objects
+        db = newDatabase(new BloomFilterFactory());
+        for (RevTree tree : trees.subList(0, 6)) {
+            assertTrue(db.exists(tree.getId()));
+        }
+        assertEquals(6, db.existsAll(ids(trees)).size());
+
+        db.rebuildBloomFilter();
+        assertEquals(6, db.getBloomFilter().approximateCount());
+        db.close();
+    }
+
+    @Test
+    public void testWritesBySharingInstances() {
+        List<RevTree> trees = trees(10);
+        FileObjectDatabase owner = new FileObjectDatabase(platform, new HessianFactory());
+        owner.setBloomFilterFactory(new BloomFilterFactory());
+        owner.open();
+        owner.put(trees.get(0));
+        assertFalse(owner.exists(trees.get(1).getId()));
+
+        FileObjectDatabase other = new FileObjectDatabase(platform, new HessianFactory());
+        other.setBloomFilterFactory(new BloomFilterFactory());
+        other.open();
+        assertNull("only one instance owns the filter", other.getBloomFilter());
+        other.put(trees.get(1));
+        assertTrue(owner.exists(trees.get(1).getId()));
+        assertEquals(2, owner.existsAll(ids(trees)).size());
+        other.close();
+
+        // the filter misses objects, it's not written back
+        owner.close();
+        File sidecar = new File(platform.pwd(), ".geogit/objects/ids.bloom");
+        assertFalse(sidecar.exists());
+
+        owner.open();
+        assertEquals(2, owner.getBloomFilter().approximateCount());
+        owner.close();
+        assertTrue(sidecar.exists());
+    }
+
+    @Test
+    public void testStampBumpedOncePerTrustedFilter() throws IOException {
+        List<RevTree> trees = trees(10);
+        FileObjectDatabase owner = new FileObjectDatabase(platform, new HessianFactory());
+        owner.setBloomFilterFactory(new BloomFilterFactory());
+        owner.open();
+        FileObjectDatabase other = new FileObjectDatabase(platform, new HessianFactory());
+        other.open();
+        BloomFilterLock lock = BloomFilterLock.open(new File(platform.pwd(),
+                ".geogit/objects/ids.bloom.lock"), false);
+        try {
+            final long stamp = lock.stamp();
+            other.put(trees.get(0));
+            other.putAll(trees.subList(1, 3).iterator());
+            assertEquals(stamp + 1, lock.stamp());
+            assertTrue(owner.exists(trees.get(2).getId()));
+
+            // trusted again once rebuilt, the next write is noticed
+            owner.rebuildBloomFilter();
+            assertFalse(owner.exists(trees.get(3).getId()));
+            other.put(trees.get(3));
+            other.put(trees.get(4));
+            assertEquals(stamp + 2, lock.stamp());
+            assertTrue(owner.exists(trees.get(3).getId()));
+        } finally {
+            lock.close();
+            other.close();
+            owner.close();
+        }
+    }
+
+    private FilePackObjectDatabase newDatabase(BloomFilterFactory factory) {
+        FilePackObjectDatabase db = new FilePackObjectDatabase(platform, new HessianFactory());
+        db.setBloomFilterFactory(factory);
+        db.open();
+        return db;
+    }
+
+    private static List<ObjectId> ids(List<RevTree> trees) {
+        List<ObjectId> ids = Lists.newArrayList();
+        for (RevTree tree : trees) {
+            ids.add(tree.getId());
+        }
+        return ids;
+    }
+
+    private static List<RevTree> trees(int count) {
+        HeapObjectDatabse scratch = new HeapObjectDatabse(new HessianFactory());
+        scratch.open();
+        List<RevTree> trees = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            ObjectId id = ObjectId.forString("object " + i);
+            Node node = new Node("feature" + i, id, ObjectId.NULL, TYPE.FEATURE);
+            trees.add(new RevTreeBuilder(scratch).put(node).build());
+        }
+        return trees;
+    }
+}
@@ -0,0 +1,112 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.hessian.HessianFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class ObjectInserterTest {
+
+    private HeapObjectDatabse db;
+
+    private ObjectInserter inserter;
+
+    @Before
+    public void setUp() {
+        db = new HeapObjectDatabse(new HessianFactory());
+        db.open();
+        inserter = new ObjectInserter(db, new HessianFactory(), 3, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testFlushesInBatches() {
+        List<RevTree> trees = trees(5);
+        inserter.insert(trees.get(0));
+        inserter.insert(trees.get(1));
+        // duplicates don't count towards the batch size
+        inserter.insert(trees.get(1));
+        assertEquals(2, inserter.pending());
+        assertTrue(inserter.isPending(trees.get(1).getId()));
+        assertFalse(db.exists(trees.get(0).getId()));
+
+        inserter.insert(trees.get(2));
+        assertEquals(0, inserter.pending());
+        assertTrue(db.exists(trees.get(0).getId()));
+        assertTrue(db.exists(trees.get(2).getId()));
+
+        inserter.insertRawCompressed(trees.get(3).getId(), compressed(trees.get(3)));
+        inserter.insertAll(trees.subList(4, 5).iterator());
+        assertFalse(db.exists(trees.get(4).getId()));
+
+        assertEquals(5, inserter.commit());
+        for (RevTree tree : trees) {
+            assertEquals(tree, db.getTree(tree.getId()));
+        }
+    }
+
+    @Test
+    public void testAbort() {
+        List<RevTree> trees = trees(4);
+        inserter.insertAll(trees.iterator());
+        assertEquals(1, inserter.pending());
+        inserter.abort();
+        assertTrue(db.exists(trees.get(2).getId()));
+        assertFalse(db.exists(trees.get(3).getId()));
+    }
+
+    @Test
+    public void testHashAndInsert() {
+        ImmutableList<Optional<Object>> values = ImmutableList.of(Optional.<Object> of("a"),
+                Optional.<Object> of(Integer.valueOf(1)));
+        RevFeature feature = inserter.hashAndInsert(new RevFeature(ObjectId.NULL, values));
+        assertEquals(RevFeature.build(values).getId(), feature.getId());
+        assertTrue(inserter.isPending(feature.getId()));
+        assertFalse(db.exists(feature.getId()));
+
+        inserter.commit();
+        assertEquals(values, db.getFeature(feature.getId()).getValues());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInsertAfterCommit() {
+        inserter.commit();
+        inserter.insert(trees(1).get(0));
+    }
+
+    private byte[] compressed(RevTree tree) {
+        HeapObjectDatabse other = new HeapObjectDatabse(new HessianFactory());
+        other.open();
+        other.put(tree);
+        return other.getRawCompressed(tree.getId());
+    }
+
+    private List<RevTree> trees(int count) {
+        List<RevTree> trees = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            ObjectId id = ObjectId.forString("object " + i);
+            Node node = new Node("feature" + i, id, ObjectId.NULL, TYPE.FEATURE);
+            trees.add(new RevTreeBuilder(db).put(node).build());
+        }
+        return trees;
+    }
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.hessian.HessianFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Test;
+
+public class OffHeapObjectCacheTest {
+
+    @Test
+    public void testPutGet() {
+        OffHeapObjectCache cache = new OffHeapObjectCache(1024, 256);
+        assertNull(cache.get(id(1)));
+        cache.put(id(1), ByteBuffer.wrap(data(1, 100)));
+        assertArrayEquals(data(1, 100), toArray(cache.get(id(1))));
+        assertEquals(100, cache.residentBytes());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(0.5, cache.hitRatio(), 0.0);
+
+        // larger than a slab
+        cache.put(id(2), ByteBuffer.wrap(data(2, 300)));
+        assertNull(cache.get(id(2)));
+    }
+
+    @Test
+    public void testClockEviction() {
+        // four slabs of two objects each
+        OffHeapObjectCache cache = new OffHeapObjectCache(400, 100);
+        for (int i = 0; i < 8; i++) {
+            cache.put(id(i), ByteBuffer.wrap(data(i, 50)));
+        }
+        assertEquals(8, cache.size());
+        assertEquals(400, cache.residentBytes());
+
+        // give the first slab a second chance, the second one gets reclaimed
+        assertNotNull(cache.get(id(0)));
+        cache.put(id(8), ByteBuffer.wrap(data(8, 50)));
+        assertNotNull(cache.get(id(0)));
+        assertNotNull(cache.get(id(1)));
+        assertNull(cache.get(id(2)));
+        assertNull(cache.get(id(3)));
+        assertArrayEquals(data(8, 50), toArray(cache.get(id(8))));
+        assertTrue(cache.residentBytes() <= cache.capacity());
+    }
+
+    @Test
+    public void testDatabaseUsesCache() {
+        HeapObjectDatabse db = new HeapObjectDatabse(new HessianFactory());
+        db.open();
+        OffHeapObjectCache cache = new OffHeapObjectCache(1024 * 1024);
+        db.setOffHeapCache(cache);
+
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (int i = 0; i < 10; i++) {
+            builder.put(new Node("feature" + i, id(i), ObjectId.NULL, TYPE.FEATURE));
+        }
+        RevTree tree = builder.build();
+        db.put(tree);
+
+        assertEquals(tree, db.getTree(tree.getId()));
+        assertEquals(0, cache.hitCount());
+        assertEquals(1, cache.size());
+        assertEquals(tree, db.getTree(tree.getId()));
+        assertEquals(1, cache.hitCount());
+    }
+
+    private static ObjectId id(int i) {
+        return ObjectId.forString("object " + i);
+    }
+
+    private static byte[] data(int seed, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,38 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.ObjectSerialisingFactory;
+import org.geogit.storage.RevCommitSerializationTest;
+import org.junit.Test;
+
+public class DataStreamCommitSerializationTest extends RevCommitSerializationTest {
+
+    @Override
+    protected ObjectSerialisingFactory getFactory() {
+        return new DataStreamSerializationFactory();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testIdMismatch() throws Exception {
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(ObjectId.forString("treeid"));
+        builder.setMessage("message");
+        RevCommit commit = builder.build();
+
+        ObjectSerialisingFactory factory = getFactory();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        factory.<RevCommit> createObjectWriter(TYPE.COMMIT).write(commit, out);
+        factory.createCommitReader().read(ObjectId.forString("another commit"),
+                new ByteArrayInputStream(out.toByteArray()));
+    }
+}
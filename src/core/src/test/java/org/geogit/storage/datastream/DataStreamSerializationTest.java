@@ -0,0 +1,346 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTag;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.storage.ObjectReader;
+import org.geogit.storage.ObjectSerialisingFactory;
+import org.geogit.storage.ObjectWriter;
+import org.geogit.storage.fs.FilePackObjectDatabase;
+import org.geogit.storage.hessian.HessianFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+public class DataStreamSerializationTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final ObjectSerialisingFactory factory = new DataStreamSerializationFactory();
+
+    @Test
+    public void testLeafTree() throws Exception {
+        ObjectId metadataId = ObjectId.forString("metadata");
+        List<Node> features = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            features.add(new Node("feature." + i, ObjectId.forString("feature " + i),
+                    i % 2 == 0 ? metadataId : ObjectId.NULL, TYPE.FEATURE));
+        }
+        features.add(new Node("f\u00e9ature \uD834\uDD1E", ObjectId.forString("unicode"),
+                ObjectId.NULL, TYPE.FEATURE));
+        features.add(new Node("f\u00e9ature \uD834\uDD1F", ObjectId.forString("unicode 2"),
+                ObjectId.NULL, TYPE.FEATURE));
+        List<Node> trees = ImmutableList.of(new Node("subtree", ObjectId.forString("subtree"),
+                metadataId, TYPE.TREE));
+        RevTree tree = RevTreeImpl.createLeafTree(ObjectId.forString("tree"), 1102,
+                ImmutableList.copyOf(features), ImmutableList.copyOf(trees));
+
+        RevTree read = roundTrip(tree);
+        assertEquals(tree.getId(), read.getId());
+        assertEquals(1102, read.size());
+        assertEquals(tree.features().get(), read.features().get());
+        assertEquals(tree.trees().get(), read.trees().get());
+        assertFalse(read.buckets().isPresent());
+    }
+
+    @Test
+    public void testTreeSizes() throws Exception {
+        List<Node> trees = ImmutableList.of(
+                Node.tree("sized", ObjectId.forString("sized"), ObjectId.NULL, 1000L),
+                new Node("unsized", ObjectId.forString("unsized"), ObjectId.NULL, TYPE.TREE));
+        RevTree tree = RevTreeImpl.createLeafTree(ObjectId.forString("tree"), 1100,
+                ImmutableList.<Node> of(), ImmutableList.copyOf(trees));
+
+        RevTree read = roundTrip(tree);
+        assertEquals(Optional.of(1000L), read.trees().get().get(0).getTreeSize());
+        assertFalse(read.trees().get().get(1).getTreeSize().isPresent());
+
+        HessianFactory hessian = new HessianFactory();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hessian.createObjectWriter(TYPE.TREE).write(tree, out);
+        read = (RevTree) hessian.createObjectReader().read(tree.getId(),
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Optional.of(1000L), read.trees().get().get(0).getTreeSize());
+        assertFalse(read.trees().get().get(1).getTreeSize().isPresent());
+
+        // sizes don't take part in the tree id
+        RevTree unsized = RevTreeImpl.createLeafTree(ObjectId.NULL, 1100,
+                ImmutableList.<Node> of(), ImmutableList.of(new Node("sized", ObjectId
+                        .forString("sized"), ObjectId.NULL, TYPE.TREE), trees.get(1)));
+        assertEquals(new HashObject().setObject(unsized).call(),
+                new HashObject().setObject(tree).call());
+    }
+
+    @Test
+    public void testBucketTree() throws Exception {
+        TreeMap<Integer, ObjectId> buckets = Maps.newTreeMap();
+        for (int i = 0; i < 32; i += 3) {
+            buckets.put(Integer.valueOf(i), ObjectId.forString("bucket " + i));
+        }
+        RevTree tree = RevTreeImpl.createNodeTree(ObjectId.forString("tree"), 100000, buckets);
+
+        RevTree read = roundTrip(tree);
+        assertEquals(100000, read.size());
+        assertEquals(tree.buckets().get(), read.buckets().get());
+    }
+
+    @Test
+    public void testBucketBounds() throws Exception {
+        TreeMap<Integer, ObjectId> buckets = Maps.newTreeMap();
+        TreeMap<Integer, Envelope> bounds = Maps.newTreeMap();
+        for (int i = 0; i < 32; i += 3) {
+            buckets.put(Integer.valueOf(i), ObjectId.forString("bucket " + i));
+            if (i % 2 == 0) {
+                bounds.put(Integer.valueOf(i), new Envelope(-i, i, i * 0.5, i * 1.5));
+            }
+        }
+        bounds.put(Integer.valueOf(3), new Envelope());
+        RevTree tree = RevTreeImpl.createNodeTree(ObjectId.forString("tree"), 100000, buckets,
+                bounds);
+
+        RevTree read = roundTrip(tree);
+        assertEquals(tree.buckets().get(), read.buckets().get());
+        assertEquals(bounds, read.bucketBounds());
+        assertTrue(read.bucketBounds().get(Integer.valueOf(3)).isNull());
+
+        HessianFactory hessian = new HessianFactory();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hessian.createObjectWriter(TYPE.TREE).write(tree, out);
+        read = (RevTree) hessian.createObjectReader().read(tree.getId(),
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(tree.buckets().get(), read.buckets().get());
+        assertEquals(bounds, read.bucketBounds());
+
+        // bounds don't take part in the tree id
+        RevTree unbounded = RevTreeImpl.createNodeTree(ObjectId.NULL, 100000, buckets);
+        assertEquals(new HashObject().setObject(unbounded).call(),
+                new HashObject().setObject(tree).call());
+
+        // trees written before bucket bounds were kept end right after the buckets
+        out = new ByteArrayOutputStream();
+        factory.createObjectWriter(TYPE.TREE).write(unbounded, out);
+        byte[] bytes = out.toByteArray();
+        assertEquals(0, bytes[bytes.length - 1]);
+        read = (RevTree) factory.createObjectReader().read(tree.getId(),
+                ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+        assertEquals(tree.buckets().get(), read.buckets().get());
+        assertTrue(read.bucketBounds().isEmpty());
+    }
+
+    @Test
+    public void testFeatureValues() throws Exception {
+        GeometryFactory gf = new GeometryFactory();
+        List<Object> values = Lists.<Object> newArrayList("string", Boolean.TRUE,
+                Byte.valueOf((byte) -3), Double.valueOf(1.5), Float.valueOf(-2.5f),
+                Integer.valueOf(-42), Integer.valueOf(Integer.MIN_VALUE), Long.MAX_VALUE,
+                new BigDecimal("-1234.5678"), new BigInteger("123456789012345678901234567890"),
+                UUID.randomUUID(), gf.createPoint(new Coordinate(1, 2)), null);
+        List<Object> arrays = Lists.<Object> newArrayList(new byte[] { 1, 2, 3 }, new boolean[] {
+                true, false, true, true, false, false, true, false, true }, "chars".toCharArray(),
+                new double[] { 1.5, -2 }, new float[] { 3.5f }, new int[] { 1, -1, 1 << 30 },
+                new long[] { Long.MIN_VALUE, 0 });
+        ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
+        for (Object value : Iterables.concat(values, arrays)) {
+            builder.add(Optional.fromNullable(value));
+        }
+        RevFeature feature = new RevFeature(ObjectId.forString("feature"), builder.build());
+
+        RevFeature read = roundTrip(feature);
+        List<Optional<Object>> readValues = read.getValues();
+        assertEquals(values.size() + arrays.size(), readValues.size());
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(values.get(i), readValues.get(i).orNull());
+        }
+        assertArrayEquals((byte[]) arrays.get(0), (byte[]) readValues.get(values.size()).get());
+        assertTrue(Arrays.equals((boolean[]) arrays.get(1), (boolean[]) readValues.get(
+                values.size() + 1).get()));
+        assertArrayEquals((char[]) arrays.get(2), (char[]) readValues.get(values.size() + 2).get());
+        assertTrue(Arrays.equals((double[]) arrays.get(3),
+                (double[]) readValues.get(values.size() + 3).get()));
+        assertTrue(Arrays.equals((float[]) arrays.get(4),
+                (float[]) readValues.get(values.size() + 4).get()));
+        assertArrayEquals((int[]) arrays.get(5), (int[]) readValues.get(values.size() + 5).get());
+        assertArrayEquals((long[]) arrays.get(6), (long[]) readValues.get(values.size() + 6).get());
+    }
+
+    @Test
+    public void testLazyFeatureValues() throws Exception {
+        GeometryFactory gf = new GeometryFactory();
+        ImmutableList<Optional<Object>> values = ImmutableList.of(Optional.<Object> of("string"),
+                Optional.<Object> of(gf.createPoint(new Coordinate(1, 2))), Optional.absent(),
+                Optional.<Object> of(Integer.valueOf(5)));
+        RevFeature feature = RevFeature.build(values);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        factory.<RevFeature> createObjectWriter(TYPE.FEATURE).write(feature, out);
+        byte[] bytes = out.toByteArray();
+
+        Map<String, Serializable> hints = Maps.newHashMap();
+        hints.put(ObjectReader.ATTRIBUTE_INDEXES, new int[] { 0 });
+        ObjectReader<RevFeature> reader = factory.createFeatureReader(hints);
+        RevFeature read = reader.read(feature.getId(), ByteBuffer.wrap(bytes));
+        assertTrue(read instanceof LazyRevFeature);
+        assertEquals(4, read.size());
+        assertEquals(values.get(1), read.get(1));
+        assertEquals(values, read.getValues());
+
+        // values are only decoded on access, a broken last value doesn't affect the others
+        bytes[bytes.length - 2] = (byte) 0xFF;
+        read = reader.read(feature.getId(), new ByteArrayInputStream(bytes));
+        assertEquals(values.get(0), read.get(0));
+        assertEquals(values.get(2), read.get(2));
+        try {
+            read.get(3);
+            fail("Expected exception decoding an illegal value");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getMessage().contains("Illegal format"));
+        }
+        // not even the requested values are decoded while reading
+        hints.put(ObjectReader.ATTRIBUTE_INDEXES, new int[] { 3 });
+        read = factory.createFeatureReader(hints).read(feature.getId(), ByteBuffer.wrap(bytes));
+        assertEquals(values.get(0), read.get(0));
+
+        HeapObjectDatabse db = new HeapObjectDatabse(factory);
+        db.open();
+        db.put(feature);
+        assertEquals(values.get(1), db.getFeature(feature.getId(), hints).get(1));
+    }
+
+    @Test
+    public void testTag() throws Exception {
+        RevTag tag = new RevTag(ObjectId.forString("tag"), "v1.0", ObjectId.forString("commit"));
+
+        RevTag read = roundTrip(tag);
+        assertEquals(tag.getId(), read.getId());
+        assertEquals("v1.0", read.getName());
+        assertEquals(tag.getCommitId(), read.getCommitId());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        factory.<RevTag> createObjectWriter(TYPE.TAG).write(tag, out);
+        ObjectReader<RevTag> reader = factory.createObjectReader(TYPE.TAG);
+        read = reader.read(tag.getId(), ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(tag.getCommitId(), read.getCommitId());
+    }
+
+    @Test
+    public void testReadsHessianObjects() throws Exception {
+        HessianFactory hessian = new HessianFactory();
+        RevTree tree = RevTreeImpl.createLeafTree(ObjectId.forString("tree"), 1,
+                ImmutableList.of(new Node("feature", ObjectId.forString("feature"), ObjectId.NULL,
+                        TYPE.FEATURE)), ImmutableList.<Node> of());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hessian.<RevTree> createObjectWriter(TYPE.TREE).write(tree, out);
+        byte[] legacy = out.toByteArray();
+
+        RevTree read = factory.createRevTreeReader().read(tree.getId(),
+                new ByteArrayInputStream(legacy));
+        assertEquals(tree.features().get(), read.features().get());
+        RevObject object = factory.createObjectReader().read(tree.getId(),
+                ByteBuffer.wrap(legacy));
+        assertEquals(tree.features().get(), ((RevTree) object).features().get());
+    }
+
+    @Test
+    public void testRewritePackedObjects() throws Exception {
+        File workingDir = tempFolder.newFolder("mockWorkingDir");
+        tempFolder.newFolder("mockWorkingDir/.geogit");
+        Platform platform = mock(Platform.class);
+        when(platform.pwd()).thenReturn(workingDir);
+
+        List<RevTree> trees = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            trees.add(RevTreeImpl.createLeafTree(ObjectId.forString("tree " + i), 1,
+                    ImmutableList.of(new Node("feature" + i, ObjectId.forString("feature " + i),
+                            ObjectId.NULL, TYPE.FEATURE)), ImmutableList.<Node> of()));
+        }
+        FilePackObjectDatabase db = new FilePackObjectDatabase(platform, new HessianFactory());
+        db.open();
+        for (RevTree tree : trees) {
+            db.put(tree);
+        }
+        db.close();
+
+        db = new FilePackObjectDatabase(platform, factory);
+        db.open();
+        for (RevTree tree : trees.subList(0, 5)) {
+            assertFalse(db.rewrite(tree));
+        }
+        db.close();
+
+        db = new FilePackObjectDatabase(platform, factory);
+        db.open();
+        for (int i = 0; i < trees.size(); i++) {
+            RevTree tree = trees.get(i);
+            assertEquals(i < 5, firstByte(db.getRaw(tree.getId())) == FormatCommon.MAGIC);
+            assertEquals(tree.features().get(), db.getTree(tree.getId()).features().get());
+        }
+        db.close();
+    }
+
+    private static int firstByte(InputStream raw) throws Exception {
+        try {
+            return raw.read();
+        } finally {
+            raw.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends RevObject> T roundTrip(T object) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectWriter<T> writer = factory.createObjectWriter(object.getType());
+        writer.write(object, out);
+        byte[] bytes = out.toByteArray();
+        assertEquals(FormatCommon.MAGIC, bytes[0]);
+
+        T read = (T) factory.createObjectReader().read(object.getId(),
+                new ByteArrayInputStream(bytes));
+        T readFromBuffer = (T) factory.createObjectReader().read(object.getId(),
+                ByteBuffer.wrap(bytes));
+        assertEquals(object.getId(), readFromBuffer.getId());
+        return read;
+    }
+}
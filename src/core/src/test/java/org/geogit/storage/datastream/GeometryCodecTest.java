@@ -0,0 +1,146 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.HashObjectFunnels;
+import org.junit.Test;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateFilter;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeometryCodecTest {
+
+    private static final HashFunction HASH = ObjectId.HASH_FUNCTION;
+
+    private final GeometryFactory packedFactory = new GeometryFactory(
+            PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+
+    @Test
+    public void testQuantized() throws Exception {
+        assertRoundTrip("POINT (1 2)", true);
+        assertRoundTrip("POINT (-58.3820712 -34.6037232)", true);
+        assertRoundTrip("LINESTRING (0.1 0.2, 0.3 0.4, -179.9999999 89.9999999)", true);
+        assertRoundTrip("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1))", true);
+        assertRoundTrip("MULTIPOINT ((1 1), (2.5 2.5))", true);
+        assertRoundTrip("MULTILINESTRING ((0 0, 1 1), (2 2, 3.25 3.25))", true);
+        assertRoundTrip("MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))", true);
+        assertRoundTrip("POINT (1 2 3.5)", true);
+        assertRoundTrip("LINESTRING (1 2 3, 4 5 6)", true);
+    }
+
+    @Test
+    public void testNotQuantized() throws Exception {
+        assertRoundTrip("POINT (" + Math.PI + " " + Math.E + ")", false);
+        assertRoundTrip("LINESTRING (1 2, 0.0000000001 3)", false);
+        assertRoundTrip("LINESTRING (1E300 2, 3 4)", false);
+        assertRoundTrip("LINESTRING (1 2 3, 4 5)", false);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertRoundTrip("POINT EMPTY", true);
+        assertRoundTrip("LINESTRING EMPTY", true);
+        assertRoundTrip("POLYGON EMPTY", true);
+        assertRoundTrip("MULTIPOLYGON EMPTY", true);
+        assertRoundTrip("GEOMETRYCOLLECTION EMPTY", false);
+    }
+
+    @Test
+    public void testGeometryCollection() throws Exception {
+        Geometry read = assertRoundTrip("GEOMETRYCOLLECTION (POINT (1 2), LINESTRING ("
+                + Math.PI + " 1, 2 3), POLYGON ((0 0, 1 0, 1 1, 0 0)))", false);
+        assertEquals(3, read.getNumGeometries());
+    }
+
+    @Test
+    public void testPackedSequences() throws Exception {
+        LineString line = (LineString) roundTrip(
+                new WKTReader().read("LINESTRING (1 2, 3 4, 5 6)"), packedFactory);
+        assertTrue(line.getCoordinateSequence() instanceof PackedCoordinateSequence.Double);
+
+        line = (LineString) roundTrip(new WKTReader().read("LINESTRING (1 2, 3 4, 5 6)"),
+                new GeometryFactory());
+        assertFalse(line.getCoordinateSequence() instanceof PackedCoordinateSequence);
+        assertEquals(new Coordinate(3, 4), line.getCoordinateN(1));
+    }
+
+    @Test
+    public void testSmallerThanWKB() throws Exception {
+        StringBuilder wkt = new StringBuilder("LINESTRING (");
+        for (int i = 0; i < 100; i++) {
+            wkt.append(i == 0 ? "" : ", ").append((-583800000 + i * 123) / 1E7).append(' ')
+                    .append((-346000000 - i * 71) / 1E7);
+        }
+        Geometry line = new WKTReader().read(wkt.append(')').toString());
+        byte[] encoded = encode(line);
+        assertTrue((encoded[0] & GeometryCodec.QUANTIZED) != 0);
+        assertTrue(encoded.length * 3 < new WKBWriter().write(line).length);
+    }
+
+    private Geometry assertRoundTrip(final String wkt, final boolean quantized) throws Exception {
+        final Geometry geom = new WKTReader().read(wkt);
+        final byte[] encoded = encode(geom);
+        assertEquals(wkt, quantized, (encoded[0] & GeometryCodec.QUANTIZED) != 0);
+
+        Geometry read = GeometryCodec.read(
+                new DataInputStream(new ByteArrayInputStream(encoded)), packedFactory);
+        assertEquals(geom.getGeometryType(), read.getGeometryType());
+        assertTrue(wkt, geom.equalsExact(read));
+        assertSameZ(geom, read);
+
+        Hasher expected = HASH.newHasher();
+        HashObjectFunnels.propertyValueFunnel().funnel(geom, expected);
+        Hasher actual = HASH.newHasher();
+        GeometryCodec.write(geom, new DataOutputStream(new ByteArrayOutputStream()), actual);
+        assertEquals(wkt, expected.hash(), actual.hash());
+        return read;
+    }
+
+    private static void assertSameZ(final Geometry expected, final Geometry actual) {
+        final Coordinate[] expectedCoords = expected.getCoordinates();
+        actual.apply(new CoordinateFilter() {
+            private int i;
+
+            @Override
+            public void filter(Coordinate coord) {
+                double z = expectedCoords[i++].z;
+                if (!Double.isNaN(z)) {
+                    assertEquals(z, coord.z, 0D);
+                }
+            }
+        });
+    }
+
+    private static byte[] encode(final Geometry geom) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GeometryCodec.write(geom, new DataOutputStream(out), null);
+        return out.toByteArray();
+    }
+
+    private static Geometry roundTrip(final Geometry geom, final GeometryFactory factory)
+            throws Exception {
+        return GeometryCodec.read(new DataInputStream(new ByteArrayInputStream(encode(geom))),
+                factory);
+    }
+}
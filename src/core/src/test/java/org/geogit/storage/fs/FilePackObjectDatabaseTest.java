@@ -0,0 +1,349 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.hessian.HessianFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+public class FilePackObjectDatabaseTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Platform platform;
+
+    private FilePackObjectDatabase db;
+
+    @Before
+    public void setUp() {
+        File workingDir = tempFolder.newFolder("mockWorkingDir");
+        tempFolder.newFolder("mockWorkingDir/.geogit");
+        platform = mock(Platform.class);
+        when(platform.pwd()).thenReturn(workingDir);
+
+        db = new FilePackObjectDatabase(platform, new HessianFactory());
+        db.open();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void testPutGet() throws IOException {
+        final int count = 100;
+        for (int i = 0; i < count; i++) {
+            assertTrue(db.put(id(i), stream(i)));
+        }
+        assertFalse(db.put(id(0), stream(0)));
+        for (int i = 0; i < count; i++) {
+            assertTrue(db.exists(id(i)));
+            assertArrayEquals(data(i), read(id(i)));
+        }
+        assertFalse(db.exists(ObjectId.forString("not there")));
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        db.setMaxPackSize(1024);
+        final int count = 200;
+        for (int i = 0; i < count; i++) {
+            db.put(id(i), stream(i));
+        }
+        db.close();
+        File packDir = new File(platform.pwd(), ".geogit/objects/pack");
+        assertTrue(packDir.list().length > 2);
+
+        db.open();
+        for (int i = 0; i < count; i++) {
+            assertTrue(db.exists(id(i)));
+            assertArrayEquals(data(i), read(id(i)));
+        }
+    }
+
+    @Test
+    public void testRebuildsMissingIndex() throws IOException {
+        db.put(id(1), stream(1));
+        db.close();
+        File packDir = new File(platform.pwd(), ".geogit/objects/pack");
+        for (File f : packDir.listFiles()) {
+            if (f.getName().endsWith(PackFile.INDEX_SUFFIX)) {
+                assertTrue(f.delete());
+            }
+        }
+        db.open();
+        assertArrayEquals(data(1), read(id(1)));
+    }
+
+    @Test
+    public void testActivePackLeftAlone() throws IOException {
+        db.put(id(1), stream(1));
+        File packDir = new File(platform.pwd(), ".geogit/objects/pack");
+        File[] active = activePacks(packDir);
+        assertEquals(1, active.length);
+        // single puts are buffered until the next batch
+        assertTrue(active[0].length() <= PackFile.PACK_HEADER_SIZE);
+        db.putAll(trees(1).iterator());
+        final long length = active[0].length();
+        assertTrue(length > PackFile.PACK_HEADER_SIZE);
+
+        FilePackObjectDatabase other = new FilePackObjectDatabase(platform, new HessianFactory());
+        other.open();
+        try {
+            assertFalse(other.exists(id(1)));
+            other.put(id(2), stream(2));
+            assertEquals(2, activePacks(packDir).length);
+        } finally {
+            other.close();
+        }
+        assertEquals(length, active[0].length());
+        assertTrue(active[0].exists());
+
+        db.close();
+        db.open();
+        assertEquals(0, activePacks(packDir).length);
+        assertArrayEquals(data(1), read(id(1)));
+        assertArrayEquals(data(2), read(id(2)));
+    }
+
+    @Test
+    public void testRecoversCrashedActivePack() throws IOException {
+        db.put(id(1), stream(1));
+        db.put(id(2), stream(2));
+        db.putAll(trees(1).iterator());
+        File packDir = new File(platform.pwd(), ".geogit/objects/pack");
+        File crashed = new File(packDir, "pack-00000099.pack" + PackFile.ACTIVE_SUFFIX);
+        Files.copy(activePacks(packDir)[0], crashed);
+        // a partially written object
+        Files.append("partial", crashed, Charsets.UTF_8);
+        db.close();
+
+        db.open();
+        assertEquals(0, activePacks(packDir).length);
+        File recovered = new File(packDir, "pack-00000099.pack");
+        assertTrue(recovered.exists());
+        assertTrue(PackFile.indexFileFor(recovered).exists());
+        assertEquals(3, PackFile.open(recovered).size());
+        assertArrayEquals(data(2), read(id(2)));
+    }
+
+    private static File[] activePacks(File packDir) {
+        return packDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(PackFile.ACTIVE_SUFFIX);
+            }
+        });
+    }
+
+    @Test
+    public void testDeleteLeavesPackedObjects() throws IOException {
+        db.put(id(1), stream(1));
+        assertFalse(db.delete(id(1)));
+        db.close();
+        FileObjectDatabase looseDb = new FileObjectDatabase(platform, new HessianFactory());
+        looseDb.open();
+        try {
+            looseDb.put(id(2), stream(2));
+        } finally {
+            looseDb.close();
+        }
+        db.open();
+        assertFalse(db.delete(id(1)));
+        assertTrue(db.exists(id(1)));
+        assertTrue(db.delete(id(2)));
+        assertFalse(db.exists(id(2)));
+    }
+
+    @Test
+    public void testLookUp() {
+        ObjectId id = id(1);
+        db.put(id, stream(1));
+        String partialId = id.toString().substring(0, 7);
+        assertEquals(id, db.lookUp(partialId).get(0));
+
+        db.close();
+        db.open();
+        List<ObjectId> matches = db.lookUp(partialId);
+        assertEquals(1, matches.size());
+        assertEquals(id, matches.get(0));
+    }
+
+    @Test
+    public void testRepackLooseObjects() throws IOException {
+        db.close();
+        FileObjectDatabase looseDb = new FileObjectDatabase(platform, new HessianFactory());
+        looseDb.open();
+        for (int i = 0; i < 10; i++) {
+            looseDb.put(id(i), stream(i));
+        }
+        looseDb.close();
+
+        db.open();
+        assertTrue(db.exists(id(5)));
+        assertEquals(10, db.repack());
+        assertEquals(0, db.repack());
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(data(i), read(id(i)));
+        }
+        File looseDir = new File(platform.pwd(), ".geogit/objects/"
+                + id(5).toString().substring(0, 2));
+        assertFalse(looseDir.exists());
+    }
+
+    @Test
+    public void testBulkOperations() {
+        testBulkOperations(db);
+        db.close();
+        db.open();
+        List<RevTree> trees = trees(20);
+        assertEquals(0, db.putAll(trees.iterator()));
+        assertEquals(20, Lists.newArrayList(db.getAll(ids(trees))).size());
+    }
+
+    @Test
+    public void testBulkOperationsLooseObjects() {
+        db.close();
+        FileObjectDatabase looseDb = new FileObjectDatabase(platform, new HessianFactory());
+        looseDb.open();
+        try {
+            testBulkOperations(looseDb);
+        } finally {
+            looseDb.close();
+        }
+        db.open();
+    }
+
+    @Test
+    public void testRawCompressedTransfer() {
+        HeapObjectDatabse heapDb = new HeapObjectDatabse(new HessianFactory());
+        heapDb.open();
+        List<RevTree> trees = trees(5);
+        heapDb.putAll(trees.iterator());
+        // packed and loose objects
+        db.putAll(trees.subList(0, 2).iterator());
+        db.repack();
+        db.put(trees.get(2));
+
+        for (RevTree tree : trees) {
+            byte[] compressed = db.exists(tree.getId()) ? db.getRawCompressed(tree.getId())
+                    : heapDb.getRawCompressed(tree.getId());
+            assertArrayEquals(compressed, heapDb.getRawCompressed(tree.getId()));
+            heapDb.putRawCompressed(tree.getId(), compressed);
+            db.putRawCompressed(tree.getId(), compressed);
+        }
+        for (RevTree tree : trees) {
+            assertEquals(tree, db.getTree(tree.getId()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutRawCompressedRejectsUncompressed() {
+        db.putRawCompressed(id(1), data(1));
+    }
+
+    private void testBulkOperations(ObjectDatabase database) {
+        List<RevTree> trees = trees(20);
+        List<ObjectId> ids = ids(trees);
+        ObjectId missing = ObjectId.forString("not there");
+
+        assertTrue(database.put(trees.get(0)));
+        assertEquals(ImmutableSet.of(ids.get(0)),
+                database.existsAll(ImmutableList.of(ids.get(0), ids.get(1), missing)));
+
+        // the first tree already exists, and duplicates are inserted only once
+        List<RevTree> toInsert = Lists.newArrayList(trees);
+        toInsert.add(trees.get(5));
+        assertEquals(19, database.putAll(toInsert.iterator()));
+        assertEquals(Sets.newHashSet(ids), database.existsAll(ids));
+
+        List<ObjectId> query = Lists.newArrayList(ids);
+        query.add(missing);
+        Set<ObjectId> found = Sets.newHashSet();
+        for (Iterator<RevObject> it = database.getAll(query); it.hasNext();) {
+            RevObject object = it.next();
+            assertEquals(TYPE.TREE, object.getType());
+            assertTrue(found.add(object.getId()));
+        }
+        assertEquals(Sets.newHashSet(ids), found);
+    }
+
+    private List<RevTree> trees(int count) {
+        List<RevTree> trees = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            Node node = new Node("feature" + i, id(i), ObjectId.NULL, TYPE.FEATURE);
+            trees.add(new RevTreeBuilder(db).put(node).build());
+        }
+        return trees;
+    }
+
+    private static List<ObjectId> ids(List<? extends RevObject> objects) {
+        List<ObjectId> ids = Lists.newArrayList();
+        for (RevObject object : objects) {
+            ids.add(object.getId());
+        }
+        return ids;
+    }
+
+    private byte[] read(ObjectId id) throws IOException {
+        InputStream in = db.getRaw(id);
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private static ObjectId id(int i) {
+        return ObjectId.forString("object " + i);
+    }
+
+    private static byte[] data(int i) {
+        return ("contents of object " + i).getBytes();
+    }
+
+    private static InputStream stream(int i) {
+        return new ByteArrayInputStream(data(i));
+    }
+}
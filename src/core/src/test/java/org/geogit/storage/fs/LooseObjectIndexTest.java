@@ -0,0 +1,191 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.storage.hessian.HessianFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class LooseObjectIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testLookUp() {
+        List<ObjectId> ids = ids(0, 2000);
+        LooseObjectIndex index = LooseObjectIndex.build(ids.iterator());
+        assertEquals(2000, index.size());
+
+        // every length, even and odd, against a plain scan
+        ObjectId target = ids.get(1234);
+        for (int length = 1; length <= 40; length++) {
+            String partialId = target.toString().substring(0, length);
+            assertEquals(partialId, scan(ids, partialId),
+                    index.lookUp(new ObjectIdPrefix(partialId)));
+        }
+        assertEquals(ImmutableList.of(), index.lookUp(new ObjectIdPrefix("ffffffffff")));
+    }
+
+    @Test
+    public void testAddRemove() {
+        List<ObjectId> ids = ids(0, 100);
+        LooseObjectIndex index = LooseObjectIndex.build(ids.subList(0, 50).iterator());
+        for (ObjectId id : ids.subList(50, 100)) {
+            index.add(id);
+        }
+        index.add(ids.get(0));
+        index.remove(ids.get(1));
+        index.remove(ids.get(99));
+        index.remove(ObjectId.forString("never added"));
+        assertEquals(98, index.size());
+
+        List<ObjectId> expected = Lists.newArrayList(ids);
+        expected.remove(ids.get(99));
+        expected.remove(ids.get(1));
+        Collections.sort(expected, ObjectIdPrefix.RAW_ORDER);
+        assertEquals(expected, Lists.newArrayList(index.iterator()));
+
+        String partialId = ids.get(1).toString().substring(0, 8);
+        assertTrue(index.lookUp(new ObjectIdPrefix(partialId)).isEmpty());
+        index.add(ids.get(1));
+        assertEquals(ImmutableList.of(ids.get(1)), index.lookUp(new ObjectIdPrefix(partialId)));
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        List<ObjectId> ids = ids(0, 100);
+        LooseObjectIndex index = LooseObjectIndex.build(ids.subList(0, 60).iterator());
+        for (ObjectId id : ids.subList(60, 100)) {
+            index.add(id);
+        }
+        index.remove(ids.get(10));
+        File file = new File(tempFolder.getRoot(), "loose.idx");
+        index.writeTo(file);
+
+        LooseObjectIndex read = LooseObjectIndex.readFrom(file);
+        assertEquals(99, read.size());
+        assertEquals(Lists.newArrayList(index.iterator()), Lists.newArrayList(read.iterator()));
+    }
+
+    @Test
+    public void testDatabaseIndex() {
+        File workingDir = tempFolder.newFolder("mockWorkingDir");
+        tempFolder.newFolder("mockWorkingDir/.geogit");
+        Platform platform = mock(Platform.class);
+        when(platform.pwd()).thenReturn(workingDir);
+
+        List<ObjectId> ids = ids(0, 30);
+        FileObjectDatabase looseDb = new FileObjectDatabase(platform, new HessianFactory());
+        looseDb.open();
+        for (ObjectId id : ids.subList(0, 20)) {
+            looseDb.put(id, new ByteArrayInputStream(id.getRawValue()));
+        }
+        assertEquals(20, looseDb.countLooseObjects());
+        looseDb.close();
+
+        File indexFile = new File(workingDir, ".geogit/objects/loose.idx");
+        assertTrue(indexFile.exists());
+        FilePackObjectDatabase db = new FilePackObjectDatabase(platform, new HessianFactory());
+        db.open();
+        assertFalse(indexFile.exists());
+        assertEquals(20, db.countLooseObjects());
+        assertEquals(20, db.repack());
+        assertEquals(0, db.countLooseObjects());
+        assertEquals(20, db.countPackedObjects());
+        db.close();
+
+        looseDb.open();
+        for (ObjectId id : ids.subList(20, 30)) {
+            looseDb.put(id, new ByteArrayInputStream(id.getRawValue()));
+        }
+        looseDb.close();
+
+        // a missing index is rebuilt from the fan-out directories
+        assertTrue(indexFile.delete());
+        db.open();
+        assertEquals(10, db.countLooseObjects());
+        for (ObjectId id : ids) {
+            assertEquals(ImmutableList.of(id), db.lookUp(id.toString().substring(0, 9)));
+        }
+        db.close();
+    }
+
+    @Test
+    public void testSharedDatabaseIndex() {
+        File workingDir = tempFolder.newFolder("mockWorkingDir");
+        tempFolder.newFolder("mockWorkingDir/.geogit");
+        Platform platform = mock(Platform.class);
+        when(platform.pwd()).thenReturn(workingDir);
+
+        List<ObjectId> ids = ids(0, 20);
+        FileObjectDatabase db = new FileObjectDatabase(platform, new HessianFactory());
+        db.open();
+        FileObjectDatabase other = new FileObjectDatabase(platform, new HessianFactory());
+        other.open();
+        for (ObjectId id : ids.subList(0, 10)) {
+            other.put(id, new ByteArrayInputStream(id.getRawValue()));
+        }
+        // written by another instance after the index was loaded
+        assertEquals(10, db.countLooseObjects());
+        for (ObjectId id : ids.subList(0, 10)) {
+            assertEquals(ImmutableList.of(id), db.lookUp(id.toString().substring(0, 9)));
+        }
+        assertEquals(scan(ids.subList(0, 10), ids.get(0).toString().substring(0, 1)),
+                db.lookUp(ids.get(0).toString().substring(0, 1)));
+        assertTrue(other.delete(ids.get(0)));
+        assertEquals(Collections.emptyList(), db.lookUp(ids.get(0).toString()));
+
+        for (ObjectId id : ids.subList(10, 20)) {
+            db.put(id, new ByteArrayInputStream(id.getRawValue()));
+        }
+        other.close();
+        // closed last, its index file shall not hide the other instance's objects
+        db.close();
+
+        db.open();
+        assertEquals(19, db.countLooseObjects());
+        for (ObjectId id : ids.subList(1, 20)) {
+            assertEquals(ImmutableList.of(id), db.lookUp(id.toString()));
+        }
+        db.close();
+    }
+
+    private static List<ObjectId> scan(List<ObjectId> ids, String partialId) {
+        List<ObjectId> matches = Lists.newArrayList();
+        for (ObjectId id : ids) {
+            if (id.toString().startsWith(partialId)) {
+                matches.add(id);
+            }
+        }
+        Collections.sort(matches, ObjectIdPrefix.RAW_ORDER);
+        return matches;
+    }
+
+    private static List<ObjectId> ids(int from, int to) {
+        List<ObjectId> ids = Lists.newArrayList();
+        for (int i = from; i < to; i++) {
+            ids.add(ObjectId.forString("object " + i));
+        }
+        return ids;
+    }
+}
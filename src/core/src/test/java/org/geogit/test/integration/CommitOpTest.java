@@ -23,9 +23,13 @@ import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.RevParse;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
 import org.geogit.api.porcelain.AddOp;
 import org.geogit.api.porcelain.CommitOp;
 import org.geogit.api.porcelain.NothingToCommitException;
+import org.geogit.repository.WorkingTree;
+import org.geogit.storage.QuadTreeStorageOrder;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -101,6 +105,37 @@ public class CommitOpTest extends RepositoryTestCase {
         assertEquals(commit.getId(), commitId);
     }
 
+    @Test
+    public void testCommitQuadTreeLayout() throws Exception {
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET)
+                .setName(WorkingTree.TREE_LAYOUT).setValue(WorkingTree.QUADTREE_LAYOUT).call();
+
+        insert(points1);
+        insert(points2);
+        geogit.command(AddOp.class).addPattern(".").call();
+
+        ObjectId stagedId = repo.getIndex().findStaged(pointsName).get().getObjectId();
+        RevTree staged = repo.getIndex().getDatabase().getTree(stagedId);
+        assertTrue(QuadTreeStorageOrder.isQuadTree(staged));
+        assertEquals(2, staged.size());
+
+        RevCommit commit = geogit.command(CommitOp.class).call();
+        RevTree root = repo.getTree(commit.getTreeId());
+        Optional<Node> typeTreeId = repo.getTreeChild(root, pointsName);
+        assertTrue(typeTreeId.isPresent());
+        RevTree committed = repo.getTree(typeTreeId.get().getObjectId());
+        assertTrue(QuadTreeStorageOrder.isQuadTree(committed));
+        assertEquals(2, committed.size());
+
+        // edits keep the layout too
+        insertAndAdd(points3);
+        commit = geogit.command(CommitOp.class).call();
+        root = repo.getTree(commit.getTreeId());
+        committed = repo.getTree(repo.getTreeChild(root, pointsName).get().getObjectId());
+        assertTrue(QuadTreeStorageOrder.isQuadTree(committed));
+        assertEquals(3, committed.size());
+    }
+
     @Test
     public void testMultipleCommits() throws Exception {
 
@@ -108,6 +108,7 @@ public class IndexTest extends RepositoryTestCase {
         ObjectId commitId = commit.getId();
 
         objectInserter.insert(commit);
+        objectInserter.commit();
         Optional<Ref> newHead = geogit.command(UpdateRef.class).setName("refs/heads/master")
                 .setNewValue(commitId).call();
         assertTrue(newHead.isPresent());
@@ -304,6 +305,7 @@ public class IndexTest extends RepositoryTestCase {
                     .build();
             ObjectId commitId = commit.getId();
             objectInserter.insert(commit);
+            objectInserter.commit();
             Optional<Ref> newHead = geogit.command(UpdateRef.class).setName("refs/heads/master")
                     .setNewValue(commitId).call();
             assertTrue(newHead.isPresent());
@@ -345,6 +347,7 @@ public class IndexTest extends RepositoryTestCase {
             ObjectId commitId = commit.getId();
 
             objectInserter.insert(commit);
+            objectInserter.commit();
             Optional<Ref> newHead = geogit.command(UpdateRef.class).setName("refs/heads/master")
                     .setNewValue(commitId).call();
             assertTrue(newHead.isPresent());
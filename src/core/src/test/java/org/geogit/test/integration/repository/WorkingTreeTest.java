@@ -17,8 +17,12 @@ import java.util.List;
 
 import org.geogit.api.Node;
 import org.geogit.api.ObjectId;
+import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
 import org.geogit.repository.WorkingTree;
+import org.geogit.storage.QuadTreeStorageOrder;
 import org.geogit.test.integration.RepositoryTestCase;
 import org.geotools.feature.NameImpl;
 import org.geotools.util.NullProgressListener;
@@ -80,6 +84,28 @@ public class WorkingTreeTest extends RepositoryTestCase {
                 .getObjectId());
     }
 
+    @Test
+    public void testInsertCollectionQuadTreeLayout() throws Exception {
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET)
+                .setName(WorkingTree.TREE_LAYOUT).setValue(WorkingTree.QUADTREE_LAYOUT).call();
+
+        List<Feature> featureList = new LinkedList<Feature>();
+        featureList.add(points1);
+        featureList.add(points2);
+        workTree.insert(pointsName, featureList.iterator(), false, new NullProgressListener(),
+                null, 2);
+        workTree.insert(pointsName, points3);
+
+        ObjectId typeTreeId = workTree.findUnstaged(pointsName).get().getObjectId();
+        RevTree typeTree = repo.getIndex().getDatabase().getTree(typeTreeId);
+        assertTrue(QuadTreeStorageOrder.isQuadTree(typeTree));
+        assertEquals(3, typeTree.size());
+
+        assertTrue(workTree.findUnstaged(appendChild(pointsName, idP1)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(pointsName, idP2)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(pointsName, idP3)).isPresent());
+    }
+
     @Test
     public void testInsertCollectionNullCollectionSize() throws Exception {
         List<Feature> featureList = new LinkedList<Feature>();
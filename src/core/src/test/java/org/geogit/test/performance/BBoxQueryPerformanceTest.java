@@ -0,0 +1,139 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.test.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.NumberFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.QuadTreeBuilder;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.SpatialNode;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Compares the latency of bounding box queries, as bounds filtered traversals of a feature type
+ * tree, on trees with the path hash layout built by {@link RevTreeBuilder} and trees with the
+ * quadtree layout built by {@link QuadTreeBuilder}, for several query sizes.
+ */
+public class BBoxQueryPerformanceTest {
+
+    private static final NumberFormat FORMAT = NumberFormat.getInstance(Locale.ENGLISH);
+
+    private static final int NUM_QUERIES = 200;
+
+    /**
+     * Query widths in degrees, queries being half as high
+     */
+    private static final double[] QUERY_SIZES = { 0.1, 1, 10, 90 };
+
+    @Ignore
+    @Test
+    public void testBBoxQueries() throws Exception {
+        System.err.println("############### Warming up....");
+        runAll(100 * 1000);
+        System.err.println("############### Warm up done.");
+
+        runAll(100 * 1000);
+        runAll(1000 * 1000);
+    }
+
+    private void runAll(final int numFeatures) throws Exception {
+        System.err.println("***********\n" + FORMAT.format(numFeatures) + " features");
+        List<Node> nodes = createNodes(numFeatures);
+
+        ObjectDatabase hashDb = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        hashDb.open();
+        Stopwatch sw = new Stopwatch().start();
+        RevTree hashTree = build(new RevTreeBuilder(hashDb), nodes);
+        System.err.println("hash layout built in " + sw.stop());
+
+        ObjectDatabase quadDb = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        quadDb.open();
+        sw.reset().start();
+        RevTree quadTree = build(new QuadTreeBuilder(quadDb), nodes);
+        System.err.println("quadtree layout built in " + sw.stop());
+
+        for (double width : QUERY_SIZES) {
+            List<Envelope> queries = createQueries(width);
+            long hashCount = query("hash", hashTree, hashDb, queries, width);
+            long quadCount = query("quadtree", quadTree, quadDb, queries, width);
+            assertEquals(hashCount, quadCount);
+        }
+        hashDb.close();
+        quadDb.close();
+    }
+
+    private long query(final String layout, final RevTree tree, final ObjectDatabase db,
+            final List<Envelope> queries, final double width) {
+        long count = 0;
+        Stopwatch sw = new Stopwatch().start();
+        for (Envelope query : queries) {
+            Iterator<NodeRef> refs = new DepthTreeIterator("", ObjectId.NULL, tree, db,
+                    Strategy.FEATURES_ONLY, query);
+            while (refs.hasNext()) {
+                refs.next();
+                count++;
+            }
+        }
+        sw.stop();
+        System.err.printf("%s layout, %s degrees wide: %s features, %.2f ms per query\n",
+                layout, width, FORMAT.format((double) count / queries.size()),
+                (double) sw.elapsedTime(TimeUnit.MICROSECONDS) / 1000 / queries.size());
+        return count;
+    }
+
+    private static RevTree build(RevTreeBuilder builder, List<Node> nodes) {
+        for (Node node : nodes) {
+            builder.put(node);
+        }
+        return builder.build();
+    }
+
+    private static List<Node> createNodes(final int numFeatures) {
+        Random random = new Random(numFeatures);
+        List<Node> nodes = Lists.newArrayListWithCapacity(numFeatures);
+        for (int i = 0; i < numFeatures; i++) {
+            double x = random.nextDouble() * 360 - 180;
+            double y = random.nextDouble() * 180 - 90;
+            nodes.add(new SpatialNode("feature." + i, ObjectId.forString("feature " + i),
+                    ObjectId.NULL, TYPE.FEATURE, new ReferencedEnvelope(x, x + 0.01, y, y + 0.01,
+                            null)));
+        }
+        return nodes;
+    }
+
+    private static List<Envelope> createQueries(final double width) {
+        Random random = new Random(NUM_QUERIES);
+        List<Envelope> queries = Lists.newArrayListWithCapacity(NUM_QUERIES);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            double x = random.nextDouble() * (360 - width) - 180;
+            double y = random.nextDouble() * (180 - width / 2) - 90;
+            queries.add(new Envelope(x, x + width, y, y + width / 2));
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,118 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.test.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.ObjectIdSet;
+import org.geogit.api.RevObject.TYPE;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Sets;
+
+/**
+ * Reports the memory taken by {@link Node}s and the throughput of {@link ObjectId} parsing,
+ * formatting, sorting and set membership, comparing {@link ObjectIdSet} with a {@link Set}.
+ */
+public class ObjectIdPerformanceTest {
+
+    private static final NumberFormat FORMAT = NumberFormat.getInstance(Locale.ENGLISH);
+
+    @Ignore
+    @Test
+    public void testObjectIds() throws Exception {
+        System.err.println("############### Warming up....");
+        runAll(100 * 1000);
+        System.err.println("############### Warm up done.");
+
+        runAll(1000 * 1000);
+    }
+
+    private void runAll(final int count) throws Exception {
+        System.err.println("***********\n" + FORMAT.format(count) + " ids");
+        final ObjectId[] ids = new ObjectId[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = ObjectId.forString("feature " + i);
+        }
+        measureNodeMemory(count);
+
+        Stopwatch sw = new Stopwatch().start();
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = ids[i].toString();
+        }
+        report("toString", count, sw);
+
+        sw.reset().start();
+        for (int i = 0; i < count; i++) {
+            ObjectId.valueOf(strings[i]);
+        }
+        report("valueOf", count, sw);
+
+        ObjectId[] sorted = ids.clone();
+        sw.reset().start();
+        Arrays.sort(sorted);
+        report("sort", count, sw);
+
+        sw.reset().start();
+        Set<ObjectId> hashSet = Sets.newHashSet();
+        for (ObjectId id : ids) {
+            hashSet.add(id);
+        }
+        for (ObjectId id : sorted) {
+            hashSet.contains(id);
+        }
+        report("HashSet add and contains", count, sw);
+
+        sw.reset().start();
+        ObjectIdSet idSet = new ObjectIdSet();
+        for (ObjectId id : ids) {
+            idSet.add(id);
+        }
+        for (ObjectId id : sorted) {
+            idSet.contains(id);
+        }
+        report("ObjectIdSet add and contains", count, sw);
+        assertEquals(hashSet.size(), idSet.size());
+    }
+
+    private void measureNodeMemory(final int count) throws Exception {
+        final long before = usedMemory();
+        Node[] nodes = new Node[count];
+        for (int i = 0; i < count; i++) {
+            String name = "feature." + i;
+            nodes[i] = new Node(name, ObjectId.forString(name), ObjectId.NULL, TYPE.FEATURE);
+        }
+        final long after = usedMemory();
+        System.err.println("  " + FORMAT.format((after - before) / count)
+                + " bytes per node, name included");
+        assertEquals(count, nodes.length);
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(final String label, final int count, final Stopwatch sw) {
+        final long millis = sw.stop().elapsedTime(TimeUnit.MILLISECONDS);
+        System.err.println("  " + label + ": " + millis + "ms ("
+                + FORMAT.format(count * 1000L / Math.max(1, millis)) + "/s)");
+    }
+}
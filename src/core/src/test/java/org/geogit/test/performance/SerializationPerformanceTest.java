@@ -0,0 +1,172 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.test.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.text.NumberFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.storage.ObjectReader;
+import org.geogit.storage.ObjectSerialisingFactory;
+import org.geogit.storage.ObjectWriter;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.hessian.HessianFactory;
+import org.geotools.data.DataUtilities;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Compares the size and the encoding and decoding throughput of the {@link HessianFactory Hessian}
+ * and {@link DataStreamSerializationFactory data stream} serialization formats for trees,
+ * features, commits and feature types.
+ */
+public class SerializationPerformanceTest {
+
+    private static final NumberFormat FORMAT = NumberFormat.getInstance(Locale.ENGLISH);
+
+    private final ObjectSerialisingFactory hessian = new HessianFactory();
+
+    private final ObjectSerialisingFactory dataStream = new DataStreamSerializationFactory();
+
+    @Ignore
+    @Test
+    public void testSerialization() throws Exception {
+        System.err.println("############### Warming up....");
+        compareAll(1000);
+        System.err.println("############### Warm up done.");
+
+        compareAll(10 * 1000);
+        // compareAll(100 * 1000);
+    }
+
+    private void compareAll(final int numObjects) throws Exception {
+        System.err.println("***********\n" + FORMAT.format(numObjects) + " objects of each type");
+        compare("trees", trees(numObjects / 100));
+        compare("features", features(numObjects));
+        compare("commits", commits(numObjects));
+        compare("feature types", featureTypes(numObjects / 10));
+    }
+
+    private <T extends RevObject> void compare(final String name, final List<T> objects)
+            throws Exception {
+        System.err.println(name + ":");
+        run("  hessian    ", hessian, objects);
+        run("  datastream ", dataStream, objects);
+    }
+
+    private <T extends RevObject> void run(final String label,
+            final ObjectSerialisingFactory factory, final List<T> objects) throws Exception {
+        final ObjectWriter<T> writer = factory.createObjectWriter(objects.get(0).getType());
+        final ObjectReader<RevObject> reader = factory.createObjectReader();
+        List<byte[]> encoded = Lists.newArrayListWithCapacity(objects.size());
+
+        Stopwatch sw = new Stopwatch().start();
+        long bytes = 0;
+        for (T object : objects) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.write(object, out);
+            byte[] data = out.toByteArray();
+            bytes += data.length;
+            encoded.add(data);
+        }
+        final long encodeMillis = sw.stop().elapsedTime(TimeUnit.MILLISECONDS);
+
+        sw.reset().start();
+        for (int i = 0; i < objects.size(); i++) {
+            RevObject read = reader.read(objects.get(i).getId(),
+                    new ByteArrayInputStream(encoded.get(i)));
+            assertEquals(objects.get(i).getId(), read.getId());
+        }
+        final long decodeMillis = sw.stop().elapsedTime(TimeUnit.MILLISECONDS);
+
+        System.err.println(label + FORMAT.format(bytes) + " bytes, "
+                + FORMAT.format(bytes / objects.size()) + " per object, encoded in "
+                + encodeMillis + "ms (" + rate(objects.size(), encodeMillis) + "/s), decoded in "
+                + decodeMillis + "ms (" + rate(objects.size(), decodeMillis) + "/s)");
+    }
+
+    private static String rate(final int count, final long millis) {
+        return FORMAT.format(count * 1000L / Math.max(1, millis));
+    }
+
+    private static List<RevTree> trees(final int numTrees) {
+        final ObjectId metadataId = ObjectId.forString("points type");
+        List<RevTree> trees = Lists.newArrayListWithCapacity(numTrees);
+        for (int t = 0; t < numTrees; t++) {
+            ImmutableList.Builder<Node> features = ImmutableList.builder();
+            for (int i = 0; i < RevTree.NORMALIZED_SIZE_LIMIT; i++) {
+                String name = "points." + (t * RevTree.NORMALIZED_SIZE_LIMIT + i);
+                features.add(new Node(name, ObjectId.forString(name), metadataId, TYPE.FEATURE));
+            }
+            trees.add(RevTreeImpl.createLeafTree(ObjectId.forString("tree " + t),
+                    RevTree.NORMALIZED_SIZE_LIMIT, features.build(), ImmutableList.<Node> of()));
+        }
+        return trees;
+    }
+
+    private static List<RevFeature> features(final int numFeatures) {
+        GeometryFactory gf = new GeometryFactory();
+        List<RevFeature> features = Lists.newArrayListWithCapacity(numFeatures);
+        for (int i = 0; i < numFeatures; i++) {
+            ImmutableList<Optional<Object>> values = ImmutableList.of(
+                    Optional.<Object> of("StringProp " + i), Optional.<Object> of(Integer.valueOf(i)),
+                    Optional.<Object> of(Double.valueOf(i / 3d)),
+                    Optional.<Object> of(Long.valueOf(System.currentTimeMillis())),
+                    Optional.<Object> of(gf.createPoint(new Coordinate(i, -i))),
+                    Optional.<Object> absent());
+            features.add(new RevFeature(ObjectId.forString("feature " + i), values));
+        }
+        return features;
+    }
+
+    private static List<RevCommit> commits(final int numCommits) {
+        List<RevCommit> commits = Lists.newArrayListWithCapacity(numCommits);
+        for (int i = 0; i < numCommits; i++) {
+            CommitBuilder builder = new CommitBuilder();
+            builder.setTreeId(ObjectId.forString("tree " + i));
+            builder.setParentIds(ImmutableList.of(ObjectId.forString("commit " + (i - 1))));
+            builder.setAuthor("groldan");
+            builder.setAuthorEmail("groldan@opengeo.org");
+            builder.setCommitter("groldan");
+            builder.setCommitterEmail("groldan@opengeo.org");
+            builder.setMessage("Commit " + i);
+            builder.setTimestamp(System.currentTimeMillis());
+            commits.add(builder.build());
+        }
+        return commits;
+    }
+
+    private static List<RevFeatureType> featureTypes(final int numTypes) throws Exception {
+        List<RevFeatureType> types = Lists.newArrayListWithCapacity(numTypes);
+        for (int i = 0; i < numTypes; i++) {
+            types.add(new RevFeatureType(ObjectId.forString("type " + i), DataUtilities.createType(
+                    "http://geogit.points", "Points" + i,
+                    "sp:String,ip:Integer,dp:Double,pp:Point:srid=4326")));
+        }
+        return types;
+    }
+}
@@ -6,6 +6,9 @@
 package org.geogit.geotools.plumbing;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.FeatureBuilder;
@@ -36,6 +39,9 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
 /**
@@ -44,6 +50,11 @@ import com.google.inject.Inject;
  */
 public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
 
+    /**
+     * Number of features fetched at once from the object database
+     */
+    private static final int BATCH_SIZE = 1000;
+
     private String featureTypeName;
 
     private Supplier<SimpleFeatureStore> featureStore;
@@ -103,17 +114,33 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
         FeatureBuilder featureBuilder = null;
         FeatureType featureType = null;
         int i = 1;
-        while (iter.hasNext()) {
-            NodeRef nodeRef = iter.next();
-            if (nodeRef.getType() == TYPE.FEATURE) {
+        Iterator<List<NodeRef>> batches = Iterators.partition(iter, BATCH_SIZE);
+        while (batches.hasNext()) {
+            List<NodeRef> batch = batches.next();
+            List<ObjectId> featureIds = Lists.newArrayListWithCapacity(batch.size());
+            for (NodeRef nodeRef : batch) {
+                if (nodeRef.getType() == TYPE.FEATURE) {
+                    featureIds.add(nodeRef.objectId());
+                }
+            }
+            Map<ObjectId, RevObject> revFeatures = Maps.newHashMap();
+            for (Iterator<RevObject> it = database.getAll(featureIds); it.hasNext();) {
+                RevObject revFeature = it.next();
+                revFeatures.put(revFeature.getId(), revFeature);
+            }
+            for (NodeRef nodeRef : batch) {
+                if (nodeRef.getType() != TYPE.FEATURE) {
+                    continue;
+                }
                 if (featureBuilder == null) {
                     RevFeatureType revFeatureType = command(RevObjectParse.class)
                             .setObjectId(nodeRef.getMetadataId()).call(RevFeatureType.class).get();
                     featureType = revFeatureType.type();
                     featureBuilder = new FeatureBuilder(revFeatureType);
                 }
-                RevFeature revFeature = command(RevObjectParse.class)
-                        .setObjectId(nodeRef.objectId()).call(RevFeature.class).get();
+                RevFeature revFeature = (RevFeature) revFeatures.get(nodeRef.objectId());
+                Preconditions.checkState(revFeature != null, "Feature %s not found",
+                        nodeRef.objectId());
                 Feature feature = featureBuilder.build(Integer.toString(i), revFeature);
                 Feature validFeature = function.apply(feature);
                 features.add((SimpleFeature) validFeature);
@@ -12,6 +12,7 @@ import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevTree;
 import org.geogit.geotools.plumbing.GeoToolsOpException.StatusCode;
+import org.geogit.repository.Repository;
 import org.geogit.repository.WorkingTree;
 import org.geotools.data.DataStore;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -39,14 +40,19 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
 
     private WorkingTree workTree;
 
+    private Repository repository;
+
     /**
      * Constructs a new import operation with the given working tree.
      * 
      * @param workTree the working tree where features will be imported to
+     * @param repository the repository the working tree belongs to, put in bulk load mode during
+     *        the import
      */
     @Inject
-    public ImportOp(final WorkingTree workTree) {
+    public ImportOp(final WorkingTree workTree, final Repository repository) {
         this.workTree = workTree;
+        this.repository = repository;
     }
 
     /**
@@ -70,8 +76,6 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
             throw new GeoToolsOpException(StatusCode.ALL_AND_TABLE_DEFINED);
         }
 
-        boolean foundTable = false;
-
         List<Name> typeNames;
         try {
             typeNames = dataStore.getNames();
@@ -79,6 +83,18 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
             throw new GeoToolsOpException(StatusCode.UNABLE_TO_GET_NAMES);
         }
 
+        repository.beginBulkLoad();
+        try {
+            importTables(typeNames);
+        } finally {
+            repository.endBulkLoad();
+        }
+        return workTree.getTree();
+    }
+
+    private void importTables(List<Name> typeNames) {
+        boolean foundTable = false;
+
         for (Name typeName : typeNames) {
             if (!all && !table.equals(typeName.toString()))
                 continue;
@@ -127,7 +143,6 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
                 throw new GeoToolsOpException(StatusCode.TABLE_NOT_FOUND);
             }
         }
-        return workTree.getTree();
     }
 
     /**
@@ -18,6 +18,7 @@ import org.geogit.cli.GeogitCLI;
 import org.geogit.geotools.plumbing.GeoToolsOpException;
 import org.geogit.geotools.plumbing.ImportOp;
 import org.geogit.geotools.porcelain.TestHelper;
+import org.geogit.repository.Repository;
 import org.geogit.repository.WorkingTree;
 import org.geotools.data.memory.MemoryDataStore;
 import org.junit.Before;
@@ -172,7 +173,7 @@ public class ImportOpTest {
     public void testDeleteException() throws Exception {
         WorkingTree workTree = mock(WorkingTree.class);
         doThrow(new Exception("Exception")).when(workTree).delete(any(Name.class));
-        ImportOp importOp = new ImportOp(workTree);
+        ImportOp importOp = new ImportOp(workTree, mock(Repository.class));
         importOp.setDataStore(TestHelper.createTestFactory().createDataStore(null));
         importOp.setAll(true);
         exception.expect(GeoToolsOpException.class);
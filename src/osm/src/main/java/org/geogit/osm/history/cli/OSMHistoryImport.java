@@ -10,6 +10,7 @@ import static com.google.common.base.Preconditions.checkState;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -26,7 +27,6 @@ import javax.management.relation.Relation;
 
 import jline.console.ConsoleReader;
 
-import org.geogit.api.FeatureBuilder;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.NodeRef;
 import org.geogit.api.RevFeature;
@@ -46,12 +46,13 @@ import org.geogit.osm.history.internal.Way;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.repository.WorkingTree;
+import org.geogit.storage.ObjectReader;
 import org.geotools.data.DataUtilities;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.referencing.CRS;
-import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.PropertyDescriptor;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.util.ProgressListener;
 
@@ -61,6 +62,7 @@ import com.beust.jcommander.internal.Lists;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
@@ -114,9 +116,12 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
         HistoryDownloader downloader;
         downloader = new HistoryDownloader(osmAPIUrl, targetDir, args.startIndex, args.endIndex,
                 executor, args.keepFiles);
+        final Repository repository = cli.getGeogit().getRepository();
+        repository.beginBulkLoad();
         try {
             importOsmHistory(cli, console, downloader);
         } finally {
+            repository.endBulkLoad();
             executor.shutdownNow();
             executor.awaitTermination(30, TimeUnit.SECONDS);
         }
@@ -352,7 +357,6 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
 
         StagingArea index = geogit.getRepository().getIndex();
 
-        FeatureBuilder featureBuilder = new FeatureBuilder(NODE_REV_TYPE);
         List<Coordinate> coordinates = Lists.newArrayList(nodes.size());
         for (Long nodeId : nodes) {
             Coordinate coord = thisChangePointCache.get(nodeId);
@@ -372,11 +376,10 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
                 if (ref.isPresent()) {
                     org.geogit.api.Node nodeRef = ref.get();
 
-                    RevFeature revFeature = index.getDatabase().getFeature(nodeRef.getObjectId());
-                    String id = NodeRef.nodeFromPath(nodeRef.getName());
-                    Feature feature = featureBuilder.build(id, revFeature);
-
-                    Point p = (Point) ((SimpleFeature) feature).getAttribute("location");
+                    // only the location is needed, don't decode the other values
+                    RevFeature revFeature = index.getDatabase().getFeature(
+                            nodeRef.getObjectId(), NODE_LOCATION_HINTS);
+                    Point p = (Point) revFeature.get(NODE_LOCATION_INDEX).orNull();
                     if (p != null) {
                         coord = p.getCoordinate();
                         thisChangePointCache.put(Long.valueOf(nodeId), coord);
@@ -449,8 +452,27 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
 
     private static final RevFeatureType NODE_REV_TYPE = RevFeatureType.build(nodeType());
 
+    private static final int NODE_LOCATION_INDEX = indexOf(NODE_REV_TYPE, "location");
+
+    private static final Map<String, Serializable> NODE_LOCATION_HINTS = ImmutableMap
+            .<String, Serializable> of(ObjectReader.ATTRIBUTE_INDEXES,
+                    new int[] { NODE_LOCATION_INDEX });
+
     private static final RevFeatureType WAY_REV_TYPE = RevFeatureType.build(wayType());
 
+    /**
+     * @return the index of the named attribute in the values of the features of the given type
+     */
+    private static int indexOf(RevFeatureType type, String attributeName) {
+        ImmutableList<PropertyDescriptor> descriptors = type.sortedDescriptors();
+        for (int i = 0; i < descriptors.size(); i++) {
+            if (attributeName.equals(descriptors.get(i).getName().getLocalPart())) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No attribute " + attributeName + " in " + type);
+    }
+
     private static SimpleFeature toFeature(Primitive feature, Geometry geom) {
 
         SimpleFeatureType ft = feature instanceof Node ? nodeType() : wayType();
@@ -53,15 +53,15 @@ public class EnvironmentBuilder implements Provider<Environment> {
     @Override
     public synchronized Environment get() {
 
-        final URL repoUrl = new ResolveGeogitDir(platform).call();
-        if (repoUrl == null && absolutePath == null) {
-            throw new IllegalStateException("Can't find geogit repository home");
-        }
         final File storeDirectory;
 
         if (absolutePath != null) {
             storeDirectory = absolutePath;
         } else {
+            final URL repoUrl = new ResolveGeogitDir(platform).call();
+            if (repoUrl == null) {
+                throw new IllegalStateException("Can't find geogit repository home");
+            }
             File currDir;
             try {
                 currDir = new File(repoUrl.toURI());
@@ -8,11 +8,17 @@ import static com.sleepycat.je.OperationStatus.NOTFOUND;
 import static com.sleepycat.je.OperationStatus.SUCCESS;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,14 +31,20 @@ import org.geogit.storage.ObjectSerialisingFactory;
 import org.geotools.util.logging.Logging;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.sleepycat.collections.CurrentTransaction;
+import com.sleepycat.je.CheckpointConfig;
 import com.sleepycat.je.Cursor;
 import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.EnvironmentMutableConfig;
 import com.sleepycat.je.LockMode;
 import com.sleepycat.je.OperationStatus;
 import com.sleepycat.je.Transaction;
@@ -44,6 +56,12 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
 
     private static final Logger LOGGER = Logging.getLogger(JEObjectDatabase.class);
 
+    /**
+     * Name of the file, inside the environment home, the bloom filter is persisted to between
+     * sessions
+     */
+    private static final String BLOOM_FILTER_FILE = "ids.bloom";
+
     private EnvironmentBuilder envProvider;
 
     /**
@@ -56,6 +74,11 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
     @Nullable
     private CurrentTransaction txn;
 
+    /**
+     * Nesting level of bulk load sessions, guarded by {@code this}
+     */
+    private int bulkLoads;
+
     @Inject
     public JEObjectDatabase(final ObjectSerialisingFactory serialFactory,
             final EnvironmentBuilder envProvider) {
@@ -81,6 +104,7 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
     @Override
     public void close() {
         // System.err.println("CLOSE");
+        closeBloomFilter();
         if (objectDb != null) {
             objectDb.close();
             objectDb = null;
@@ -108,13 +132,75 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         Environment environment = getEnvironment();
         // System.err.println("--> " + environment.getHome());
         txn = CurrentTransaction.getInstance(environment);
+        synchronized (this) {
+            if (bulkLoads > 0) {
+                setDaemonsEnabled(environment, false);
+            }
+            this.objectDb = openDatabase(environment, bulkLoads > 0);
+        }
+        openBloomFilter(new File(environment.getHome(), BLOOM_FILTER_FILE));
+    }
 
+    private Database openDatabase(final Environment environment, final boolean deferredWrite) {
         DatabaseConfig dbConfig = new DatabaseConfig();
         dbConfig.setAllowCreate(true);
-        boolean transactional = getEnvironment().getConfig().getTransactional();
-        dbConfig.setTransactional(transactional);
-        Database database = environment.openDatabase(null, "ObjectDatabase", dbConfig);
-        this.objectDb = database;
+        if (deferredWrite) {
+            // deferred-write databases can't be transactional
+            dbConfig.setTransactional(false);
+            dbConfig.setDeferredWrite(true);
+        } else {
+            boolean transactional = environment.getConfig().getTransactional();
+            dbConfig.setTransactional(transactional);
+        }
+        return environment.openDatabase(null, "ObjectDatabase", dbConfig);
+    }
+
+    /**
+     * Reopens the database in deferred-write mode, and stops the checkpointer and cleaner
+     * threads, so that objects are only written to the log as the cache fills up and the log is
+     * not cleaned while it grows.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#beginBulkLoad()
+     */
+    @Override
+    public synchronized void beginBulkLoad() {
+        if (bulkLoads++ > 0 || !isOpen()) {
+            return;
+        }
+        Environment environment = getEnvironment();
+        setDaemonsEnabled(environment, false);
+        objectDb.close();
+        objectDb = openDatabase(environment, true);
+    }
+
+    /**
+     * Flushes the deferred writes, reopens the database in its regular mode and restarts the
+     * checkpointer and cleaner threads after forcing a checkpoint.
+     * 
+     * @see org.geogit.storage.ObjectDatabase#endBulkLoad()
+     */
+    @Override
+    public synchronized void endBulkLoad() {
+        Preconditions.checkState(bulkLoads > 0, "no bulk load in progress");
+        if (--bulkLoads > 0 || !isOpen()) {
+            return;
+        }
+        Environment environment = getEnvironment();
+        objectDb.sync();
+        objectDb.close();
+        objectDb = openDatabase(environment, false);
+
+        CheckpointConfig checkpoint = new CheckpointConfig();
+        checkpoint.setForce(true);
+        environment.checkpoint(checkpoint);
+        setDaemonsEnabled(environment, true);
+    }
+
+    private static void setDaemonsEnabled(final Environment environment, final boolean enabled) {
+        EnvironmentMutableConfig config = environment.getMutableConfig();
+        config.setConfigParam(EnvironmentConfig.ENV_RUN_CHECKPOINTER, String.valueOf(enabled));
+        config.setConfigParam(EnvironmentConfig.ENV_RUN_CLEANER, String.valueOf(enabled));
+        environment.setMutableConfig(config);
     }
 
     @Override
@@ -163,10 +249,46 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
     }
 
     /**
-     * @see org.geogit.storage.ObjectDatabase#exists(org.geogit.api.ObjectId)
+     * Counts the records through {@link Database#count()}, which is cheaper than walking them with
+     * a cursor and doesn't disturb the cache.
      */
     @Override
-    public boolean exists(final ObjectId id) {
+    protected long countObjectsInternal() {
+        return objectDb.count();
+    }
+
+    /**
+     * Walks the keys of the database with a cursor that doesn't retrieve the data. The cursor is
+     * closed once the iterator is exhausted.
+     */
+    @Override
+    protected Iterator<ObjectId> listIdsInternal() {
+        final Cursor cursor = objectDb.openCursor(null, CursorConfig.READ_COMMITTED);
+        return new AbstractIterator<ObjectId>() {
+
+            private final DatabaseEntry key = new DatabaseEntry();
+
+            private final DatabaseEntry data = new DatabaseEntry();
+            {
+                data.setPartial(0, 0, true);// do not retrieve data
+            }
+
+            @Override
+            protected ObjectId computeNext() {
+                if (SUCCESS.equals(cursor.getNext(key, data, LockMode.DEFAULT))) {
+                    return new ObjectId(key.getData());
+                }
+                cursor.close();
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * @see org.geogit.storage.AbstractObjectDatabase#existsInternal(org.geogit.api.ObjectId)
+     */
+    @Override
+    protected boolean existsInternal(final ObjectId id) {
         Preconditions.checkNotNull(id, "id");
 
         DatabaseEntry key = new DatabaseEntry(id.getRawValue());
@@ -197,6 +319,113 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         return new ByteArrayInputStream(cData);
     }
 
+    /**
+     * Checks the batch in key order with a single cursor, so that each look up starts close to
+     * the previous one in the B-tree.
+     */
+    @Override
+    protected Set<ObjectId> existsAllInternal(final List<ObjectId> ids) {
+        Set<ObjectId> found = Sets.newHashSet();
+        DatabaseEntry data = new DatabaseEntry();
+        // tell db not to retrieve data
+        data.setPartial(0, 0, true);
+
+        Cursor cursor = openReadCursor();
+        try {
+            for (ObjectId id : sortedByKey(ids)) {
+                DatabaseEntry key = new DatabaseEntry(id.getRawValue());
+                if (SUCCESS.equals(cursor.getSearchKey(key, data, LockMode.DEFAULT))) {
+                    found.add(id);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return found;
+    }
+
+    /**
+     * Reads the batch in key order with a single cursor, so that each look up starts close to the
+     * previous one in the B-tree.
+     */
+    @Override
+    protected Map<ObjectId, ByteBuffer> getAllRawInternal(final List<ObjectId> ids) {
+        Map<ObjectId, ByteBuffer> found = Maps.newLinkedHashMap();
+        Cursor cursor = openReadCursor();
+        try {
+            for (ObjectId id : sortedByKey(ids)) {
+                DatabaseEntry key = new DatabaseEntry(id.getRawValue());
+                DatabaseEntry data = new DatabaseEntry();
+                if (SUCCESS.equals(cursor.getSearchKey(key, data, LockMode.READ_COMMITTED))) {
+                    found.put(id, ByteBuffer.wrap(data.getData()));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return found;
+    }
+
+    /**
+     * Inserts the batch in key order with a single cursor.
+     */
+    @Override
+    protected int putAllInternal(final Map<ObjectId, byte[]> objects) {
+        Transaction transaction = txn == null ? null : txn.getTransaction();
+        if (transaction != null || !objectDb.getConfig().getTransactional()) {
+            return putAll(objects, transaction);
+        }
+        // write the whole batch in a single transaction instead of one per object
+        transaction = getEnvironment().beginTransaction(null, null);
+        boolean committed = false;
+        try {
+            int inserted = putAll(objects, transaction);
+            transaction.commit();
+            committed = true;
+            return inserted;
+        } finally {
+            if (!committed) {
+                transaction.abort();
+            }
+        }
+    }
+
+    private int putAll(final Map<ObjectId, byte[]> objects, @Nullable Transaction transaction) {
+        int inserted = 0;
+        Cursor cursor = objectDb.openCursor(transaction, null);
+        try {
+            for (ObjectId id : sortedByKey(objects.keySet())) {
+                DatabaseEntry key = new DatabaseEntry(id.getRawValue());
+                DatabaseEntry data = new DatabaseEntry(objects.get(id));
+                if (SUCCESS.equals(cursor.putNoOverwrite(key, data))) {
+                    inserted++;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return inserted;
+    }
+
+    private Cursor openReadCursor() {
+        CursorConfig cursorConfig = new CursorConfig();
+        cursorConfig.setReadCommitted(true);
+        cursorConfig.setReadUncommitted(false);
+
+        Transaction transaction = txn == null ? null : txn.getTransaction();
+        return objectDb.openCursor(transaction, cursorConfig);
+    }
+
+    /**
+     * @return the ids sorted the way JE sorts keys, by unsigned raw value, which is their natural
+     *         order
+     */
+    private static List<ObjectId> sortedByKey(final Collection<ObjectId> ids) {
+        List<ObjectId> sorted = new ArrayList<ObjectId>(ids);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
     @Override
     protected boolean putInternal(final ObjectId id, final byte[] rawData) {
         final byte[] rawKey = id.getRawValue();
@@ -216,6 +445,19 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         return didntExist;
     }
 
+    /**
+     * Overwrites the record in a single put, so the object is replaced atomically.
+     */
+    @Override
+    protected boolean replaceInternal(final ObjectId id, final byte[] rawData) {
+        final boolean didntExist = !existsInternal(id);
+        DatabaseEntry key = new DatabaseEntry(id.getRawValue());
+        DatabaseEntry data = new DatabaseEntry(rawData);
+        Transaction transaction = txn == null ? null : txn.getTransaction();
+        objectDb.put(transaction, key, data);
+        return didntExist;
+    }
+
     @Override
     public boolean delete(final ObjectId id) {
         final byte[] rawKey = id.getRawValue();
@@ -5,11 +5,16 @@
 package org.geogit.storage.bdbje;
 
 import java.io.InputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevFeature;
@@ -17,13 +22,20 @@ import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevTag;
 import org.geogit.api.RevTree;
+import org.geogit.storage.AbstractObjectDatabase;
+import org.geogit.storage.BloomFilterFactory;
+import org.geogit.storage.ObjectCache;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectInserter;
 import org.geogit.storage.ObjectSerialisingFactory;
+import org.geogit.storage.OffHeapObjectCache;
 import org.geogit.storage.StagingDatabase;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
-import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.Environment;
 
 /**
@@ -51,6 +63,11 @@ import com.sleepycat.je.Environment;
  */
 public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
 
+    /**
+     * Number of ids looked up at once in the staging database by {@link #getAll(Iterable)}
+     */
+    private static final int BULK_BATCH_SIZE = 1000;
+
     private final EnvironmentBuilder envProvider;
 
     // /////////////////////////////////////////
@@ -68,6 +85,15 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
 
     private ObjectSerialisingFactory sfac;
 
+    @Nullable
+    private ObjectCache cache;
+
+    @Nullable
+    private OffHeapObjectCache offHeapCache;
+
+    @Nullable
+    private BloomFilterFactory bloomFilterFactory;
+
     /**
      * @param referenceDatabase the repository reference database, used to get the head re
      * @param repoDb
@@ -81,6 +107,33 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         this.envProvider = envBuilder;
     }
 
+    /**
+     * Sets the object cache for the staging area object database, usually the same one the
+     * repository database uses.
+     * 
+     * @see AbstractObjectDatabase#setObjectCache(ObjectCache)
+     */
+    @Inject(optional = true)
+    public void setObjectCache(@Nullable ObjectCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @see AbstractObjectDatabase#setOffHeapCache(OffHeapObjectCache)
+     */
+    @Inject(optional = true)
+    public void setOffHeapCache(@Nullable OffHeapObjectCache offHeapCache) {
+        this.offHeapCache = offHeapCache;
+    }
+
+    /**
+     * @see AbstractObjectDatabase#setBloomFilterFactory(BloomFilterFactory)
+     */
+    @Inject(optional = true)
+    public void setBloomFilterFactory(@Nullable BloomFilterFactory bloomFilterFactory) {
+        this.bloomFilterFactory = bloomFilterFactory;
+    }
+
     @Override
     public boolean isOpen() {
         return stagingDb != null;
@@ -93,15 +146,12 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         }
         envProvider.setRelativePath("index");
         Environment environment = envProvider.get();
-        stagingDb = new JEObjectDatabase(sfac, environment);
-        stagingDb.open();
-        {
-            DatabaseConfig stagedDbConfig = new DatabaseConfig();
-            stagedDbConfig.setAllowCreate(true);
-            stagedDbConfig.setTransactional(environment.getConfig().getTransactional());
-            // stagedDbConfig.setDeferredWrite(true);
-            stagedDbConfig.setSortedDuplicates(false);
-        }
+        JEObjectDatabase database = new JEObjectDatabase(sfac, environment);
+        database.setObjectCache(cache);
+        database.setOffHeapCache(offHeapCache);
+        database.setBloomFilterFactory(bloomFilterFactory);
+        database.open();
+        stagingDb = database;
     }
 
     @Override
@@ -112,6 +162,28 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         }
     }
 
+    /**
+     * Starts a bulk load session on the staging area database only, the repository database
+     * takes part in it through {@link org.geogit.repository.Repository#beginBulkLoad()}.
+     */
+    @Override
+    public void beginBulkLoad() {
+        stagingDb.beginBulkLoad();
+    }
+
+    @Override
+    public void endBulkLoad() {
+        stagingDb.endBulkLoad();
+    }
+
+    /**
+     * Rebuilds the bloom filter of the staging area database only.
+     */
+    @Override
+    public void rebuildBloomFilter() {
+        stagingDb.rebuildBloomFilter();
+    }
+
     // /////////////////////////////////////////////////////////////////////
 
     @Override
@@ -123,6 +195,17 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         return exists;
     }
 
+    @Override
+    public Set<ObjectId> existsAll(Iterable<ObjectId> ids) {
+        Set<ObjectId> found = stagingDb.existsAll(ids);
+        Set<ObjectId> missing = Sets.newHashSet(ids);
+        missing.removeAll(found);
+        if (!missing.isEmpty()) {
+            found.addAll(repositoryDb.existsAll(missing));
+        }
+        return found;
+    }
+
     @Override
     public InputStream getRaw(ObjectId id) {
         if (stagingDb.exists(id)) {
@@ -131,6 +214,14 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         return repositoryDb.getRaw(id);
     }
 
+    @Override
+    public byte[] getRawCompressed(ObjectId id) {
+        if (stagingDb.exists(id)) {
+            return stagingDb.getRawCompressed(id);
+        }
+        return repositoryDb.getRawCompressed(id);
+    }
+
     @Override
     public List<ObjectId> lookUp(String partialId) {
         Set<ObjectId> lookUp = new HashSet<ObjectId>(stagingDb.lookUp(partialId));
@@ -154,6 +245,30 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         return repositoryDb.get(id);
     }
 
+    /**
+     * Reads each batch of objects from the staging database first, and the ones not found from the
+     * repository database.
+     */
+    @Override
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids) {
+        Iterator<List<ObjectId>> batches = Iterators.partition(ids.iterator(), BULK_BATCH_SIZE);
+        return Iterators.concat(Iterators.transform(batches,
+                new Function<List<ObjectId>, Iterator<RevObject>>() {
+                    @Override
+                    public Iterator<RevObject> apply(List<ObjectId> batch) {
+                        List<RevObject> found = Lists.newArrayList(stagingDb.getAll(batch));
+                        Set<ObjectId> missing = Sets.newLinkedHashSet(batch);
+                        for (RevObject object : found) {
+                            missing.remove(object.getId());
+                        }
+                        if (missing.isEmpty()) {
+                            return found.iterator();
+                        }
+                        return Iterators.concat(found.iterator(), repositoryDb.getAll(missing));
+                    }
+                }));
+    }
+
     @Override
     public ObjectInserter newObjectInserter() {
         return stagingDb.newObjectInserter();
@@ -169,11 +284,36 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         return stagingDb.put(object);
     }
 
+    @Override
+    public int putAll(Iterator<? extends RevObject> objects) {
+        return stagingDb.putAll(objects);
+    }
+
     @Override
     public boolean put(ObjectId objectId, InputStream raw) {
         return stagingDb.put(objectId, raw);
     }
 
+    @Override
+    public boolean putRawCompressed(ObjectId objectId, byte[] compressed) {
+        return stagingDb.putRawCompressed(objectId, compressed);
+    }
+
+    @Override
+    public <T extends RevObject> T hashAndPut(T unnamed) {
+        return stagingDb.hashAndPut(unnamed);
+    }
+
+    @Override
+    public <T extends RevObject> boolean rewrite(T object) {
+        return stagingDb.rewrite(object);
+    }
+
+    @Override
+    public int putAllRawCompressed(Map<ObjectId, byte[]> objects) {
+        return stagingDb.putAllRawCompressed(objects);
+    }
+
     @Override
     public RevTree getTree(ObjectId id) {
         return get(id, RevTree.class);
@@ -184,6 +324,14 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         return get(id, RevFeature.class);
     }
 
+    @Override
+    public RevFeature getFeature(ObjectId id, @Nullable Map<String, Serializable> hints) {
+        if (stagingDb.exists(id)) {
+            return stagingDb.getFeature(id, hints);
+        }
+        return repositoryDb.getFeature(id, hints);
+    }
+
     @Override
     public RevFeatureType getFeatureType(ObjectId id) {
         return get(id, RevFeatureType.class);
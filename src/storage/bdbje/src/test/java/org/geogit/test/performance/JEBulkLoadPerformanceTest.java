@@ -0,0 +1,116 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.test.performance;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.text.NumberFormat;
+import java.util.List;
+import java.util.Locale;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ObjectInserter;
+import org.geogit.storage.bdbje.EnvironmentBuilder;
+import org.geogit.storage.bdbje.JEObjectDatabase;
+import org.geogit.storage.hessian.HessianFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * Compares inserting objects in batches into a {@link JEObjectDatabase} with and without a bulk
+ * load session, so the difference measured is only the one of the bulk load mode.
+ */
+public class JEBulkLoadPerformanceTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Ignore
+    @Test
+    public void testBulkLoad() throws Exception {
+        System.err.println("############### Warming up....");
+        compare(10 * 1000);
+        System.err.println("############### Warm up done.");
+
+        compare(10 * 1000);
+        compare(100 * 1000);
+        // compare(1000 * 1000);
+    }
+
+    private void compare(final int numObjects) {
+        NumberFormat numberFormat = NumberFormat.getInstance(Locale.ENGLISH);
+        System.err.println("***********\nInserting " + numberFormat.format(numObjects)
+                + " objects...");
+        List<RevTree> objects = createObjects(numObjects);
+
+        JEObjectDatabase db = createDatabase();
+        Stopwatch sw = new Stopwatch().start();
+        insert(db, objects);
+        sw.stop();
+        System.err.println("Batched: " + sw.toString());
+        verify(db, objects);
+        db.close();
+
+        db = createDatabase();
+        sw.reset().start();
+        db.beginBulkLoad();
+        try {
+            insert(db, objects);
+        } finally {
+            db.endBulkLoad();
+        }
+        sw.stop();
+        System.err.println("Batched, bulk load: " + sw.toString());
+        verify(db, objects);
+        db.close();
+    }
+
+    private static void insert(ObjectDatabase db, List<RevTree> objects) {
+        ObjectInserter inserter = db.newObjectInserter();
+        for (RevTree object : objects) {
+            inserter.insert(object);
+        }
+        inserter.commit();
+    }
+
+    private JEObjectDatabase createDatabase() {
+        File envHome = tempFolder.newFolder("env" + System.nanoTime());
+        EnvironmentBuilder envBuilder = new EnvironmentBuilder();
+        envBuilder.setAbsolutePath(envHome);
+        JEObjectDatabase db = new JEObjectDatabase(new HessianFactory(), envBuilder.get());
+        db.open();
+        return db;
+    }
+
+    private static void verify(ObjectDatabase db, List<RevTree> objects) {
+        for (RevTree object : objects.subList(0, Math.min(1000, objects.size()))) {
+            assertEquals(object, db.getTree(object.getId()));
+        }
+    }
+
+    private static List<RevTree> createObjects(final int numObjects) {
+        ObjectDatabase scratch = new HeapObjectDatabse(new HessianFactory());
+        scratch.open();
+        List<RevTree> objects = Lists.newArrayListWithCapacity(numObjects);
+        for (int i = 0; i < numObjects; i++) {
+            String name = "feature-" + i;
+            Node node = new Node(name, ObjectId.forString(name), ObjectId.NULL, TYPE.FEATURE);
+            objects.add(new RevTreeBuilder(scratch).put(node).build());
+        }
+        return objects;
+    }
+}